@@ -30,16 +30,51 @@ import java.lang.annotation.Target;
  * Only the first call will be issued over the connection and further calls will receive the result of the first call.
  * If the first one is still pending, the further calls will wait for it to finish.
  * <p>
- * The annotated methods do not require to have no parameters, but note that the result is not cached based on the
- * parameters. <br>
+ * The annotated methods do not require to have no parameters, but note that by default the result is not cached based
+ * on the parameters. <br>
  * If a method is called with a parameter value of A and later with the value B, the second call with value B will
  * receive the result of the call with A.
  * <p>
+ * If {@link #maxEntries()} or {@link #expireAfterMillis()} is specified, the results are cached based on the
+ * arguments of the method call. The arguments are compared using {@link java.util.Arrays#deepEquals(Object[], Object[])
+ * deep equality}, except for remote proxy objects, which are compared by identity. If the number of cached results
+ * exceed the maximum, the least recently used one is evicted. The cached results are discarded after the expiration
+ * time elapses. In this mode concurrent calls with the same arguments are not waited for, and may be issued to the
+ * remote endpoint separately.
+ * <p>
+ * The arguments are retained by the cache as the keys of the results, therefore they must be immutable, or must not be
+ * modified after the call. Modifying an argument can cause the cached result to be returned for calls with different
+ * arguments.
+ * <p>
  * The result is only cached if the call succeeds and throws no exceptions. If an annotated method throws an exception,
  * later calls to the method will be issued to the remote endpoint.
+ * <p>
+ * The cached results can be discarded using <code>RMIVariables.invalidateCachedResults</code>.
  */
 @Documented
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
 public @interface RMICacheResult {
+	/**
+	 * Specifies the maximum number of results which are cached based on the method arguments.
+	 * <p>
+	 * If 0, and {@link #expireAfterMillis()} is not specified, the result is not cached based on the arguments.
+	 * <p>
+	 * If 0, and {@link #expireAfterMillis()} is specified, the number of cached results is not limited.
+	 * 
+	 * @return The maximum number of cached results. Must not be negative.
+	 * @since saker.rmi 0.8.3
+	 */
+	public int maxEntries() default 0;
+
+	/**
+	 * Specifies the number of milliseconds after a cached result is discarded.
+	 * <p>
+	 * The time is measured from the completion of the call which produced the result. If 0, the cached results don't
+	 * expire.
+	 * 
+	 * @return The expiration time in milliseconds. Must not be negative.
+	 * @since saker.rmi 0.8.3
+	 */
+	public long expireAfterMillis() default 0;
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.rmi.annot.invoke;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import saker.rmi.exception.RMICallRejectedException;
+
+/**
+ * Limits the number of concurrent RMI calls that are served for the annotated method or type.
+ * <p>
+ * The limit is enforced on the serving side of the connection. If a method is annotated with this class, at most
+ * {@link #value()} calls to the method are executed concurrently by the RMI runtime. If a type is annotated, the limit
+ * is shared among all of the methods declared by the type. An annotation on a method takes precedence over the
+ * annotation on its declaring type, and the calls to the method are limited separately from the other methods of the
+ * type.
+ * <p>
+ * If the limit is reached, further calls will wait until a running call finishes. At most {@link #queueSize()} calls
+ * may wait at the same time, calls that exceed it are rejected with an {@link RMICallRejectedException}.
+ * <p>
+ * The waiting calls are not queued separately. Each waiting call blocks the thread that serves it until it can be
+ * executed, so the threads serving the RMI requests are still occupied by the waiting calls. Specify a small
+ * {@link #queueSize()} if the calls shouldn't wait for a long time, or in large numbers.
+ * <p>
+ * This annotation can be used to prevent expensive methods from occupying all the threads that serve the RMI requests
+ * of a connection.
+ * 
+ * @since saker.rmi 0.8.3
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.METHOD, ElementType.TYPE })
+public @interface RMIConcurrencyLimit {
+	/**
+	 * Specifies the maximum number of concurrently executing calls.
+	 * <p>
+	 * The value must be greater than zero.
+	 * 
+	 * @return The concurrency limit.
+	 */
+	public int value();
+
+	/**
+	 * Specifies the maximum number of calls that may wait for execution if the concurrency limit is reached.
+	 * <p>
+	 * If 0, the calls will be rejected immediately if the limit is reached.
+	 * 
+	 * @return The maximum number of waiting calls.
+	 */
+	public int queueSize() default Integer.MAX_VALUE;
+}
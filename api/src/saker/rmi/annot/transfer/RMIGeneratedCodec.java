@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.rmi.annot.transfer;
+
+import java.io.Externalizable;
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Instances of the annotated class will be transferred using a codec that is generated by the RMI runtime.
+ * <p>
+ * The codec is generated when the annotated class is first transferred, and it accesses the class directly instead of
+ * using reflection or {@link java.io.ObjectOutputStream ObjectOutputStream}. The annotated class must be public, non
+ * abstract, and must have a public no-arg constructor.
+ * <p>
+ * If the annotated class is {@link Externalizable}, then the generated codec is used to instantiate the class when
+ * it is read. The contents are still transferred using the {@link Externalizable#writeExternal(java.io.ObjectOutput)
+ * writeExternal} and {@link Externalizable#readExternal(java.io.ObjectInput) readExternal} methods.
+ * <p>
+ * In other cases the object is transferred by value, field by field. All of the non-static and non-transient fields
+ * of the class and its superclasses must be public, non-final, and must have a public type. The fields of the
+ * superclasses are transferred first, and the fields of a class are transferred in the order of their names. Field
+ * values that are not of primitive types are transferred as if they were written using
+ * {@link java.io.ObjectOutput#writeObject(Object) ObjectOutput.writeObject}.
+ * <p>
+ * The class needs to be annotated on both endpoints of the connection. Transferring objects field by field requires
+ * protocol version 3 of the RMI connection. If the connection uses an earlier version, the objects are transferred the
+ * same way as if they weren't annotated.
+ * <p>
+ * The write handlers specified for the RMI transfer points (e.g. {@link RMIWriter}, {@link RMISerialize}) take
+ * precedence over this annotation. If the transfer point has an interface type, the object is transferred as a remote
+ * object.
+ * 
+ * @since saker.rmi 0.8.3
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface RMIGeneratedCodec {
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.rmi.exception;
+
+import saker.rmi.annot.invoke.RMIConcurrencyLimit;
+
+/**
+ * Thrown if an RMI call was rejected by the serving endpoint as it cannot accept more concurrent calls.
+ * <p>
+ * The rejected method was not invoked by the remote endpoint.
+ * 
+ * @see RMIConcurrencyLimit
+ * @since saker.rmi 0.8.3
+ */
+public class RMICallRejectedException extends RMICallFailedException {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @see RMICallFailedException#RMICallFailedException(Throwable)
+	 */
+	public RMICallRejectedException(Throwable cause) {
+		super(cause);
+	}
+
+	/**
+	 * @see RMICallFailedException#RMICallFailedException(String, Throwable)
+	 */
+	public RMICallRejectedException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+	/**
+	 * @see RMICallFailedException#RMICallFailedException(String)
+	 */
+	public RMICallRejectedException(String message) {
+		super(message);
+	}
+
+}
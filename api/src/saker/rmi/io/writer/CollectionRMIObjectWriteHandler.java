@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.rmi.io.writer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import saker.rmi.annot.transfer.RMIWriter;
+import saker.rmi.exception.RMIObjectTransferFailureException;
+
+/**
+ * Writes the object as a collection with the given element write handler.
+ * <p>
+ * The given collection is transferred by value, and the element writer will be applied for every element in it. The
+ * other endpoint will receive a new collection with the read elements. The type of the created collection is based on
+ * the transferred one:
+ * <ul>
+ * <li>{@link ArrayList} and other {@link List} implementations are read as {@link ArrayList}.</li>
+ * <li>{@link HashSet} is read as {@link HashSet}.</li>
+ * <li>{@link TreeSet} and other {@link SortedSet} implementations are read as {@link TreeSet}. The comparator is
+ * transferred using the default write handler.</li>
+ * <li>{@link LinkedHashSet} and other {@link Set} implementations are read as {@link LinkedHashSet}.</li>
+ * <li>Unmodifiable and immutable lists and sets (e.g. {@link Collections#unmodifiableList(List)},
+ * {@link Collections#emptySet()}) are read as {@linkplain Collections#unmodifiableList(List) unmodifiable}
+ * {@link ArrayList} and {@link LinkedHashSet}.</li>
+ * <li>Any other collections are read as {@link ArrayList}.</li>
+ * </ul>
+ * <p>
+ * Transferring collections by value requires protocol version 3 of the RMI connection. If the connection uses an
+ * earlier version, the object is transferred the same way as {@link DefaultRMIObjectWriteHandler} would.
+ * <p>
+ * If the given object is not a {@link Collection} then {@link RMIObjectTransferFailureException} is thrown.
+ * <p>
+ * In order to use this class with {@link RMIWriter}, subclass it, provide a no-arg default constructor which sets the
+ * appropriate {@link RMIObjectWriteHandler} for the element writer, and use it as a value for the annotation.
+ * 
+ * @see RMIWriter
+ * @see MapRMIObjectWriteHandler
+ * @since saker.rmi 0.8.3
+ */
+public class CollectionRMIObjectWriteHandler implements RMIObjectWriteHandler {
+	/**
+	 * The element write handler.
+	 */
+	protected final RMIObjectWriteHandler elementWriter;
+
+	/**
+	 * Creates a new instance with the specified element writer.
+	 * 
+	 * @param elementWriter
+	 *            The element write handler.
+	 * @throws NullPointerException
+	 *             If the argument is <code>null</code>.
+	 */
+	public CollectionRMIObjectWriteHandler(RMIObjectWriteHandler elementWriter) throws NullPointerException {
+		Objects.requireNonNull(elementWriter, "element writer");
+		this.elementWriter = elementWriter;
+	}
+
+	@Override
+	public final ObjectWriterKind getKind() {
+		return ObjectWriterKind.COLLECTION;
+	}
+
+	/**
+	 * Gets the write handler for the collection elements.
+	 * 
+	 * @return The element write handler.
+	 */
+	public final RMIObjectWriteHandler getElementWriter() {
+		return elementWriter;
+	}
+
+	@Override
+	public final int hashCode() {
+		return getClass().hashCode() * 31 + elementWriter.hashCode();
+	}
+
+	@Override
+	public final boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		CollectionRMIObjectWriteHandler other = (CollectionRMIObjectWriteHandler) obj;
+		return elementWriter.equals(other.elementWriter);
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " [elementWriter=" + elementWriter + "]";
+	}
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.rmi.io.writer;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import saker.rmi.annot.transfer.RMIWriter;
+import saker.rmi.exception.RMIObjectTransferFailureException;
+
+/**
+ * Writes the object as a map with the given key and value write handlers.
+ * <p>
+ * The given map is transferred by value, and the key and value writers will be applied for every entry in it. The
+ * other endpoint will receive a new map with the read entries. The type of the created map is based on the transferred
+ * one:
+ * <ul>
+ * <li>{@link HashMap} is read as {@link HashMap}.</li>
+ * <li>{@link TreeMap} and other {@link SortedMap} implementations are read as {@link TreeMap}. The comparator is
+ * transferred using the default write handler.</li>
+ * <li>Unmodifiable and immutable maps (e.g. {@link Collections#unmodifiableMap(Map)}, {@link Collections#emptyMap()})
+ * are read as {@linkplain Collections#unmodifiableMap(Map) unmodifiable} {@link LinkedHashMap}.</li>
+ * <li>{@link LinkedHashMap} and any other maps are read as {@link LinkedHashMap}.</li>
+ * </ul>
+ * <p>
+ * Transferring maps by value requires protocol version 3 of the RMI connection. If the connection uses an earlier
+ * version, the object is transferred the same way as {@link DefaultRMIObjectWriteHandler} would.
+ * <p>
+ * If the given object is not a {@link Map} then {@link RMIObjectTransferFailureException} is thrown.
+ * <p>
+ * In order to use this class with {@link RMIWriter}, subclass it, provide a no-arg default constructor which sets the
+ * appropriate {@link RMIObjectWriteHandler RMIObjectWriteHandlers} for the key and value writers, and use it as a
+ * value for the annotation.
+ * 
+ * @see RMIWriter
+ * @see CollectionRMIObjectWriteHandler
+ * @since saker.rmi 0.8.3
+ */
+public class MapRMIObjectWriteHandler implements RMIObjectWriteHandler {
+	/**
+	 * The key write handler.
+	 */
+	protected final RMIObjectWriteHandler keyWriter;
+	/**
+	 * The value write handler.
+	 */
+	protected final RMIObjectWriteHandler valueWriter;
+
+	/**
+	 * Creates a new instance with the specified key and value writers.
+	 * 
+	 * @param keyWriter
+	 *            The key write handler.
+	 * @param valueWriter
+	 *            The value write handler.
+	 * @throws NullPointerException
+	 *             If any of the arguments are <code>null</code>.
+	 */
+	public MapRMIObjectWriteHandler(RMIObjectWriteHandler keyWriter, RMIObjectWriteHandler valueWriter)
+			throws NullPointerException {
+		Objects.requireNonNull(keyWriter, "key writer");
+		Objects.requireNonNull(valueWriter, "value writer");
+		this.keyWriter = keyWriter;
+		this.valueWriter = valueWriter;
+	}
+
+	@Override
+	public final ObjectWriterKind getKind() {
+		return ObjectWriterKind.MAP;
+	}
+
+	/**
+	 * Gets the write handler for the map keys.
+	 * 
+	 * @return The key write handler.
+	 */
+	public final RMIObjectWriteHandler getKeyWriter() {
+		return keyWriter;
+	}
+
+	/**
+	 * Gets the write handler for the map values.
+	 * 
+	 * @return The value write handler.
+	 */
+	public final RMIObjectWriteHandler getValueWriter() {
+		return valueWriter;
+	}
+
+	@Override
+	public final int hashCode() {
+		return (getClass().hashCode() * 31 + keyWriter.hashCode()) * 31 + valueWriter.hashCode();
+	}
+
+	@Override
+	public final boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		MapRMIObjectWriteHandler other = (MapRMIObjectWriteHandler) obj;
+		return keyWriter.equals(other.keyWriter) && valueWriter.equals(other.valueWriter);
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " [keyWriter=" + keyWriter + ", valueWriter=" + valueWriter + "]";
+	}
+
+}
@@ -50,5 +50,23 @@ public enum ObjectWriterKind {
 	/**
 	 * Kind for {@link WrapperRMIObjectWriteHandler}.
 	 */
-	WRAPPER;
+	WRAPPER,
+	/**
+	 * Kind for {@link CollectionRMIObjectWriteHandler}.
+	 * 
+	 * @since saker.rmi 0.8.3
+	 */
+	COLLECTION,
+	/**
+	 * Kind for {@link MapRMIObjectWriteHandler}.
+	 * 
+	 * @since saker.rmi 0.8.3
+	 */
+	MAP,
+	/**
+	 * Kind for {@link StreamRMIObjectWriteHandler}.
+	 * 
+	 * @since saker.rmi 0.8.3
+	 */
+	STREAM;
 }
@@ -105,6 +105,16 @@ public interface RMIObjectWriteHandler {
 		return EnumRMIObjectWriteHandler.INSTANCE;
 	}
 
+	/**
+	 * Gets a common instance for {@link StreamRMIObjectWriteHandler}.
+	 * 
+	 * @return The common instance.
+	 * @since saker.rmi 0.8.3
+	 */
+	public static RMIObjectWriteHandler stream() {
+		return StreamRMIObjectWriteHandler.INSTANCE;
+	}
+
 	/**
 	 * Utility method for constructing {@link WrapperRMIObjectWriteHandler}.
 	 * 
@@ -134,4 +144,35 @@ public interface RMIObjectWriteHandler {
 		return new ArrayComponentRMIObjectWriteHandler(componenthandler);
 	}
 
+	/**
+	 * Utility method for constructing {@link CollectionRMIObjectWriteHandler}.
+	 * 
+	 * @param elementhandler
+	 *            The element write handler.
+	 * @return The resulting write handler.
+	 * @throws NullPointerException
+	 *             If the argument is <code>null</code>.
+	 * @since saker.rmi 0.8.3
+	 */
+	public static RMIObjectWriteHandler collection(RMIObjectWriteHandler elementhandler) throws NullPointerException {
+		return new CollectionRMIObjectWriteHandler(elementhandler);
+	}
+
+	/**
+	 * Utility method for constructing {@link MapRMIObjectWriteHandler}.
+	 * 
+	 * @param keyhandler
+	 *            The key write handler.
+	 * @param valuehandler
+	 *            The value write handler.
+	 * @return The resulting write handler.
+	 * @throws NullPointerException
+	 *             If any of the arguments are <code>null</code>.
+	 * @since saker.rmi 0.8.3
+	 */
+	public static RMIObjectWriteHandler map(RMIObjectWriteHandler keyhandler, RMIObjectWriteHandler valuehandler)
+			throws NullPointerException {
+		return new MapRMIObjectWriteHandler(keyhandler, valuehandler);
+	}
+
 }
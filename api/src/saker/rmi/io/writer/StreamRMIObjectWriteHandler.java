@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.rmi.io.writer;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import saker.rmi.annot.transfer.RMIWriter;
+import saker.rmi.exception.RMIObjectTransferFailureException;
+
+/**
+ * Writes the object as a stream whose contents are transferred in chunks.
+ * <p>
+ * Transferring an {@link InputStream} or {@link OutputStream} using the default mechanism results in a remote proxy on
+ * the other endpoint, which causes every read or write call to be a separate round trip over the connection. This
+ * write handler can be used to transfer the streams more efficiently:
+ * <ul>
+ * <li>{@link InputStream}: The contents of the stream that are available without blocking are transferred along with
+ * the object. The other endpoint receives a local input stream that serves the reads from the already transferred
+ * data, and requests the next chunk from the original stream only when the received data has been consumed.</li>
+ * <li>{@link OutputStream}: The other endpoint receives a local output stream that buffers the written bytes, and
+ * transfers them to the original stream in chunks when the buffer is full, or when the stream is flushed or
+ * closed.</li>
+ * </ul>
+ * <p>
+ * As the chunks are only requested or sent when needed, the amount of data in flight is bounded by the chunk size.
+ * The requested chunks contain the data that was available at the time of the request, so they may be smaller than
+ * the chunk size. Closing the received stream closes the original stream.
+ * <p>
+ * Transferring streams in chunks requires protocol version 3 of the RMI connection. If the connection uses an earlier
+ * version, the object is transferred the same way as {@link DefaultRMIObjectWriteHandler} would.
+ * <p>
+ * If the given object is not an {@link InputStream} or {@link OutputStream} then
+ * {@link RMIObjectTransferFailureException} is thrown.
+ * 
+ * @see RMIWriter
+ * @since saker.rmi 0.8.3
+ */
+public final class StreamRMIObjectWriteHandler implements RMIObjectWriteHandler {
+	/**
+	 * Singleton instance of this class.
+	 */
+	public static final RMIObjectWriteHandler INSTANCE = new StreamRMIObjectWriteHandler();
+
+	/**
+	 * Creates a new instance.
+	 * <p>
+	 * Use {@link RMIObjectWriteHandler#stream()} instead.
+	 */
+	public StreamRMIObjectWriteHandler() {
+	}
+
+	@Override
+	public final ObjectWriterKind getKind() {
+		return ObjectWriterKind.STREAM;
+	}
+
+	@Override
+	public int hashCode() {
+		return getClass().hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj != null && this.getClass() == obj.getClass();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[]";
+	}
+}
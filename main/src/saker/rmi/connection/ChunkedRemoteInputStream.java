@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.rmi.connection;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.function.IntFunction;
+
+import saker.rmi.exception.RMIRuntimeException;
+import saker.rmi.io.writer.StreamRMIObjectWriteHandler;
+
+/**
+ * Input stream that is received when an input stream is transferred using {@link StreamRMIObjectWriteHandler}.
+ * <p>
+ * The reads are served from the last received chunk, and the next chunk is only requested from the remote
+ * {@link StreamChunkSource} when the current one is consumed.
+ */
+final class ChunkedRemoteInputStream extends InputStream {
+	private static final byte[] EMPTY_BYTE_ARRAY = {};
+
+	/**
+	 * The remote chunk source, or <code>null</code> if the stream is closed.
+	 */
+	private IntFunction<byte[]> source;
+	private byte[] buffer;
+	private int position;
+	private boolean endOfStream;
+
+	public ChunkedRemoteInputStream(byte[] firstChunk, IntFunction<byte[]> source) {
+		this.buffer = firstChunk;
+		this.source = source;
+		this.endOfStream = source == null;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!ensureAvailable()) {
+			return -1;
+		}
+		return buffer[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException("Invalid range: " + off + " - " + len + " for length: " + b.length);
+		}
+		if (len == 0) {
+			return 0;
+		}
+		if (!ensureAvailable()) {
+			return -1;
+		}
+		int count = Math.min(len, buffer.length - position);
+		System.arraycopy(buffer, position, b, off, count);
+		position += count;
+		return count;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return buffer.length - position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		IntFunction<byte[]> src = source;
+		source = null;
+		endOfStream = true;
+		buffer = EMPTY_BYTE_ARRAY;
+		position = 0;
+		if (src instanceof Closeable) {
+			try {
+				((Closeable) src).close();
+			} catch (RMIRuntimeException e) {
+				throw new IOException("Failed to close remote stream.", e);
+			}
+		}
+	}
+
+	private boolean ensureAvailable() throws IOException {
+		while (position >= buffer.length) {
+			if (endOfStream) {
+				return false;
+			}
+			byte[] chunk;
+			try {
+				chunk = source.apply(RMIStream.STREAM_TRANSFER_CHUNK_SIZE);
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			} catch (RMIRuntimeException e) {
+				throw new IOException("Failed to read the next chunk of remote stream.", e);
+			}
+			if (chunk == null) {
+				endOfStream = true;
+				return false;
+			}
+			buffer = chunk;
+			position = 0;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.rmi.connection;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import saker.rmi.exception.RMIRuntimeException;
+import saker.rmi.io.writer.StreamRMIObjectWriteHandler;
+
+/**
+ * Output stream that is received when an output stream is transferred using {@link StreamRMIObjectWriteHandler}.
+ * <p>
+ * The written bytes are buffered, and sent to the remote {@link StreamChunkSink} when the buffer is full, or the
+ * stream is flushed or closed. The chunks are sent synchronously, so at most one chunk is in flight at a time.
+ */
+final class ChunkedRemoteOutputStream extends OutputStream {
+	private final Consumer<byte[]> sink;
+	private final byte[] buffer = new byte[RMIStream.STREAM_TRANSFER_CHUNK_SIZE];
+	private int count;
+	private boolean closed;
+
+	public ChunkedRemoteOutputStream(Consumer<byte[]> sink) {
+		this.sink = sink;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		if (count == buffer.length) {
+			flushBuffer();
+		}
+		buffer[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException("Invalid range: " + off + " - " + len + " for length: " + b.length);
+		}
+		ensureOpen();
+		if (len > buffer.length - count) {
+			flushBuffer();
+			//send the large writes directly in chunk sized pieces
+			while (len >= buffer.length) {
+				sendChunk(Arrays.copyOfRange(b, off, off + buffer.length));
+				off += buffer.length;
+				len -= buffer.length;
+			}
+		}
+		System.arraycopy(b, off, buffer, count, len);
+		count += len;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		flushBuffer();
+		if (sink instanceof Flushable) {
+			try {
+				((Flushable) sink).flush();
+			} catch (RMIRuntimeException e) {
+				throw new IOException("Failed to flush remote stream.", e);
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			flushBuffer();
+		} finally {
+			if (sink instanceof Closeable) {
+				try {
+					((Closeable) sink).close();
+				} catch (RMIRuntimeException e) {
+					throw new IOException("Failed to close remote stream.", e);
+				}
+			}
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed.");
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		if (count == 0) {
+			return;
+		}
+		byte[] chunk = Arrays.copyOf(buffer, count);
+		count = 0;
+		sendChunk(chunk);
+	}
+
+	private void sendChunk(byte[] chunk) throws IOException {
+		try {
+			sink.accept(chunk);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} catch (RMIRuntimeException e) {
+			throw new IOException("Failed to write chunk to remote stream.", e);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.rmi.connection;
+
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.lang.reflect.Field;
+import java.util.List;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Generates the bytecode of the codec classes for the types annotated with
+ * {@link saker.rmi.annot.transfer.RMIGeneratedCodec RMIGeneratedCodec}.
+ * <p>
+ * The generated classes only reference the codec type and the <code>java.io</code> object stream interfaces, so they
+ * can be defined by a class loader that has the class loader of the codec type as its parent.
+ */
+class CodecGenerator {
+	static final String NEW_INSTANCE_METHOD_NAME = "newInstance";
+	static final String WRITE_METHOD_NAME = "write";
+	static final String READ_METHOD_NAME = "read";
+
+	private static final String JAVA_LANG_OBJECT_INTERNAL_NAME = Type.getInternalName(Object.class);
+	private static final String JAVA_LANG_OBJECT_DESCRIPTOR = Type.getDescriptor(Object.class);
+	private static final String OBJECTOUTPUT_INTERNAL_NAME = Type.getInternalName(ObjectOutput.class);
+	private static final String OBJECTOUTPUT_DESCRIPTOR = Type.getDescriptor(ObjectOutput.class);
+	private static final String OBJECTINPUT_INTERNAL_NAME = Type.getInternalName(ObjectInput.class);
+	private static final String OBJECTINPUT_DESCRIPTOR = Type.getDescriptor(ObjectInput.class);
+
+	private CodecGenerator() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Generates the codec class.
+	 * <p>
+	 * The generated class has the following public static methods:
+	 * 
+	 * <pre>
+	 * Object newInstance();
+	 * void write(Object obj, ObjectOutput out);
+	 * Object read(ObjectInput in);
+	 * </pre>
+	 * 
+	 * The <code>write</code> and <code>read</code> methods are only generated if the fields argument is
+	 * non-<code>null</code>.
+	 * 
+	 * @param name
+	 *            The name of the generated class.
+	 * @param type
+	 *            The type to generate the codec for.
+	 * @param fields
+	 *            The fields to transfer or <code>null</code> if only the instantiator should be generated.
+	 * @return The bytes of the generated class.
+	 */
+	public static byte[] generateCodec(String name, Class<?> type, List<Field> fields) {
+		String typeinternalname = Type.getInternalName(type);
+
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+		cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER, name.replace('.', '/'),
+				null, JAVA_LANG_OBJECT_INTERNAL_NAME, null);
+
+		MethodVisitor newinstancemw = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, NEW_INSTANCE_METHOD_NAME,
+				"()" + JAVA_LANG_OBJECT_DESCRIPTOR, null, null);
+		newinstancemw.visitCode();
+		writeNewInstanceInstructions(newinstancemw, typeinternalname);
+		newinstancemw.visitInsn(Opcodes.ARETURN);
+		newinstancemw.visitMaxs(0, 0);
+		newinstancemw.visitEnd();
+
+		if (fields != null) {
+			MethodVisitor writemw = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, WRITE_METHOD_NAME,
+					"(" + JAVA_LANG_OBJECT_DESCRIPTOR + OBJECTOUTPUT_DESCRIPTOR + ")V", null, null);
+			writemw.visitCode();
+			writemw.visitVarInsn(Opcodes.ALOAD, 0);
+			writemw.visitTypeInsn(Opcodes.CHECKCAST, typeinternalname);
+			writemw.visitVarInsn(Opcodes.ASTORE, 2);
+			for (Field f : fields) {
+				Class<?> ftype = f.getType();
+				writemw.visitVarInsn(Opcodes.ALOAD, 1);
+				writemw.visitVarInsn(Opcodes.ALOAD, 2);
+				//use the codec type as the owner, as the declaring class might not be accessible
+				writemw.visitFieldInsn(Opcodes.GETFIELD, typeinternalname, f.getName(), Type.getDescriptor(ftype));
+				writemw.visitMethodInsn(Opcodes.INVOKEINTERFACE, OBJECTOUTPUT_INTERNAL_NAME,
+						getWriteMethodName(ftype), getWriteMethodDescriptor(ftype), true);
+			}
+			writemw.visitInsn(Opcodes.RETURN);
+			writemw.visitMaxs(0, 0);
+			writemw.visitEnd();
+
+			MethodVisitor readmw = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, READ_METHOD_NAME,
+					"(" + OBJECTINPUT_DESCRIPTOR + ")" + JAVA_LANG_OBJECT_DESCRIPTOR, null, null);
+			readmw.visitCode();
+			writeNewInstanceInstructions(readmw, typeinternalname);
+			readmw.visitVarInsn(Opcodes.ASTORE, 1);
+			for (Field f : fields) {
+				Class<?> ftype = f.getType();
+				readmw.visitVarInsn(Opcodes.ALOAD, 1);
+				readmw.visitVarInsn(Opcodes.ALOAD, 0);
+				readmw.visitMethodInsn(Opcodes.INVOKEINTERFACE, OBJECTINPUT_INTERNAL_NAME, getReadMethodName(ftype),
+						getReadMethodDescriptor(ftype), true);
+				if (!ftype.isPrimitive() && ftype != Object.class) {
+					readmw.visitTypeInsn(Opcodes.CHECKCAST, Type.getInternalName(ftype));
+				}
+				readmw.visitFieldInsn(Opcodes.PUTFIELD, typeinternalname, f.getName(), Type.getDescriptor(ftype));
+			}
+			readmw.visitVarInsn(Opcodes.ALOAD, 1);
+			readmw.visitInsn(Opcodes.ARETURN);
+			readmw.visitMaxs(0, 0);
+			readmw.visitEnd();
+		}
+
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	private static void writeNewInstanceInstructions(MethodVisitor mw, String typeinternalname) {
+		mw.visitTypeInsn(Opcodes.NEW, typeinternalname);
+		mw.visitInsn(Opcodes.DUP);
+		mw.visitMethodInsn(Opcodes.INVOKESPECIAL, typeinternalname, "<init>", "()V", false);
+	}
+
+	private static String getWriteMethodName(Class<?> type) {
+		if (!type.isPrimitive()) {
+			return "writeObject";
+		}
+		return "write" + Character.toUpperCase(type.getName().charAt(0)) + type.getName().substring(1);
+	}
+
+	private static String getWriteMethodDescriptor(Class<?> type) {
+		if (!type.isPrimitive()) {
+			return "(" + JAVA_LANG_OBJECT_DESCRIPTOR + ")V";
+		}
+		if (type == byte.class || type == short.class || type == char.class) {
+			//these are written as int arguments
+			return "(I)V";
+		}
+		return "(" + Type.getDescriptor(type) + ")V";
+	}
+
+	private static String getReadMethodName(Class<?> type) {
+		if (!type.isPrimitive()) {
+			return "readObject";
+		}
+		return "read" + Character.toUpperCase(type.getName().charAt(0)) + type.getName().substring(1);
+	}
+
+	private static String getReadMethodDescriptor(Class<?> type) {
+		if (!type.isPrimitive()) {
+			return "()" + JAVA_LANG_OBJECT_DESCRIPTOR;
+		}
+		return "()" + Type.getDescriptor(type);
+	}
+}
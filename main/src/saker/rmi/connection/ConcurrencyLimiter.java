@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.rmi.connection;
+
+import saker.rmi.exception.RMICallRejectedException;
+
+/**
+ * Limits the number of concurrently executing calls with a bounded number of waiting calls.
+ * <p>
+ * Accessed by synchronizing on <code>this</code>.
+ */
+final class ConcurrencyLimiter {
+	private final int limit;
+	private final int queueSize;
+
+	private int runningCount;
+	private int waitingCount;
+
+	public ConcurrencyLimiter(int limit, int queueSize) {
+		this.limit = limit;
+		this.queueSize = queueSize;
+	}
+
+	/**
+	 * Enters the limited section.
+	 * <p>
+	 * If the call is successful, {@link #exit()} must be called after the limited section is finished.
+	 * 
+	 * @param method
+	 *            The method that is being called.
+	 * @throws RMICallRejectedException
+	 *             If the limit is reached, and no more calls may wait.
+	 * @throws InterruptedException
+	 *             If the current thread was interrupted while waiting.
+	 */
+	public synchronized void enter(MethodTransferProperties method)
+			throws RMICallRejectedException, InterruptedException {
+		if (runningCount < limit) {
+			++runningCount;
+			return;
+		}
+		if (waitingCount >= queueSize) {
+			throw new RMICallRejectedException("Concurrency limit reached for method: " + method.getExecutable()
+					+ " (limit: " + limit + ", queue size: " + queueSize + ")");
+		}
+		++waitingCount;
+		try {
+			while (runningCount >= limit) {
+				this.wait();
+			}
+		} catch (InterruptedException e) {
+			//pass on the notification if we've consumed it
+			this.notify();
+			throw e;
+		} finally {
+			--waitingCount;
+		}
+		++runningCount;
+	}
+
+	public synchronized void exit() {
+		--runningCount;
+		this.notify();
+	}
+
+	public boolean isConfiguredWith(int limit, int queueSize) {
+		return this.limit == limit && this.queueSize == queueSize;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[limit=" + limit + ", queueSize=" + queueSize + "]";
+	}
+}
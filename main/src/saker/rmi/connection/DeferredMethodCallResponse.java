@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.rmi.connection;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import saker.rmi.connection.RMIStream.ReferencesReleasedAction;
+import saker.rmi.exception.RMICallFailedException;
+
+/**
+ * Method call response that contains the raw bytes of the result object, or the elements of an iterator batch.
+ * <p>
+ * The result is decoded when {@link #getReturnValue()} is called on the thread that waited for the response. The
+ * pending garbage collection action is released after the decoding is done, so {@link #getReturnValue()} should be
+ * called exactly once. If the response is abandoned, the garbage collection action is released without decoding.
+ */
+class DeferredMethodCallResponse extends MethodCallResponse {
+	private static final AtomicIntegerFieldUpdater<DeferredMethodCallResponse> AIFU_released = AtomicIntegerFieldUpdater
+			.newUpdater(DeferredMethodCallResponse.class, "released");
+
+	private final RMIStream stream;
+	private final RMIVariables variables;
+	private final byte[] data;
+	/**
+	 * The position of the data in the command that it was read from.
+	 * <p>
+	 * Used to resolve the back-references of the objects, as those are based on the positions in the command.
+	 */
+	private final int dataPosition;
+	private final ReferencesReleasedAction gcAction;
+	/**
+	 * <code>true</code> if the data contains the elements of an iterator batch instead of a single result object.
+	 */
+	private final boolean iteratorBatch;
+
+	@SuppressWarnings("unused")
+	private volatile int released;
+
+	public DeferredMethodCallResponse(boolean invokerThreadInterrupted, int deliveredInterruptRequestCount,
+			RMIStream stream, RMIVariables variables, byte[] data, int dataPosition, ReferencesReleasedAction gcAction,
+			boolean iteratorBatch) {
+		super(invokerThreadInterrupted, deliveredInterruptRequestCount, null);
+		this.stream = stream;
+		this.variables = variables;
+		this.data = data;
+		this.dataPosition = dataPosition;
+		this.gcAction = gcAction;
+		this.iteratorBatch = iteratorBatch;
+	}
+
+	@Override
+	public Object getReturnValue() throws InvocationTargetException, RMICallFailedException {
+		try {
+			if (iteratorBatch) {
+				return stream.readDeferredIteratorBatchResult(variables, data, dataPosition);
+			}
+			return stream.readDeferredMethodResult(variables, data, dataPosition);
+		} finally {
+			releaseGcAction();
+		}
+	}
+
+	@Override
+	public void abandon() {
+		releaseGcAction();
+	}
+
+	private void releaseGcAction() {
+		if (AIFU_released.compareAndSet(this, 0, 1)) {
+			gcAction.decreasePendingRequestCount();
+		}
+	}
+}
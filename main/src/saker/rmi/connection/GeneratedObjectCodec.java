@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.rmi.connection;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import saker.rmi.annot.transfer.RMIGeneratedCodec;
+import saker.rmi.exception.RMIInvalidConfigurationException;
+
+/**
+ * Holds the generated codec for a type annotated with {@link RMIGeneratedCodec}.
+ * <p>
+ * The codecs are generated lazily, and cached JVM-wide for the annotated types.
+ */
+class GeneratedObjectCodec {
+	private static final String GENERATED_CODEC_CLASS_NAME = "saker.rmi.codec.GeneratedCodec";
+
+	private static final MethodType NEW_INSTANCE_METHOD_TYPE = MethodType.methodType(Object.class);
+	private static final MethodType WRITE_METHOD_TYPE = MethodType.methodType(void.class, Object.class,
+			ObjectOutput.class);
+	private static final MethodType READ_METHOD_TYPE = MethodType.methodType(Object.class, ObjectInput.class);
+
+	private static final ClassValue<GeneratedObjectCodec> CODECS = new ClassValue<GeneratedObjectCodec>() {
+		@Override
+		protected GeneratedObjectCodec computeValue(Class<?> type) {
+			return new GeneratedObjectCodec(type);
+		}
+	};
+
+	private final MethodHandle newInstanceHandle;
+	private final MethodHandle writeHandle;
+	private final MethodHandle readHandle;
+
+	private GeneratedObjectCodec(Class<?> type) {
+		checkCodecType(type);
+		List<Field> fields;
+		if (Externalizable.class.isAssignableFrom(type)) {
+			//only the instantiation is generated, the contents are transferred via the Externalizable methods
+			fields = null;
+		} else {
+			fields = collectCodecFields(type);
+		}
+		byte[] bytes = CodecGenerator.generateCodec(GENERATED_CODEC_CLASS_NAME, type, fields);
+		Class<?> codecclass = new RMIProxyClassLoader(type.getClassLoader()).defineClass(GENERATED_CODEC_CLASS_NAME,
+				bytes);
+		MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+		try {
+			this.newInstanceHandle = lookup.findStatic(codecclass, CodecGenerator.NEW_INSTANCE_METHOD_NAME,
+					NEW_INSTANCE_METHOD_TYPE);
+			if (fields != null) {
+				this.writeHandle = lookup.findStatic(codecclass, CodecGenerator.WRITE_METHOD_NAME, WRITE_METHOD_TYPE);
+				this.readHandle = lookup.findStatic(codecclass, CodecGenerator.READ_METHOD_NAME, READ_METHOD_TYPE);
+			} else {
+				this.writeHandle = null;
+				this.readHandle = null;
+			}
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * Gets the codec for the given type.
+	 * 
+	 * @param type
+	 *            The type.
+	 * @return The codec.
+	 * @throws RMIInvalidConfigurationException
+	 *             If the type doesn't satisfy the requirements of {@link RMIGeneratedCodec}.
+	 */
+	public static GeneratedObjectCodec get(Class<?> type) throws RMIInvalidConfigurationException {
+		return CODECS.get(type);
+	}
+
+	/**
+	 * Checks if the given type is annotated with {@link RMIGeneratedCodec}.
+	 * 
+	 * @param type
+	 *            The type.
+	 * @return <code>true</code> if a codec should be used for the type.
+	 */
+	public static boolean isCodecType(Class<?> type) {
+		return type.isAnnotationPresent(RMIGeneratedCodec.class);
+	}
+
+	/**
+	 * Checks if this codec transfers the object contents field by field.
+	 * <p>
+	 * If this method returns <code>false</code>, the type is {@link Externalizable}, and only the instantiation is
+	 * handled by the codec.
+	 * 
+	 * @return <code>true</code> if the fields are transferred by the codec.
+	 */
+	public boolean isFieldCodec() {
+		return writeHandle != null;
+	}
+
+	public Object newInstance() throws InvocationTargetException {
+		try {
+			return (Object) newInstanceHandle.invokeExact();
+		} catch (Throwable e) {
+			throw new InvocationTargetException(e);
+		}
+	}
+
+	public void write(Object obj, ObjectOutput out) throws IOException {
+		try {
+			writeHandle.invokeExact(obj, out);
+		} catch (IOException | RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IOException(e);
+		}
+	}
+
+	public Object read(ObjectInput in) throws IOException, ClassNotFoundException {
+		try {
+			return (Object) readHandle.invokeExact(in);
+		} catch (IOException | ClassNotFoundException | RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static void checkCodecType(Class<?> type) {
+		int mods = type.getModifiers();
+		if (!isPublicType(type) || Modifier.isAbstract(mods) || type.isInterface() || type.isArray()
+				|| type.isPrimitive()) {
+			throw new RMIInvalidConfigurationException(
+					"Generated codec type must be a public non-abstract class: " + type.getName());
+		}
+		try {
+			if (!Modifier.isPublic(type.getConstructor().getModifiers())) {
+				throw new RMIInvalidConfigurationException(
+						"Generated codec type must have a public no-arg constructor: " + type.getName());
+			}
+		} catch (NoSuchMethodException e) {
+			throw new RMIInvalidConfigurationException(
+					"Generated codec type must have a public no-arg constructor: " + type.getName(), e);
+		}
+	}
+
+	private static List<Field> collectCodecFields(Class<?> type) {
+		List<Class<?>> hierarchy = new ArrayList<>();
+		for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+			hierarchy.add(c);
+		}
+		List<Field> result = new ArrayList<>();
+		Set<String> names = new HashSet<>();
+		for (int i = hierarchy.size() - 1; i >= 0; i--) {
+			Class<?> c = hierarchy.get(i);
+			List<Field> declared = new ArrayList<>();
+			for (Field f : c.getDeclaredFields()) {
+				int mods = f.getModifiers();
+				if (Modifier.isStatic(mods) || Modifier.isTransient(mods) || f.isSynthetic()) {
+					continue;
+				}
+				if (!Modifier.isPublic(mods) || Modifier.isFinal(mods)) {
+					throw new RMIInvalidConfigurationException(
+							"Generated codec field must be public and non-final: " + f + " in " + type.getName());
+				}
+				if (!isPublicType(f.getType())) {
+					throw new RMIInvalidConfigurationException(
+							"Generated codec field type must be public: " + f + " in " + type.getName());
+				}
+				if (!names.add(f.getName())) {
+					throw new RMIInvalidConfigurationException(
+							"Generated codec field is hidden by a subclass field: " + f + " in " + type.getName());
+				}
+				declared.add(f);
+			}
+			declared.sort(Comparator.comparing(Field::getName));
+			result.addAll(declared);
+		}
+		return result;
+	}
+
+	private static boolean isPublicType(Class<?> type) {
+		while (type.isArray()) {
+			type = type.getComponentType();
+		}
+		if (type.isPrimitive()) {
+			return true;
+		}
+		for (Class<?> c = type; c != null; c = c.getEnclosingClass()) {
+			if (!Modifier.isPublic(c.getModifiers())) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
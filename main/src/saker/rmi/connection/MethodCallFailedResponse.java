@@ -18,6 +18,7 @@ package saker.rmi.connection;
 import java.lang.reflect.InvocationTargetException;
 
 import saker.rmi.exception.RMICallFailedException;
+import saker.rmi.exception.RMICallRejectedException;
 
 class MethodCallFailedResponse extends MethodCallResponse {
 	private final Throwable exception;
@@ -34,6 +35,10 @@ class MethodCallFailedResponse extends MethodCallResponse {
 			exception.fillInStackTrace();
 			throw (InvocationTargetException) exception;
 		}
+		if (exception instanceof RMICallRejectedException) {
+			//the call was rejected by the remote endpoint, throw the specific exception to the caller
+			throw new RMICallRejectedException(exception.getMessage(), exception);
+		}
 		throw new RMICallFailedException(exception);
 	}
 
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.rmi.connection;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.WrongMethodTypeException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import saker.util.ReflectUtils;
+
+/**
+ * Invokes a method with its arguments in an array, the same way as {@link Method#invoke(Object, Object...)}.
+ * <p>
+ * If the method is publicly accessible, a {@link MethodHandle} is created for it, that casts the receiver and the
+ * arguments, and calls the method directly. This avoids the access checks and the reflective call overhead for every
+ * invocation. The exceptions thrown by the method are wrapped into {@link InvocationTargetException} by the handle
+ * itself, so the argument conversion failures can be reported as {@link IllegalArgumentException}.
+ * <p>
+ * If the handle cannot be created, the method is invoked using reflection.
+ */
+final class MethodInvoker {
+	private static final MethodHandle THROW_INVOCATION_TARGET_EXCEPTION;
+	static {
+		try {
+			THROW_INVOCATION_TARGET_EXCEPTION = MethodHandles.lookup().findStatic(MethodInvoker.class,
+					"throwInvocationTargetException", MethodType.methodType(Object.class, Throwable.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private final Method method;
+	private final boolean staticMethod;
+	/**
+	 * The handle with the type <code>(Object, Object[])Object</code>, or <code>null</code> if reflection is used.
+	 */
+	private final MethodHandle handle;
+
+	public MethodInvoker(Method method) {
+		this.method = method;
+		this.staticMethod = Modifier.isStatic(method.getModifiers());
+		this.handle = createHandle(method, staticMethod);
+	}
+
+	public Method getMethod() {
+		return method;
+	}
+
+	public Object invoke(Object object, Object[] arguments)
+			throws InvocationTargetException, IllegalArgumentException, IllegalAccessException {
+		MethodHandle handle = this.handle;
+		if (handle == null) {
+			return ReflectUtils.invokeMethod(object, method, arguments);
+		}
+		if (object == null && !staticMethod) {
+			//same as reflection
+			throw new NullPointerException("Instance method called with null object: " + method);
+		}
+		try {
+			return (Object) handle.invokeExact(object, arguments);
+		} catch (InvocationTargetException | IllegalArgumentException e) {
+			throw e;
+		} catch (ClassCastException | NullPointerException | WrongMethodTypeException e) {
+			//the receiver or the arguments couldn't be converted to the parameter types
+			throw new IllegalArgumentException("Argument type mismatch.", e);
+		} catch (Throwable e) {
+			//not expected, as the exceptions of the method are wrapped by the handle
+			throw new InvocationTargetException(e);
+		}
+	}
+
+	private static MethodHandle createHandle(Method method, boolean staticmethod) {
+		MethodHandle target;
+		try {
+			target = MethodHandles.publicLookup().unreflect(method).asFixedArity();
+		} catch (IllegalAccessException | SecurityException e) {
+			//not accessible, use reflection
+			return null;
+		}
+		MethodType type = target.type();
+		MethodHandle handler = THROW_INVOCATION_TARGET_EXCEPTION
+				.asType(MethodType.methodType(type.returnType(), Throwable.class));
+		handler = MethodHandles.dropArguments(handler, 1, type.parameterList());
+		target = MethodHandles.catchException(target, Throwable.class, handler);
+		if (staticmethod) {
+			target = MethodHandles.dropArguments(target, 0, Object.class);
+		}
+		int paramcount = method.getParameterCount();
+		return target.asType(MethodType.genericMethodType(paramcount + 1)).asSpreader(Object[].class, paramcount);
+	}
+
+	private static Object throwInvocationTargetException(Throwable e) throws InvocationTargetException {
+		throw new InvocationTargetException(e);
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + method + (handle == null ? ", reflective" : "") + "]";
+	}
+}
@@ -21,6 +21,7 @@ import java.lang.reflect.Modifier;
 import java.util.Objects;
 
 import saker.rmi.annot.invoke.RMICacheResult;
+import saker.rmi.annot.invoke.RMIConcurrencyLimit;
 import saker.rmi.annot.invoke.RMIDefaultOnFailure;
 import saker.rmi.annot.invoke.RMIExceptionRethrow;
 import saker.rmi.annot.invoke.RMIForbidden;
@@ -48,10 +49,20 @@ public final class MethodTransferProperties extends ExecutableTransferProperties
 	protected boolean defaultOnFailure = false;
 	protected boolean forbidden = false;
 	protected boolean cacheResult = false;
+	protected int cacheResultMaxEntries = 0;
+	protected long cacheResultExpireAfterMillis = 0;
 	//TODO implement the redirect method with a MethodHandle?
 	protected Method redirectMethod;
 	protected Constructor<? extends Throwable> rmiExceptionRethrowConstructor;
 	protected RMIObjectWriteHandler returnValueWriter;
+	protected int concurrencyLimit = 0;
+	protected int concurrencyLimitQueueSize = 0;
+	protected boolean concurrencyLimitPerClass = false;
+
+	/**
+	 * Lazily created.
+	 */
+	private volatile MethodInvoker invoker;
 
 	private MethodTransferProperties() {
 	}
@@ -78,10 +89,20 @@ public final class MethodTransferProperties extends ExecutableTransferProperties
 		if (!isValidDefaultOnFailure(method, defaultOnFailure)) {
 			throw new RMIInvalidConfigurationException("Cannot call default method on failure with method: " + method);
 		}
-		cacheResult = method.isAnnotationPresent(RMICacheResult.class);
+		RMICacheResult cacheresultannot = method.getAnnotation(RMICacheResult.class);
+		cacheResult = cacheresultannot != null;
 		if (!isValidCacheResult(method, cacheResult)) {
 			throw new RMIInvalidConfigurationException("Cannot cache result of method: " + method);
 		}
+		if (cacheresultannot != null) {
+			if (!isValidCacheResultBounds(cacheresultannot.maxEntries(), cacheresultannot.expireAfterMillis())) {
+				throw new RMIInvalidConfigurationException("Invalid cache result max entries: "
+						+ cacheresultannot.maxEntries() + " with expiration: " + cacheresultannot.expireAfterMillis()
+						+ " for method: " + method);
+			}
+			cacheResultMaxEntries = cacheresultannot.maxEntries();
+			cacheResultExpireAfterMillis = cacheresultannot.expireAfterMillis();
+		}
 		forbidden = method.isAnnotationPresent(RMIForbidden.class);
 		if (!isValidForbiddenMethod(method, forbidden)) {
 			throw new RMIInvalidConfigurationException("Cannot forbid RMI for method: " + method);
@@ -90,6 +111,20 @@ public final class MethodTransferProperties extends ExecutableTransferProperties
 			throw new RMIInvalidConfigurationException("Cannot cache forbidden method: " + method);
 		}
 
+		RMIConcurrencyLimit concurrencylimit = method.getAnnotation(RMIConcurrencyLimit.class);
+		if (concurrencylimit == null) {
+			concurrencylimit = method.getDeclaringClass().getAnnotation(RMIConcurrencyLimit.class);
+			concurrencyLimitPerClass = concurrencylimit != null;
+		}
+		if (concurrencylimit != null) {
+			if (!isValidConcurrencyLimit(concurrencylimit.value(), concurrencylimit.queueSize())) {
+				throw new RMIInvalidConfigurationException("Invalid concurrency limit: " + concurrencylimit.value()
+						+ " with queue size: " + concurrencylimit.queueSize() + " for method: " + method);
+			}
+			concurrencyLimit = concurrencylimit.value();
+			concurrencyLimitQueueSize = concurrencylimit.queueSize();
+		}
+
 		RMIExceptionRethrow excrethrow = method.getAnnotation(RMIExceptionRethrow.class);
 		if (excrethrow != null) {
 			if (defaultOnFailure) {
@@ -200,6 +235,39 @@ public final class MethodTransferProperties extends ExecutableTransferProperties
 		return cacheResult;
 	}
 
+	/**
+	 * Gets the maximum number of results that are cached based on the call arguments.
+	 * 
+	 * @return The maximum number of cached results, or 0 if not limited.
+	 * @see RMICacheResult#maxEntries()
+	 * @since saker.rmi 0.8.3
+	 */
+	public int getCacheResultMaxEntries() {
+		return cacheResultMaxEntries;
+	}
+
+	/**
+	 * Gets the number of milliseconds after the cached results are discarded.
+	 * 
+	 * @return The expiration time in milliseconds, or 0 if the cached results don't expire.
+	 * @see RMICacheResult#expireAfterMillis()
+	 * @since saker.rmi 0.8.3
+	 */
+	public long getCacheResultExpireAfterMillis() {
+		return cacheResultExpireAfterMillis;
+	}
+
+	/**
+	 * Returns if the method results should be cached based on the call arguments.
+	 * 
+	 * @return <code>true</code> if the results are cached, and the cache is keyed by the arguments.
+	 * @see RMICacheResult
+	 * @since saker.rmi 0.8.3
+	 */
+	public boolean isCacheResultArgumentKeyed() {
+		return cacheResult && (cacheResultMaxEntries > 0 || cacheResultExpireAfterMillis > 0);
+	}
+
 	/**
 	 * Returns non-<code>null</code> if the RMI method calls should be redirected to a specified method.
 	 * 
@@ -220,6 +288,49 @@ public final class MethodTransferProperties extends ExecutableTransferProperties
 		return rmiExceptionRethrowConstructor;
 	}
 
+	/**
+	 * Gets the maximum number of concurrent calls that are served for the method.
+	 * 
+	 * @return The concurrency limit or 0 if the calls are not limited.
+	 * @see RMIConcurrencyLimit#value()
+	 * @since saker.rmi 0.8.3
+	 */
+	public int getConcurrencyLimit() {
+		return concurrencyLimit;
+	}
+
+	/**
+	 * Gets the maximum number of calls that may wait for execution if the concurrency limit is reached.
+	 * 
+	 * @return The queue size.
+	 * @see RMIConcurrencyLimit#queueSize()
+	 * @since saker.rmi 0.8.3
+	 */
+	public int getConcurrencyLimitQueueSize() {
+		return concurrencyLimitQueueSize;
+	}
+
+	/**
+	 * Returns if the concurrency limit is shared among the methods of the declaring class.
+	 * 
+	 * @return <code>true</code> if the limit is specified for the declaring class.
+	 * @see RMIConcurrencyLimit
+	 * @since saker.rmi 0.8.3
+	 */
+	public boolean isConcurrencyLimitPerClass() {
+		return concurrencyLimitPerClass;
+	}
+
+	MethodInvoker getInvoker() {
+		MethodInvoker result = invoker;
+		if (result == null) {
+			//may be created concurrently, doesn't matter
+			result = new MethodInvoker(getExecutable());
+			invoker = result;
+		}
+		return result;
+	}
+
 	@Override
 	public boolean propertiesEquals(ExecutableTransferProperties<?> other) {
 		if (!(other instanceof MethodTransferProperties)) {
@@ -231,10 +342,20 @@ public final class MethodTransferProperties extends ExecutableTransferProperties
 		MethodTransferProperties methodother = (MethodTransferProperties) other;
 		if (cacheResult != methodother.cacheResult)
 			return false;
+		if (cacheResultMaxEntries != methodother.cacheResultMaxEntries)
+			return false;
+		if (cacheResultExpireAfterMillis != methodother.cacheResultExpireAfterMillis)
+			return false;
 		if (defaultOnFailure != methodother.defaultOnFailure)
 			return false;
 		if (forbidden != methodother.forbidden)
 			return false;
+		if (concurrencyLimit != methodother.concurrencyLimit)
+			return false;
+		if (concurrencyLimitQueueSize != methodother.concurrencyLimitQueueSize)
+			return false;
+		if (concurrencyLimitPerClass != methodother.concurrencyLimitPerClass)
+			return false;
 		if (returnValueWriter == null) {
 			if (methodother.returnValueWriter != null)
 				return false;
@@ -274,8 +395,13 @@ public final class MethodTransferProperties extends ExecutableTransferProperties
 		protected boolean defaultOnFailure;
 		protected boolean forbidden;
 		protected boolean cacheResult;
+		protected int cacheResultMaxEntries;
+		protected long cacheResultExpireAfterMillis;
 		protected Method redirectMethod;
 		protected Constructor<? extends Throwable> rmiExceptionRethrowConstructor;
+		protected int concurrencyLimit;
+		protected int concurrencyLimitQueueSize;
+		protected boolean concurrencyLimitPerClass;
 
 		/**
 		 * Creates a properties builder for the given method.
@@ -449,6 +575,35 @@ public final class MethodTransferProperties extends ExecutableTransferProperties
 			return this;
 		}
 
+		/**
+		 * Sets the bounds of the argument based result caching.
+		 * <p>
+		 * If any of the arguments are positive, the results of the method calls are cached based on the call arguments.
+		 * The result caching needs to be enabled using {@link #cacheResult(boolean)} for this configuration to take
+		 * effect.
+		 * 
+		 * @param maxentries
+		 *            The maximum number of cached results, or 0 to not limit the number of cached results.
+		 * @param expireaftermillis
+		 *            The number of milliseconds after the cached results are discarded, or 0 to not expire them.
+		 * @return <code>this</code>
+		 * @throws RMIInvalidConfigurationException
+		 *             In case of invalid configuration.
+		 * @see RMICacheResult#maxEntries()
+		 * @see RMICacheResult#expireAfterMillis()
+		 * @since saker.rmi 0.8.3
+		 */
+		public Builder cacheResultBounds(int maxentries, long expireaftermillis)
+				throws RMIInvalidConfigurationException {
+			if (!isValidCacheResultBounds(maxentries, expireaftermillis)) {
+				throw new RMIInvalidConfigurationException("Invalid cache result max entries: " + maxentries
+						+ " with expiration: " + expireaftermillis + " for method: " + executable);
+			}
+			this.cacheResultMaxEntries = maxentries;
+			this.cacheResultExpireAfterMillis = expireaftermillis;
+			return this;
+		}
+
 		/**
 		 * Sets the class which to use to rethrow RMI errors.
 		 * 
@@ -513,6 +668,43 @@ public final class MethodTransferProperties extends ExecutableTransferProperties
 			return this;
 		}
 
+		/**
+		 * Sets the concurrency limit of the RMI calls for the method.
+		 * <p>
+		 * The limit is shared among the methods of the declaring class if it is set per class. The methods that share
+		 * the limit must be configured with the same limit and queue size. If they aren't, the calls to the methods
+		 * that conflict with the configuration of the first served method will fail.
+		 * 
+		 * @param limit
+		 *            The maximum number of concurrently executing calls, or 0 to disable the limit.
+		 * @param queuesize
+		 *            The maximum number of calls that may wait for execution if the limit is reached.
+		 * @param perclass
+		 *            <code>true</code> if the limit is shared among the methods of the declaring class.
+		 * @return <code>this</code>
+		 * @throws RMIInvalidConfigurationException
+		 *             In case of invalid configuration.
+		 * @see RMIConcurrencyLimit
+		 * @since saker.rmi 0.8.3
+		 */
+		public Builder concurrencyLimit(int limit, int queuesize, boolean perclass)
+				throws RMIInvalidConfigurationException {
+			if (limit != 0 && !isValidConcurrencyLimit(limit, queuesize)) {
+				throw new RMIInvalidConfigurationException("Invalid concurrency limit: " + limit + " with queue size: "
+						+ queuesize + " for method: " + executable);
+			}
+			if (limit == 0) {
+				this.concurrencyLimit = 0;
+				this.concurrencyLimitQueueSize = 0;
+				this.concurrencyLimitPerClass = false;
+			} else {
+				this.concurrencyLimit = limit;
+				this.concurrencyLimitQueueSize = queuesize;
+				this.concurrencyLimitPerClass = perclass;
+			}
+			return this;
+		}
+
 		/**
 		 * Creates the transfer properties specified by this builder.
 		 * 
@@ -534,7 +726,14 @@ public final class MethodTransferProperties extends ExecutableTransferProperties
 			result.forbidden = this.forbidden;
 			result.redirectMethod = this.redirectMethod;
 			result.cacheResult = this.cacheResult;
+			if (this.cacheResult) {
+				result.cacheResultMaxEntries = this.cacheResultMaxEntries;
+				result.cacheResultExpireAfterMillis = this.cacheResultExpireAfterMillis;
+			}
 			result.rmiExceptionRethrowConstructor = this.rmiExceptionRethrowConstructor;
+			result.concurrencyLimit = this.concurrencyLimit;
+			result.concurrencyLimitQueueSize = this.concurrencyLimitQueueSize;
+			result.concurrencyLimitPerClass = this.concurrencyLimitPerClass;
 			return result;
 		}
 	}
@@ -563,6 +762,10 @@ public final class MethodTransferProperties extends ExecutableTransferProperties
 		return true;
 	}
 
+	private static boolean isValidCacheResultBounds(int maxentries, long expireaftermillis) {
+		return maxentries >= 0 && expireaftermillis >= 0;
+	}
+
 	private static <T extends Throwable> Constructor<T> getExceptionRethrowConstructor(Method method,
 			Class<T> excrethrow) {
 		if (Modifier.isStatic(method.getModifiers())) {
@@ -651,6 +854,10 @@ public final class MethodTransferProperties extends ExecutableTransferProperties
 		return true;
 	}
 
+	private static boolean isValidConcurrencyLimit(int limit, int queuesize) {
+		return limit > 0 && queuesize >= 0;
+	}
+
 	private static boolean isValidForbiddenMethod(Method method, boolean forbidden) {
 		return !forbidden || !Modifier.isStatic(method.getModifiers());
 	}
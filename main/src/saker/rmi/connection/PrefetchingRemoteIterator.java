@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.rmi.connection;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import saker.util.ObjectUtils;
+
+/**
+ * Local iterator that retrieves the elements of a remote iterator in batches.
+ * <p>
+ * The reference to the remote iterator proxy is cleared after all elements have been retrieved, so the remote
+ * iterator can be released. If the iteration is terminated early, the remote iterator is released when this instance
+ * is garbage collected.
+ * <p>
+ * {@link #remove()} is not supported, as the remote iterator may be already advanced past the last returned element.
+ * 
+ * @see RMIOptions#remoteIteratorBatchSize(int)
+ */
+final class PrefetchingRemoteIterator implements Iterator<Object> {
+	private static final Object[] EMPTY_OBJECT_ARRAY = {};
+
+	/**
+	 * The remote iterator, or <code>null</code> if all elements have been retrieved.
+	 */
+	private RemoteProxyObject iterator;
+	private final int batchSize;
+
+	private Object[] batch = EMPTY_OBJECT_ARRAY;
+	/**
+	 * The number of elements in the current batch.
+	 */
+	private int count;
+	private int index;
+
+	public PrefetchingRemoteIterator(RemoteProxyObject iterator, int batchSize) {
+		this.iterator = iterator;
+		this.batchSize = batchSize;
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (index >= count) {
+			if (iterator == null) {
+				return false;
+			}
+			fetchBatch();
+		}
+		return true;
+	}
+
+	@Override
+	public Object next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Object result = batch[index];
+		//clear the reference so the element can be garbage collected
+		batch[index++] = null;
+		return result;
+	}
+
+	private void fetchBatch() {
+		RemoteProxyObject proxy = iterator;
+		Object[] result;
+		try {
+			result = RemoteProxyObject.getCheckVariables(proxy).fetchRemoteIteratorBatch(proxy.remoteId, batchSize);
+		} catch (InvocationTargetException e) {
+			throw ObjectUtils.sneakyThrow(e.getTargetException());
+		} finally {
+			RemoteProxyObject.reachabilityFence(proxy);
+		}
+		//the last element signals if there are more elements
+		int elementcount = result.length - 1;
+		if (!Boolean.TRUE.equals(result[elementcount])) {
+			this.iterator = null;
+		}
+		this.batch = result;
+		this.count = elementcount;
+		this.index = 0;
+	}
+}
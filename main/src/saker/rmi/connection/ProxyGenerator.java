@@ -15,6 +15,7 @@
  */
 package saker.rmi.connection;
 
+import java.lang.reflect.Executable;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
@@ -25,8 +26,9 @@ import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.TreeMap;
 import java.util.function.Consumer;
 
 import org.objectweb.asm.ClassWriter;
@@ -106,7 +108,8 @@ class ProxyGenerator {
 
 		Collection<Consumer<MethodVisitor>> initcachefieldswriters = new ArrayList<>();
 
-		Set<String> cachehelperfieldnames = new TreeSet<>();
+		//cache field names mapped to the corresponding method field names
+		Map<String, String> cachehelperfieldnames = new TreeMap<>();
 
 		i = 0;
 		for (Collection<MethodRef> methodrefs : methods.values()) {
@@ -116,6 +119,7 @@ class ProxyGenerator {
 			boolean defaultonfailure = mr.properties.isDefaultOnFailure();
 			boolean forbidden = mr.properties.isForbidden();
 			boolean cacheresult = mr.properties.isCacheResult();
+			boolean argumentkeyedcache = mr.properties.isCacheResultArgumentKeyed();
 			if (forbidden && defaultonfailure) {
 				//call default super
 				MethodVisitor mrefv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL, key.name, key.descriptor,
@@ -167,9 +171,9 @@ class ProxyGenerator {
 			String methodfieldname = createMethodHolderVariableName(i);
 			String cachefieldname;
 			String cachehelperfielddescriptor = JAVA_LANG_OBJECT_DESCRIPTOR;
-			if (cacheresult) {
+			if (cacheresult && !argumentkeyedcache) {
 				cachefieldname = createCacheFieldHolderVariableName(i);
-				cachehelperfieldnames.add(cachefieldname);
+				cachehelperfieldnames.put(cachefieldname, methodfieldname);
 
 				FieldVisitor cachefieldfw = cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_VOLATILE, cachefieldname,
 						cachehelperfielddescriptor, null, null);
@@ -247,7 +251,10 @@ class ProxyGenerator {
 				mw.visitInsn(Opcodes.ATHROW);
 			} else {
 				//the method call is not forbidden
-				if (cacheresult) {
+				if (argumentkeyedcache) {
+					writeCallInvokerMethodReturnInstructions(mw, thisclassinternalname, methodfieldname, mr, key,
+							"callCachedMethodInternal", collectstatistics, markerclassinternalname);
+				} else if (cacheresult) {
 					mw.visitVarInsn(Opcodes.ALOAD, 0);
 					mw.visitFieldInsn(Opcodes.GETFIELD, thisclassinternalname, cachefieldname,
 							cachehelperfielddescriptor);
@@ -337,7 +344,12 @@ class ProxyGenerator {
 			initcachemethodv.visitEnd();
 		}
 
-		writeProxyConstructorMethod(thisclassinternalname, superclassinternalname, cw, cachehelperfieldnames);
+		if (!cachehelperfieldnames.isEmpty()) {
+			writeInvalidateCacheFieldsMethod(thisclassinternalname, cw, cachehelperfieldnames);
+		}
+
+		writeProxyConstructorMethod(thisclassinternalname, superclassinternalname, cw,
+				cachehelperfieldnames.keySet());
 
 		cw.visitEnd();
 		return cw.toByteArray();
@@ -349,6 +361,8 @@ class ProxyGenerator {
 	private static final String RMICALLFAILEDEXCEPTION_INTERNAL_NAME = Type
 			.getInternalName(RMICallFailedException.class);
 	private static final String METHODTRANSFERROPERTIES_DESCRIPTOR = Type.getDescriptor(MethodTransferProperties.class);
+	private static final String METHODTRANSFERPROPERTIES_INTERNAL_NAME = Type
+			.getInternalName(MethodTransferProperties.class);
 	private static final String REMOTEINVOCATIONRMIFAILUREEXCEPTION_INTERNAL_NAME = Type
 			.getInternalName(RemoteInvocationRMIFailureException.class);
 	private static final String RMITRANSFERPROPERTIESHOLDER_INTERNAL_NAME = Type
@@ -375,8 +389,11 @@ class ProxyGenerator {
 	private static final String JAVA_LANG_CLASS_DESCRIPTOR = Type.getDescriptor(Class.class);
 	private static final String JAVA_LANG_CLASS_INTERNAL_NAME = Type.getInternalName(Class.class);
 	private static final String JAVA_LANG_SYSTEM_INTERNAL_NAME = Type.getInternalName(System.class);
+	private static final String JAVA_LANG_REFLECT_METHOD_DESCRIPTOR = Type.getDescriptor(Method.class);
+	private static final String JAVA_LANG_REFLECT_EXECUTABLE_DESCRIPTOR = Type.getDescriptor(Executable.class);
 
 	static final String INITIALIZE_CACHE_FIELDS_METHOD_NAME = "0rmi_initCacheFields";
+	static final String INVALIDATE_CACHE_FIELDS_METHOD_NAME = "0rmi_invalidateCacheFields";
 
 	private static final Method METHOD_OBJECT_HASHCODE;
 	private static final Method METHOD_OBJECT_TOSTRING;
@@ -667,6 +684,41 @@ class ProxyGenerator {
 		}
 	}
 
+	private static void writeInvalidateCacheFieldsMethod(String thisclassinternalname, ClassWriter cw,
+			Map<String, String> cachehelperfieldnames) {
+		//resets the cache fields of the method which is equal to the argument, or all of them if it is null
+		MethodVisitor mw = cw.visitMethod(Opcodes.ACC_STATIC | Opcodes.ACC_PUBLIC, INVALIDATE_CACHE_FIELDS_METHOD_NAME,
+				"(" + JAVA_LANG_OBJECT_DESCRIPTOR + JAVA_LANG_REFLECT_METHOD_DESCRIPTOR + ")V", null, null);
+		mw.visitCode();
+		for (Entry<String, String> entry : cachehelperfieldnames.entrySet()) {
+			Label invalidatelabel = new Label();
+			Label skiplabel = new Label();
+			mw.visitVarInsn(Opcodes.ALOAD, 1);
+			mw.visitJumpInsn(Opcodes.IFNULL, invalidatelabel);
+			mw.visitVarInsn(Opcodes.ALOAD, 1);
+			mw.visitFieldInsn(Opcodes.GETSTATIC, thisclassinternalname, entry.getValue(),
+					METHODTRANSFERROPERTIES_DESCRIPTOR);
+			mw.visitMethodInsn(Opcodes.INVOKEVIRTUAL, METHODTRANSFERPROPERTIES_INTERNAL_NAME, "getExecutable",
+					"()" + JAVA_LANG_REFLECT_EXECUTABLE_DESCRIPTOR, false);
+			mw.visitMethodInsn(Opcodes.INVOKEVIRTUAL, JAVA_LANG_OBJECT_INTERNAL_NAME, "equals",
+					"(" + JAVA_LANG_OBJECT_DESCRIPTOR + ")Z", false);
+			mw.visitJumpInsn(Opcodes.IFEQ, skiplabel);
+
+			mw.visitLabel(invalidatelabel);
+			mw.visitVarInsn(Opcodes.ALOAD, 0);
+			mw.visitTypeInsn(Opcodes.CHECKCAST, thisclassinternalname);
+			mw.visitTypeInsn(Opcodes.NEW, RMICACHEHELPER_INTERNAL_NAME);
+			mw.visitInsn(Opcodes.DUP);
+			mw.visitMethodInsn(Opcodes.INVOKESPECIAL, RMICACHEHELPER_INTERNAL_NAME, "<init>", "()V", false);
+			mw.visitFieldInsn(Opcodes.PUTFIELD, thisclassinternalname, entry.getKey(), JAVA_LANG_OBJECT_DESCRIPTOR);
+
+			mw.visitLabel(skiplabel);
+		}
+		mw.visitInsn(Opcodes.RETURN);
+		mw.visitMaxs(0, 0);
+		mw.visitEnd();
+	}
+
 	private static void writeProxyConstructorMethod(String thisclassinternalname, String superclassinternalname,
 			ClassWriter cw, Set<String> cachehelperfieldnames) {
 		MethodVisitor constructorv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "(Ljava/lang/ref/Reference;I)V", null,
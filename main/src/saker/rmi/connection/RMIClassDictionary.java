@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.rmi.connection;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The classes and their public methods and constructors that are seeded in the caches of the streams.
+ * <p>
+ * The elements are ordered deterministically, so the endpoints that are configured with the same classes assign the
+ * same indices to them. The {@linkplain #getFingerprint() fingerprint} is exchanged during the connection handshake to
+ * verify that both endpoints use the same dictionary.
+ */
+final class RMIClassDictionary {
+	static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final Class<?>[] classes;
+	private final Method[] methods;
+	private final Constructor<?>[] constructors;
+	private final long fingerprint;
+
+	private RMIClassDictionary(Class<?>[] classes, Method[] methods, Constructor<?>[] constructors) {
+		this.classes = classes;
+		this.methods = methods;
+		this.constructors = constructors;
+
+		long hash = FNV_OFFSET_BASIS;
+		for (Class<?> c : classes) {
+			hash = hash(hash, c.getName());
+		}
+		for (Method m : methods) {
+			hash = hash(hash, getMethodKey(m));
+		}
+		for (Constructor<?> c : constructors) {
+			hash = hash(hash, getConstructorKey(c));
+		}
+		//0 is reserved for no dictionary
+		this.fingerprint = hash == 0 ? 1 : hash;
+	}
+
+	/**
+	 * Creates a new dictionary for the argument classes.
+	 *
+	 * @param classes
+	 *            The classes.
+	 * @return The dictionary or <code>null</code> if there are no classes to seed.
+	 * @throws NullPointerException
+	 *             If the argument or any of the classes is <code>null</code>.
+	 */
+	public static RMIClassDictionary create(Iterable<? extends Class<?>> classes) throws NullPointerException {
+		Objects.requireNonNull(classes, "classes");
+		Set<Class<?>> classset = new LinkedHashSet<>();
+		for (Class<?> c : classes) {
+			Objects.requireNonNull(c, "class");
+			if (RMICommState.DEFAULT_CLASSES.contains(c)) {
+				//already present in the caches
+				continue;
+			}
+			classset.add(c);
+		}
+		if (classset.isEmpty()) {
+			return null;
+		}
+		List<Method> methods = new ArrayList<>();
+		List<Constructor<?>> constructors = new ArrayList<>();
+		for (Class<?> c : classset) {
+			for (Method m : c.getMethods()) {
+				methods.add(m);
+			}
+			for (Constructor<?> constructor : c.getConstructors()) {
+				constructors.add(constructor);
+			}
+		}
+		methods.sort(Comparator.comparing(RMIClassDictionary::getMethodKey));
+		constructors.sort(Comparator.comparing(RMIClassDictionary::getConstructorKey));
+		//remove the methods that only differ in their return types, e.g. bridge methods
+		Method prev = null;
+		for (int i = methods.size() - 1; i >= 0; i--) {
+			Method m = methods.get(i);
+			if (prev != null && getMethodKey(prev).equals(getMethodKey(m))) {
+				methods.remove(i);
+				continue;
+			}
+			prev = m;
+		}
+		return new RMIClassDictionary(classset.toArray(new Class<?>[classset.size()]),
+				methods.toArray(new Method[methods.size()]),
+				constructors.toArray(new Constructor<?>[constructors.size()]));
+	}
+
+	public static long getFingerprint(RMIClassDictionary dictionary) {
+		return dictionary == null ? 0 : dictionary.fingerprint;
+	}
+
+	public Class<?>[] getClasses() {
+		return classes;
+	}
+
+	public Method[] getMethods() {
+		return methods;
+	}
+
+	public Constructor<?>[] getConstructors() {
+		return constructors;
+	}
+
+	public long getFingerprint() {
+		return fingerprint;
+	}
+
+	private static String getMethodKey(Method m) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(m.getDeclaringClass().getName());
+		sb.append('.');
+		sb.append(m.getName());
+		appendParameterTypes(sb, m.getParameterTypes());
+		return sb.toString();
+	}
+
+	private static String getConstructorKey(Constructor<?> c) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(c.getDeclaringClass().getName());
+		appendParameterTypes(sb, c.getParameterTypes());
+		return sb.toString();
+	}
+
+	private static void appendParameterTypes(StringBuilder sb, Class<?>[] paramtypes) {
+		sb.append('(');
+		for (int i = 0; i < paramtypes.length; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append(paramtypes[i].getName());
+		}
+		sb.append(')');
+	}
+
+	static long hash(long hash, String s) {
+		int len = s.length();
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			hash = (hash ^ (c & 0xFF)) * FNV_PRIME;
+			hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+		}
+		//separator
+		return (hash ^ 0xFF) * FNV_PRIME;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[classes=" + classes.length + ", methods=" + methods.length
+				+ ", constructors=" + constructors.length + "]";
+	}
+}
@@ -16,59 +16,143 @@
 package saker.rmi.connection;
 
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
-class RMICommCache<S extends ReflectionElementSupplier> {
-	private final ConcurrentSkipListMap<Integer, S> readDatas;
+class RMICommCache<S> {
+	private static final int INITIAL_READ_TABLE_LENGTH = 32;
+
+	/**
+	 * The read elements by their index.
+	 * <p>
+	 * The indices are assigned sequentially, so the elements are stored in an array that is copied to a larger one when
+	 * it is full. The lookups don't lock, the modifications are performed while locked on {@link #readDatasLock}.
+	 */
+	private volatile AtomicReferenceArray<S> readDatas;
+	private final Object readDatasLock = new Object();
+	/**
+	 * The indices of the read elements.
+	 * <p>
+	 * The indices are only boxed when an element is added, which happens once for each element. The lookups return the
+	 * already boxed value, so they don't allocate. A map with primitive values is not used, as the maps are accessed
+	 * concurrently by the threads that read and write the objects, without locking.
+	 */
 	private final ConcurrentHashMap<S, Integer> readIndices;
 
 	private final AtomicInteger indexCounter;
+	/**
+	 * The indices of the elements assigned by the other endpoint.
+	 * <p>
+	 * See {@link #readIndices} about the boxing of the indices.
+	 */
 	private final ConcurrentHashMap<S, Integer> writeDatas;
 
+	/**
+	 * The maximum number of elements that are assigned an index on the reading side, and the maximum number of indices
+	 * that are recorded on the writing side.
+	 * <p>
+	 * The cache is filled once, the elements are not evicted. After the capacity is reached, the new elements are not
+	 * assigned an index, and the indices assigned by the other endpoint are ignored.
+	 */
+	private final int capacity;
+
 	public RMICommCache() {
-		readDatas = new ConcurrentSkipListMap<>();
+		this(Integer.MAX_VALUE);
+	}
+
+	public RMICommCache(int capacity) {
+		this.capacity = capacity;
+		readDatas = new AtomicReferenceArray<>(INITIAL_READ_TABLE_LENGTH);
 		readIndices = new ConcurrentHashMap<>();
 
 		indexCounter = new AtomicInteger();
 		writeDatas = new ConcurrentHashMap<>();
 	}
 
-	public Integer getWriteIndex(S data) {
-		return writeDatas.get(data);
+	/**
+	 * Gets the index of the data that was assigned by the other endpoint.
+	 * 
+	 * @param data
+	 *            The data.
+	 * @return The index or -1 if the data has no index.
+	 */
+	public int getWriteIndex(S data) {
+		Integer index = writeDatas.get(data);
+		if (index == null) {
+			return -1;
+		}
+		return index;
 	}
 
 	public void putWrite(S data, int index) {
+		if (writeDatas.size() >= capacity) {
+			//the indices are assigned by the other endpoint, don't let it grow the cache without bounds
+			return;
+		}
 		writeDatas.putIfAbsent(data, index);
 	}
 
 	int putReadInternal(int index, S data) {
-		readDatas.putIfAbsent(index, data);
+		setReadIfAbsent(index, data);
+		readIndices.putIfAbsent(data, index);
 		indexCounter.updateAndGet(c -> Math.max(c, index));
 		return index;
 	}
 
-	public Integer putReadIfAbsent(S data) {
-		Integer presentidx = readIndices.get(data);
-		if (presentidx != null) {
-			return null;
+	/**
+	 * Assigns an index to the read data if it has none yet.
+	 * 
+	 * @param data
+	 *            The data.
+	 * @return The assigned index or -1 if the data already has an index, or the cache is full.
+	 */
+	public int putReadIfAbsent(S data) {
+		if (readIndices.containsKey(data)) {
+			return -1;
+		}
+		if (readIndices.size() >= capacity) {
+			//the cache is full, the data is not assigned an index
+			return -1;
 		}
 		int index = indexCounter.incrementAndGet();
 		Integer putidxprev = readIndices.putIfAbsent(data, index);
 		if (putidxprev != null) {
 			//data was put concurrently
-			return null;
+			return -1;
 		}
-		readDatas.putIfAbsent(index, data);
+		setReadIfAbsent(index, data);
 		return index;
 	}
 
 	public S getRead(int index) {
-		return readDatas.get(index);
+		AtomicReferenceArray<S> datas = readDatas;
+		if (index < 0 || index >= datas.length()) {
+			return null;
+		}
+		return datas.get(index);
+	}
+
+	private void setReadIfAbsent(int index, S data) {
+		synchronized (readDatasLock) {
+			AtomicReferenceArray<S> datas = readDatas;
+			int len = datas.length();
+			if (index >= len) {
+				int nlen = Math.max(index + 1, len * 2);
+				AtomicReferenceArray<S> ndatas = new AtomicReferenceArray<>(nlen);
+				for (int i = 0; i < len; i++) {
+					ndatas.lazySet(i, datas.get(i));
+				}
+				ndatas.lazySet(index, data);
+				//publish the new array with the volatile write
+				readDatas = ndatas;
+				return;
+			}
+			datas.compareAndSet(index, null, data);
+		}
 	}
 
 	@Override
 	public String toString() {
 		return getClass().getSimpleName() + "[]";
 	}
-}
\ No newline at end of file
+}
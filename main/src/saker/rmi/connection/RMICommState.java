@@ -26,6 +26,7 @@ import saker.rmi.connection.RMIStream.ClassReflectionElementSupplier;
 import saker.rmi.connection.RMIStream.ConstructorReflectionElementSupplier;
 import saker.rmi.connection.RMIStream.FieldReflectionElementSupplier;
 import saker.rmi.connection.RMIStream.MethodReflectionElementSupplier;
+import saker.rmi.connection.RMIStream.SerialClassDescriptorReflectionElementSupplier;
 import saker.util.ImmutableUtils;
 
 class RMICommState {
@@ -43,13 +44,24 @@ class RMICommState {
 	private final RMICommCache<ConstructorReflectionElementSupplier> constructors;
 	private final RMICommCache<FieldReflectionElementSupplier> fields;
 
+	private final RMICommCache<SerialClassDescriptorReflectionElementSupplier> serialClassDescriptors;
+
+	private final RMICommCache<String> strings;
+
 	public RMICommState() {
+		this(0);
+	}
+
+	public RMICommState(int stringDictionaryCapacity) {
 		classes = new RMICommCache<>();
 		classLoaders = new RMICommCache<>();
 
 		constructors = new RMICommCache<>();
 		methods = new RMICommCache<>();
 		fields = new RMICommCache<>();
+
+		serialClassDescriptors = new RMICommCache<>();
+		strings = new RMICommCache<>(stringDictionaryCapacity);
 		int i = 0;
 		for (Class<?> c : DEFAULT_CLASSES) {
 			ClassReflectionElementSupplier s = new BootstrapClassReflectionElementSupplier(c);
@@ -79,6 +91,14 @@ class RMICommState {
 		return fields;
 	}
 
+	public RMICommCache<SerialClassDescriptorReflectionElementSupplier> getSerialClassDescriptors() {
+		return serialClassDescriptors;
+	}
+
+	public RMICommCache<String> getStrings() {
+		return strings;
+	}
+
 	@Override
 	public String toString() {
 		return "RMICommState[" + (classes != null ? "classes=" + classes + ", " : "")
@@ -18,6 +18,7 @@ package saker.rmi.connection;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -41,6 +42,7 @@ import saker.rmi.connection.RMIStream.RequestScopeHandler;
 import saker.rmi.connection.RMIStream.ThreadLocalRequestScopeHandler;
 import saker.rmi.exception.RMICallFailedException;
 import saker.rmi.exception.RMIIOFailureException;
+import saker.rmi.exception.RMIInvalidConfigurationException;
 import saker.rmi.exception.RMIListenerException;
 import saker.rmi.exception.RMIResourceUnavailableException;
 import saker.rmi.exception.RMIRuntimeException;
@@ -88,7 +90,7 @@ public final class RMIConnection implements AutoCloseable {
 	 * The latest protocol version.
 	 */
 	//IMPORTANT: In the event of incrementing this protocol version, tests should be made that ensures proper rmi connection handshakes
-	public static final short PROTOCOL_VERSION_LATEST = 0x0002;
+	public static final short PROTOCOL_VERSION_LATEST = 0x0003;
 
 	/**
 	 * The protocol version of the first RMI library release.
@@ -103,6 +105,57 @@ public final class RMIConnection implements AutoCloseable {
 	 * @since saker.rmi 0.8.3
 	 */
 	public static final int PROTOCOL_VERSION_2 = 0x0002;
+	/**
+	 * Version 3.
+	 * <p>
+	 * Allows the acknowledgements of asynchronous method calls to be coalesced into a single command that carries the
+	 * number of completed calls.
+	 * <p>
+	 * Supports transferring objects using the generated codecs for types annotated with
+	 * {@link saker.rmi.annot.transfer.RMIGeneratedCodec RMIGeneratedCodec}.
+	 * <p>
+	 * The class descriptors of serialized objects are cached per stream, and subsequent occurrences are only
+	 * transferred by their index.
+	 * <p>
+	 * Supports the {@linkplain RMIOptions#stringDictionaryCapacity(int) string dictionary} for the transferred string
+	 * objects.
+	 * <p>
+	 * Strings are written using Latin-1 or UTF-8 encoding instead of UTF-16 chars.
+	 * <p>
+	 * Object and command tags are written as single bytes, and the identifiers and lengths are written as variable
+	 * length integers.
+	 * <p>
+	 * Object arrays that consist of only {@link String} or only enum elements are transferred with the element type
+	 * written only once.
+	 * <p>
+	 * Supports transferring collections and maps by value using the
+	 * {@link saker.rmi.io.writer.CollectionRMIObjectWriteHandler CollectionRMIObjectWriteHandler} and
+	 * {@link saker.rmi.io.writer.MapRMIObjectWriteHandler MapRMIObjectWriteHandler} write handlers.
+	 * <p>
+	 * The externalizable, wrapped, and generated codec objects that are transferred multiple times in the arguments or
+	 * result of a call are only written once, and their identity is preserved.
+	 * <p>
+	 * Record classes are transferred by value, component by component, and instantiated using their canonical
+	 * constructor.
+	 * <p>
+	 * The remaining bytes of {@link java.nio.ByteBuffer ByteBuffer} objects are transferred by value. The received
+	 * buffer has the same byte order, and is direct or read-only if the transferred buffer was.
+	 * <p>
+	 * Supports transferring input and output streams in chunks using the
+	 * {@link saker.rmi.io.writer.StreamRMIObjectWriteHandler StreamRMIObjectWriteHandler} write handler.
+	 * <p>
+	 * Supports retrieving the elements of remote iterators in batches. See
+	 * {@link RMIOptions#remoteIteratorBatchSize(int)}.
+	 * <p>
+	 * The endpoints exchange the fingerprints of their {@linkplain RMIOptions#classDictionary(Iterable) class
+	 * dictionaries} when a new connection is established.
+	 * <p>
+	 * The serving endpoint can {@linkplain RMIVariables#invalidateRemoteCachedResults(Object, Method) invalidate} the
+	 * cached method call results of the other endpoint.
+	 * 
+	 * @since saker.rmi 0.8.3
+	 */
+	public static final int PROTOCOL_VERSION_3 = 0x0003;
 
 	/**
 	 * I/O error listener interface to get notified about connection errors.
@@ -202,11 +255,27 @@ public final class RMIConnection implements AutoCloseable {
 	private final ConcurrentPrependAccumulator<StrongSoftReference<DataOutputUnsyncByteArrayOutputStream>> bufferCache = new ConcurrentPrependAccumulator<>();
 
 	private ConcurrentSkipListMap<Integer, RequestThreadState> requestThreadStates = new ConcurrentSkipListMap<>();
+	/**
+	 * Concurrency limiters for the served method calls mapped to their {@link Method} or declaring {@link Class}.
+	 */
+	private final ConcurrentMap<Object, ConcurrencyLimiter> concurrencyLimiters = new ConcurrentHashMap<>();
 	private final short protocolVersion;
 
 	private RMIStatistics statistics;
 
 	private final boolean objectTransferByteChecks;
+	private final int stringDictionaryCapacity;
+	private final boolean deferMethodResultDecoding;
+	private final int remoteIteratorBatchSize;
+	private final RMIClassDictionary classDictionary;
+	private final RMIProxyClassCache proxyClassCache;
+	/**
+	 * Set to <code>true</code> if the other endpoint was determined to use the same class dictionary during the
+	 * handshake.
+	 * <p>
+	 * Set before the streams are started.
+	 */
+	private volatile boolean classDictionaryShared;
 
 	/**
 	 * Only set if the {@link RMIConnection} manages its own task pool, and no {@link Executor} was set via
@@ -241,6 +310,11 @@ public final class RMIConnection implements AutoCloseable {
 			this.statistics = new RMIStatistics();
 		}
 		this.objectTransferByteChecks = options.objectTransferByteChecks;
+		this.stringDictionaryCapacity = options.stringDictionaryCapacity;
+		this.deferMethodResultDecoding = options.deferMethodResultDecoding;
+		this.remoteIteratorBatchSize = options.remoteIteratorBatchSize;
+		this.classDictionary = options.classDictionary;
+		this.proxyClassCache = RMIProxyClassCache.get(options.properties, statistics);
 	}
 
 	boolean isCustomExecutor() {
@@ -259,6 +333,34 @@ public final class RMIConnection implements AutoCloseable {
 		return objectTransferByteChecks;
 	}
 
+	int getStringDictionaryCapacity() {
+		return stringDictionaryCapacity;
+	}
+
+	boolean isDeferMethodResultDecoding() {
+		return deferMethodResultDecoding;
+	}
+
+	int getRemoteIteratorBatchSize() {
+		return remoteIteratorBatchSize;
+	}
+
+	RMIClassDictionary getClassDictionary() {
+		return classDictionary;
+	}
+
+	long getClassDictionaryFingerprint() {
+		return RMIClassDictionary.getFingerprint(classDictionary);
+	}
+
+	boolean isClassDictionaryShared() {
+		return classDictionaryShared;
+	}
+
+	void setRemoteClassDictionaryFingerprint(long fingerprint) {
+		this.classDictionaryShared = classDictionary != null && fingerprint == classDictionary.getFingerprint();
+	}
+
 	private void initTaskFields(RMIOptions options) {
 		Executor executor = options.executor;
 		if (executor != null) {
@@ -276,13 +378,19 @@ public final class RMIConnection implements AutoCloseable {
 		this.taskExecutor = r -> taskpool.offer(r::run);
 	}
 
-	RMIConnection(RMIOptions options, StreamPair streams, short protocolversion,
+	RMIConnection(RMIOptions options, StreamPair streams, short protocolversion, long remoteclassdictionaryfingerprint,
 			IOFunction<? super PendingStreamTracker, ? extends StreamPair> streamconnector) throws IOException {
 		this.allowDirectRequests = options.allowDirectRequests;
 		if (options.collectStatistics) {
 			this.statistics = new RMIStatistics();
 		}
 		this.objectTransferByteChecks = options.objectTransferByteChecks;
+		this.stringDictionaryCapacity = options.stringDictionaryCapacity;
+		this.deferMethodResultDecoding = options.deferMethodResultDecoding;
+		this.remoteIteratorBatchSize = options.remoteIteratorBatchSize;
+		this.classDictionary = options.classDictionary;
+		this.proxyClassCache = RMIProxyClassCache.get(options.properties, statistics);
+		setRemoteClassDictionaryFingerprint(remoteclassdictionaryfingerprint);
 
 		this.streamConnector = new IOSupplier<StreamPair>() {
 			private final PendingStreamTracker pendingTracker = new PendingStreamTracker() {
@@ -856,6 +964,31 @@ public final class RMIConnection implements AutoCloseable {
 		s.interrupt();
 	}
 
+	/**
+	 * Gets the concurrency limiter that should be used when serving calls for the given method.
+	 * 
+	 * @param method
+	 *            The method properties.
+	 * @return The limiter or <code>null</code> if the calls are not limited.
+	 */
+	ConcurrencyLimiter getConcurrencyLimiter(MethodTransferProperties method) {
+		int limit = method.getConcurrencyLimit();
+		if (limit <= 0) {
+			return null;
+		}
+		Method m = method.getExecutable();
+		int queuesize = method.getConcurrencyLimitQueueSize();
+		Object key = method.isConcurrencyLimitPerClass() ? m.getDeclaringClass() : m;
+		ConcurrencyLimiter limiter = concurrencyLimiters.computeIfAbsent(key,
+				k -> new ConcurrencyLimiter(limit, queuesize));
+		if (!limiter.isConfiguredWith(limit, queuesize)) {
+			//there's a single limiter for a class, don't split it, and don't silently use a different configuration
+			throw new RMIInvalidConfigurationException("Conflicting concurrency limit for method: " + m + " (limit: "
+					+ limit + ", queue size: " + queuesize + ") with already used: " + limiter + " for: " + key);
+		}
+		return limiter;
+	}
+
 	void finishNewConnectionSetup(RMIStream stream) throws RMIRuntimeException, IOException {
 		addStream(stream);
 	}
@@ -1182,6 +1315,10 @@ public final class RMIConnection implements AutoCloseable {
 		return statistics;
 	}
 
+	RMIProxyClassCache getProxyClassCache() {
+		return proxyClassCache;
+	}
+
 	static final class OnlyClassLoaderResolver implements ClassLoaderResolver {
 		private ClassLoader cl;
 
@@ -18,6 +18,7 @@ package saker.rmi.connection;
 import java.io.Externalizable;
 import java.io.IOException;
 import java.net.SocketAddress;
+import java.util.Iterator;
 import java.util.Objects;
 import java.util.concurrent.Executor;
 
@@ -47,6 +48,10 @@ public final class RMIOptions {
 	boolean collectStatistics = false;
 
 	boolean objectTransferByteChecks = false;
+	int stringDictionaryCapacity = 0;
+	boolean deferMethodResultDecoding = false;
+	int remoteIteratorBatchSize = 0;
+	RMIClassDictionary classDictionary;
 
 	/**
 	 * Creates a new instance with default values.
@@ -72,6 +77,10 @@ public final class RMIOptions {
 		this.allowDirectRequests = copy.allowDirectRequests;
 		this.collectStatistics = copy.collectStatistics;
 		this.objectTransferByteChecks = copy.objectTransferByteChecks;
+		this.stringDictionaryCapacity = copy.stringDictionaryCapacity;
+		this.deferMethodResultDecoding = copy.deferMethodResultDecoding;
+		this.remoteIteratorBatchSize = copy.remoteIteratorBatchSize;
+		this.classDictionary = copy.classDictionary;
 	}
 
 	/**
@@ -283,6 +292,120 @@ public final class RMIOptions {
 		return this;
 	}
 
+	/**
+	 * Sets the maximum number of strings that are cached per stream for the strings transferred by the endpoints.
+	 * <p>
+	 * If the string dictionary is enabled, the received string objects are assigned an index, and the other endpoint is
+	 * notified about it. Subsequent transfers of the same string will only contain the index instead of the full
+	 * contents of the string. This can reduce the transferred data size if the same strings are sent repeatedly.
+	 * <p>
+	 * The dictionary is filled once. The strings are cached in the order they are first received, and they are never
+	 * evicted. After the dictionary is full, no more strings are assigned an index, so the strings that are first
+	 * transferred after that are always sent with their full contents. Long strings are not cached.
+	 * <p>
+	 * The capacity also limits the number of indices that this endpoint records for the strings it sends. The indices
+	 * assigned by the other endpoint are only used if the dictionary is enabled on this endpoint as well, and only
+	 * until the capacity is reached. The endpoints should be configured with the same capacity.
+	 * <p>
+	 * The string dictionary is only used if the connection uses {@linkplain RMIConnection#PROTOCOL_VERSION_3 protocol
+	 * version 3} or later.
+	 * <p>
+	 * The default value is 0, meaning that the dictionary is disabled.
+	 * 
+	 * @param capacity
+	 *            The maximum number of strings to cache per stream. 0 or negative to disable.
+	 * @return <code>this</code>
+	 * @since saker.rmi 0.8.3
+	 */
+	public RMIOptions stringDictionaryCapacity(int capacity) {
+		this.stringDictionaryCapacity = Math.max(capacity, 0);
+		return this;
+	}
+
+	/**
+	 * Sets if the results of method calls should be decoded on the calling thread.
+	 * <p>
+	 * By default, the return values of remote method calls are deserialized by the thread that reads the incoming data
+	 * of the connection, and the calling thread is notified after the result object is fully constructed. If this
+	 * option is enabled, the raw bytes of the result are passed to the calling thread, and the deserialization is
+	 * performed by it. This allows the stream reading thread to continue processing other incoming commands sooner,
+	 * and the deserialization cost is paid by the thread that actually uses the result.
+	 * <p>
+	 * The element batches of the {@linkplain #remoteIteratorBatchSize(int) prefetched remote iterators} are decoded
+	 * the same way.
+	 * <p>
+	 * Note that the remote objects referenced by the result will not be garbage collected by the other endpoint until
+	 * the calling thread completes the deserialization.
+	 * <p>
+	 * The default value is <code>false</code>.
+	 * 
+	 * @param defer
+	 *            <code>true</code> to decode the method results on the calling thread.
+	 * @return <code>this</code>
+	 * @since saker.rmi 0.8.3
+	 */
+	public RMIOptions deferMethodResultDecoding(boolean defer) {
+		this.deferMethodResultDecoding = defer;
+		return this;
+	}
+
+	/**
+	 * Sets the number of elements that are fetched at once when a remote {@link Iterator} is iterated.
+	 * <p>
+	 * If the batch size is set, the remote method calls that return an {@link Iterator} remote proxy (e.g.
+	 * {@link Iterable#iterator()}) will return a local iterator instead. The local iterator retrieves the elements
+	 * from the remote iterator in batches using a single request for each batch, instead of calling
+	 * {@link Iterator#hasNext()} and {@link Iterator#next()} remotely for every element.
+	 * <p>
+	 * The elements are transferred using the write handler configured for the {@link Iterator#next()} method. The
+	 * returned iterator doesn't support {@link Iterator#remove()}, as the remote iterator may be already advanced past
+	 * the returned element. When all elements are retrieved, the reference to the remote iterator is released.
+	 * <p>
+	 * Prefetching is only used if the connection uses {@linkplain RMIConnection#PROTOCOL_VERSION_3 protocol version
+	 * 3} or later, and the iterator is not retrieved while serving a request from the other endpoint.
+	 * <p>
+	 * The default value is 0, meaning that the remote iterators are not prefetched.
+	 * 
+	 * @param batchsize
+	 *            The maximum number of elements to retrieve at once. 0 or negative to disable.
+	 * @return <code>this</code>
+	 * @since saker.rmi 0.8.3
+	 */
+	public RMIOptions remoteIteratorBatchSize(int batchsize) {
+		this.remoteIteratorBatchSize = Math.max(batchsize, 0);
+		return this;
+	}
+
+	/**
+	 * Sets the classes that are known to both endpoints of the connection before any calls are made.
+	 * <p>
+	 * The specified classes, their class loaders, and their public methods and constructors are assigned an index when
+	 * a stream of the connection is created. If both endpoints are configured with the same classes in the same order,
+	 * these elements are transferred only by their index, starting from the first call. Otherwise they are transferred
+	 * by their full names on first use, the same way as if no dictionary was set.
+	 * <p>
+	 * Whether or not the endpoints use the same dictionary is determined during the connection handshake. The classes
+	 * may be loaded by different class loaders on each endpoint, as long as their names and public signatures are the
+	 * same.
+	 * <p>
+	 * The dictionary is only used if the connection uses {@linkplain RMIConnection#PROTOCOL_VERSION_3 protocol
+	 * version 3} or later.
+	 * <p>
+	 * By default, no classes are seeded.
+	 * 
+	 * @param classes
+	 *            The classes to seed the dictionary with. Pass <code>null</code> or an empty iterable to clear the
+	 *            dictionary.
+	 * @return <code>this</code>
+	 * @throws NullPointerException
+	 *             If any of the classes are <code>null</code>.
+	 * @since saker.rmi 0.8.3
+	 */
+	public RMIOptions classDictionary(Iterable<? extends Class<?>> classes) throws NullPointerException {
+		this.classDictionary = classes == null ? null : RMIClassDictionary.create(classes);
+		return this;
+	}
+
 	/**
 	 * Initiates the connection with the given parameters.
 	 * <p>
@@ -421,6 +544,22 @@ public final class RMIOptions {
 			builder.append(", objectTransferByteChecks=");
 			builder.append(objectTransferByteChecks);
 		}
+		if (stringDictionaryCapacity > 0) {
+			builder.append(", stringDictionaryCapacity=");
+			builder.append(stringDictionaryCapacity);
+		}
+		if (deferMethodResultDecoding) {
+			builder.append(", deferMethodResultDecoding=");
+			builder.append(deferMethodResultDecoding);
+		}
+		if (remoteIteratorBatchSize > 0) {
+			builder.append(", remoteIteratorBatchSize=");
+			builder.append(remoteIteratorBatchSize);
+		}
+		if (classDictionary != null) {
+			builder.append(", classDictionary=");
+			builder.append(classDictionary);
+		}
 		builder.append("]");
 		return builder.toString();
 	}
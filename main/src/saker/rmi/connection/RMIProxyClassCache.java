@@ -0,0 +1,609 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.rmi.connection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.Reference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import saker.rmi.exception.RMICallFailedException;
+import saker.rmi.exception.RMIRuntimeException;
+import saker.util.ImmutableUtils;
+import saker.util.ObjectUtils;
+import saker.util.ReflectUtils;
+import saker.util.classloader.FilteringClassLoader;
+import saker.util.classloader.MultiClassLoader;
+
+/**
+ * Cache of the generated proxy classes that is shared between the variables contexts and connections.
+ * <p>
+ * The bytecode of the generated proxies only depends on the {@link RMITransferProperties} of the connection, the
+ * implemented interfaces, and whether or not statistics are collected. The caches are shared JVM-wide by the
+ * connections that use the same transfer properties instance. If statistics are collected, then the cache is private to
+ * the connection, as the statistics object is referenced from a static field of the proxy marker class.
+ * <p>
+ * The proxy classes are stored in a {@link ClassValue} of one of their interfaces, therefore they don't prevent the
+ * classloaders of the interfaces from being garbage collected. This is only done if the classloader of that interface
+ * can see the classloaders of all other interfaces. Otherwise the proxy would keep the unrelated classloaders alive
+ * as long as the chosen interface is alive, so the proxy is only cached by the caller in its own
+ * {@link InterfaceProxies} instance.
+ * <p>
+ * If the connection has no custom transfer properties, the proxies that were generated at build time by
+ * {@link RMIProxyPregenerator} are loaded from the classloaders of the interfaces before falling back to runtime
+ * generation.
+ */
+final class RMIProxyClassCache {
+	private static final ClassLoader RMI_CLASSES_CLASSLOADER = RMIProxyClassCache.class.getClassLoader();
+
+	private static final FilteringClassLoader RMI_PROXY_CLASSLOADER_PARENT = new FilteringClassLoader(
+			RMI_CLASSES_CLASSLOADER,
+			ObjectUtils.newTreeSet(RMIRuntimeException.class.getName(), RMICallFailedException.class.getName(),
+					MethodTransferProperties.class.getName(), RMITransferPropertiesHolder.class.getName(),
+					RemoteProxyObject.class.getName(), RemoteProxyObject.RMICacheHelper.class.getName(),
+					RemoteProxyObject.RemoteInvocationRMIFailureException.class.getName(),
+					RMIStatistics.class.getName()));
+
+	private static final String PROXY_PACKAGE_NAME = ReflectUtils.getPackageNameOf(RMIProxyClassCache.class);
+
+	static final String PROXY_MARKER_CLASS_NAME = "saker.rmi.ProxyMarker";
+
+	static final String PREGENERATED_PROXY_RESOURCE_DIRECTORY = "saker/rmi/proxy/";
+	/**
+	 * The version of the generated proxy class format.
+	 * <p>
+	 * Should be changed when the bytecode generated by {@link ProxyGenerator} changes, so the proxies that were
+	 * pregenerated by a different version are not used.
+	 */
+	private static final String PREGENERATED_PROXY_FORMAT_VERSION = "2";
+
+	private static final RMIProxyClassCache DEFAULT_CACHE = new RMIProxyClassCache(null, true);
+	/**
+	 * Access while locked on itself.
+	 */
+	private static final Map<RMITransferProperties, RMIProxyClassCache> PROPERTIES_CACHES = new WeakHashMap<>();
+
+	private final Class<?> markerClass;
+	private final MethodHandles.Lookup markerClassLookup;
+	private final RMIProxyClassLoader baseClassLoader;
+	private final boolean statisticsCollected;
+	private final boolean pregeneratedProxiesUsable;
+	private final AtomicInteger proxyNameIdCounter = new AtomicInteger();
+	private final InterfaceProxiesClassValue interfaceProxies = new InterfaceProxiesClassValue();
+
+	private RMIProxyClassCache(RMIStatistics statistics, boolean pregeneratedproxiesusable) {
+		this.statisticsCollected = statistics != null;
+		this.pregeneratedProxiesUsable = pregeneratedproxiesusable;
+		this.baseClassLoader = new RMIProxyClassLoader(RMI_PROXY_CLASSLOADER_PARENT);
+		this.markerClass = this.baseClassLoader.defineClass(PROXY_MARKER_CLASS_NAME,
+				ProxyGenerator.generateProxyMarkerClass(PROXY_MARKER_CLASS_NAME, statisticsCollected));
+		this.markerClassLookup = MethodHandles.lookup().in(markerClass);
+		if (statisticsCollected) {
+			try {
+				this.markerClass.getField(ProxyGenerator.PROXY_MARKER_RMI_STATISTICS_FIELD_NAME).set(null, statistics);
+			} catch (IllegalArgumentException | IllegalAccessException | NoSuchFieldException | SecurityException e) {
+				throw new AssertionError("Failed to set field for RMI statistics collection.", e);
+			}
+		}
+	}
+
+	/**
+	 * Gets the proxy class cache for the given connection configuration.
+	 * 
+	 * @param properties
+	 *            The transfer properties of the connection. May be <code>null</code>.
+	 * @param statistics
+	 *            The statistics of the connection or <code>null</code> if not collected.
+	 * @return The proxy class cache.
+	 */
+	public static RMIProxyClassCache get(RMITransferProperties properties, RMIStatistics statistics) {
+		if (statistics != null) {
+			return new RMIProxyClassCache(statistics, properties == null);
+		}
+		if (properties == null) {
+			return DEFAULT_CACHE;
+		}
+		synchronized (PROPERTIES_CACHES) {
+			return PROPERTIES_CACHES.computeIfAbsent(properties, p -> new RMIProxyClassCache(null, false));
+		}
+	}
+
+	/**
+	 * Gets the proxy class cache for connections without custom transfer properties and statistics collection.
+	 * 
+	 * @return The cache.
+	 */
+	public static RMIProxyClassCache getDefault() {
+		return DEFAULT_CACHE;
+	}
+
+	/**
+	 * Computes the key of the pregenerated proxy for the given interfaces.
+	 * <p>
+	 * The key includes the signatures and annotations of the methods, so a pregenerated proxy is not used if the
+	 * interfaces were modified since the generation.
+	 * <p>
+	 * The signatures and annotations are hashed in a canonical form that doesn't depend on the
+	 * {@link Object#toString()} implementations of the JDK, so the key is the same regardless of the JDK that was used
+	 * for the pregeneration.
+	 * 
+	 * @param interfaces
+	 *            The proxy interfaces.
+	 * @param statisticscollected
+	 *            Whether or not the proxy collects statistics.
+	 * @return The key.
+	 */
+	static long getPregeneratedProxyKey(Set<Class<?>> interfaces, boolean statisticscollected) {
+		List<Class<?>> itflist = new ArrayList<>(interfaces);
+		itflist.sort(Comparator.comparing(Class::getName));
+		long hash = RMIClassDictionary.hash(RMIClassDictionary.FNV_OFFSET_BASIS, PREGENERATED_PROXY_FORMAT_VERSION);
+		hash = RMIClassDictionary.hash(hash, Boolean.toString(statisticscollected));
+		List<String> methods = new ArrayList<>();
+		for (Class<?> itf : itflist) {
+			hash = RMIClassDictionary.hash(hash, itf.getName());
+			hash = RMIClassDictionary.hash(hash, getCanonicalAnnotationsString(itf.getAnnotations()));
+			methods.clear();
+			for (Method m : itf.getMethods()) {
+				methods.add(m.getDeclaringClass().getName() + "." + m.getName() + Type.getMethodDescriptor(m)
+						+ (m.isDefault() ? " default" : "") + getCanonicalAnnotationsString(m.getAnnotations()));
+			}
+			methods.sort(null);
+			for (String m : methods) {
+				hash = RMIClassDictionary.hash(hash, m);
+			}
+		}
+		return hash;
+	}
+
+	private static String getCanonicalAnnotationsString(Annotation[] annotations) {
+		List<String> result = new ArrayList<>(annotations.length);
+		StringBuilder sb = new StringBuilder();
+		for (Annotation a : annotations) {
+			sb.setLength(0);
+			appendCanonicalAnnotation(sb, a);
+			result.add(sb.toString());
+		}
+		//the order of the annotations is unspecified
+		result.sort(null);
+		return result.toString();
+	}
+
+	private static void appendCanonicalAnnotation(StringBuilder sb, Annotation annot) {
+		Class<? extends Annotation> annottype = annot.annotationType();
+		sb.append('@');
+		sb.append(annottype.getName());
+		sb.append('(');
+		Method[] elements = annottype.getDeclaredMethods();
+		Arrays.sort(elements, Comparator.comparing(Method::getName));
+		for (Method element : elements) {
+			if (Modifier.isStatic(element.getModifiers()) || element.getParameterCount() != 0) {
+				continue;
+			}
+			Object value;
+			try {
+				element.setAccessible(true);
+				value = element.invoke(annot);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				//the value is inaccessible, fall back to the representation of the JDK
+				//the key may differ between JDKs, that only causes the proxy to be generated at runtime
+				value = annot.toString();
+			}
+			sb.append(element.getName());
+			sb.append('=');
+			appendCanonicalAnnotationValue(sb, value);
+			sb.append(';');
+		}
+		sb.append(')');
+	}
+
+	private static void appendCanonicalAnnotationValue(StringBuilder sb, Object value) {
+		if (value instanceof Class) {
+			sb.append(((Class<?>) value).getName());
+		} else if (value instanceof Enum) {
+			Enum<?> e = (Enum<?>) value;
+			sb.append(e.getDeclaringClass().getName());
+			sb.append('.');
+			sb.append(e.name());
+		} else if (value instanceof Annotation) {
+			appendCanonicalAnnotation(sb, (Annotation) value);
+		} else if (value instanceof String) {
+			String s = (String) value;
+			//length prefixed, so the contents can't be confused with the separators
+			sb.append(s.length());
+			sb.append('"');
+			sb.append(s);
+			sb.append('"');
+		} else if (value instanceof Character) {
+			sb.append((int) (Character) value);
+		} else if (value != null && value.getClass().isArray()) {
+			int len = Array.getLength(value);
+			sb.append('{');
+			for (int i = 0; i < len; i++) {
+				if (i > 0) {
+					sb.append(',');
+				}
+				appendCanonicalAnnotationValue(sb, Array.get(value, i));
+			}
+			sb.append('}');
+		} else {
+			//primitive wrappers
+			sb.append(value);
+		}
+	}
+
+	/**
+	 * Checks that the methods of a pregenerated proxy class match the methods of its interfaces.
+	 * <p>
+	 * The pregenerated proxy is looked up by a hash of the interfaces. The proxy declares a method for every public
+	 * instance method of the interfaces, and calls the default methods of them. If these don't match, the proxy class
+	 * would still be defined and linked successfully, but it would fail with {@link AbstractMethodError} or
+	 * {@link NoSuchMethodError} when the methods are called. The methods are checked when the proxy is loaded, so a
+	 * stale proxy is rejected and generated at runtime instead.
+	 * 
+	 * @param bytes
+	 *            The bytes of the pregenerated proxy class.
+	 * @param interfaces
+	 *            The proxy interfaces.
+	 * @return <code>true</code> if the proxy is usable with the interfaces.
+	 */
+	static boolean isPregeneratedProxyValid(byte[] bytes, Set<Class<?>> interfaces) {
+		Map<String, Class<?>> itfinternalnames = new HashMap<>();
+		Set<String> expectedmethods = new HashSet<>();
+		for (Class<?> itf : interfaces) {
+			if (itf.isInterface()) {
+				collectPregeneratedProxyInterfaceMethods(itf, itfinternalnames, expectedmethods);
+			}
+		}
+		expectedmethods.add("toString()Ljava/lang/String;");
+		expectedmethods.add("hashCode()I");
+
+		Set<String> declaredmethods = new HashSet<>();
+		List<String[]> calledmethods = new ArrayList<>();
+		ClassReader reader;
+		try {
+			reader = new ClassReader(bytes);
+		} catch (RuntimeException e) {
+			return false;
+		}
+		reader.accept(new ClassVisitor(Opcodes.ASM5) {
+			@Override
+			public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+					String[] exceptions) {
+				if (((access & Opcodes.ACC_STATIC) == 0) && !name.startsWith("<") && !name.startsWith("0rmi_")) {
+					declaredmethods.add(name + descriptor);
+				}
+				return new MethodVisitor(Opcodes.ASM5) {
+					@Override
+					public void visitMethodInsn(int opcode, String owner, String name, String descriptor,
+							boolean isInterface) {
+						if (itfinternalnames.containsKey(owner)) {
+							calledmethods.add(new String[] { owner, name + descriptor });
+						}
+					}
+				};
+			}
+		}, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+		if (!declaredmethods.equals(expectedmethods)) {
+			return false;
+		}
+		for (String[] called : calledmethods) {
+			if (!hasMethod(itfinternalnames.get(called[0]), called[1])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void collectPregeneratedProxyInterfaceMethods(Class<?> itf, Map<String, Class<?>> internalnames,
+			Set<String> methods) {
+		if (internalnames.putIfAbsent(Type.getInternalName(itf), itf) != null) {
+			return;
+		}
+		//same methods as the ones collected by the proxy generator
+		for (Method m : itf.getDeclaredMethods()) {
+			int modifiers = m.getModifiers();
+			if (Modifier.isStatic(modifiers) || !Modifier.isPublic(modifiers)) {
+				continue;
+			}
+			methods.add(m.getName() + Type.getMethodDescriptor(m));
+		}
+		for (Class<?> si : itf.getInterfaces()) {
+			collectPregeneratedProxyInterfaceMethods(si, internalnames, methods);
+		}
+	}
+
+	private static boolean hasMethod(Class<?> type, String namedescriptor) {
+		for (Method m : type.getMethods()) {
+			if (namedescriptor.equals(m.getName() + Type.getMethodDescriptor(m))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	static String getPregeneratedProxyClassName(long key) {
+		return PROXY_PACKAGE_NAME + ".PregeneratedProxy$" + Long.toHexString(key);
+	}
+
+	static String getPregeneratedProxyResourceName(long key) {
+		return PREGENERATED_PROXY_RESOURCE_DIRECTORY + Long.toHexString(key) + ".rmiproxy";
+	}
+
+	public Class<?> getMarkerClass() {
+		return markerClass;
+	}
+
+	public MethodHandles.Lookup getMarkerClassLookup() {
+		return markerClassLookup;
+	}
+
+	public Constructor<? extends RemoteProxyObject> getProxyConstructorForRequestedClass(Class<?> requestedclass,
+			Set<Class<?>> interfaces, RMITransferPropertiesHolder properties, InterfaceProxies unsharedproxies) {
+		InterfaceProxies proxies = getInterfaceProxies(getCacheKeyClass(requestedclass, interfaces), unsharedproxies);
+		Constructor<? extends RemoteProxyObject> c = proxies.constructors.get(interfaces);
+		if (c == null) {
+			synchronized (proxies) {
+				c = proxies.constructors.get(interfaces);
+				if (c == null) {
+					Set<ClassLoader> classloaders = ImmutableUtils.singletonSet(requestedclass.getClassLoader());
+					c = generateProxyConstructor(proxies, interfaces, classloaders, properties);
+				}
+			}
+		}
+		return c;
+	}
+
+	public Constructor<? extends RemoteProxyObject> getProxyConstructor(Set<Class<?>> interfaces,
+			RMITransferPropertiesHolder properties, InterfaceProxies unsharedproxies) {
+		Iterator<Class<?>> it = interfaces.iterator();
+		Class<?> keyclass = it.hasNext() ? getCacheKeyClass(it.next(), interfaces) : RemoteProxyObject.class;
+		InterfaceProxies proxies = getInterfaceProxies(keyclass, unsharedproxies);
+		Constructor<? extends RemoteProxyObject> c = proxies.constructors.get(interfaces);
+		if (c == null) {
+			synchronized (proxies) {
+				c = proxies.constructors.get(interfaces);
+				if (c == null) {
+					Set<ClassLoader> classloaders = getClassLoadersForClasses(interfaces);
+					c = generateProxyConstructor(proxies, interfaces, classloaders, properties);
+				}
+			}
+		}
+		return c;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + (statisticsCollected ? "statistics" : "") + "]";
+	}
+
+	private InterfaceProxies getInterfaceProxies(Class<?> keyclass, InterfaceProxies unsharedproxies) {
+		if (keyclass == null) {
+			return unsharedproxies;
+		}
+		return interfaceProxies.get(keyclass);
+	}
+
+	private Constructor<? extends RemoteProxyObject> generateProxyConstructor(InterfaceProxies proxies,
+			Set<Class<?>> interfaces, Set<ClassLoader> classloaders, RMITransferPropertiesHolder properties)
+			throws AssertionError {
+		RMIClassDefiner classdefiner = proxies.classDefiners.get(classloaders);
+		if (classdefiner == null) {
+			classdefiner = new MultiClassLoaderRMIProxyClassLoader(baseClassLoader, classloaders, markerClassLookup);
+			proxies.classDefiners.put(classloaders, classdefiner);
+		}
+		Class<? extends RemoteProxyObject> proxyclass = null;
+		if (pregeneratedProxiesUsable) {
+			proxyclass = definePregeneratedProxy(classdefiner, interfaces, classloaders);
+		}
+		if (proxyclass == null) {
+			String name = PROXY_PACKAGE_NAME + ".Proxy$" + proxyNameIdCounter.getAndIncrement();
+			@SuppressWarnings("unchecked")
+			Class<? extends RemoteProxyObject> generated = (Class<? extends RemoteProxyObject>) classdefiner
+					.defineClass(name, ProxyGenerator.generateProxy(name, interfaces,
+							markerClass.getName().replace('.', '/'), properties, statisticsCollected));
+			proxyclass = generated;
+		}
+
+		//Use method handle to retrieve the initialization static method instead of usual reflection
+		//that is because if we use Class.getMethod(String), then it will load the classes related to the methods
+		//present in the class
+		//however, if some types are not available in some other methods, then it will throw an exception
+		//e.g. if a proxy has a parent interface, that has a method:
+		//     void myMethod(ClassWithPrivateModifier)
+		//that means that ClassWithPrivateModifier won't be accessible to the proxy class, and
+		//will therefore throw an IllegalAccessException, even though we don't use this method
+		//this illegal access exception is valid, however, we want to delay throwing it until someone attempts to call it
+		MethodHandle initmethod = null;
+		try {
+			initmethod = markerClassLookup.findStatic(proxyclass, ProxyGenerator.INITIALIZE_CACHE_FIELDS_METHOD_NAME,
+					MethodType.methodType(void.class, RMITransferPropertiesHolder.class));
+		} catch (NoSuchMethodException e) {
+		} catch (IllegalAccessException | IllegalArgumentException | SecurityException e) {
+			//none of these should be thrown, as the proxy generation should properly verify the interfaces
+			//as the byte code are generated
+			throw new AssertionError("Failed to initialize proxy class: " + interfaces, e);
+		}
+		if (initmethod != null) {
+			try {
+				initmethod.invokeExact(properties);
+			} catch (Throwable e) {
+				throw new AssertionError("Failed to initialize proxy class: " + interfaces, e);
+			}
+		}
+		Constructor<? extends RemoteProxyObject> c;
+		try {
+			c = proxyclass.getConstructor(Reference.class, int.class);
+		} catch (NoSuchMethodException | SecurityException e) {
+			throw new AssertionError("Proxy constructor not found.", e);
+		}
+		proxies.constructors.put(interfaces, c);
+		return c;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Class<? extends RemoteProxyObject> definePregeneratedProxy(RMIClassDefiner classdefiner,
+			Set<Class<?>> interfaces, Set<ClassLoader> classloaders) {
+		long key = getPregeneratedProxyKey(interfaces, statisticsCollected);
+		String resourcename = getPregeneratedProxyResourceName(key);
+		for (ClassLoader cl : classloaders) {
+			if (cl == null) {
+				continue;
+			}
+			byte[] bytes;
+			try (InputStream in = cl.getResourceAsStream(resourcename)) {
+				if (in == null) {
+					continue;
+				}
+				bytes = readFully(in);
+			} catch (IOException e) {
+				//failed to read, try the next one or generate at runtime
+				continue;
+			}
+			if (!isPregeneratedProxyValid(bytes, interfaces)) {
+				//stale proxy, generate it at runtime
+				return null;
+			}
+			try {
+				Class<?> proxyclass = classdefiner.defineClass(getPregeneratedProxyClassName(key), bytes);
+				//link the class, so verification errors are reported here instead of the first use
+				Class.forName(proxyclass.getName(), true, proxyclass.getClassLoader());
+				return (Class<? extends RemoteProxyObject>) proxyclass;
+			} catch (LinkageError | ClassNotFoundException e) {
+				//the pregenerated proxy is not compatible, generate it at runtime
+				return null;
+			}
+		}
+		return null;
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		for (int read; (read = in.read(buf)) > 0;) {
+			baos.write(buf, 0, read);
+		}
+		return baos.toByteArray();
+	}
+
+	private static Set<ClassLoader> getClassLoadersForClasses(Set<Class<?>> classes) {
+		//use linkedhashset for deterministic class loader order
+		Set<ClassLoader> result = new LinkedHashSet<>();
+		for (Class<?> c : classes) {
+			ClassLoader cl = c.getClassLoader();
+			if (cl != null) {
+				result.add(cl);
+			}
+		}
+		return MultiClassLoader.reduceClassLoaders(result);
+	}
+
+	/**
+	 * Selects the class which has the most specific classloader.
+	 * <p>
+	 * The generated proxy references all of the classes, so it should be attached to the class that is unloaded
+	 * first. If the classloader of the selected class doesn't have the classloaders of all other classes as its
+	 * parents, then <code>null</code> is returned, as attaching the proxy to it would keep the unrelated classloaders
+	 * alive.
+	 */
+	private static Class<?> getCacheKeyClass(Class<?> first, Set<Class<?>> classes) {
+		Class<?> result = first;
+		for (Class<?> c : classes) {
+			if (isParentClassLoader(result.getClassLoader(), c.getClassLoader())) {
+				result = c;
+			}
+		}
+		ClassLoader resultcl = result.getClassLoader();
+		if (!isSameOrParentClassLoader(first.getClassLoader(), resultcl)) {
+			return null;
+		}
+		for (Class<?> c : classes) {
+			if (!isSameOrParentClassLoader(c.getClassLoader(), resultcl)) {
+				return null;
+			}
+		}
+		return result;
+	}
+
+	private static boolean isSameOrParentClassLoader(ClassLoader parent, ClassLoader cl) {
+		return parent == cl || isParentClassLoader(parent, cl);
+	}
+
+	private static boolean isParentClassLoader(ClassLoader parent, ClassLoader cl) {
+		if (cl == parent) {
+			return false;
+		}
+		if (parent == null) {
+			return true;
+		}
+		if (cl == null) {
+			return false;
+		}
+		for (ClassLoader p = cl.getParent(); p != null; p = p.getParent()) {
+			if (p == parent) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The proxy constructors generated for the interface sets that share the same cache key class.
+	 * <p>
+	 * The callers also keep an instance for caching the proxies that cannot be attached to any of their interfaces.
+	 */
+	static final class InterfaceProxies {
+		final ConcurrentHashMap<Set<Class<?>>, Constructor<? extends RemoteProxyObject>> constructors = new ConcurrentHashMap<>();
+		/**
+		 * Access while locked on <code>this</code>.
+		 */
+		final Map<Set<ClassLoader>, RMIClassDefiner> classDefiners = new HashMap<>();
+	}
+
+	private static final class InterfaceProxiesClassValue extends ClassValue<InterfaceProxies> {
+		@Override
+		protected InterfaceProxies computeValue(Class<?> type) {
+			return new InterfaceProxies();
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.rmi.connection;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+
+import saker.rmi.exception.RMIProxyCreationFailedException;
+import saker.util.ReflectUtils;
+
+/**
+ * Utility class for generating the RMI proxy classes at build time.
+ * <p>
+ * The RMI runtime generates the bytecode of the proxy classes when the first proxy object is created for a given set
+ * of interfaces. This can be avoided by pregenerating the proxies and including them alongside the interfaces. The
+ * generated files are placed in the <code>saker/rmi/proxy/</code> directory under the output directory, which should
+ * be added to the same JAR or class directory as the proxy interfaces.
+ * <p>
+ * The pregenerated proxies are only used if the connection is not configured with custom
+ * {@linkplain RMIOptions#transferProperties(RMITransferProperties) transfer properties}, as the generated bytecode
+ * depends on them. If there is no pregenerated proxy for an interface set, or the interfaces were modified since the
+ * generation, then the proxy is generated at runtime.
+ * <p>
+ * The class can be used as a main class. The first argument is the output directory, the rest are the names of the
+ * classes to generate the proxies for.
+ * 
+ * @since saker.rmi 0.8.3
+ */
+public final class RMIProxyPregenerator {
+	private RMIProxyPregenerator() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Generates the proxy classes for the remote objects of the given type.
+	 * <p>
+	 * The proxy interfaces are determined the same way as the RMI runtime does when an instance of the argument type is
+	 * transferred as a remote object. If the argument is an interface, then it is included as well.
+	 * 
+	 * @param type
+	 *            The type.
+	 * @param outputdirectory
+	 *            The output directory.
+	 * @throws IOException
+	 *             In case of I/O error.
+	 * @throws RMIProxyCreationFailedException
+	 *             If the proxy generation failed.
+	 * @throws NullPointerException
+	 *             If any of the arguments are <code>null</code>.
+	 */
+	public static void generate(Class<?> type, Path outputdirectory)
+			throws IOException, RMIProxyCreationFailedException, NullPointerException {
+		Objects.requireNonNull(type, "type");
+		Set<Class<?>> interfaces = new LinkedHashSet<>();
+		if (type.isInterface()) {
+			interfaces.add(type);
+		}
+		interfaces.addAll(ReflectUtils.getAllInterfaces(type));
+		generate(interfaces, outputdirectory);
+	}
+
+	/**
+	 * Generates the proxy classes for the given set of interfaces.
+	 * <p>
+	 * The proxies are generated both with and without statistics collection.
+	 * 
+	 * @param interfaces
+	 *            The interfaces.
+	 * @param outputdirectory
+	 *            The output directory.
+	 * @throws IOException
+	 *             In case of I/O error.
+	 * @throws RMIProxyCreationFailedException
+	 *             If the proxy generation failed.
+	 * @throws NullPointerException
+	 *             If any of the arguments are <code>null</code>.
+	 */
+	public static void generate(Set<? extends Class<?>> interfaces, Path outputdirectory)
+			throws IOException, RMIProxyCreationFailedException, NullPointerException {
+		Objects.requireNonNull(interfaces, "interfaces");
+		Objects.requireNonNull(outputdirectory, "output directory");
+		Set<Class<?>> itfs = new LinkedHashSet<>(interfaces);
+		RMIStream.reducePublicNonAssignableInterfaces(itfs, RMIProxyClassCache.getDefault().getMarkerClassLookup(),
+				null);
+		Files.createDirectories(outputdirectory.resolve(RMIProxyClassCache.PREGENERATED_PROXY_RESOURCE_DIRECTORY));
+		String markerclassinternalname = RMIProxyClassCache.PROXY_MARKER_CLASS_NAME.replace('.', '/');
+		for (boolean statistics : new boolean[] { false, true }) {
+			long key = RMIProxyClassCache.getPregeneratedProxyKey(itfs, statistics);
+			byte[] bytes = ProxyGenerator.generateProxy(RMIProxyClassCache.getPregeneratedProxyClassName(key), itfs,
+					markerclassinternalname, AutoCreatingRMITransferProperties.create(), statistics);
+			Files.write(outputdirectory.resolve(RMIProxyClassCache.getPregeneratedProxyResourceName(key)), bytes);
+		}
+	}
+
+	/**
+	 * Command line entry point for generating the proxy classes.
+	 * <p>
+	 * The first argument is the output directory, the rest are the names of the classes to generate the proxies for.
+	 * The classes are loaded using the context classloader of the current thread.
+	 * 
+	 * @param args
+	 *            The arguments.
+	 * @throws Exception
+	 *             If the generation failed.
+	 * @see #generate(Class, Path)
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			throw new IllegalArgumentException("Usage: <output-directory> <class-name>...");
+		}
+		Path outputdirectory = Paths.get(args[0]);
+		ClassLoader cl = Thread.currentThread().getContextClassLoader();
+		for (int i = 1; i < args.length; i++) {
+			generate(Class.forName(args[i], false, cl), outputdirectory);
+		}
+	}
+}
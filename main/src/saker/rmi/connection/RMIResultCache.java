@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.rmi.connection;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Argument keyed cache of the call results of a method for a given remote proxy object.
+ * <p>
+ * The least recently used entries are evicted if the number of cached results exceed the limit, and the entries are
+ * discarded when they expire.
+ * <p>
+ * The arguments are compared using deep equality, except for the remote proxy objects, which are compared by identity.
+ * Calling {@link Object#hashCode()} or {@link Object#equals(Object)} on a remote proxy may issue a remote call, which
+ * would defeat the purpose of the cache. The arguments are stored in the cache as the key of the result, therefore they
+ * must not be modified after the call. If an argument is modified, the cached result is not found, or is returned for
+ * calls with different arguments.
+ * <p>
+ * Accessed by synchronizing on <code>this</code>.
+ * 
+ * @see MethodTransferProperties#isCacheResultArgumentKeyed()
+ */
+final class RMIResultCache {
+	private static final Object[] EMPTY_ARGUMENTS = {};
+
+	private final int maxEntries;
+	private final long expireNanos;
+	private final LinkedHashMap<ArgumentsKey, CachedResult> results;
+	/**
+	 * Incremented on each invalidation, so the calls that started before an invalidation don't cache their results.
+	 */
+	private int generation;
+
+	public RMIResultCache(MethodTransferProperties method) {
+		this.maxEntries = method.getCacheResultMaxEntries();
+		this.expireNanos = TimeUnit.MILLISECONDS.toNanos(method.getCacheResultExpireAfterMillis());
+		this.results = new LinkedHashMap<ArgumentsKey, CachedResult>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ArgumentsKey, CachedResult> eldest) {
+				if (maxEntries > 0 && size() > maxEntries) {
+					return true;
+				}
+				//lazily discard the expired entries
+				return isExpired(eldest.getValue(), System.nanoTime());
+			}
+		};
+	}
+
+	public Object call(RemoteProxyObject proxy, MethodTransferProperties method, Object[] args,
+			RMIStatistics statistics) throws Throwable {
+		ArgumentsKey key = new ArgumentsKey(args == null ? EMPTY_ARGUMENTS : args);
+		int callgeneration;
+		synchronized (this) {
+			CachedResult cached = results.get(key);
+			if (cached != null) {
+				if (!isExpired(cached, System.nanoTime())) {
+					return cached.result;
+				}
+				results.remove(key);
+			}
+			callgeneration = generation;
+		}
+		Object result;
+		if (statistics == null) {
+			result = RemoteProxyObject.callMethodInternal(proxy, method, args);
+		} else {
+			result = RemoteProxyObject.callMethodInternal(proxy, method, args, statistics);
+		}
+		synchronized (this) {
+			if (callgeneration == generation) {
+				long expiry = expireNanos == 0 ? 0 : System.nanoTime() + expireNanos;
+				results.put(key, new CachedResult(result, expiry));
+			}
+		}
+		return result;
+	}
+
+	public synchronized void invalidate() {
+		++generation;
+		results.clear();
+	}
+
+	private boolean isExpired(CachedResult cached, long nanos) {
+		return expireNanos != 0 && nanos - cached.expiry >= 0;
+	}
+
+	private static final class CachedResult {
+		protected final Object result;
+		protected final long expiry;
+
+		public CachedResult(Object result, long expiry) {
+			this.result = result;
+			this.expiry = expiry;
+		}
+	}
+
+	private static final class ArgumentsKey {
+		private final Object[] arguments;
+		private final int hashCode;
+
+		public ArgumentsKey(Object[] arguments) {
+			this.arguments = arguments;
+			this.hashCode = argumentsHashCode(arguments);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			ArgumentsKey other = (ArgumentsKey) obj;
+			if (hashCode != other.hashCode)
+				return false;
+			return argumentsEquals(arguments, other.arguments);
+		}
+
+		/**
+		 * Same as {@link Arrays#deepHashCode(Object[])}, but uses the identity hash code of remote proxy objects.
+		 */
+		private static int argumentsHashCode(Object[] arguments) {
+			int result = 1;
+			for (Object element : arguments) {
+				result = 31 * result + elementHashCode(element);
+			}
+			return result;
+		}
+
+		private static int elementHashCode(Object element) {
+			if (element == null) {
+				return 0;
+			}
+			if (element instanceof RemoteProxyObject) {
+				return System.identityHashCode(element);
+			}
+			if (element instanceof Object[]) {
+				return argumentsHashCode((Object[]) element);
+			}
+			if (element.getClass().isArray()) {
+				//primitive array, can't contain proxies
+				return Arrays.deepHashCode(new Object[] { element });
+			}
+			return element.hashCode();
+		}
+
+		/**
+		 * Same as {@link Arrays#deepEquals(Object[], Object[])}, but compares remote proxy objects by identity.
+		 */
+		private static boolean argumentsEquals(Object[] first, Object[] second) {
+			if (first.length != second.length) {
+				return false;
+			}
+			for (int i = 0; i < first.length; i++) {
+				if (!elementEquals(first[i], second[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static boolean elementEquals(Object first, Object second) {
+			if (first == second) {
+				return true;
+			}
+			if (first == null || second == null) {
+				return false;
+			}
+			if (first instanceof RemoteProxyObject || second instanceof RemoteProxyObject) {
+				return false;
+			}
+			if (first instanceof Object[] && second instanceof Object[]) {
+				return argumentsEquals((Object[]) first, (Object[]) second);
+			}
+			if (first.getClass().isArray()) {
+				//primitive array, can't contain proxies
+				return Arrays.deepEquals(new Object[] { first }, new Object[] { second });
+			}
+			return first.equals(second);
+		}
+	}
+}
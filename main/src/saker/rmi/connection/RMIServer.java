@@ -866,6 +866,7 @@ public class RMIServer implements AutoCloseable {
 			long mostsig;
 			long leastsig;
 			short useversion;
+			long remoteclassdictionaryfingerprint = 0;
 			OutputStream sockout;
 			InputStream sockin;
 
@@ -904,6 +905,12 @@ public class RMIServer implements AutoCloseable {
 				}
 				mostsig = datais.readLong();
 				leastsig = datais.readLong();
+				if (useversion >= RMIConnection.PROTOCOL_VERSION_3) {
+					remoteclassdictionaryfingerprint = datais.readLong();
+					DataOutputStream dataos = new DataOutputStream(sockout);
+					dataos.writeLong(RMIClassDictionary.getFingerprint(options.classDictionary));
+					dataos.flush();
+				}
 
 				s.setSoTimeout(0);
 			} catch (SocketException e) {
@@ -919,7 +926,8 @@ public class RMIServer implements AutoCloseable {
 			sockclose = null;
 			StreamConnector streamconnector = new StreamConnector(useversion, uuid, socketfactory, address,
 					connectiontimeout);
-			return new RMIConnection(options, new StreamPair(sockin, sockout), useversion, streamconnector);
+			return new RMIConnection(options, new StreamPair(sockin, sockout), useversion,
+					remoteclassdictionaryfingerprint, streamconnector);
 		} catch (IOException e) {
 			exc = e;
 		} finally {
@@ -1054,7 +1062,13 @@ public class RMIServer implements AutoCloseable {
 					dataos.writeShort(COMMAND_NEW_CONNECTION_RESPONSE);
 					dataos.writeLong(connuuidtoremove.getMostSignificantBits());
 					dataos.writeLong(connuuidtoremove.getLeastSignificantBits());
-					dataos.flush();
+					if (useversion >= RMIConnection.PROTOCOL_VERSION_3) {
+						dataos.writeLong(connection.getClassDictionaryFingerprint());
+						dataos.flush();
+						connection.setRemoteClassDictionaryFingerprint(datais.readLong());
+					} else {
+						dataos.flush();
+					}
 					accepted.setSoTimeout(0);
 					if (state != STATE_RUNNING) {
 						IOUtils.close(stream, connection);
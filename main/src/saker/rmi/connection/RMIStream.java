@@ -28,6 +28,7 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
 import java.io.OutputStream;
+import java.io.Serializable;
 import java.io.UTFDataFormatException;
 import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Array;
@@ -37,22 +38,39 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.Map;
 import java.util.Optional;
 import java.util.ServiceConfigurationError;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.IntFunction;
 
 import saker.rmi.connection.RequestHandler.Request;
 import saker.rmi.exception.RMICallFailedException;
@@ -68,9 +86,12 @@ import saker.rmi.exception.RMIStackTracedException;
 import saker.rmi.io.RMIObjectInput;
 import saker.rmi.io.wrap.RMIWrapper;
 import saker.rmi.io.writer.ArrayComponentRMIObjectWriteHandler;
+import saker.rmi.io.writer.CollectionRMIObjectWriteHandler;
+import saker.rmi.io.writer.MapRMIObjectWriteHandler;
 import saker.rmi.io.writer.ObjectWriterKind;
 import saker.rmi.io.writer.RMIObjectWriteHandler;
 import saker.rmi.io.writer.SelectorRMIObjectWriteHandler;
+import saker.rmi.io.writer.StreamRMIObjectWriteHandler;
 import saker.rmi.io.writer.WrapperRMIObjectWriteHandler;
 import saker.util.ArrayUtils;
 import saker.util.ImmutableUtils;
@@ -84,7 +105,6 @@ import saker.util.io.IOUtils;
 import saker.util.io.StreamPair;
 import saker.util.io.StreamUtils;
 import saker.util.io.UnsyncBufferedInputStream;
-import saker.util.io.function.IOBiConsumer;
 import saker.util.ref.StrongSoftReference;
 import saker.util.thread.ThreadUtils;
 
@@ -96,6 +116,26 @@ final class RMIStream implements Closeable {
 
 	public static final String EXCEPTION_MESSAGE_DIRECT_REQUESTS_FORBIDDEN = "Direct requests are forbidden.";
 
+	/**
+	 * The maximum number of asynchronous call acknowledgements that are coalesced before they are sent to the remote
+	 * endpoint.
+	 */
+	private static final int ASYNC_RESPONSE_COALESCE_MAX_COUNT = 128;
+	/**
+	 * The time to wait before sending the coalesced asynchronous call acknowledgements.
+	 */
+	private static final long ASYNC_RESPONSE_COALESCE_DELAY_NANOS = 1_000_000L;
+	/**
+	 * The maximum length of the strings that are put in the string dictionary.
+	 */
+	private static final int STRING_DICTIONARY_MAX_LENGTH = 1024;
+	/**
+	 * The maximum length of strings that are encoded as UTF-8 when compact strings are used.
+	 * <p>
+	 * Longer strings are written as UTF-16 chars, so the number of encoded bytes doesn't overflow.
+	 */
+	private static final int STRING_UTF8_MAX_LENGTH = Integer.MAX_VALUE / 3;
+
 	private static final AtomicIntegerFieldUpdater<RMIStream> AIFU_streamCloseWritten = AtomicIntegerFieldUpdater
 			.newUpdater(RMIStream.class, "streamCloseWritten");
 
@@ -133,8 +173,15 @@ final class RMIStream implements Closeable {
 	private static final short COMMAND_METHODCALL_CONTEXTVAR_NOT_FOUND = 31;
 	private static final short COMMAND_ASYNC_RESPONSE = 32;
 	private static final short COMMAND_METHODCALL_ASYNC_WITH_RESPONSE = 33;
+	//since protocol version 3
+	private static final short COMMAND_ASYNC_RESPONSE_COUNTED = 34;
+	private static final short COMMAND_CACHED_SERIAL_CLASS_DESCRIPTOR = 35;
+	private static final short COMMAND_CACHED_STRING = 36;
+	private static final short COMMAND_ITERATOR_NEXT_BATCH = 37;
+	private static final short COMMAND_INVALIDATE_CACHED_RESULTS = 38;
+	private static final short COMMAND_ITERATOR_BATCH_RESULT = 39;
 
-	private static final short COMMAND_END_VALUE = 34;
+	private static final short COMMAND_END_VALUE = 40;
 
 	private static final short OBJECT_NULL = 0;
 	private static final short OBJECT_BOOLEAN = 1;
@@ -169,8 +216,19 @@ final class RMIStream implements Closeable {
 	//since protocol version 2
 	private static final short OBJECT_WRAPPER2 = 30;
 	private static final short OBJECT_SERIALIZED2 = 31;
-
-	private static final short OBJECT_READER_END_VALUE = 32;
+	//since protocol version 3
+	private static final short OBJECT_CODEC = 32;
+	private static final short OBJECT_STRING_INDEX = 33;
+	private static final short OBJECT_HOMOGENEOUS_ARRAY = 34;
+	private static final short OBJECT_COLLECTION = 35;
+	private static final short OBJECT_MAP = 36;
+	private static final short OBJECT_BACK_REFERENCE = 37;
+	private static final short OBJECT_RECORD = 38;
+	private static final short OBJECT_BYTE_BUFFER = 39;
+	private static final short OBJECT_INPUT_STREAM = 40;
+	private static final short OBJECT_OUTPUT_STREAM = 41;
+
+	private static final short OBJECT_READER_END_VALUE = 42;
 
 	private static final short CLASS_DETAILS = 0;
 	private static final short CLASS_INDEX = 1;
@@ -188,6 +246,65 @@ final class RMIStream implements Closeable {
 	private static final short FIELD_DETAILS = 0;
 	private static final short FIELD_INDEX = 1;
 
+	private static final byte STRING_ENCODING_LATIN1 = 0;
+	private static final byte STRING_ENCODING_UTF8 = 1;
+	private static final byte STRING_ENCODING_UTF16 = 2;
+
+	private static final short SERIAL_CLASS_DESCRIPTOR_DETAILS = 0;
+	private static final short SERIAL_CLASS_DESCRIPTOR_INDEX = 1;
+
+	private static final short HOMOGENEOUS_ELEMENT_NONE = -1;
+	private static final short HOMOGENEOUS_ELEMENT_STRING = 0;
+	private static final short HOMOGENEOUS_ELEMENT_ENUM = 1;
+	/**
+	 * The elements are not homogeneous, and each of them is written as an object.
+	 */
+	private static final short HOMOGENEOUS_ELEMENT_OBJECT = 2;
+
+	private static final int HOMOGENEOUS_ELEMENT_NULL = 0;
+	private static final int HOMOGENEOUS_ELEMENT_INLINE = 1;
+	private static final int HOMOGENEOUS_ELEMENT_INDEX_OFFSET = 2;
+
+	private static final short COLLECTION_ARRAY_LIST = 0;
+	private static final short COLLECTION_HASH_SET = 1;
+	private static final short COLLECTION_LINKED_HASH_SET = 2;
+	private static final short COLLECTION_TREE_SET = 3;
+	private static final short COLLECTION_UNMODIFIABLE_LIST = 4;
+	private static final short COLLECTION_UNMODIFIABLE_SET = 5;
+
+	private static final short MAP_HASH_MAP = 0;
+	private static final short MAP_LINKED_HASH_MAP = 1;
+	private static final short MAP_TREE_MAP = 2;
+	private static final short MAP_UNMODIFIABLE_MAP = 3;
+
+	private static final int BYTE_BUFFER_FLAG_DIRECT = 1 << 0;
+	private static final int BYTE_BUFFER_FLAG_READ_ONLY = 1 << 1;
+	private static final int BYTE_BUFFER_FLAG_LITTLE_ENDIAN = 1 << 2;
+	/**
+	 * The size of the intermediate chunks when the contents of a byte buffer is not accessible as an array.
+	 */
+	private static final int BYTE_BUFFER_COPY_CHUNK_SIZE = 8 * 1024;
+
+	/**
+	 * The maximum size of a chunk when transferring streams using {@link StreamRMIObjectWriteHandler}.
+	 */
+	static final int STREAM_TRANSFER_CHUNK_SIZE = 64 * 1024;
+
+	private static final Method ITERATOR_NEXT_METHOD;
+	static {
+		try {
+			ITERATOR_NEXT_METHOD = Iterator.class.getMethod("next");
+		} catch (NoSuchMethodException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * Class name prefix of the immutable collections returned by <code>List.of</code>, <code>Set.of</code>, and
+	 * <code>Map.of</code> on JDK 9+.
+	 */
+	private static final String JDK_IMMUTABLE_COLLECTIONS_CLASS_NAME_PREFIX = "java.util.ImmutableCollections$";
+
 	interface RMIObjectReaderFunction<T> {
 		public T readObject(RMIStream stream, RMIVariables vars, DataInputUnsyncByteArrayInputStream input)
 				throws IOException, ClassNotFoundException;
@@ -209,10 +326,10 @@ final class RMIStream implements Closeable {
 		readers[OBJECT_FLOAT] = (s, vars, in) -> in.readFloat();
 		readers[OBJECT_DOUBLE] = (s, vars, in) -> in.readDouble();
 		readers[OBJECT_CHAR] = (s, vars, in) -> in.readChar();
-		readers[OBJECT_STRING] = (s, vars, in) -> readString(in);
+		readers[OBJECT_STRING] = (s, vars, in) -> s.readObjectString(in);
 		readers[OBJECT_ARRAY] = RMIStream::readObjectArray;
 		readers[OBJECT_ENUM] = (s, vars, in) -> s.readEnum(in);
-		readers[OBJECT_REMOTE] = (s, vars, in) -> readRemoteObject(vars, in);
+		readers[OBJECT_REMOTE] = (s, vars, in) -> s.readRemoteObject(vars, in);
 		readers[OBJECT_NEW_REMOTE] = RMIStream::readNewRemoteObject;
 		readers[OBJECT_EXTERNALIZABLE] = RMIStream::readExternalizableObject;
 		readers[OBJECT_CLASS] = (s, vars, in) -> s.readClass(in).get(vars.getConnection());
@@ -222,15 +339,25 @@ final class RMIStream implements Closeable {
 		readers[OBJECT_WRAPPER] = RMIStream::readWrappedObject;
 		readers[OBJECT_WRAPPER2] = RMIStream::readWrapped2Object;
 		readers[OBJECT_SERIALIZED2] = (s, vars, in) -> s.readSerialized2Object(in);
-
-		readers[OBJECT_BYTE_ARRAY] = (s, vars, in) -> readObjectByteArray(in);
-		readers[OBJECT_SHORT_ARRAY] = (s, vars, in) -> readObjectShortArray(in);
-		readers[OBJECT_INT_ARRAY] = (s, vars, in) -> readObjectIntArray(in);
-		readers[OBJECT_LONG_ARRAY] = (s, vars, in) -> readObjectLongArray(in);
-		readers[OBJECT_FLOAT_ARRAY] = (s, vars, in) -> readObjectFloatArray(in);
-		readers[OBJECT_DOUBLE_ARRAY] = (s, vars, in) -> readObjectDoubleArray(in);
-		readers[OBJECT_BOOLEAN_ARRAY] = (s, vars, in) -> readObjectBooleanArray(in);
-		readers[OBJECT_CHAR_ARRAY] = (s, vars, in) -> readObjectCharArray(in);
+		readers[OBJECT_CODEC] = RMIStream::readCodecObject;
+		readers[OBJECT_STRING_INDEX] = (s, vars, in) -> s.readObjectStringIndex(in);
+		readers[OBJECT_HOMOGENEOUS_ARRAY] = RMIStream::readHomogeneousObjectArray;
+		readers[OBJECT_COLLECTION] = RMIStream::readObjectCollection;
+		readers[OBJECT_MAP] = RMIStream::readObjectMap;
+		readers[OBJECT_BACK_REFERENCE] = (s, vars, in) -> s.readObjectBackReference(in);
+		readers[OBJECT_RECORD] = RMIStream::readRecordObject;
+		readers[OBJECT_BYTE_BUFFER] = (s, vars, in) -> s.readObjectByteBuffer(in);
+		readers[OBJECT_INPUT_STREAM] = RMIStream::readObjectInputStream;
+		readers[OBJECT_OUTPUT_STREAM] = RMIStream::readObjectOutputStream;
+
+		readers[OBJECT_BYTE_ARRAY] = (s, vars, in) -> s.readObjectByteArray(in);
+		readers[OBJECT_SHORT_ARRAY] = (s, vars, in) -> s.readObjectShortArray(in);
+		readers[OBJECT_INT_ARRAY] = (s, vars, in) -> s.readObjectIntArray(in);
+		readers[OBJECT_LONG_ARRAY] = (s, vars, in) -> s.readObjectLongArray(in);
+		readers[OBJECT_FLOAT_ARRAY] = (s, vars, in) -> s.readObjectFloatArray(in);
+		readers[OBJECT_DOUBLE_ARRAY] = (s, vars, in) -> s.readObjectDoubleArray(in);
+		readers[OBJECT_BOOLEAN_ARRAY] = (s, vars, in) -> s.readObjectBooleanArray(in);
+		readers[OBJECT_CHAR_ARRAY] = (s, vars, in) -> s.readObjectCharArray(in);
 		readers[OBJECT_CLASSLOADER] = (s, vars, in) -> s.readClassLoader(in).get(vars.getConnection());
 		readers[OBJECT_FIELD] = (s, vars, in) -> s.readField(in, null);
 	}
@@ -345,6 +472,14 @@ final class RMIStream implements Closeable {
 		handlers[COMMAND_METHODCALL_CONTEXTVAR_NOT_FOUND] = (PendingResponseSimpleCommandHandler) RMIStream::handleCommandContextVariableMethodCallVariableNotFound;
 		handlers[COMMAND_ASYNC_RESPONSE] = (SimpleCommandHandler) RMIStream::handleCommandAsyncResponse;
 		handlers[COMMAND_METHODCALL_ASYNC_WITH_RESPONSE] = (CommandHandler) RMIStream::handleCommandMethodCallAsyncWithResponse;
+
+		//protocol 3
+		handlers[COMMAND_ASYNC_RESPONSE_COUNTED] = (SimpleCommandHandler) RMIStream::handleCommandAsyncResponseCounted;
+		handlers[COMMAND_CACHED_SERIAL_CLASS_DESCRIPTOR] = (SimpleCommandHandler) RMIStream::handleCommandCachedSerialClassDescriptor;
+		handlers[COMMAND_CACHED_STRING] = (SimpleCommandHandler) RMIStream::handleCommandCachedString;
+		handlers[COMMAND_ITERATOR_NEXT_BATCH] = (CommandHandler) RMIStream::handleCommandIteratorNextBatch;
+		handlers[COMMAND_INVALIDATE_CACHED_RESULTS] = (SimpleCommandHandler) RMIStream::handleCommandInvalidateCachedResults;
+		handlers[COMMAND_ITERATOR_BATCH_RESULT] = (PendingResponseGarbageCollectionPreventingCommandHandler) RMIStream::handleCommandIteratorBatchResult;
 	}
 
 	interface RequestScopeHandler {
@@ -507,6 +642,41 @@ final class RMIStream implements Closeable {
 	private final RMICommCache<ConstructorReflectionElementSupplier> commConstructors;
 	private final RMICommCache<FieldReflectionElementSupplier> commFields;
 
+	private final RMICommCache<SerialClassDescriptorReflectionElementSupplier> commSerialClassDescriptors;
+	private final RMICommCache<String> commStrings;
+	/**
+	 * Whether the received string objects should be put in the string dictionary.
+	 */
+	private final boolean stringDictionaryEnabled;
+	/**
+	 * Whether the method results should be decoded on the thread that waits for them.
+	 */
+	private final boolean deferMethodResultDecoding;
+	/**
+	 * The number of elements to fetch at once for remote iterators, or 0 if they shouldn't be prefetched.
+	 */
+	private final int remoteIteratorBatchSize;
+	/**
+	 * Whether the compact encoding of the protocol version 3 is used.
+	 * <p>
+	 * If set, the strings are written using Latin-1 or UTF-8 encoding instead of UTF-16 chars, the object and command
+	 * tags are written as single bytes, and the identifiers and lengths are written as variable length integers.
+	 */
+	private final boolean compactEncoding;
+	/**
+	 * The class transfer properties which were explicitly specified for the connection.
+	 * <p>
+	 * These take precedence over the annotations of the classes. The map is not modified after the connection is
+	 * constructed.
+	 */
+	private final Map<Class<?>, ClassTransferProperties<?>> explicitClassProperties;
+	/**
+	 * The back-reference tables of the commands that are currently being written or read by the threads.
+	 * <p>
+	 * A table is only present while the objects of a command are transferred using protocol version 3.
+	 */
+	private final ThreadLocal<ObjectHandleTable> objectHandleTables = new ThreadLocal<>();
+
 	private final ClassLoader nullClassLoader;
 	private final ClassLoaderReflectionElementSupplier nullClassLoaderSupplier;
 
@@ -517,6 +687,37 @@ final class RMIStream implements Closeable {
 
 	private volatile Function<? super Request, ? extends RMIRuntimeException> requestHandlerCloseReason;
 
+	private final Object pendingAsyncResponsesLock = new Object();
+	/**
+	 * The number of not yet sent asynchronous call acknowledgements mapped to the remote identifiers of the
+	 * variables.
+	 * <p>
+	 * <code>null</code> if there is no flushing task offered for the acknowledgements.
+	 * <p>
+	 * Accessed while locked on {@link #pendingAsyncResponsesLock}.
+	 */
+	private Map<Integer, int[]> pendingAsyncResponses;
+
+	/**
+	 * Holder class for the lazily created scheduler that delays the flushing of the coalesced asynchronous call
+	 * acknowledgements.
+	 * <p>
+	 * The thread of the scheduler only offers the flushing tasks to the streams, and it exits when idle.
+	 */
+	private static final class AsyncResponseFlushScheduler {
+		static final ScheduledThreadPoolExecutor INSTANCE;
+		static {
+			ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+				Thread thread = new Thread(r, "RMI-async-response-flush");
+				thread.setDaemon(true);
+				return thread;
+			});
+			executor.setKeepAliveTime(1, TimeUnit.SECONDS);
+			executor.allowCoreThreadTimeOut(true);
+			INSTANCE = executor;
+		}
+	}
+
 	private class CommandFlusher implements Closeable {
 		final StrongSoftReference<DataOutputUnsyncByteArrayOutputStream> buffer;
 
@@ -748,7 +949,7 @@ final class RMIStream implements Closeable {
 
 					try (DataInputUnsyncByteArrayInputStream in = new DataInputUnsyncByteArrayInputStream(
 							fullblockbuf.toByteArrayRegion())) {
-						short command = in.readShort();
+						short command = readTag(in);
 						switch (command) {
 							case COMMAND_STREAM_CLOSED: {
 								connection.clientClose();
@@ -764,8 +965,8 @@ final class RMIStream implements Closeable {
 								if (vars == null) {
 									continue block_read_loop;
 								}
-								int localid = in.readInt();
-								int count = in.readInt();
+								int localid = readCompactInt(in);
+								int count = readCompactInt(in);
 
 								currentaction.referencesReleased(vars, localid, count, nextaction);
 								continue block_read_loop;
@@ -875,12 +1076,22 @@ final class RMIStream implements Closeable {
 
 		this.connection = connection;
 
-		RMICommState commState = new RMICommState();
+		RMICommState commState = new RMICommState(connection.getStringDictionaryCapacity());
 		commClasses = commState.getClasses();
 		commClassLoaders = commState.getClassLoaders();
 		commMethods = commState.getMethods();
 		commConstructors = commState.getConstructors();
 		commFields = commState.getFields();
+		commSerialClassDescriptors = commState.getSerialClassDescriptors();
+		commStrings = commState.getStrings();
+		this.stringDictionaryEnabled = connection.getStringDictionaryCapacity() > 0
+				&& connection.getProtocolVersion() >= RMIConnection.PROTOCOL_VERSION_3;
+		this.compactEncoding = connection.getProtocolVersion() >= RMIConnection.PROTOCOL_VERSION_3;
+		this.deferMethodResultDecoding = connection.isDeferMethodResultDecoding();
+		this.remoteIteratorBatchSize = compactEncoding ? connection.getRemoteIteratorBatchSize() : 0;
+		RMITransferProperties transferproperties = connection.getProperties();
+		this.explicitClassProperties = transferproperties == null ? Collections.emptyMap()
+				: transferproperties.classProperties;
 
 		this.nullClassLoader = connection.getNullClassLoader();
 		this.nullClassLoaderSupplier = new NullClassLoaderReflectionElementSupplier(this.nullClassLoader);
@@ -891,9 +1102,45 @@ final class RMIStream implements Closeable {
 	}
 
 	public void start() {
+		//the dictionary is only seeded if the endpoints verified that they use the same one
+		//otherwise the elements of the dictionary are indexed the same way as any other
+		//the dictionary fingerprint of the other endpoint may not be known when the stream is constructed
+		if (compactEncoding && connection.isClassDictionaryShared()) {
+			RMIClassDictionary dictionary = connection.getClassDictionary();
+			seedClassDictionary(dictionary, false);
+			seedClassDictionary(dictionary, true);
+		}
 		connection.offerStreamTask(new RunInputRunnable());
 	}
 
+	private void seedClassDictionary(RMIClassDictionary dictionary, boolean write) {
+		//the endpoints assign the indices based on the position of the element in the dictionary
+		//the class loaders are seeded by the position of the class, as multiple classes may share the same loader
+		int index = RMICommState.DEFAULT_CLASSES.size();
+		int clindex = 1;
+		for (Class<?> c : dictionary.getClasses()) {
+			ClassReflectionElementSupplier cres = getClassReflectionElementSupplier(c);
+			seedCache(commClasses, cres, index++, write);
+			seedCache(commClassLoaders, cres.getClassLoader(), clindex++, write);
+		}
+		index = 1;
+		for (Method m : dictionary.getMethods()) {
+			seedCache(commMethods, getMethodReflectionElementSupplier(m), index++, write);
+		}
+		index = 1;
+		for (Constructor<?> constructor : dictionary.getConstructors()) {
+			seedCache(commConstructors, getConstructorReflectionElementSupplier(constructor), index++, write);
+		}
+	}
+
+	private static <S> void seedCache(RMICommCache<S> cache, S data, int index, boolean write) {
+		if (write) {
+			cache.putWrite(data, index);
+		} else {
+			cache.putReadInternal(index, data);
+		}
+	}
+
 	private Function<? super Request, ? extends RMIRuntimeException> getRequestHandlerCloseReason() {
 		Function<? super Request, ? extends RMIRuntimeException> result = this.requestHandlerCloseReason;
 		if (result != null) {
@@ -1012,8 +1259,8 @@ final class RMIStream implements Closeable {
 		}
 	}
 
-	private static void writeNullObject(DataOutputUnsyncByteArrayOutputStream out) {
-		out.writeShort(OBJECT_NULL);
+	private void writeNullObject(DataOutputUnsyncByteArrayOutputStream out) {
+		writeTag(out, OBJECT_NULL);
 	}
 
 	private static final Set<Class<?>> NON_CUSTOMIZABLE_SERIALIZE_TYPES = ImmutableUtils.makeImmutableHashSet(
@@ -1026,83 +1273,186 @@ final class RMIStream implements Closeable {
 		return NON_CUSTOMIZABLE_SERIALIZE_TYPES.contains(type);
 	}
 
-	private final Map<Class<?>, IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, ?>> reflectionTypeWriters = new HashMap<>(
-			50);
-	{
-		reflectionTypeWriters.put(Class.class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, Class<?>>) this::writeObjectClass);
-		reflectionTypeWriters.put(Method.class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, Method>) this::writeObjectMethod);
-		reflectionTypeWriters.put(Constructor.class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, Constructor<?>>) this::writeObjectConstructor);
-		reflectionTypeWriters.put(Field.class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, Field>) this::writeObjectField);
-	}
-	private final Map<Class<?>, IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, ?>> typeWriters = new HashMap<>(50);
-	{
-		typeWriters.put(Void.class, (out, v) -> writeNullObject(out));
-		typeWriters.put(void.class, (out, v) -> writeNullObject(out));
-
-		typeWriters.put(boolean.class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, Boolean>) RMIStream::writeObjectBoolean);
-		typeWriters.put(Boolean.class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, Boolean>) RMIStream::writeObjectBoolean);
-
-		typeWriters.put(byte.class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, Byte>) RMIStream::writeObjectByte);
-		typeWriters.put(Byte.class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, Byte>) RMIStream::writeObjectByte);
-
-		typeWriters.put(short.class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, Short>) RMIStream::writeObjectShort);
-		typeWriters.put(Short.class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, Short>) RMIStream::writeObjectShort);
-
-		typeWriters.put(int.class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, Integer>) RMIStream::writeObjectInt);
-		typeWriters.put(Integer.class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, Integer>) RMIStream::writeObjectInt);
-
-		typeWriters.put(long.class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, Long>) RMIStream::writeObjectLong);
-		typeWriters.put(Long.class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, Long>) RMIStream::writeObjectLong);
-
-		typeWriters.put(float.class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, Float>) RMIStream::writeObjectFloat);
-		typeWriters.put(Float.class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, Float>) RMIStream::writeObjectFloat);
-
-		typeWriters.put(double.class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, Double>) RMIStream::writeObjectDouble);
-		typeWriters.put(Double.class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, Double>) RMIStream::writeObjectDouble);
-
-		typeWriters.put(char.class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, Character>) RMIStream::writeObjectChar);
-		typeWriters.put(Character.class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, Character>) RMIStream::writeObjectChar);
-
-		typeWriters.put(String.class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, String>) RMIStream::writeObjectString);
-
-		typeWriters.put(byte[].class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, byte[]>) RMIStream::writeObjectByteArray);
-		typeWriters.put(short[].class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, short[]>) RMIStream::writeObjectShortArray);
-		typeWriters.put(int[].class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, int[]>) RMIStream::writeObjectIntArray);
-		typeWriters.put(long[].class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, long[]>) RMIStream::writeObjectLongArray);
-		typeWriters.put(float[].class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, float[]>) RMIStream::writeObjectFloatArray);
-		typeWriters.put(double[].class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, double[]>) RMIStream::writeObjectDoubleArray);
-		typeWriters.put(boolean[].class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, boolean[]>) RMIStream::writeObjectBooleanArray);
-		typeWriters.put(char[].class,
-				(IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, char[]>) RMIStream::writeObjectCharArray);
+	@FunctionalInterface
+	private interface ClassObjectWriter {
+		public void write(RMIStream stream, DataOutputUnsyncByteArrayOutputStream out, Object obj) throws IOException;
+	}
+
+	/**
+	 * The kind of default writing for objects of a given class.
+	 * <p>
+	 * Used when no write handler is applicable to the object.
+	 */
+	private enum DefaultWriteKind {
+		ARRAY,
+		ENUM,
+		CLASSLOADER,
+		REFLECTION,
+		EXTERNALIZABLE,
+		CODEC,
+		RECORD,
+		BYTE_BUFFER,
+		THROWABLE,
+		REMOTE;
+	}
+
+	/**
+	 * The precomputed decisions for writing instances of a given class.
+	 */
+	private static final class ClassWritePlan {
+		private static final Object NO_ANNOTATED_WRITE_HANDLER = new Object();
+
+		/**
+		 * The writer for the types which are not customizable by write handlers, or <code>null</code> if not
+		 * applicable.
+		 */
+		protected final ClassObjectWriter simpleWriter;
+		protected final DefaultWriteKind defaultKind;
+		/**
+		 * The writer for the {@link DefaultWriteKind#REFLECTION} kind.
+		 */
+		protected final ClassObjectWriter reflectionWriter;
+		/**
+		 * The write handler specified by the annotations on the class, {@link #NO_ANNOTATED_WRITE_HANDLER} if there
+		 * are none, or <code>null</code> if not yet resolved.
+		 * <p>
+		 * Resolved lazily, as the annotations are only examined if the class doesn't have explicit transfer
+		 * properties.
+		 */
+		private volatile Object annotatedWriteHandler;
+
+		public ClassWritePlan(ClassObjectWriter simpleWriter, DefaultWriteKind defaultKind,
+				ClassObjectWriter reflectionWriter) {
+			this.simpleWriter = simpleWriter;
+			this.defaultKind = defaultKind;
+			this.reflectionWriter = reflectionWriter;
+		}
+
+		public RMIObjectWriteHandler getAnnotatedWriteHandler(Class<?> type) {
+			Object handler = annotatedWriteHandler;
+			if (handler == null) {
+				//racy initialization is fine, the result is the same for every thread
+				ClassTransferProperties<?> annotatedproperties = ClassTransferProperties.createForAnnotations(type);
+				handler = annotatedproperties == null ? NO_ANNOTATED_WRITE_HANDLER
+						: annotatedproperties.getWriteHandler();
+				annotatedWriteHandler = handler;
+			}
+			if (handler == NO_ANNOTATED_WRITE_HANDLER) {
+				return null;
+			}
+			return (RMIObjectWriteHandler) handler;
+		}
+	}
+
+	private static final Map<Class<?>, ClassObjectWriter> REFLECTION_TYPE_WRITERS = new HashMap<>();
+	static {
+		REFLECTION_TYPE_WRITERS.put(Class.class, (s, out, v) -> s.writeObjectClass(out, (Class<?>) v));
+		REFLECTION_TYPE_WRITERS.put(Method.class, (s, out, v) -> s.writeObjectMethod(out, (Method) v));
+		REFLECTION_TYPE_WRITERS.put(Constructor.class, (s, out, v) -> s.writeObjectConstructor(out, (Constructor<?>) v));
+		REFLECTION_TYPE_WRITERS.put(Field.class, (s, out, v) -> s.writeObjectField(out, (Field) v));
+	}
+	private static final Map<Class<?>, Short> COLLECTION_TYPES = new HashMap<>();
+	private static final Map<Class<?>, Short> MAP_TYPES = new HashMap<>();
+	static {
+		COLLECTION_TYPES.put(ArrayList.class, COLLECTION_ARRAY_LIST);
+		COLLECTION_TYPES.put(HashSet.class, COLLECTION_HASH_SET);
+		COLLECTION_TYPES.put(LinkedHashSet.class, COLLECTION_LINKED_HASH_SET);
+		COLLECTION_TYPES.put(TreeSet.class, COLLECTION_TREE_SET);
+		COLLECTION_TYPES.put(Collections.emptyList().getClass(), COLLECTION_UNMODIFIABLE_LIST);
+		COLLECTION_TYPES.put(Collections.singletonList(null).getClass(), COLLECTION_UNMODIFIABLE_LIST);
+		COLLECTION_TYPES.put(Collections.unmodifiableList(new ArrayList<>()).getClass(), COLLECTION_UNMODIFIABLE_LIST);
+		COLLECTION_TYPES.put(Collections.unmodifiableList(new LinkedList<>()).getClass(), COLLECTION_UNMODIFIABLE_LIST);
+		COLLECTION_TYPES.put(Collections.emptySet().getClass(), COLLECTION_UNMODIFIABLE_SET);
+		COLLECTION_TYPES.put(Collections.singleton(null).getClass(), COLLECTION_UNMODIFIABLE_SET);
+		COLLECTION_TYPES.put(Collections.unmodifiableSet(new HashSet<>()).getClass(), COLLECTION_UNMODIFIABLE_SET);
+
+		MAP_TYPES.put(HashMap.class, MAP_HASH_MAP);
+		MAP_TYPES.put(LinkedHashMap.class, MAP_LINKED_HASH_MAP);
+		MAP_TYPES.put(TreeMap.class, MAP_TREE_MAP);
+		MAP_TYPES.put(Collections.emptyMap().getClass(), MAP_UNMODIFIABLE_MAP);
+		MAP_TYPES.put(Collections.singletonMap(null, null).getClass(), MAP_UNMODIFIABLE_MAP);
+		MAP_TYPES.put(Collections.unmodifiableMap(new HashMap<>()).getClass(), MAP_UNMODIFIABLE_MAP);
+	}
+	private static final Map<Class<?>, ClassObjectWriter> SIMPLE_TYPE_WRITERS = new HashMap<>(50);
+	static {
+		SIMPLE_TYPE_WRITERS.put(Void.class, (s, out, v) -> s.writeNullObject(out));
+		SIMPLE_TYPE_WRITERS.put(void.class, (s, out, v) -> s.writeNullObject(out));
+
+		SIMPLE_TYPE_WRITERS.put(boolean.class, (s, out, v) -> s.writeObjectBoolean(out, (Boolean) v));
+		SIMPLE_TYPE_WRITERS.put(Boolean.class, (s, out, v) -> s.writeObjectBoolean(out, (Boolean) v));
+
+		SIMPLE_TYPE_WRITERS.put(byte.class, (s, out, v) -> s.writeObjectByte(out, (Byte) v));
+		SIMPLE_TYPE_WRITERS.put(Byte.class, (s, out, v) -> s.writeObjectByte(out, (Byte) v));
+
+		SIMPLE_TYPE_WRITERS.put(short.class, (s, out, v) -> s.writeObjectShort(out, (Short) v));
+		SIMPLE_TYPE_WRITERS.put(Short.class, (s, out, v) -> s.writeObjectShort(out, (Short) v));
 
+		SIMPLE_TYPE_WRITERS.put(int.class, (s, out, v) -> s.writeObjectInt(out, (Integer) v));
+		SIMPLE_TYPE_WRITERS.put(Integer.class, (s, out, v) -> s.writeObjectInt(out, (Integer) v));
+
+		SIMPLE_TYPE_WRITERS.put(long.class, (s, out, v) -> s.writeObjectLong(out, (Long) v));
+		SIMPLE_TYPE_WRITERS.put(Long.class, (s, out, v) -> s.writeObjectLong(out, (Long) v));
+
+		SIMPLE_TYPE_WRITERS.put(float.class, (s, out, v) -> s.writeObjectFloat(out, (Float) v));
+		SIMPLE_TYPE_WRITERS.put(Float.class, (s, out, v) -> s.writeObjectFloat(out, (Float) v));
+
+		SIMPLE_TYPE_WRITERS.put(double.class, (s, out, v) -> s.writeObjectDouble(out, (Double) v));
+		SIMPLE_TYPE_WRITERS.put(Double.class, (s, out, v) -> s.writeObjectDouble(out, (Double) v));
+
+		SIMPLE_TYPE_WRITERS.put(char.class, (s, out, v) -> s.writeObjectChar(out, (Character) v));
+		SIMPLE_TYPE_WRITERS.put(Character.class, (s, out, v) -> s.writeObjectChar(out, (Character) v));
+
+		SIMPLE_TYPE_WRITERS.put(String.class, (s, out, v) -> s.writeObjectString(out, (String) v));
+
+		SIMPLE_TYPE_WRITERS.put(byte[].class, (s, out, v) -> s.writeObjectByteArray(out, (byte[]) v));
+		SIMPLE_TYPE_WRITERS.put(short[].class, (s, out, v) -> s.writeObjectShortArray(out, (short[]) v));
+		SIMPLE_TYPE_WRITERS.put(int[].class, (s, out, v) -> s.writeObjectIntArray(out, (int[]) v));
+		SIMPLE_TYPE_WRITERS.put(long[].class, (s, out, v) -> s.writeObjectLongArray(out, (long[]) v));
+		SIMPLE_TYPE_WRITERS.put(float[].class, (s, out, v) -> s.writeObjectFloatArray(out, (float[]) v));
+		SIMPLE_TYPE_WRITERS.put(double[].class, (s, out, v) -> s.writeObjectDoubleArray(out, (double[]) v));
+		SIMPLE_TYPE_WRITERS.put(boolean[].class, (s, out, v) -> s.writeObjectBooleanArray(out, (boolean[]) v));
+		SIMPLE_TYPE_WRITERS.put(char[].class, (s, out, v) -> s.writeObjectCharArray(out, (char[]) v));
+	}
+
+	/**
+	 * The write plans of the classes.
+	 * <p>
+	 * The plans only contain decisions that are based on the class itself, so they can be shared among all streams.
+	 */
+	private static final ClassValue<ClassWritePlan> CLASS_WRITE_PLANS = new ClassValue<ClassWritePlan>() {
+		@Override
+		protected ClassWritePlan computeValue(Class<?> type) {
+			return createClassWritePlan(type);
+		}
+	};
+
+	private static ClassWritePlan createClassWritePlan(Class<?> type) {
+		ClassObjectWriter simplewriter = SIMPLE_TYPE_WRITERS.get(type);
+		ClassObjectWriter reflectionwriter = null;
+		DefaultWriteKind kind;
+		if (type.isArray()) {
+			kind = DefaultWriteKind.ARRAY;
+		} else if (ReflectUtils.isEnumOrEnumAnonymous(type)) {
+			kind = DefaultWriteKind.ENUM;
+		} else if (ClassLoader.class.isAssignableFrom(type)) {
+			//classloader needs to have an assignability check instead of putting the exact class in the type writers
+			kind = DefaultWriteKind.CLASSLOADER;
+		} else if ((reflectionwriter = REFLECTION_TYPE_WRITERS.get(type)) != null) {
+			kind = DefaultWriteKind.REFLECTION;
+		} else if (Externalizable.class.isAssignableFrom(type)) {
+			kind = DefaultWriteKind.EXTERNALIZABLE;
+		} else if (GeneratedObjectCodec.isCodecType(type)) {
+			kind = DefaultWriteKind.CODEC;
+		} else if (RecordObjectCodec.get(type) != null) {
+			kind = DefaultWriteKind.RECORD;
+		} else if (ByteBuffer.class.isAssignableFrom(type)) {
+			kind = DefaultWriteKind.BYTE_BUFFER;
+		} else if (Throwable.class.isAssignableFrom(type)) {
+			kind = DefaultWriteKind.THROWABLE;
+		} else {
+			kind = DefaultWriteKind.REMOTE;
+		}
+		return new ClassWritePlan(simplewriter, kind, reflectionwriter);
 	}
 
 	protected void flushCommand(StrongSoftReference<DataOutputUnsyncByteArrayOutputStream> bufferref)
@@ -1144,6 +1494,22 @@ final class RMIStream implements Closeable {
 		}
 	}
 
+	/**
+	 * Gets the write handler that is configured for the given class.
+	 * <p>
+	 * Equivalent to querying the class transfer properties of the variables, but uses the write plan of the class
+	 * instead of looking up the properties for each written object.
+	 */
+	private RMIObjectWriteHandler getClassWriteHandler(RMIVariables variables, Class<?> clazz, ClassWritePlan plan) {
+		//check closed the same way as if the properties were queried
+		variables.getPropertiesCheckClosed();
+		ClassTransferProperties<?> explicitproperties = explicitClassProperties.get(clazz);
+		if (explicitproperties != null) {
+			return explicitproperties.getWriteHandler();
+		}
+		return plan.getAnnotatedWriteHandler(clazz);
+	}
+
 	private void writeCustomizableWithWriteHandler(RMIVariables variables, Object obj, Class<?> targettype,
 			DataOutputUnsyncByteArrayOutputStream out, RMIObjectWriteHandler writehandler) throws IOException {
 		ObjectWriterKind kind = writehandler.getKind();
@@ -1194,6 +1560,32 @@ final class RMIStream implements Closeable {
 				writeWrappedObject(variables, obj, targettype, wrapperwriter.getWrapperClass(), out);
 				break;
 			}
+			case COLLECTION: {
+				if (!compactEncoding) {
+					writeObjectDefault(variables, obj, targettype, out);
+					break;
+				}
+				CollectionRMIObjectWriteHandler collectionwriter = (CollectionRMIObjectWriteHandler) writehandler;
+				writeObjectCollection(variables, obj, out, collectionwriter.getElementWriter());
+				break;
+			}
+			case MAP: {
+				if (!compactEncoding) {
+					writeObjectDefault(variables, obj, targettype, out);
+					break;
+				}
+				MapRMIObjectWriteHandler mapwriter = (MapRMIObjectWriteHandler) writehandler;
+				writeObjectMap(variables, obj, out, mapwriter.getKeyWriter(), mapwriter.getValueWriter());
+				break;
+			}
+			case STREAM: {
+				if (!compactEncoding) {
+					writeObjectDefault(variables, obj, targettype, out);
+					break;
+				}
+				writeObjectStream(variables, obj, out);
+				break;
+			}
 			default: {
 				throw new RMIObjectTransferFailureException("Unrecognized ObjectWriterKind: " + kind);
 			}
@@ -1222,39 +1614,71 @@ final class RMIStream implements Closeable {
 					RMIObjectWriteHandler.defaultWriter());
 			return;
 		}
-		if (objclass.isArray()) {
-			writeObjectObjectArrayImpl(variables, out, objclass.getComponentType(), (Object[]) obj,
-					RMIObjectWriteHandler.defaultWriter());
-			return;
-		}
-		if (ReflectUtils.isEnumOrEnumAnonymous(objclass)) {
-			writeObjectEnumImpl(out, objclass, ((Enum<?>) obj).name());
-			return;
-		}
-		if (obj instanceof ClassLoader) {
-			//classloader needs to have instanceof instead of putting the exact class in the type writers
-			writeObjectClassLoader(out, (ClassLoader) obj);
-			return;
-		}
-		@SuppressWarnings("unchecked")
-		IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, Object> simplewriter = (IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, Object>) reflectionTypeWriters
-				.get(objclass);
-		if (simplewriter != null) {
-			simplewriter.accept(out, obj);
-			return;
+		ClassWritePlan plan = CLASS_WRITE_PLANS.get(objclass);
+		switch (plan.defaultKind) {
+			case ARRAY: {
+				writeObjectObjectArrayImpl(variables, out, objclass.getComponentType(), (Object[]) obj,
+						RMIObjectWriteHandler.defaultWriter());
+				return;
+			}
+			case ENUM: {
+				writeObjectEnumImpl(out, objclass, ((Enum<?>) obj).name());
+				return;
+			}
+			case CLASSLOADER: {
+				writeObjectClassLoader(out, (ClassLoader) obj);
+				return;
+			}
+			case REFLECTION: {
+				plan.reflectionWriter.write(this, out, obj);
+				return;
+			}
+			default: {
+				break;
+			}
 		}
 		if ((targettype != null && targettype.isInterface()) || targettype == RemoteProxyObject.class) {
 			writeNewRemoteObject(variables, obj, out);
 			return;
 		}
-		if (writeExternalizableObject(variables, obj, out)) {
-			return;
-		}
-		if (obj instanceof Throwable) {
-			writeSerializedObject(obj, out);
-			return;
+		switch (plan.defaultKind) {
+			case EXTERNALIZABLE: {
+				writeExternalizableObjectImpl(variables, (Externalizable) obj, out);
+				return;
+			}
+			case CODEC: {
+				if (connection.getProtocolVersion() >= RMIConnection.PROTOCOL_VERSION_3) {
+					writeCodecObjectImpl(variables, obj, out);
+				} else {
+					writeNewRemoteObject(variables, obj, out);
+				}
+				return;
+			}
+			case RECORD: {
+				if (compactEncoding) {
+					writeRecordObjectImpl(variables, obj, out);
+				} else {
+					writeNewRemoteObject(variables, obj, out);
+				}
+				return;
+			}
+			case BYTE_BUFFER: {
+				if (compactEncoding) {
+					writeObjectByteBuffer(out, (ByteBuffer) obj);
+				} else {
+					writeNewRemoteObject(variables, obj, out);
+				}
+				return;
+			}
+			case THROWABLE: {
+				writeSerializedObject(obj, out);
+				return;
+			}
+			default: {
+				writeNewRemoteObject(variables, obj, out);
+				return;
+			}
 		}
-		writeNewRemoteObject(variables, obj, out);
 	}
 
 	private boolean writeNonCustomizableWritingObject(RMIVariables variables, Object obj,
@@ -1263,6 +1687,14 @@ final class RMIStream implements Closeable {
 			writeNullObject(out);
 			return true;
 		}
+		Class<?> objclass = obj.getClass();
+		ClassWritePlan plan = CLASS_WRITE_PLANS.get(objclass);
+		ClassObjectWriter simplewriter = plan.simpleWriter;
+		if (simplewriter != null) {
+			//the simple types cannot be remote proxies, no need to check the remote identifier first
+			simplewriter.write(this, out, obj);
+			return true;
+		}
 		if (variables != null) {
 			Integer remoteid = variables.getRemoteIdentifierForObject(obj);
 			if (remoteid != null) {
@@ -1270,18 +1702,8 @@ final class RMIStream implements Closeable {
 				return true;
 			}
 		}
-		Class<?> objclass = obj.getClass();
-		@SuppressWarnings("unchecked")
-		IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, Object> simplewriter = (IOBiConsumer<DataOutputUnsyncByteArrayOutputStream, Object>) typeWriters
-				.get(objclass);
-		if (simplewriter != null) {
-			simplewriter.accept(out, obj);
-			return true;
-		}
-		RMITransferPropertiesHolder properties = variables.getPropertiesCheckClosed();
-		ClassTransferProperties<?> objclassproperties = properties.getClassProperties(objclass);
-		if (objclassproperties != null) {
-			RMIObjectWriteHandler writehandler = objclassproperties.getWriteHandler();
+		RMIObjectWriteHandler writehandler = getClassWriteHandler(variables, objclass, plan);
+		if (writehandler != null) {
 			writeCustomizableWithWriteHandler(variables, obj, objclass, out, writehandler);
 			return true;
 		}
@@ -1292,7 +1714,7 @@ final class RMIStream implements Closeable {
 		if (enumclass.isAnonymousClass()) {
 			enumclass = enumclass.getSuperclass();
 		}
-		out.writeShort(OBJECT_ENUM);
+		writeTag(out, OBJECT_ENUM);
 		writeClass(enumclass, out);
 		writeString(enumname, out);
 	}
@@ -1325,196 +1747,492 @@ final class RMIStream implements Closeable {
 
 	private void writeObjectObjectArrayImpl(RMIVariables variables, DataOutputUnsyncByteArrayOutputStream out,
 			Class<?> componenttype, Object[] array, RMIObjectWriteHandler componentwriter) throws IOException {
-		out.writeShort(OBJECT_ARRAY);
-		writeClass(componenttype, out);
 		int len = array.length;
-		out.writeInt(len);
+		if (compactEncoding) {
+			short elementkind = getHomogeneousElementKind(variables, array, len, componentwriter);
+			if (elementkind != HOMOGENEOUS_ELEMENT_NONE) {
+				writeTag(out, OBJECT_HOMOGENEOUS_ARRAY);
+				writeClass(componenttype, out);
+				writeCompactInt(out, len);
+				writeHomogeneousElements(out, elementkind, array, len);
+				return;
+			}
+		}
+		writeTag(out, OBJECT_ARRAY);
+		writeClass(componenttype, out);
+		writeCompactInt(out, len);
 
 		for (int i = 0; i < len; i++) {
 			writeObjectUsingWriteHandler(componentwriter, variables, array[i], out, componenttype);
 		}
 	}
 
-	private void writeObjectConstructor(DataOutputUnsyncByteArrayOutputStream out, Constructor<?> c) {
-		out.writeShort(OBJECT_CONSTRUCTOR);
-		writeConstructor(c, out);
+	/**
+	 * Determines if the elements can be written in a homogeneous manner.
+	 * <p>
+	 * The elements are homogeneous if all non-<code>null</code> elements have the same concrete class, and the
+	 * elements would be written the same way as by {@link #writeObjectUsingWriteHandler}. That is, all of them are
+	 * {@link String Strings}, or all of them are enums that are not customized, and not remote objects.
+	 * 
+	 * @return The homogeneous element kind, or {@link #HOMOGENEOUS_ELEMENT_NONE}.
+	 */
+	private short getHomogeneousElementKind(RMIVariables variables, Object[] elements, int len,
+			RMIObjectWriteHandler elementwriter) {
+		if (len < 2) {
+			return HOMOGENEOUS_ELEMENT_NONE;
+		}
+		Class<?> elementclass = null;
+		for (int i = 0; i < len; i++) {
+			Object e = elements[i];
+			if (e == null) {
+				continue;
+			}
+			Class<?> c = e.getClass();
+			if (elementclass == null) {
+				elementclass = c;
+			} else if (elementclass != c) {
+				return HOMOGENEOUS_ELEMENT_NONE;
+			}
+		}
+		if (elementclass == null) {
+			return HOMOGENEOUS_ELEMENT_NONE;
+		}
+		if (elementclass == String.class) {
+			//strings are always written the same way, regardless of the write handler
+			return HOMOGENEOUS_ELEMENT_STRING;
+		}
+		if (!Enum.class.isAssignableFrom(elementclass)) {
+			return HOMOGENEOUS_ELEMENT_NONE;
+		}
+		ObjectWriterKind kind = elementwriter.getKind();
+		if (kind != ObjectWriterKind.DEFAULT && kind != ObjectWriterKind.ENUM) {
+			return HOMOGENEOUS_ELEMENT_NONE;
+		}
+		if (getClassWriteHandler(variables, elementclass, CLASS_WRITE_PLANS.get(elementclass)) != null) {
+			return HOMOGENEOUS_ELEMENT_NONE;
+		}
+		for (int i = 0; i < len; i++) {
+			Object e = elements[i];
+			if (e != null && variables.getRemoteIdentifierForObject(e) != null) {
+				return HOMOGENEOUS_ELEMENT_NONE;
+			}
+		}
+		return HOMOGENEOUS_ELEMENT_ENUM;
 	}
 
-	private void writeObjectField(DataOutputUnsyncByteArrayOutputStream out, Field f) {
-		out.writeShort(OBJECT_FIELD);
-		writeField(f, out);
-	}
+	private void writeObjectCollection(RMIVariables variables, Object obj, DataOutputUnsyncByteArrayOutputStream out,
+			RMIObjectWriteHandler elementwriter) throws IOException {
+		Collection<?> collection;
+		try {
+			collection = (Collection<?>) obj;
+		} catch (ClassCastException e) {
+			throw new RMIObjectTransferFailureException(
+					"Failed to cast object to Collection. (" + obj.getClass() + ":" + obj + ")", e);
+		}
+		short type = getCollectionType(collection);
+		Comparator<?> comparator = null;
+		if (type == COLLECTION_TREE_SET) {
+			comparator = ((SortedSet<?>) collection).comparator();
+			if (!isComparatorTransferableByValue(variables, comparator)) {
+				writeNewRemoteObject(variables, collection, out);
+				return;
+			}
+		}
+		//take a snapshot of the elements, so the written count is consistent with them
+		Object[] elements = collection.toArray();
+		int len = elements.length;
 
-	private void writeObjectMethod(DataOutputUnsyncByteArrayOutputStream out, Method m) {
-		out.writeShort(OBJECT_METHOD);
-		writeMethod(m, out);
+		writeTag(out, OBJECT_COLLECTION);
+		writeTag(out, type);
+		if (type == COLLECTION_TREE_SET) {
+			writeComparator(variables, comparator, out);
+		}
+		writeCompactInt(out, len);
+		writeElements(variables, out, elements, len, elementwriter);
 	}
 
-	private void writeObjectClass(DataOutputUnsyncByteArrayOutputStream out, Class<?> c) {
-		out.writeShort(OBJECT_CLASS);
-		writeClass(c, out);
-	}
+	private void writeObjectMap(RMIVariables variables, Object obj, DataOutputUnsyncByteArrayOutputStream out,
+			RMIObjectWriteHandler keywriter, RMIObjectWriteHandler valuewriter) throws IOException {
+		Map<?, ?> map;
+		try {
+			map = (Map<?, ?>) obj;
+		} catch (ClassCastException e) {
+			throw new RMIObjectTransferFailureException(
+					"Failed to cast object to Map. (" + obj.getClass() + ":" + obj + ")", e);
+		}
+		short type = getMapType(map);
+		Comparator<?> comparator = null;
+		if (type == MAP_TREE_MAP) {
+			comparator = ((SortedMap<?, ?>) map).comparator();
+			if (!isComparatorTransferableByValue(variables, comparator)) {
+				writeNewRemoteObject(variables, map, out);
+				return;
+			}
+		}
+		Object[] entries = map.entrySet().toArray();
+		int len = entries.length;
+		Object[] keys = new Object[len];
+		Object[] values = new Object[len];
+		for (int i = 0; i < len; i++) {
+			Map.Entry<?, ?> entry = (Map.Entry<?, ?>) entries[i];
+			keys[i] = entry.getKey();
+			values[i] = entry.getValue();
+		}
 
-	private void writeObjectClassLoader(DataOutputUnsyncByteArrayOutputStream out, ClassLoader cl) {
-		out.writeShort(OBJECT_CLASSLOADER);
-		ClassLoaderReflectionElementSupplier clres = getClassLoaderReflectionElementSupplier(cl);
-		writeClassLoader(clres, out);
+		writeTag(out, OBJECT_MAP);
+		writeTag(out, type);
+		if (type == MAP_TREE_MAP) {
+			writeComparator(variables, comparator, out);
+		}
+		writeCompactInt(out, len);
+		writeElements(variables, out, keys, len, keywriter);
+		writeElements(variables, out, values, len, valuewriter);
 	}
 
-	private ClassLoaderReflectionElementSupplier getClassLoaderReflectionElementSupplier(ClassLoader cl) {
-		if (cl == nullClassLoader) {
-			return nullClassLoaderSupplier;
+	/**
+	 * Checks if the comparator of a sorted collection can be transferred without creating a new remote object for it.
+	 * <p>
+	 * If the comparator was transferred as a remote object, then each comparison would require a round trip on the
+	 * receiver side, and calling it while the other endpoint is waiting for the collection could deadlock. In this
+	 * case the collection itself should be transferred as a remote object.
+	 * <p>
+	 * The natural and reverse ordering comparators of the JDK, and enum comparators are serializable.
+	 */
+	private static boolean isComparatorTransferableByValue(RMIVariables variables, Comparator<?> comparator) {
+		if (comparator == null || comparator instanceof Serializable) {
+			return true;
 		}
-		String clid = connection.getClassLoaderId(cl);
-		DynamicClassLoaderReflectionElementSupplier clres = new DynamicClassLoaderReflectionElementSupplier(connection,
-				clid);
-		return clres;
+		//the comparator is already a remote object, the receiver gets back its own instance
+		return variables.getRemoteIdentifierForObject(comparator) != null;
 	}
 
-	private static void writeObjectString(DataOutputUnsyncByteArrayOutputStream out, String s) {
-		out.writeShort(OBJECT_STRING);
-		writeString(s, out);
+	private void writeComparator(RMIVariables variables, Comparator<?> comparator,
+			DataOutputUnsyncByteArrayOutputStream out) throws IOException {
+		if (comparator == null) {
+			writeNullObject(out);
+			return;
+		}
+		Integer remoteid = variables.getRemoteIdentifierForObject(comparator);
+		if (remoteid != null) {
+			writeRemoteObject(remoteid, out);
+			return;
+		}
+		writeSerializedObject(comparator, out);
 	}
 
-	private static void writeObjectChar(DataOutputUnsyncByteArrayOutputStream out, char v) {
-		out.writeShort(OBJECT_CHAR);
-		out.writeChar(v);
-	}
+	private static short getCollectionType(Collection<?> collection) {
+		Class<?> collclass = collection.getClass();
+		Short type = COLLECTION_TYPES.get(collclass);
+		if (type != null) {
+			return type;
+		}
+		if (collclass.getName().startsWith(JDK_IMMUTABLE_COLLECTIONS_CLASS_NAME_PREFIX)) {
+			if (collection instanceof Set) {
+				return COLLECTION_UNMODIFIABLE_SET;
+			}
+			return COLLECTION_UNMODIFIABLE_LIST;
+		}
+		if (collection instanceof SortedSet) {
+			return COLLECTION_TREE_SET;
+		}
+		if (collection instanceof Set) {
+			return COLLECTION_LINKED_HASH_SET;
+		}
+		return COLLECTION_ARRAY_LIST;
+	}
+
+	private static short getMapType(Map<?, ?> map) {
+		Class<?> mapclass = map.getClass();
+		Short type = MAP_TYPES.get(mapclass);
+		if (type != null) {
+			return type;
+		}
+		if (mapclass.getName().startsWith(JDK_IMMUTABLE_COLLECTIONS_CLASS_NAME_PREFIX)) {
+			return MAP_UNMODIFIABLE_MAP;
+		}
+		if (map instanceof SortedMap) {
+			return MAP_TREE_MAP;
+		}
+		return MAP_LINKED_HASH_MAP;
+	}
+
+	private void writeElements(RMIVariables variables, DataOutputUnsyncByteArrayOutputStream out, Object[] elements,
+			int len, RMIObjectWriteHandler elementwriter) throws IOException {
+		short elementkind = getHomogeneousElementKind(variables, elements, len, elementwriter);
+		if (elementkind != HOMOGENEOUS_ELEMENT_NONE) {
+			writeHomogeneousElements(out, elementkind, elements, len);
+			return;
+		}
+		writeTag(out, HOMOGENEOUS_ELEMENT_OBJECT);
+		for (int i = 0; i < len; i++) {
+			writeObjectUsingWriteHandler(elementwriter, variables, elements[i], out, Object.class);
+		}
+	}
+
+	private void writeHomogeneousElements(DataOutputUnsyncByteArrayOutputStream out, short elementkind,
+			Object[] elements, int len) {
+		writeTag(out, elementkind);
+		switch (elementkind) {
+			case HOMOGENEOUS_ELEMENT_STRING: {
+				for (int i = 0; i < len; i++) {
+					String s = (String) elements[i];
+					if (s == null) {
+						writeCompactInt(out, HOMOGENEOUS_ELEMENT_NULL);
+						continue;
+					}
+					int index = commStrings.getWriteIndex(s);
+					if (index >= 0) {
+						writeCompactInt(out, index + HOMOGENEOUS_ELEMENT_INDEX_OFFSET);
+					} else {
+						writeCompactInt(out, HOMOGENEOUS_ELEMENT_INLINE);
+						writeString(s, out);
+					}
+				}
+				break;
+			}
+			case HOMOGENEOUS_ELEMENT_ENUM: {
+				Class<?> enumclass = null;
+				for (int i = 0; enumclass == null; i++) {
+					Object e = elements[i];
+					if (e != null) {
+						enumclass = ((Enum<?>) e).getDeclaringClass();
+					}
+				}
+				writeClass(enumclass, out);
+				//the local indices of the already written enum names, offset by one, indexed by the ordinals
+				int[] nameindices = new int[enumclass.getEnumConstants().length];
+				int namecount = 0;
+				for (int i = 0; i < len; i++) {
+					Enum<?> e = (Enum<?>) elements[i];
+					if (e == null) {
+						writeCompactInt(out, HOMOGENEOUS_ELEMENT_NULL);
+						continue;
+					}
+					int ordinal = e.ordinal();
+					int nameidx = nameindices[ordinal];
+					if (nameidx != 0) {
+						writeCompactInt(out, nameidx - 1 + HOMOGENEOUS_ELEMENT_INDEX_OFFSET);
+					} else {
+						nameindices[ordinal] = ++namecount;
+						writeCompactInt(out, HOMOGENEOUS_ELEMENT_INLINE);
+						writeString(e.name(), out);
+					}
+				}
+				break;
+			}
+			default: {
+				throw new RMIObjectTransferFailureException("Unknown homogeneous element kind: " + elementkind);
+			}
+		}
+	}
+
+	private void writeObjectConstructor(DataOutputUnsyncByteArrayOutputStream out, Constructor<?> c) {
+		writeTag(out, OBJECT_CONSTRUCTOR);
+		writeConstructor(c, out);
+	}
+
+	private void writeObjectField(DataOutputUnsyncByteArrayOutputStream out, Field f) {
+		writeTag(out, OBJECT_FIELD);
+		writeField(f, out);
+	}
+
+	private void writeObjectMethod(DataOutputUnsyncByteArrayOutputStream out, Method m) {
+		writeTag(out, OBJECT_METHOD);
+		writeMethod(m, out);
+	}
+
+	private void writeObjectClass(DataOutputUnsyncByteArrayOutputStream out, Class<?> c) {
+		writeTag(out, OBJECT_CLASS);
+		writeClass(c, out);
+	}
+
+	private void writeObjectClassLoader(DataOutputUnsyncByteArrayOutputStream out, ClassLoader cl) {
+		writeTag(out, OBJECT_CLASSLOADER);
+		ClassLoaderReflectionElementSupplier clres = getClassLoaderReflectionElementSupplier(cl);
+		writeClassLoader(clres, out);
+	}
+
+	private ClassLoaderReflectionElementSupplier getClassLoaderReflectionElementSupplier(ClassLoader cl) {
+		if (cl == nullClassLoader) {
+			return nullClassLoaderSupplier;
+		}
+		String clid = connection.getClassLoaderId(cl);
+		DynamicClassLoaderReflectionElementSupplier clres = new DynamicClassLoaderReflectionElementSupplier(connection,
+				clid);
+		return clres;
+	}
+
+	private void writeObjectString(DataOutputUnsyncByteArrayOutputStream out, String s) {
+		//the index is only present if both endpoints have their string dictionary enabled
+		int index = commStrings.getWriteIndex(s);
+		if (index >= 0) {
+			writeTag(out, OBJECT_STRING_INDEX);
+			writeCompactInt(out, index);
+			return;
+		}
+		writeTag(out, OBJECT_STRING);
+		writeString(s, out);
+	}
+
+	private String readObjectString(DataInputUnsyncByteArrayInputStream in) throws IOException {
+		String result = readString(in);
+		if (stringDictionaryEnabled && result.length() <= STRING_DICTIONARY_MAX_LENGTH) {
+			int putidx = commStrings.putReadIfAbsent(result);
+			if (putidx >= 0) {
+				writeCommandCachedString(result, putidx);
+			}
+		}
+		return result;
+	}
+
+	private String readObjectStringIndex(DataInputUnsyncByteArrayInputStream in) throws IOException {
+		int index = readCompactInt(in);
+		String result = commStrings.getRead(index);
+		if (result == null) {
+			throw new RMIObjectTransferFailureException("String not found for index: " + index);
+		}
+		return result;
+	}
+
+	private void writeObjectChar(DataOutputUnsyncByteArrayOutputStream out, char v) {
+		writeTag(out, OBJECT_CHAR);
+		out.writeChar(v);
+	}
 
-	private static void writeObjectDouble(DataOutputUnsyncByteArrayOutputStream out, double v) {
-		out.writeShort(OBJECT_DOUBLE);
+	private void writeObjectDouble(DataOutputUnsyncByteArrayOutputStream out, double v) {
+		writeTag(out, OBJECT_DOUBLE);
 		out.writeDouble(v);
 	}
 
-	private static void writeObjectFloat(DataOutputUnsyncByteArrayOutputStream out, float v) {
-		out.writeShort(OBJECT_FLOAT);
+	private void writeObjectFloat(DataOutputUnsyncByteArrayOutputStream out, float v) {
+		writeTag(out, OBJECT_FLOAT);
 		out.writeFloat(v);
 	}
 
-	private static void writeObjectLong(DataOutputUnsyncByteArrayOutputStream out, long v) {
-		out.writeShort(OBJECT_LONG);
+	private void writeObjectLong(DataOutputUnsyncByteArrayOutputStream out, long v) {
+		writeTag(out, OBJECT_LONG);
 		out.writeLong(v);
 	}
 
-	private static void writeObjectInt(DataOutputUnsyncByteArrayOutputStream out, int v) {
-		out.writeShort(OBJECT_INT);
+	private void writeObjectInt(DataOutputUnsyncByteArrayOutputStream out, int v) {
+		writeTag(out, OBJECT_INT);
 		out.writeInt(v);
 	}
 
-	private static void writeObjectShort(DataOutputUnsyncByteArrayOutputStream out, short v) {
-		out.writeShort(OBJECT_SHORT);
+	private void writeObjectShort(DataOutputUnsyncByteArrayOutputStream out, short v) {
+		writeTag(out, OBJECT_SHORT);
 		out.writeShort(v);
 	}
 
-	private static void writeObjectByte(DataOutputUnsyncByteArrayOutputStream out, byte v) {
-		out.writeShort(OBJECT_BYTE);
+	private void writeObjectByte(DataOutputUnsyncByteArrayOutputStream out, byte v) {
+		writeTag(out, OBJECT_BYTE);
 		out.writeByte(v);
 	}
 
-	private static void writeObjectBoolean(DataOutputUnsyncByteArrayOutputStream out, boolean v) {
-		out.writeShort(OBJECT_BOOLEAN);
+	private void writeObjectBoolean(DataOutputUnsyncByteArrayOutputStream out, boolean v) {
+		writeTag(out, OBJECT_BOOLEAN);
 		out.writeBoolean(v);
 	}
 
-	private static void writeObjectByteArray(DataOutputUnsyncByteArrayOutputStream out, byte[] v) {
-		out.writeShort(OBJECT_BYTE_ARRAY);
-		out.writeInt(v.length);
+	private void writeObjectByteArray(DataOutputUnsyncByteArrayOutputStream out, byte[] v) {
+		writeTag(out, OBJECT_BYTE_ARRAY);
+		writeCompactInt(out, v.length);
 		out.write(v);
 	}
 
-	private static void writeObjectShortArray(DataOutputUnsyncByteArrayOutputStream out, short[] v) {
-		out.writeShort(OBJECT_SHORT_ARRAY);
-		out.writeInt(v.length);
+	private void writeObjectShortArray(DataOutputUnsyncByteArrayOutputStream out, short[] v) {
+		writeTag(out, OBJECT_SHORT_ARRAY);
+		writeCompactInt(out, v.length);
 		out.write(v);
 	}
 
-	private static void writeObjectIntArray(DataOutputUnsyncByteArrayOutputStream out, int[] v) {
-		out.writeShort(OBJECT_INT_ARRAY);
-		out.writeInt(v.length);
+	private void writeObjectIntArray(DataOutputUnsyncByteArrayOutputStream out, int[] v) {
+		writeTag(out, OBJECT_INT_ARRAY);
+		writeCompactInt(out, v.length);
 		out.write(v);
 	}
 
-	private static void writeObjectLongArray(DataOutputUnsyncByteArrayOutputStream out, long[] v) {
-		out.writeShort(OBJECT_LONG_ARRAY);
-		out.writeInt(v.length);
+	private void writeObjectLongArray(DataOutputUnsyncByteArrayOutputStream out, long[] v) {
+		writeTag(out, OBJECT_LONG_ARRAY);
+		writeCompactInt(out, v.length);
 		out.write(v);
 	}
 
-	private static void writeObjectFloatArray(DataOutputUnsyncByteArrayOutputStream out, float[] v) {
-		out.writeShort(OBJECT_FLOAT_ARRAY);
-		out.writeInt(v.length);
+	private void writeObjectFloatArray(DataOutputUnsyncByteArrayOutputStream out, float[] v) {
+		writeTag(out, OBJECT_FLOAT_ARRAY);
+		writeCompactInt(out, v.length);
 		out.write(v);
 	}
 
-	private static void writeObjectDoubleArray(DataOutputUnsyncByteArrayOutputStream out, double[] v) {
-		out.writeShort(OBJECT_DOUBLE_ARRAY);
-		out.writeInt(v.length);
+	private void writeObjectDoubleArray(DataOutputUnsyncByteArrayOutputStream out, double[] v) {
+		writeTag(out, OBJECT_DOUBLE_ARRAY);
+		writeCompactInt(out, v.length);
 		out.write(v);
 	}
 
-	private static void writeObjectBooleanArray(DataOutputUnsyncByteArrayOutputStream out, boolean[] v) {
-		out.writeShort(OBJECT_BOOLEAN_ARRAY);
-		out.writeInt(v.length);
+	private void writeObjectBooleanArray(DataOutputUnsyncByteArrayOutputStream out, boolean[] v) {
+		writeTag(out, OBJECT_BOOLEAN_ARRAY);
+		writeCompactInt(out, v.length);
 		out.write(v);
 	}
 
-	private static void writeObjectCharArray(DataOutputUnsyncByteArrayOutputStream out, char[] v) {
-		out.writeShort(OBJECT_CHAR_ARRAY);
-		out.writeInt(v.length);
+	private void writeObjectCharArray(DataOutputUnsyncByteArrayOutputStream out, char[] v) {
+		writeTag(out, OBJECT_CHAR_ARRAY);
+		writeCompactInt(out, v.length);
 		out.write(v);
 	}
 
-	private static byte[] readObjectByteArray(DataInputUnsyncByteArrayInputStream in) throws IOException {
-		int len = in.readInt();
+	private byte[] readObjectByteArray(DataInputUnsyncByteArrayInputStream in) throws IOException {
+		int len = readCompactInt(in);
 		byte[] result = new byte[len];
 		in.readFully(result);
 		return result;
 	}
 
-	private static short[] readObjectShortArray(DataInputUnsyncByteArrayInputStream in) throws IOException {
-		int len = in.readInt();
+	private short[] readObjectShortArray(DataInputUnsyncByteArrayInputStream in) throws IOException {
+		int len = readCompactInt(in);
 		short[] result = new short[len];
 		in.readFully(result);
 		return result;
 	}
 
-	private static int[] readObjectIntArray(DataInputUnsyncByteArrayInputStream in) throws IOException {
-		int len = in.readInt();
+	private int[] readObjectIntArray(DataInputUnsyncByteArrayInputStream in) throws IOException {
+		int len = readCompactInt(in);
 		int[] result = new int[len];
 		in.readFully(result);
 		return result;
 	}
 
-	private static long[] readObjectLongArray(DataInputUnsyncByteArrayInputStream in) throws IOException {
-		int len = in.readInt();
+	private long[] readObjectLongArray(DataInputUnsyncByteArrayInputStream in) throws IOException {
+		int len = readCompactInt(in);
 		long[] result = new long[len];
 		in.readFully(result);
 		return result;
 	}
 
-	private static float[] readObjectFloatArray(DataInputUnsyncByteArrayInputStream in) throws IOException {
-		int len = in.readInt();
+	private float[] readObjectFloatArray(DataInputUnsyncByteArrayInputStream in) throws IOException {
+		int len = readCompactInt(in);
 		float[] result = new float[len];
 		in.readFully(result);
 		return result;
 	}
 
-	private static double[] readObjectDoubleArray(DataInputUnsyncByteArrayInputStream in) throws IOException {
-		int len = in.readInt();
+	private double[] readObjectDoubleArray(DataInputUnsyncByteArrayInputStream in) throws IOException {
+		int len = readCompactInt(in);
 		double[] result = new double[len];
 		in.readFully(result);
 		return result;
 	}
 
-	private static boolean[] readObjectBooleanArray(DataInputUnsyncByteArrayInputStream in) throws IOException {
-		int len = in.readInt();
+	private boolean[] readObjectBooleanArray(DataInputUnsyncByteArrayInputStream in) throws IOException {
+		int len = readCompactInt(in);
 		boolean[] result = new boolean[len];
 		in.readFully(result);
 		return result;
 	}
 
-	private static char[] readObjectCharArray(DataInputUnsyncByteArrayInputStream in) throws IOException {
-		int len = in.readInt();
+	private char[] readObjectCharArray(DataInputUnsyncByteArrayInputStream in) throws IOException {
+		int len = readCompactInt(in);
 		char[] result = new char[len];
 		in.readFully(result);
 		return result;
@@ -1568,19 +2286,19 @@ final class RMIStream implements Closeable {
 
 		if (connection.getProtocolVersion() >= RMIConnection.PROTOCOL_VERSION_2) {
 			//protocol includes the number of bytes written
-			out.writeShort(OBJECT_SERIALIZED2);
+			writeTag(out, OBJECT_SERIALIZED2);
 
 			int sizeoffset = out.size();
 			out.writeInt(0);
 			try {
-				try (ObjectOutputStream oos = new RMISerializeObjectOutputStream(out, connection)) {
+				try (ObjectOutputStream oos = newSerializedObjectOutputStream(out)) {
 					oos.writeObject(obj);
 				}
 			} finally {
 				out.replaceInt(out.size() - sizeoffset - 4, sizeoffset);
 			}
 		} else {
-			out.writeShort(OBJECT_SERIALIZED);
+			writeTag(out, OBJECT_SERIALIZED);
 			try (ObjectOutputStream oos = new RMISerializeObjectOutputStream(out, connection)) {
 				oos.writeObject(obj);
 			}
@@ -1607,7 +2325,7 @@ final class RMIStream implements Closeable {
 		in.skipBytes(bytecount);
 
 		Object result;
-		try (ObjectInputStream ois = new RMISerializeObjectInputStream(limitreader, connection)) {
+		try (ObjectInputStream ois = newSerializedObjectInputStream(limitreader)) {
 			result = ois.readObject();
 		}
 		if (connection.isObjectTransferByteChecks()) {
@@ -1620,6 +2338,21 @@ final class RMIStream implements Closeable {
 		return result;
 	}
 
+	private ObjectOutputStream newSerializedObjectOutputStream(OutputStream out) throws IOException {
+		if (connection.getProtocolVersion() >= RMIConnection.PROTOCOL_VERSION_3) {
+			//the class descriptors are cached for the stream
+			return new RMISerializeObjectOutputStream(out, connection, commSerialClassDescriptors);
+		}
+		return new RMISerializeObjectOutputStream(out, connection);
+	}
+
+	private ObjectInputStream newSerializedObjectInputStream(InputStream in) throws IOException {
+		if (connection.getProtocolVersion() >= RMIConnection.PROTOCOL_VERSION_3) {
+			return new RMISerializeObjectInputStream(in, connection, this);
+		}
+		return new RMISerializeObjectInputStream(in, connection);
+	}
+
 	private RMIObjectInput getObjectInputForVariables(RMIVariables variables, DataInputUnsyncByteArrayInputStream in) {
 		return new RMIObjectInputImpl(variables, this, in);
 	}
@@ -1651,22 +2384,30 @@ final class RMIStream implements Closeable {
 		}
 	}
 
-	private boolean writeExternalizableObject(RMIVariables variables, Object obj,
+	private void writeExternalizableObjectImpl(RMIVariables variables, Externalizable obj,
 			DataOutputUnsyncByteArrayOutputStream out) throws IOException {
-		if (obj instanceof Externalizable) {
-			out.writeShort(OBJECT_EXTERNALIZABLE);
-			Class<?> clazz = obj.getClass();
-			writeClass(clazz, out);
-			int sizeoffset = out.size();
-			out.writeInt(0);
-			try {
-				((Externalizable) obj).writeExternal(new RMIObjectOutputImpl(variables, this, out));
-			} finally {
-				out.replaceInt(out.size() - sizeoffset - 4, sizeoffset);
+		ObjectHandleTable handles = objectHandleTables.get();
+		if (handles != null) {
+			int position = handles.getWrittenPosition(obj);
+			if (position >= 0) {
+				writeObjectBackReference(out, position);
+				return;
 			}
-			return true;
 		}
-		return false;
+		writeTag(out, OBJECT_EXTERNALIZABLE);
+		Class<?> clazz = obj.getClass();
+		writeClass(clazz, out);
+		int sizeoffset = out.size();
+		out.writeInt(0);
+		if (handles != null) {
+			//put before writing the contents, same as the instance is available before reading them
+			handles.putWritten(obj, sizeoffset + 4);
+		}
+		try {
+			obj.writeExternal(new RMIObjectOutputImpl(variables, this, out));
+		} finally {
+			out.replaceInt(out.size() - sizeoffset - 4, sizeoffset);
+		}
 	}
 
 	private Object readExternalizableObject(RMIVariables variables, DataInputUnsyncByteArrayInputStream in)
@@ -1675,7 +2416,12 @@ final class RMIStream implements Closeable {
 		Externalizable instance;
 		try {
 			//cast down to externalizable, to avoid malicious client instantiating other kinds of classes
-			instance = ReflectUtils.newInstance(clazz.asSubclass(Externalizable.class));
+			Class<? extends Externalizable> externalizableclass = clazz.asSubclass(Externalizable.class);
+			if (GeneratedObjectCodec.isCodecType(externalizableclass)) {
+				instance = (Externalizable) GeneratedObjectCodec.get(externalizableclass).newInstance();
+			} else {
+				instance = ReflectUtils.newInstance(externalizableclass);
+			}
 		} catch (NoSuchMethodException e) {
 			InvalidClassException te = new InvalidClassException(clazz.getName(), "no valid constructor");
 			te.initCause(e);
@@ -1700,6 +2446,10 @@ final class RMIStream implements Closeable {
 		//skip the bytes after constructing the reader for the externalizable
 		in.skipBytes(bytecount);
 
+		ObjectHandleTable handles = objectHandleTables.get();
+		if (handles != null) {
+			handles.putRead(inregion.getOffset(), instance);
+		}
 		instance.readExternal(getObjectInputForVariables(variables, limitreader));
 		if (connection.isObjectTransferByteChecks()) {
 			int avail = limitreader.available();
@@ -1711,18 +2461,476 @@ final class RMIStream implements Closeable {
 		return instance;
 	}
 
+	private void writeCodecObjectImpl(RMIVariables variables, Object obj, DataOutputUnsyncByteArrayOutputStream out)
+			throws IOException {
+		ObjectHandleTable handles = objectHandleTables.get();
+		if (handles != null) {
+			int position = handles.getWrittenPosition(obj);
+			if (position >= 0) {
+				writeObjectBackReference(out, position);
+				return;
+			}
+		}
+		Class<?> clazz = obj.getClass();
+		GeneratedObjectCodec codec = GeneratedObjectCodec.get(clazz);
+		writeTag(out, OBJECT_CODEC);
+		writeClass(clazz, out);
+		int sizeoffset = out.size();
+		out.writeInt(0);
+		try {
+			codec.write(obj, new RMIObjectOutputImpl(variables, this, out));
+		} finally {
+			out.replaceInt(out.size() - sizeoffset - 4, sizeoffset);
+		}
+		if (handles != null) {
+			//put after writing the contents, as the object is only available after reading them
+			handles.putWritten(obj, sizeoffset + 4);
+		}
+	}
+
+	private Object readCodecObject(RMIVariables variables, DataInputUnsyncByteArrayInputStream in)
+			throws IOException, ClassNotFoundException {
+		Class<?> clazz = readClass(in).get(connection);
+		//only the annotated classes are accepted, to avoid malicious client instantiating other kinds of classes
+		if (!GeneratedObjectCodec.isCodecType(clazz) || Externalizable.class.isAssignableFrom(clazz)) {
+			throw new InvalidClassException(clazz.getName(), "class has no generated codec");
+		}
+		GeneratedObjectCodec codec;
+		try {
+			codec = GeneratedObjectCodec.get(clazz);
+		} catch (RMIInvalidConfigurationException e) {
+			InvalidClassException te = new InvalidClassException(clazz.getName(), "invalid generated codec class");
+			te.initCause(e);
+			throw te;
+		}
+		int bytecount = in.readInt();
+		ByteArrayRegion inregion = in.toByteArrayRegion();
+		DataInputUnsyncByteArrayInputStream limitreader = new DataInputUnsyncByteArrayInputStream(inregion.getArray(),
+				inregion.getOffset(), bytecount);
+		in.skipBytes(bytecount);
+
+		Object result = codec.read(getObjectInputForVariables(variables, limitreader));
+		if (connection.isObjectTransferByteChecks()) {
+			int avail = limitreader.available();
+			if (avail > 0) {
+				throw new RMIObjectTransferFailureException("Generated codec of " + clazz.getName()
+						+ " didn't read input fully. (Remaining " + avail + " bytes)");
+			}
+		}
+		ObjectHandleTable handles = objectHandleTables.get();
+		if (handles != null) {
+			handles.putRead(inregion.getOffset(), result);
+		}
+		return result;
+	}
+
+	private void writeRecordObjectImpl(RMIVariables variables, Object obj, DataOutputUnsyncByteArrayOutputStream out)
+			throws IOException {
+		Class<?> clazz = obj.getClass();
+		RecordObjectCodec codec = RecordObjectCodec.get(clazz);
+		Class<?>[] componenttypes = codec.getComponentTypes();
+		int count = componenttypes.length;
+		writeTag(out, OBJECT_RECORD);
+		writeClass(clazz, out);
+		writeCompactInt(out, count);
+		for (int i = 0; i < count; i++) {
+			Object component;
+			try {
+				component = codec.getComponent(obj, i);
+			} catch (InvocationTargetException e) {
+				throw new RMIObjectTransferFailureException(
+						"Failed to get record component[" + i + "] of " + clazz.getName(), e.getCause());
+			}
+			writeObjectUsingWriteHandler(RMIObjectWriteHandler.defaultWriter(), variables, component, out,
+					componenttypes[i]);
+		}
+	}
+
+	private Object readRecordObject(RMIVariables variables, DataInputUnsyncByteArrayInputStream in)
+			throws IOException, ClassNotFoundException {
+		Class<?> clazz = readClass(in).get(connection);
+		//only records are accepted, to avoid malicious client instantiating other kinds of classes
+		RecordObjectCodec codec = RecordObjectCodec.get(clazz);
+		if (codec == null) {
+			throw new InvalidClassException(clazz.getName(), "class is not an accessible record");
+		}
+		int count = readCompactInt(in);
+		if (count != codec.getComponentCount()) {
+			throw new InvalidClassException(clazz.getName(),
+					"record component count mismatch: " + count + " expected: " + codec.getComponentCount());
+		}
+		Object[] components = new Object[count];
+		for (int i = 0; i < count; i++) {
+			components[i] = readObject(variables, in);
+		}
+		try {
+			return codec.newInstance(components);
+		} catch (InvocationTargetException e) {
+			InvalidObjectException te = new InvalidObjectException(
+					"Failed to invoke canonical constructor of record: " + clazz.getName());
+			te.initCause(e.getCause());
+			throw te;
+		}
+	}
+
+	private void writeObjectByteBuffer(DataOutputUnsyncByteArrayOutputStream out, ByteBuffer buf) {
+		int len = buf.remaining();
+		int flags = 0;
+		if (buf.isDirect()) {
+			flags |= BYTE_BUFFER_FLAG_DIRECT;
+		}
+		if (buf.isReadOnly()) {
+			flags |= BYTE_BUFFER_FLAG_READ_ONLY;
+		}
+		if (buf.order() == ByteOrder.LITTLE_ENDIAN) {
+			flags |= BYTE_BUFFER_FLAG_LITTLE_ENDIAN;
+		}
+		writeTag(out, OBJECT_BYTE_BUFFER);
+		out.writeByte(flags);
+		writeCompactInt(out, len);
+		if (buf.hasArray()) {
+			out.write(buf.array(), buf.arrayOffset() + buf.position(), len);
+			return;
+		}
+		//direct or read-only buffer
+		//bulk copy the remaining bytes without modifying the position of the argument
+		ByteBuffer src = buf.duplicate();
+		byte[] chunk = new byte[Math.min(len, BYTE_BUFFER_COPY_CHUNK_SIZE)];
+		while (src.hasRemaining()) {
+			int c = Math.min(src.remaining(), chunk.length);
+			src.get(chunk, 0, c);
+			out.write(chunk, 0, c);
+		}
+	}
+
+	private ByteBuffer readObjectByteBuffer(DataInputUnsyncByteArrayInputStream in) throws IOException {
+		int flags = in.readUnsignedByte();
+		int len = readCompactInt(in);
+		if (len < 0 || len > in.available()) {
+			throw new RMIObjectTransferFailureException("Invalid byte buffer length: " + len);
+		}
+		ByteBuffer result;
+		if ((flags & BYTE_BUFFER_FLAG_DIRECT) != 0) {
+			result = ByteBuffer.allocateDirect(len);
+			ByteArrayRegion inregion = in.toByteArrayRegion();
+			result.put(inregion.getArray(), inregion.getOffset(), len);
+			in.skipBytes(len);
+			result.clear();
+		} else {
+			result = ByteBuffer.allocate(len);
+			in.readFully(result.array());
+		}
+		if ((flags & BYTE_BUFFER_FLAG_READ_ONLY) != 0) {
+			result = result.asReadOnlyBuffer();
+		}
+		//set the order after creating the read-only view, as the view is always big-endian
+		if ((flags & BYTE_BUFFER_FLAG_LITTLE_ENDIAN) != 0) {
+			result.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		return result;
+	}
+
+	private void writeObjectStream(RMIVariables variables, Object obj, DataOutputUnsyncByteArrayOutputStream out) {
+		if (obj instanceof InputStream) {
+			InputStream is = (InputStream) obj;
+			//only inline the data that can be read without blocking
+			//the objects may be written while the command locks are held, and the data of the stream may
+			//depend on other requests over the connection
+			byte[] chunk;
+			int len;
+			try {
+				chunk = new byte[Math.min(Math.max(is.available(), 0), STREAM_TRANSFER_CHUNK_SIZE)];
+				len = chunk.length == 0 ? 0 : Math.max(is.read(chunk), 0);
+			} catch (IOException e) {
+				throw new RMIObjectTransferFailureException("Failed to read input stream.", e);
+			}
+			writeTag(out, OBJECT_INPUT_STREAM);
+			writeCompactInt(out, len);
+			out.write(chunk, 0, len);
+			//always write the chunk source, so the original stream is closed when the received stream is closed
+			writeNewRemoteObject(variables, new StreamChunkSource(is), out);
+			return;
+		}
+		if (obj instanceof OutputStream) {
+			writeTag(out, OBJECT_OUTPUT_STREAM);
+			writeNewRemoteObject(variables, new StreamChunkSink((OutputStream) obj), out);
+			return;
+		}
+		throw new RMIObjectTransferFailureException(
+				"Object is not an InputStream or OutputStream. (" + obj.getClass() + ":" + obj + ")");
+	}
+
+	private Object readObjectInputStream(RMIVariables variables, DataInputUnsyncByteArrayInputStream in)
+			throws IOException, ClassNotFoundException {
+		int len = readCompactInt(in);
+		if (len < 0 || len > in.available()) {
+			throw new RMIObjectTransferFailureException("Invalid input stream chunk length: " + len);
+		}
+		byte[] chunk = new byte[len];
+		in.readFully(chunk);
+		Object source = readObject(variables, in);
+		if (source != null && !(source instanceof IntFunction)) {
+			throw new RMIObjectTransferFailureException("Invalid input stream chunk source: " + source.getClass());
+		}
+		@SuppressWarnings("unchecked")
+		IntFunction<byte[]> chunksource = (IntFunction<byte[]>) source;
+		return new ChunkedRemoteInputStream(chunk, chunksource);
+	}
+
+	private Object readObjectOutputStream(RMIVariables variables, DataInputUnsyncByteArrayInputStream in)
+			throws IOException, ClassNotFoundException {
+		Object sink = readObject(variables, in);
+		if (!(sink instanceof Consumer)) {
+			throw new RMIObjectTransferFailureException(
+					"Invalid output stream chunk sink: " + (sink == null ? null : sink.getClass()));
+		}
+		@SuppressWarnings("unchecked")
+		Consumer<byte[]> chunksink = (Consumer<byte[]>) sink;
+		return new ChunkedRemoteOutputStream(chunksink);
+	}
+
+	private void writeObjectBackReference(DataOutputUnsyncByteArrayOutputStream out, int position) {
+		writeTag(out, OBJECT_BACK_REFERENCE);
+		writeCompactInt(out, position);
+	}
+
+	private Object readObjectBackReference(DataInputUnsyncByteArrayInputStream in) throws IOException {
+		int position = readCompactInt(in);
+		ObjectHandleTable handles = objectHandleTables.get();
+		if (handles == null || !handles.isRead(position)) {
+			throw new RMIObjectTransferFailureException("Back-referenced object not found at position: " + position);
+		}
+		return handles.getRead(position);
+	}
+
+	/**
+	 * Starts a new back-reference scope on the current thread for transferring the objects of a command.
+	 * 
+	 * @return The previous table of the thread that should be passed to
+	 *             {@link #exitObjectHandleScope(ObjectHandleTable)}.
+	 */
+	private ObjectHandleTable enterObjectHandleScope() {
+		return enterObjectHandleScope(0);
+	}
+
+	/**
+	 * Starts a new back-reference scope for reading objects from data that was copied from a command.
+	 * 
+	 * @param readpositionoffset
+	 *            The position in the command where the copied data starts.
+	 * @return The previous table of the thread that should be passed to
+	 *             {@link #exitObjectHandleScope(ObjectHandleTable)}.
+	 */
+	private ObjectHandleTable enterObjectHandleScope(int readpositionoffset) {
+		if (!compactEncoding) {
+			return null;
+		}
+		ThreadLocal<ObjectHandleTable> tables = objectHandleTables;
+		ObjectHandleTable prev = tables.get();
+		tables.set(new ObjectHandleTable(readpositionoffset));
+		return prev;
+	}
+
+	private void exitObjectHandleScope(ObjectHandleTable prev) {
+		if (!compactEncoding) {
+			return;
+		}
+		if (prev == null) {
+			objectHandleTables.remove();
+		} else {
+			objectHandleTables.set(prev);
+		}
+	}
+
 	private Object readObjectArray(RMIVariables vars, DataInputUnsyncByteArrayInputStream in)
 			throws IOException, ClassNotFoundException {
 		Class<?> component = this.readClass(in).get(connection);
-		int len = in.readInt();
-		Object array = Array.newInstance(component, len);
+		int len = readCompactInt(in);
+		Object[] array = newObjectArray(component, len);
 		for (int i = 0; i < len; i++) {
-			Object obj = this.readObject(vars, in);
-			Array.set(array, i, obj);
+			array[i] = this.readObject(vars, in);
 		}
 		return array;
 	}
 
+	private Object readHomogeneousObjectArray(RMIVariables vars, DataInputUnsyncByteArrayInputStream in)
+			throws IOException, ClassNotFoundException {
+		Class<?> component = this.readClass(in).get(connection);
+		int len = readCompactInt(in);
+		Object[] array = newObjectArray(component, len);
+		readHomogeneousElements(vars, in, array, len);
+		return array;
+	}
+
+	private Object readObjectCollection(RMIVariables vars, DataInputUnsyncByteArrayInputStream in)
+			throws IOException, ClassNotFoundException {
+		short type = readTag(in);
+		Comparator<Object> comparator = null;
+		if (type == COLLECTION_TREE_SET) {
+			comparator = readComparator(vars, in);
+		}
+		int len = readCompactInt(in);
+		Object[] elements = newObjectArray(Object.class, len);
+		readHomogeneousElements(vars, in, elements, len);
+		switch (type) {
+			case COLLECTION_ARRAY_LIST: {
+				return new ArrayList<>(Arrays.asList(elements));
+			}
+			case COLLECTION_HASH_SET: {
+				HashSet<Object> result = new HashSet<>(getHashCapacity(len));
+				Collections.addAll(result, elements);
+				return result;
+			}
+			case COLLECTION_LINKED_HASH_SET: {
+				LinkedHashSet<Object> result = new LinkedHashSet<>(getHashCapacity(len));
+				Collections.addAll(result, elements);
+				return result;
+			}
+			case COLLECTION_TREE_SET: {
+				TreeSet<Object> result = new TreeSet<>(comparator);
+				Collections.addAll(result, elements);
+				return result;
+			}
+			case COLLECTION_UNMODIFIABLE_LIST: {
+				return Collections.unmodifiableList(new ArrayList<>(Arrays.asList(elements)));
+			}
+			case COLLECTION_UNMODIFIABLE_SET: {
+				LinkedHashSet<Object> result = new LinkedHashSet<>(getHashCapacity(len));
+				Collections.addAll(result, elements);
+				return Collections.unmodifiableSet(result);
+			}
+			default: {
+				throw new RMICallFailedException("Unknown collection type: " + type);
+			}
+		}
+	}
+
+	private Object readObjectMap(RMIVariables vars, DataInputUnsyncByteArrayInputStream in)
+			throws IOException, ClassNotFoundException {
+		short type = readTag(in);
+		Comparator<Object> comparator = null;
+		if (type == MAP_TREE_MAP) {
+			comparator = readComparator(vars, in);
+		}
+		int len = readCompactInt(in);
+		Object[] keys = newObjectArray(Object.class, len);
+		Object[] values = new Object[len];
+		readHomogeneousElements(vars, in, keys, len);
+		readHomogeneousElements(vars, in, values, len);
+		Map<Object, Object> result;
+		switch (type) {
+			case MAP_HASH_MAP: {
+				result = new HashMap<>(getHashCapacity(len));
+				break;
+			}
+			case MAP_LINKED_HASH_MAP:
+			case MAP_UNMODIFIABLE_MAP: {
+				result = new LinkedHashMap<>(getHashCapacity(len));
+				break;
+			}
+			case MAP_TREE_MAP: {
+				result = new TreeMap<>(comparator);
+				break;
+			}
+			default: {
+				throw new RMICallFailedException("Unknown map type: " + type);
+			}
+		}
+		for (int i = 0; i < len; i++) {
+			result.put(keys[i], values[i]);
+		}
+		if (type == MAP_UNMODIFIABLE_MAP) {
+			return Collections.unmodifiableMap(result);
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Comparator<Object> readComparator(RMIVariables vars, DataInputUnsyncByteArrayInputStream in)
+			throws IOException, ClassNotFoundException {
+		Object comparator = readObject(vars, in);
+		if (comparator != null && !(comparator instanceof Comparator)) {
+			throw new RMIObjectTransferFailureException(
+					"Failed to cast object to Comparator. (" + comparator.getClass() + ":" + comparator + ")");
+		}
+		return (Comparator<Object>) comparator;
+	}
+
+	private static int getHashCapacity(int size) {
+		//same as the HashSet(Collection) constructor
+		return Math.max((int) (size / .75f) + 1, 16);
+	}
+
+	private void readHomogeneousElements(RMIVariables vars, DataInputUnsyncByteArrayInputStream in,
+			Object[] elements, int len) throws IOException, ClassNotFoundException {
+		short elementkind = readTag(in);
+		switch (elementkind) {
+			case HOMOGENEOUS_ELEMENT_OBJECT: {
+				for (int i = 0; i < len; i++) {
+					elements[i] = this.readObject(vars, in);
+				}
+				break;
+			}
+			case HOMOGENEOUS_ELEMENT_STRING: {
+				for (int i = 0; i < len; i++) {
+					int marker = readCompactInt(in);
+					if (marker == HOMOGENEOUS_ELEMENT_NULL) {
+						continue;
+					}
+					if (marker == HOMOGENEOUS_ELEMENT_INLINE) {
+						elements[i] = readObjectString(in);
+						continue;
+					}
+					int index = marker - HOMOGENEOUS_ELEMENT_INDEX_OFFSET;
+					String s = commStrings.getRead(index);
+					if (s == null) {
+						throw new RMIObjectTransferFailureException("String not found for index: " + index);
+					}
+					elements[i] = s;
+				}
+				break;
+			}
+			case HOMOGENEOUS_ELEMENT_ENUM: {
+				@SuppressWarnings("rawtypes")
+				Class enumtype = this.readClass(in).get(connection);
+				Enum<?>[] values = new Enum<?>[4];
+				int valuecount = 0;
+				for (int i = 0; i < len; i++) {
+					int marker = readCompactInt(in);
+					if (marker == HOMOGENEOUS_ELEMENT_NULL) {
+						continue;
+					}
+					if (marker == HOMOGENEOUS_ELEMENT_INLINE) {
+						@SuppressWarnings("unchecked")
+						Enum<?> value = Enum.valueOf(enumtype, readString(in));
+						if (valuecount == values.length) {
+							values = Arrays.copyOf(values, valuecount * 2);
+						}
+						values[valuecount++] = value;
+						elements[i] = value;
+						continue;
+					}
+					int index = marker - HOMOGENEOUS_ELEMENT_INDEX_OFFSET;
+					if (index < 0 || index >= valuecount) {
+						throw new RMIObjectTransferFailureException("Enum not found for index: " + index);
+					}
+					elements[i] = values[index];
+				}
+				break;
+			}
+			default: {
+				throw new RMICallFailedException("Unknown homogeneous element kind: " + elementkind);
+			}
+		}
+	}
+
+	private static Object[] newObjectArray(Class<?> component, int len) {
+		if (component.isPrimitive()) {
+			throw new RMIObjectTransferFailureException("Invalid object array component type: " + component);
+		}
+		return (Object[]) Array.newInstance(component, len);
+	}
+
 	private Object readEnum(DataInputUnsyncByteArrayInputStream in) throws IOException, ClassNotFoundException {
 		@SuppressWarnings("rawtypes")
 		Class enumtype = this.readClass(in).get(connection);
@@ -1733,7 +2941,7 @@ final class RMIStream implements Closeable {
 
 	Object readObject(RMIVariables vars, DataInputUnsyncByteArrayInputStream in)
 			throws IOException, ClassNotFoundException {
-		short type = in.readShort();
+		short type = readTag(in);
 		RMIObjectReaderFunction<?> reader;
 		try {
 			reader = OBJECT_READERS[type];
@@ -1752,14 +2960,13 @@ final class RMIStream implements Closeable {
 
 	private void writeClass(ClassReflectionElementSupplier cres, DataOutputUnsyncByteArrayOutputStream out) {
 		RMICommCache<ClassReflectionElementSupplier> cache = commClasses;
-		Integer index;
-		index = cache.getWriteIndex(cres);
-		if (index != null) {
-			out.writeShort(CLASS_INDEX);
-			out.writeInt(index);
+		int index = cache.getWriteIndex(cres);
+		if (index >= 0) {
+			writeTag(out, CLASS_INDEX);
+			writeCompactInt(out, index);
 			return;
 		}
-		out.writeShort(CLASS_DETAILS);
+		writeTag(out, CLASS_DETAILS);
 		writeClassData(cres, out);
 	}
 
@@ -1776,15 +2983,15 @@ final class RMIStream implements Closeable {
 
 	private ClassReflectionElementSupplier readClass(DataInputUnsyncByteArrayInputStream in) throws IOException {
 		RMICommCache<ClassReflectionElementSupplier> cache = commClasses;
-		short cmd = in.readShort();
+		short cmd = readTag(in);
 		switch (cmd) {
 			case CLASS_DETAILS: {
 				String classname = readString(in);
 				ClassLoaderReflectionElementSupplier clsupplier = readClassLoader(in);
 				ClassReflectionElementSupplier classsupplier = new DynamicClassReflectionElementSupplier(clsupplier,
 						classname);
-				Integer putidx = cache.putReadIfAbsent(classsupplier);
-				if (putidx != null) {
+				int putidx = cache.putReadIfAbsent(classsupplier);
+				if (putidx >= 0) {
 					writeCommandCachedClass(classsupplier, putidx);
 				}
 				return classsupplier;
@@ -1798,9 +3005,9 @@ final class RMIStream implements Closeable {
 		}
 	}
 
-	private static ClassReflectionElementSupplier readClassWithIndex(DataInputUnsyncByteArrayInputStream in,
+	private ClassReflectionElementSupplier readClassWithIndex(DataInputUnsyncByteArrayInputStream in,
 			RMICommCache<ClassReflectionElementSupplier> cache) throws EOFException {
-		int cindex = in.readInt();
+		int cindex = readCompactInt(in);
 		ClassReflectionElementSupplier result = cache.getRead(cindex);
 		if (result == null) {
 			throw new RMIObjectTransferFailureException("Class not found for index: " + cindex);
@@ -1821,35 +3028,35 @@ final class RMIStream implements Closeable {
 
 	private void writeClassLoader(ClassLoaderReflectionElementSupplier cl, DataOutputUnsyncByteArrayOutputStream out) {
 		if (cl == null) {
-			out.writeShort(CLASSLOADER_NULL);
+			writeTag(out, CLASSLOADER_NULL);
 			return;
 		}
-		Integer index = commClassLoaders.getWriteIndex(cl);
-		if (index != null) {
-			out.writeShort(CLASSLOADER_INDEX);
-			out.writeInt(index);
+		int index = commClassLoaders.getWriteIndex(cl);
+		if (index >= 0) {
+			writeTag(out, CLASSLOADER_INDEX);
+			writeCompactInt(out, index);
 			return;
 		}
-		out.writeShort(CLASSLOADER_DETAILS);
+		writeTag(out, CLASSLOADER_DETAILS);
 		writeClassLoaderData(cl, out);
 	}
 
 	private ClassLoaderReflectionElementSupplier readClassLoader(DataInputUnsyncByteArrayInputStream in)
 			throws IOException {
-		short cmd = in.readShort();
+		short cmd = readTag(in);
 		switch (cmd) {
 			case CLASSLOADER_DETAILS: {
 				String clid = readClassLoaderId(in);
 				ClassLoaderReflectionElementSupplier clsupplier = new DynamicClassLoaderReflectionElementSupplier(
 						connection, clid);
-				Integer putidx = commClassLoaders.putReadIfAbsent(clsupplier);
-				if (putidx != null) {
+				int putidx = commClassLoaders.putReadIfAbsent(clsupplier);
+				if (putidx >= 0) {
 					writeCommandCachedClassLoader(clsupplier, putidx);
 				}
 				return clsupplier;
 			}
 			case CLASSLOADER_INDEX: {
-				int cindex = in.readInt();
+				int cindex = readCompactInt(in);
 				ClassLoaderReflectionElementSupplier readcl = commClassLoaders.getRead(cindex);
 				if (readcl == null) {
 					throw new RMIObjectTransferFailureException("Class not found for index: " + cindex);
@@ -1865,17 +3072,17 @@ final class RMIStream implements Closeable {
 		}
 	}
 
-	private static void writeClassLoaderData(ClassLoaderReflectionElementSupplier cl,
+	private void writeClassLoaderData(ClassLoaderReflectionElementSupplier cl,
 			DataOutputUnsyncByteArrayOutputStream out) {
 		String clid = cl.getClassLoaderId();
 		writeClassLoaderId(out, clid);
 	}
 
-	private static void writeClassLoaderId(DataOutputUnsyncByteArrayOutputStream out, String clid) {
+	private void writeClassLoaderId(DataOutputUnsyncByteArrayOutputStream out, String clid) {
 		writeString(clid == null ? "" : clid, out);
 	}
 
-	private static String readClassLoaderId(DataInputUnsyncByteArrayInputStream in) throws IOException {
+	private String readClassLoaderId(DataInputUnsyncByteArrayInputStream in) throws IOException {
 		String result = readString(in);
 		if ("".equals(result)) {
 			return null;
@@ -1919,7 +3126,7 @@ final class RMIStream implements Closeable {
 
 	private Set<Class<?>> readClassesSet(DataInputUnsyncByteArrayInputStream in, RMIVariables variables)
 			throws IOException, ClassSetPartiallyReadException {
-		short count = in.readShort();
+		int count = readCompactShort(in);
 		if (count == 0) {
 			return Collections.emptySet();
 		}
@@ -1948,7 +3155,7 @@ final class RMIStream implements Closeable {
 	}
 
 	private void writeClasses(Collection<Class<?>> clazz, DataOutputUnsyncByteArrayOutputStream out) {
-		out.writeShort(clazz.size());
+		writeCompactShort(out, clazz.size());
 		for (Class<?> c : clazz) {
 			writeClass(c, out);
 		}
@@ -1957,31 +3164,31 @@ final class RMIStream implements Closeable {
 	private void writeConstructor(Constructor<?> constructor, DataOutputUnsyncByteArrayOutputStream out) {
 		RMICommCache<ConstructorReflectionElementSupplier> cache = commConstructors;
 		ConstructorReflectionElementSupplier constructorres = getConstructorReflectionElementSupplier(constructor);
-		Integer index = cache.getWriteIndex(constructorres);
-		if (index != null) {
-			out.writeShort(CONSTRUCTOR_INDEX);
-			out.writeInt(index);
+		int index = cache.getWriteIndex(constructorres);
+		if (index >= 0) {
+			writeTag(out, CONSTRUCTOR_INDEX);
+			writeCompactInt(out, index);
 			return;
 		}
-		out.writeShort(CONSTRUCTOR_DETAILS);
+		writeTag(out, CONSTRUCTOR_DETAILS);
 		writeConstructorData(constructorres, out);
 	}
 
 	private Constructor<?> readConstructor(DataInputUnsyncByteArrayInputStream in)
 			throws IOException, ClassNotFoundException {
 		RMICommCache<ConstructorReflectionElementSupplier> cache = commConstructors;
-		short cmd = in.readShort();
+		short cmd = readTag(in);
 		switch (cmd) {
 			case CONSTRUCTOR_DETAILS: {
 				ConstructorReflectionElementSupplier result = readConstructorData(in);
-				Integer putidx = cache.putReadIfAbsent(result);
-				if (putidx != null) {
+				int putidx = cache.putReadIfAbsent(result);
+				if (putidx >= 0) {
 					writeCommandCachedConstructor(result, putidx);
 				}
 				return result.get(connection);
 			}
 			case CONSTRUCTOR_INDEX: {
-				int cindex = in.readInt();
+				int cindex = readCompactInt(in);
 				ConstructorReflectionElementSupplier result = cache.getRead(cindex);
 				if (result == null) {
 					throw new RMIObjectTransferFailureException("Constructor not found with index: " + cindex);
@@ -2011,31 +3218,31 @@ final class RMIStream implements Closeable {
 	private void writeField(Field f, DataOutputUnsyncByteArrayOutputStream out) {
 		RMICommCache<FieldReflectionElementSupplier> cache = commFields;
 		FieldReflectionElementSupplier fres = getFieldReflectionElementSupplier(f);
-		Integer index = cache.getWriteIndex(fres);
-		if (index != null) {
-			out.writeShort(FIELD_INDEX);
-			out.writeInt(index);
+		int index = cache.getWriteIndex(fres);
+		if (index >= 0) {
+			writeTag(out, FIELD_INDEX);
+			writeCompactInt(out, index);
 			return;
 		}
-		out.writeShort(FIELD_DETAILS);
+		writeTag(out, FIELD_DETAILS);
 		writeFieldData(fres, out);
 	}
 
 	private Field readField(DataInputUnsyncByteArrayInputStream in, Object relativeobject)
 			throws IOException, ClassNotFoundException {
 		RMICommCache<FieldReflectionElementSupplier> cache = commFields;
-		short cmd = in.readShort();
+		short cmd = readTag(in);
 		switch (cmd) {
 			case FIELD_DETAILS: {
 				final FieldReflectionElementSupplier fielddata = readFieldData(in);
-				Integer putidx = commFields.putReadIfAbsent(fielddata);
-				if (putidx != null) {
+				int putidx = commFields.putReadIfAbsent(fielddata);
+				if (putidx >= 0) {
 					writeCommandCachedField(fielddata, putidx);
 				}
 				return fielddata.get(connection, relativeobject);
 			}
 			case FIELD_INDEX: {
-				int cindex = in.readInt();
+				int cindex = readCompactInt(in);
 				FieldReflectionElementSupplier result = cache.getRead(cindex);
 				if (result == null) {
 					throw new RMIObjectTransferFailureException("Field not found with index: " + cindex);
@@ -2093,31 +3300,31 @@ final class RMIStream implements Closeable {
 	private void writeMethod(Method method, DataOutputUnsyncByteArrayOutputStream out) {
 		RMICommCache<MethodReflectionElementSupplier> cache = commMethods;
 		MethodReflectionElementSupplier methodres = getMethodReflectionElementSupplier(method);
-		Integer index = cache.getWriteIndex(methodres);
-		if (index != null) {
-			out.writeShort(METHOD_INDEX);
-			out.writeInt(index);
+		int index = cache.getWriteIndex(methodres);
+		if (index >= 0) {
+			writeTag(out, METHOD_INDEX);
+			writeCompactInt(out, index);
 			return;
 		}
-		out.writeShort(METHOD_DETAILS);
+		writeTag(out, METHOD_DETAILS);
 		writeMethodData(methodres, out);
 	}
 
 	private Method readMethod(DataInputUnsyncByteArrayInputStream in, Object relativeobject)
 			throws IOException, ClassNotFoundException {
 		RMICommCache<MethodReflectionElementSupplier> cache = commMethods;
-		short cmd = in.readShort();
+		short cmd = readTag(in);
 		switch (cmd) {
 			case METHOD_DETAILS: {
 				final MethodReflectionElementSupplier methoddata = readMethodData(in);
-				Integer putidx = commMethods.putReadIfAbsent(methoddata);
-				if (putidx != null) {
+				int putidx = commMethods.putReadIfAbsent(methoddata);
+				if (putidx >= 0) {
 					writeCommandCachedMethod(methoddata, putidx);
 				}
 				return methoddata.get(connection, relativeobject);
 			}
 			case METHOD_INDEX: {
-				int cindex = in.readInt();
+				int cindex = readCompactInt(in);
 				MethodReflectionElementSupplier result = cache.getRead(cindex);
 				if (result == null) {
 					throw new RMIObjectTransferFailureException("Method not found with index: " + cindex);
@@ -2136,15 +3343,15 @@ final class RMIStream implements Closeable {
 		writeClassNames(method.getParameterTypeNames(), out);
 	}
 
-	private static void writeClassNames(String[] clazz, DataOutputUnsyncByteArrayOutputStream out) {
-		out.writeInt(clazz.length);
+	private void writeClassNames(String[] clazz, DataOutputUnsyncByteArrayOutputStream out) {
+		writeCompactInt(out, clazz.length);
 		for (int i = 0; i < clazz.length; i++) {
 			writeString(clazz[i], out);
 		}
 	}
 
-	private static String[] readClassNames(DataInputUnsyncByteArrayInputStream in) throws IOException {
-		int len = in.readInt();
+	private String[] readClassNames(DataInputUnsyncByteArrayInputStream in) throws IOException {
+		int len = readCompactInt(in);
 		String[] result = new String[len];
 		for (int i = 0; i < len; i++) {
 			String cname = readString(in);
@@ -2166,21 +3373,27 @@ final class RMIStream implements Closeable {
 	private void writeMethodParameters(RMIVariables variables, ExecutableTransferProperties<?> execproperties,
 			Object[] arguments, DataOutputUnsyncByteArrayOutputStream out) {
 		if (ObjectUtils.isNullOrEmpty(arguments)) {
-			out.writeShort(0);
+			writeCompactShort(out, 0);
 			return;
 		}
-		out.writeShort(arguments.length);
+		writeCompactShort(out, arguments.length);
 		Executable exec = execproperties.getExecutable();
 		Class<?>[] paramtypes = exec.getParameterTypes();
-		for (int i = 0; i < arguments.length; i++) {
-			try {
-				Object argument = unwrapWrapperForTransfer(arguments[i], variables);
-				writeObjectUsingWriteHandler(execproperties.getParameterWriter(i), variables, argument, out,
-						paramtypes[i]);
-			} catch (Exception | LinkageError | StackOverflowError | OutOfMemoryError | AssertionError
-					| ServiceConfigurationError e) {
-				throw new RMIObjectTransferFailureException("Failed to write method call argument[" + i + "].", e);
+		ObjectHandleTable prevhandles = enterObjectHandleScope();
+		try {
+			for (int i = 0; i < arguments.length; i++) {
+				try {
+					Object argument = unwrapWrapperForTransfer(arguments[i], variables);
+					writeObjectUsingWriteHandler(execproperties.getParameterWriter(i), variables, argument, out,
+							paramtypes[i]);
+				} catch (Exception | LinkageError | StackOverflowError | OutOfMemoryError | AssertionError
+						| ServiceConfigurationError e) {
+					throw new RMIObjectTransferFailureException("Failed to write method call argument[" + i + "].",
+							e);
+				}
 			}
+		} finally {
+			exitObjectHandleScope(prevhandles);
 		}
 	}
 
@@ -2242,11 +3455,24 @@ final class RMIStream implements Closeable {
 						+ " didn't read input fully. (Remaining " + avail + " bytes)");
 			}
 		}
-		return wrapper.resolveWrapped();
+		Object result = wrapper.resolveWrapped();
+		ObjectHandleTable handles = objectHandleTables.get();
+		if (handles != null) {
+			handles.putRead(inregion.getOffset(), result);
+		}
+		return result;
 	}
 
 	private void writeWrappedObject(RMIVariables variables, Object obj, Class<?> paramtype,
 			Class<? extends RMIWrapper> wrapperclass, DataOutputUnsyncByteArrayOutputStream out) throws IOException {
+		ObjectHandleTable handles = objectHandleTables.get();
+		if (handles != null) {
+			int position = handles.getWrappedWrittenPosition(obj, wrapperclass);
+			if (position >= 0) {
+				writeObjectBackReference(out, position);
+				return;
+			}
+		}
 		Constructor<? extends RMIWrapper> constructor = getRMIWrapperConstructor(paramtype, wrapperclass);
 		RMIWrapper wrapper;
 		try {
@@ -2264,7 +3490,7 @@ final class RMIStream implements Closeable {
 		}
 		if (connection.getProtocolVersion() >= RMIConnection.PROTOCOL_VERSION_2) {
 			//protocol includes the number of bytes written
-			out.writeShort(OBJECT_WRAPPER2);
+			writeTag(out, OBJECT_WRAPPER2);
 			writeClass(wrapperclass, out);
 
 			int sizeoffset = out.size();
@@ -2274,8 +3500,12 @@ final class RMIStream implements Closeable {
 			} finally {
 				out.replaceInt(out.size() - sizeoffset - 4, sizeoffset);
 			}
+			if (handles != null) {
+				//put after writing the contents, as the object is only resolved after reading them
+				handles.putWrappedWritten(obj, wrapperclass, sizeoffset + 4);
+			}
 		} else {
-			out.writeShort(OBJECT_WRAPPER);
+			writeTag(out, OBJECT_WRAPPER);
 			writeClass(wrapperclass, out);
 			wrapper.writeWrapped(new RMIObjectOutputImpl(variables, this, out, obj));
 		}
@@ -2302,9 +3532,9 @@ final class RMIStream implements Closeable {
 				+ " in " + wrapperclass.getName());
 	}
 
-	private static void writeRemoteObject(int remoteid, DataOutputUnsyncByteArrayOutputStream out) {
-		out.writeShort(OBJECT_REMOTE);
-		out.writeInt(remoteid);
+	private void writeRemoteObject(int remoteid, DataOutputUnsyncByteArrayOutputStream out) {
+		writeTag(out, OBJECT_REMOTE);
+		writeCompactInt(out, remoteid);
 	}
 
 	void writeRemoteObjectFromStream(RMIVariables variables, Object obj, DataOutputUnsyncByteArrayOutputStream out,
@@ -2329,7 +3559,7 @@ final class RMIStream implements Closeable {
 		}
 	}
 
-	private static void writeOnlyIfRemote(RMIVariables variables, Object obj,
+	private void writeOnlyIfRemote(RMIVariables variables, Object obj,
 			DataOutputUnsyncByteArrayOutputStream out) {
 		if (variables == null) {
 			throw new RMIObjectTransferFailureException("No variables available for remote object transfer.");
@@ -2341,24 +3571,42 @@ final class RMIStream implements Closeable {
 		writeRemoteObject(remoteid, out);
 	}
 
-	private static Object readRemoteObject(RMIVariables variables, DataInputUnsyncByteArrayInputStream in)
+	private Object readRemoteObject(RMIVariables variables, DataInputUnsyncByteArrayInputStream in)
 			throws IOException {
 		if (variables == null) {
 			throw new RMICallFailedException("Failed to read remote object with null variables.");
 		}
-		int idx = in.readInt();
+		int idx = readCompactInt(in);
 		return variables.requireObjectWithLocalId(idx);
 	}
 
+	private void readUnknownNewInstanceArguments(RMIVariables variables, DataInputUnsyncByteArrayInputStream in,
+			String[] argclassnames, Object[] args) throws IOException, ClassNotFoundException {
+		ObjectHandleTable prevhandles = enterObjectHandleScope();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				argclassnames[i] = in.readUTF();
+				args[i] = readObject(variables, in);
+			}
+		} finally {
+			exitObjectHandleScope(prevhandles);
+		}
+	}
+
 	private Object[] readMethodParameters(RMIVariables variables, DataInputUnsyncByteArrayInputStream in)
 			throws IOException, ClassNotFoundException {
-		short len = in.readShort();
+		int len = readCompactShort(in);
 		if (len == 0) {
 			return ObjectUtils.EMPTY_OBJECT_ARRAY;
 		}
 		Object[] result = new Object[len];
-		for (int i = 0; i < len; i++) {
-			result[i] = readObject(variables, in);
+		ObjectHandleTable prevhandles = enterObjectHandleScope();
+		try {
+			for (int i = 0; i < len; i++) {
+				result[i] = readObject(variables, in);
+			}
+		} finally {
+			exitObjectHandleScope(prevhandles);
 		}
 		return result;
 	}
@@ -2377,13 +3625,13 @@ final class RMIStream implements Closeable {
 	}
 
 	protected RMIVariables readVariablesImpl(DataInputUnsyncByteArrayInputStream in) throws EOFException {
-		int variablesid = in.readInt();
+		int variablesid = readCompactInt(in);
 		return connection.getVariablesByLocalId(variablesid);
 	}
 
-	private static void writeVariables(RMIVariables variables, DataOutputUnsyncByteArrayOutputStream out) {
+	private void writeVariables(RMIVariables variables, DataOutputUnsyncByteArrayOutputStream out) {
 		int remoteid = variables.getRemoteIdentifier();
-		out.writeInt(remoteid);
+		writeCompactInt(out, remoteid);
 	}
 
 	private final class MethodCallRedispatchResponse implements RedispatchResponse {
@@ -2491,14 +3739,14 @@ final class RMIStream implements Closeable {
 	}
 
 	private void handleCommandPong(DataInputUnsyncByteArrayInputStream in) throws IOException {
-		int reqid = in.readInt();
+		int reqid = readCompactInt(in);
 		requestHandler.addResponse(reqid, new PingResponse());
 	}
 
 	private void handleCommandNewVariablesResult(DataInputUnsyncByteArrayInputStream in) throws IOException {
-		int reqid = in.readInt();
+		int reqid = readCompactInt(in);
 		try {
-			int remoteid = in.readInt();
+			int remoteid = readCompactInt(in);
 
 			if (remoteid == RMIVariables.NO_OBJECT_ID) {
 				requestHandler.addResponse(reqid,
@@ -2514,12 +3762,12 @@ final class RMIStream implements Closeable {
 	}
 
 	private void handleCommandNewInstanceResult(DataInputUnsyncByteArrayInputStream in) throws IOException {
-		int reqid = in.readInt();
+		int reqid = readCompactInt(in);
 		boolean interrupted = false;
 		int interruptreqcount = 0;
 		try {
-			int remoteindex = in.readInt();
-			int compressedinterruptstatus = in.readInt();
+			int remoteindex = readCompactInt(in);
+			int compressedinterruptstatus = readCompactInt(in);
 
 			interrupted = isCompressedInterruptStatusInvokerThreadInterrupted(compressedinterruptstatus);
 			interruptreqcount = getCompressedInterruptStatusDeliveredRequestCount(compressedinterruptstatus);
@@ -2533,8 +3781,8 @@ final class RMIStream implements Closeable {
 	}
 
 	private void handleCommandGetContextVariableResult(DataInputUnsyncByteArrayInputStream in) throws IOException {
-		int variablesid = in.readInt();
-		int reqid = in.readInt();
+		int variablesid = readCompactInt(in);
+		int reqid = readCompactInt(in);
 		try {
 			RMIVariables vars = connection.getVariablesByLocalId(variablesid);
 			validateVariables(vars);
@@ -2549,8 +3797,8 @@ final class RMIStream implements Closeable {
 	}
 
 	private void handleCommandDirectRequestForbidden(DataInputUnsyncByteArrayInputStream in) throws IOException {
-		int reqid = in.readInt();
-		short cmd = in.readShort();
+		int reqid = readCompactInt(in);
+		short cmd = readTag(in);
 		switch (cmd) {
 			case COMMAND_METHODRESULT_FAIL: {
 				requestHandler.addResponse(reqid, DirectForbiddenMethodCallResponse.INSTANCE);
@@ -2573,8 +3821,8 @@ final class RMIStream implements Closeable {
 	}
 
 	private void handleCommandGetContextVariable(DataInputUnsyncByteArrayInputStream in) throws IOException {
-		int variablesid = in.readInt();
-		int reqid = in.readInt();
+		int variablesid = readCompactInt(in);
+		int reqid = readCompactInt(in);
 		RMIVariables vars = connection.getVariablesByLocalId(variablesid);
 		validateVariables(vars);
 		String varid = in.readUTF();
@@ -2583,17 +3831,32 @@ final class RMIStream implements Closeable {
 	}
 
 	private void handleCommandPing(DataInputUnsyncByteArrayInputStream in) throws IOException {
-		int reqid = in.readInt();
+		int reqid = readCompactInt(in);
 
 		writeCommandPong(reqid);
 	}
 
 	private void handleCommandCachedClass(DataInputUnsyncByteArrayInputStream in) throws IOException {
 		ClassReflectionElementSupplier classdata = readClassData(in);
-		int idx = in.readInt();
+		int idx = readCompactInt(in);
 		commClasses.putWrite(classdata, idx);
 	}
 
+	private void handleCommandCachedSerialClassDescriptor(DataInputUnsyncByteArrayInputStream in) throws IOException {
+		String clid = readClassLoaderId(in);
+		String classname = readString(in);
+		long suid = in.readLong();
+		int idx = readCompactInt(in);
+		commSerialClassDescriptors.putWrite(new SerialClassDescriptorReflectionElementSupplier(clid, classname, suid),
+				idx);
+	}
+
+	private void handleCommandCachedString(DataInputUnsyncByteArrayInputStream in) throws IOException {
+		String s = readString(in);
+		int idx = readCompactInt(in);
+		commStrings.putWrite(s, idx);
+	}
+
 	private static Class<?>[] loadParameterTypeClasses(ClassLoader declcl, String[] parametertypenames, Object msgsrc) {
 		Class<?>[] paramtypes = new Class<?>[parametertypenames.length];
 		for (int i = 0; i < paramtypes.length; i++) {
@@ -2616,40 +3879,59 @@ final class RMIStream implements Closeable {
 		String clid = readClassLoaderId(in);
 		DynamicClassLoaderReflectionElementSupplier clsupplier = new DynamicClassLoaderReflectionElementSupplier(
 				connection, clid);
-		int idx = in.readInt();
+		int idx = readCompactInt(in);
 		commClassLoaders.putWrite(clsupplier, idx);
 	}
 
 	private void handleCommandCachedMethod(DataInputUnsyncByteArrayInputStream in) throws IOException {
 		MethodReflectionElementSupplier method = readMethodData(in);
-		int idx = in.readInt();
+		int idx = readCompactInt(in);
 		commMethods.putWrite(method, idx);
 	}
 
 	private void handleCommandInterruptRequest(DataInputUnsyncByteArrayInputStream in) throws IOException {
-		int reqid = in.readInt();
+		int reqid = readCompactInt(in);
 		connection.interruptRequestThread(reqid);
 	}
 
+	private void handleCommandInvalidateCachedResults(DataInputUnsyncByteArrayInputStream in) throws IOException {
+		RMIVariables variables = readVariablesImpl(in);
+		int remoteid = readCompactInt(in);
+		Method method = null;
+		if (in.readBoolean()) {
+			//read the method even if the variables is closed to keep the method caches in sync
+			try {
+				method = readMethod(in, null);
+			} catch (ClassNotFoundException | RMIRuntimeException e) {
+				//the method couldn't be resolved, invalidate all cached results of the object instead
+			}
+		}
+		if (variables == null) {
+			//closed meanwhile, nothing to invalidate
+			return;
+		}
+		variables.invalidateCachedResultsOfRemoteObject(remoteid, method);
+	}
+
 	private void handleCommandCachedField(DataInputUnsyncByteArrayInputStream in) throws IOException {
 		FieldReflectionElementSupplier field = readFieldData(in);
-		int idx = in.readInt();
+		int idx = readCompactInt(in);
 		commFields.putWrite(field, idx);
 	}
 
 	private void handleCommandCachedConstructor(DataInputUnsyncByteArrayInputStream in) throws IOException {
 		ConstructorReflectionElementSupplier constructor = readConstructorData(in);
-		int idx = in.readInt();
+		int idx = readCompactInt(in);
 		commConstructors.putWrite(constructor, idx);
 	}
 
 	private void handleCommandNewVariables(DataInputUnsyncByteArrayInputStream in) throws IOException {
 		//read failures are protocol errors
-		int reqid = in.readInt();
+		int reqid = readCompactInt(in);
 		int remoteid;
 		String name;
 		try {
-			remoteid = in.readInt();
+			remoteid = readCompactInt(in);
 			name = in.readUTF();
 			if (name.isEmpty()) {
 				name = null;
@@ -2676,13 +3958,13 @@ final class RMIStream implements Closeable {
 	}
 
 	private void handleCommandNewInstanceUnknownClassResult(DataInputUnsyncByteArrayInputStream in) throws IOException {
-		int reqid = in.readInt();
+		int reqid = readCompactInt(in);
 		boolean interrupted = false;
 		int interruptreqcount = 0;
 		try {
 			RMIVariables variables = readVariablesValidate(in);
-			int compressedinterruptstatus = in.readInt();
-			int remoteindex = in.readInt();
+			int compressedinterruptstatus = readCompactInt(in);
+			int remoteindex = readCompactInt(in);
 			Set<Class<?>> interfaces;
 			try {
 				interfaces = readClassesSet(in, variables);
@@ -2703,11 +3985,11 @@ final class RMIStream implements Closeable {
 	}
 
 	private void handleCommandNewInstanceResultFailure(DataInputUnsyncByteArrayInputStream in) throws IOException {
-		int reqid = in.readInt();
+		int reqid = readCompactInt(in);
 		boolean interrupted = false;
 		int interruptreqcount = 0;
 		try {
-			int compressedinterruptstatus = in.readInt();
+			int compressedinterruptstatus = readCompactInt(in);
 			Throwable exc = readException(in);
 
 			interrupted = isCompressedInterruptStatusInvokerThreadInterrupted(compressedinterruptstatus);
@@ -2724,11 +4006,11 @@ final class RMIStream implements Closeable {
 	}
 
 	private void handleCommandMethodResultFailure(DataInputUnsyncByteArrayInputStream in) throws IOException {
-		int reqid = in.readInt();
+		int reqid = readCompactInt(in);
 		boolean interrupted = false;
 		int interruptreqcount = 0;
 		try {
-			int compressedinterruptstatus = in.readInt();
+			int compressedinterruptstatus = readCompactInt(in);
 			Throwable exc = readException(in);
 
 			interrupted = isCompressedInterruptStatusInvokerThreadInterrupted(compressedinterruptstatus);
@@ -2747,16 +4029,16 @@ final class RMIStream implements Closeable {
 	private void writeDirectRequestForbidden(short command, int reqid) {
 		try (CommandFlusher flusher = new CommandFlusher()) {
 			DataOutputUnsyncByteArrayOutputStream out = flusher.getBuffer();
-			out.writeShort(COMMAND_DIRECT_REQUEST_FORBIDDEN);
-			out.writeInt(reqid);
-			out.writeShort(command);
+			writeTag(out, COMMAND_DIRECT_REQUEST_FORBIDDEN);
+			writeCompactInt(out, reqid);
+			writeTag(out, command);
 		}
 	}
 
 	private boolean handleCommandNewInstance(RunInputRunnable inputrunnable, DataInputUnsyncByteArrayInputStream in,
 			ReferencesReleasedAction gcaction) throws IOException {
 		//throws IOException if fails, protocol error
-		int reqid = in.readInt();
+		int reqid = readCompactInt(in);
 		if (!connection.isAllowDirectRequests()) {
 			writeDirectRequestForbidden(COMMAND_NEWINSTANCERESULT_FAIL, reqid);
 			return false;
@@ -2802,13 +4084,13 @@ final class RMIStream implements Closeable {
 	private void handleCommandNewInstanceRedispatch(DataInputUnsyncByteArrayInputStream in,
 			ReferencesReleasedAction gcaction) throws IOException {
 		try {
-			int reqid = in.readInt();
+			int reqid = readCompactInt(in);
 			if (!connection.isAllowDirectRequests()) {
 				writeDirectRequestForbidden(COMMAND_NEWINSTANCERESULT_FAIL, reqid);
 				return;
 			}
 			try {
-				int dispatchid = in.readInt();
+				int dispatchid = readCompactInt(in);
 				RMIVariables variables = readVariablesValidate(in);
 				Constructor<?> constructor = readConstructor(in);
 				Object[] args = readMethodParameters(variables, in);
@@ -2828,7 +4110,7 @@ final class RMIStream implements Closeable {
 	private boolean handleCommandNewInstanceUnknownClass(RunInputRunnable inputrunnable,
 			DataInputUnsyncByteArrayInputStream in, ReferencesReleasedAction gcaction) throws IOException {
 		//throws IOException if fails, protocol error
-		int reqid = in.readInt();
+		int reqid = readCompactInt(in);
 		if (!connection.isAllowDirectRequests()) {
 			writeDirectRequestForbidden(COMMAND_NEWINSTANCERESULT_FAIL, reqid);
 			return false;
@@ -2852,18 +4134,15 @@ final class RMIStream implements Closeable {
 					inputrunnable.offerSelfStreamTask();
 					streamtaskoffered = true;
 
-					int localclassloaderid = in.readInt();
+					int localclassloaderid = readCompactInt(in);
 					cl = getClassLoaderWithId(variables, localclassloaderid);
 
 					classname = in.readUTF();
-					int arglen = in.readInt();
+					int arglen = readCompactInt(in);
 
 					argclassnames = new String[arglen];
 					args = new Object[arglen];
-					for (int i = 0; i < arglen; i++) {
-						argclassnames[i] = in.readUTF();
-						args[i] = readObject(variables, in);
-					}
+					readUnknownNewInstanceArguments(variables, in, argclassnames, args);
 				} catch (Exception | LinkageError | StackOverflowError | OutOfMemoryError | AssertionError
 						| ServiceConfigurationError e) {
 					writeCommandExceptionResult(COMMAND_NEWINSTANCERESULT_FAIL, reqid, e, false, 0);
@@ -2886,26 +4165,23 @@ final class RMIStream implements Closeable {
 	private void handleCommandNewInstanceUnknownClassRedispatch(DataInputUnsyncByteArrayInputStream in,
 			ReferencesReleasedAction gcaction) throws IOException {
 		try {
-			int reqid = in.readInt();
+			int reqid = readCompactInt(in);
 			if (!connection.isAllowDirectRequests()) {
 				writeDirectRequestForbidden(COMMAND_UNKNOWN_NEWINSTANCE_RESULT, reqid);
 				return;
 			}
 			try {
-				int dispatchid = in.readInt();
+				int dispatchid = readCompactInt(in);
 				RMIVariables variables = readVariablesValidate(in);
-				int localclassloaderid = in.readInt();
+				int localclassloaderid = readCompactInt(in);
 				ClassLoader cl = getClassLoaderWithId(variables, localclassloaderid);
 
 				String classname = in.readUTF();
-				int arglen = in.readInt();
+				int arglen = readCompactInt(in);
 
 				String[] argclassnames = new String[arglen];
 				Object[] args = new Object[arglen];
-				for (int i = 0; i < arglen; i++) {
-					argclassnames[i] = in.readUTF();
-					args[i] = readObject(variables, in);
-				}
+				readUnknownNewInstanceArguments(variables, in, argclassnames, args);
 
 				boolean responseadded = requestHandler.addResponse(dispatchid,
 						new UnknownClassNewInstanceRedispatchResponse(classname, args, reqid, variables, cl,
@@ -2937,7 +4213,7 @@ final class RMIStream implements Closeable {
 			return false;
 		}
 		//throws IOException if fails, protocol error
-		int localid = in.readInt();
+		int localid = readCompactInt(in);
 		try {
 			Object invokeobject;
 			Object[] args;
@@ -2974,7 +4250,7 @@ final class RMIStream implements Closeable {
 			//release the action for garbage collection
 			gcaction = null;
 			try {
-				ReflectUtils.invokeMethod(invokeobject, method, args);
+				invokeAsyncMethod(variables, invokeobject, method, args);
 				return true;
 			} catch (Exception | LinkageError | StackOverflowError | OutOfMemoryError | AssertionError
 					| ServiceConfigurationError e) {
@@ -2986,13 +4262,29 @@ final class RMIStream implements Closeable {
 		}
 	}
 
+	private void invokeAsyncMethod(RMIVariables variables, Object invokeobject, Method method, Object[] args)
+			throws Exception {
+		MethodTransferProperties transfermethod = variables.getPropertiesCheckClosed().getExecutableProperties(method);
+		ConcurrencyLimiter limiter = connection.getConcurrencyLimiter(transfermethod);
+		if (limiter == null) {
+			transfermethod.getInvoker().invoke(invokeobject, args);
+			return;
+		}
+		limiter.enter(transfermethod);
+		try {
+			transfermethod.getInvoker().invoke(invokeobject, args);
+		} finally {
+			limiter.exit();
+		}
+	}
+
 	private boolean handleCommandMethodCallAsyncWithResponse(RunInputRunnable inputrunnable,
 			DataInputUnsyncByteArrayInputStream in, ReferencesReleasedAction gcaction) throws EOFException {
 		boolean writtenresponse = false;
 
 		//throws IOException if fails, protocol error
 		//the remote id is only used for sending back the response
-		int variablesremoteid = in.readInt();
+		int variablesremoteid = readCompactInt(in);
 		try {
 			//throws IOException if fails, protocol error
 			RMIVariables variables = readVariablesImpl(in);
@@ -3017,7 +4309,7 @@ final class RMIStream implements Closeable {
 					inputrunnable.offerSelfStreamTask();
 
 					//throws IOException if fails, protocol error
-					int localid = in.readInt();
+					int localid = readCompactInt(in);
 					invokeobject = readMethodInvokeObject(variables, localid);
 
 					if (invokeobject == null && !connection.isAllowDirectRequests()) {
@@ -3046,7 +4338,7 @@ final class RMIStream implements Closeable {
 				//release the action for garbage collection
 				gcaction = null;
 				try {
-					ReflectUtils.invokeMethod(invokeobject, method, args);
+					invokeAsyncMethod(variables, invokeobject, method, args);
 					return true;
 				} catch (Exception | LinkageError | StackOverflowError | OutOfMemoryError | AssertionError
 						| ServiceConfigurationError e) {
@@ -3076,7 +4368,7 @@ final class RMIStream implements Closeable {
 	private boolean handleCommandMethodCall(RunInputRunnable inputrunnable, DataInputUnsyncByteArrayInputStream in,
 			ReferencesReleasedAction gcaction) throws IOException {
 		//throws IOException if fails, protocol error
-		int reqid = in.readInt();
+		int reqid = readCompactInt(in);
 
 		RMIVariables variables = null;
 		boolean ongoingrequestadded = false;
@@ -3096,7 +4388,7 @@ final class RMIStream implements Closeable {
 					inputrunnable.offerSelfStreamTask();
 					streamtaskoffered = true;
 
-					int localid = in.readInt();
+					int localid = readCompactInt(in);
 					invokeobject = readMethodInvokeObject(variables, localid);
 					if (invokeobject == null && !connection.isAllowDirectRequests()) {
 						//forbidden to call static methods
@@ -3132,10 +4424,57 @@ final class RMIStream implements Closeable {
 		}
 	}
 
+	private boolean handleCommandIteratorNextBatch(RunInputRunnable inputrunnable,
+			DataInputUnsyncByteArrayInputStream in, ReferencesReleasedAction gcaction) throws IOException {
+		//throws IOException if fails, protocol error
+		int reqid = readCompactInt(in);
+
+		RMIVariables variables = null;
+		boolean ongoingrequestadded = false;
+		try {
+			Iterator<?> iterator;
+			MethodTransferProperties nextmethod;
+			int count;
+
+			boolean streamtaskoffered = false;
+			try {
+				variables = readVariablesValidate(in);
+				variables.addOngoingRequest();
+				ongoingrequestadded = true;
+
+				inputrunnable.offerSelfStreamTask();
+				streamtaskoffered = true;
+
+				int localid = readCompactInt(in);
+				count = readCompactInt(in);
+				if (count <= 0) {
+					throw new RMICallFailedException("Invalid iterator batch size: " + count);
+				}
+				Object invokeobject = variables.requireObjectWithLocalId(localid);
+				if (!(invokeobject instanceof Iterator)) {
+					throw new RMICallFailedException(
+							"Remote object is not an iterator: " + ObjectUtils.classNameOf(invokeobject));
+				}
+				iterator = (Iterator<?>) invokeobject;
+				nextmethod = variables.getPropertiesCheckClosed().getExecutableProperties(ITERATOR_NEXT_METHOD);
+			} catch (Exception | LinkageError | StackOverflowError | OutOfMemoryError | AssertionError
+					| ServiceConfigurationError e) {
+				writeCommandExceptionResult(COMMAND_METHODRESULT_FAIL, reqid, e, false, 0);
+				return streamtaskoffered;
+			}
+			iterateAndWriteIteratorBatch(reqid, variables, iterator, nextmethod, count);
+			return true;
+		} finally {
+			if (ongoingrequestadded) {
+				variables.removeOngoingRequest();
+			}
+		}
+	}
+
 	private boolean handleCommandContextVariableMethodCall(RunInputRunnable inputrunnable,
 			DataInputUnsyncByteArrayInputStream in, ReferencesReleasedAction gcaction) throws IOException {
 		//throws IOException if fails, protocol error
-		int reqid = in.readInt();
+		int reqid = readCompactInt(in);
 
 		RMIVariables variables = null;
 		boolean ongoingrequestadded = false;
@@ -3194,11 +4533,11 @@ final class RMIStream implements Closeable {
 	private void handleCommandMethodCallRedispatch(DataInputUnsyncByteArrayInputStream in,
 			ReferencesReleasedAction gcaction) throws IOException {
 		try {
-			int reqid = in.readInt();
+			int reqid = readCompactInt(in);
 			try {
-				int dispatchid = in.readInt();
+				int dispatchid = readCompactInt(in);
 				RMIVariables variables = readVariablesValidate(in);
-				int localid = in.readInt();
+				int localid = readCompactInt(in);
 				Object invokeobject = readMethodInvokeObject(variables, localid);
 
 				if (invokeobject == null && !connection.isAllowDirectRequests()) {
@@ -3232,10 +4571,10 @@ final class RMIStream implements Closeable {
 	private void handleCommandContextVariableMethodCallRedispatch(DataInputUnsyncByteArrayInputStream in,
 			ReferencesReleasedAction gcaction) throws IOException {
 		try {
-			int reqid = in.readInt();
+			int reqid = readCompactInt(in);
 			try {
 				RMIVariables variables = readVariablesValidate(in);
-				int dispatchid = in.readInt();
+				int dispatchid = readCompactInt(in);
 				String varid = in.readUTF();
 				Object invokeobject = connection.getLocalContextVariable(varid);
 
@@ -3269,7 +4608,7 @@ final class RMIStream implements Closeable {
 
 	private void handleCommandContextVariableMethodCallVariableNotFound(DataInputUnsyncByteArrayInputStream in)
 			throws IOException {
-		int reqid = in.readInt();
+		int reqid = readCompactInt(in);
 		String varname = in.readUTF();
 		requestHandler.addResponse(reqid, new ContextVariableNotFoundResponse(varname));
 	}
@@ -3288,10 +4627,90 @@ final class RMIStream implements Closeable {
 	//parameter is an integer instead of an RMIVariables, so if it gets closed on the server, 
 	//then a response can still be sent back based on the identifier
 	private void writeCommandAsyncResponse(int variablesremoteid) {
+		if (connection.getProtocolVersion() < RMIConnection.PROTOCOL_VERSION_3) {
+			try (CommandFlusher flusher = new CommandFlusher()) {
+				DataOutputUnsyncByteArrayOutputStream out = flusher.getBuffer();
+				writeTag(out, COMMAND_ASYNC_RESPONSE);
+				writeCompactInt(out, variablesremoteid);
+			}
+			return;
+		}
+		//coalesce the acknowledgements, and send them in a single counted command
+		//either after a short delay, or if enough of them accumulated
+		boolean offerflush = false;
+		int count = 0;
+		synchronized (pendingAsyncResponsesLock) {
+			Map<Integer, int[]> pending = this.pendingAsyncResponses;
+			if (pending == null) {
+				pending = new HashMap<>();
+				this.pendingAsyncResponses = pending;
+				offerflush = true;
+			}
+			int[] counter = pending.computeIfAbsent(variablesremoteid, x -> new int[1]);
+			if (++counter[0] >= ASYNC_RESPONSE_COALESCE_MAX_COUNT) {
+				pending.remove(variablesremoteid);
+				count = counter[0];
+			}
+		}
+		if (offerflush) {
+			try {
+				AsyncResponseFlushScheduler.INSTANCE.schedule(this::offerFlushPendingAsyncResponses,
+						ASYNC_RESPONSE_COALESCE_DELAY_NANOS, TimeUnit.NANOSECONDS);
+			} catch (Exception e) {
+				//failed to schedule the task, flush right away so the acknowledgements don't get lost
+				flushPendingAsyncResponses();
+			}
+		}
+		if (count > 0) {
+			writeCommandAsyncResponseCounted(variablesremoteid, count);
+		}
+	}
+
+	private void writeCommandAsyncResponseCounted(int variablesremoteid, int count) {
 		try (CommandFlusher flusher = new CommandFlusher()) {
 			DataOutputUnsyncByteArrayOutputStream out = flusher.getBuffer();
-			out.writeShort(COMMAND_ASYNC_RESPONSE);
-			out.writeInt(variablesremoteid);
+			writeTag(out, COMMAND_ASYNC_RESPONSE_COUNTED);
+			writeCompactInt(out, variablesremoteid);
+			writeCompactInt(out, count);
+		}
+	}
+
+	private void offerFlushPendingAsyncResponses() {
+		//don't write the commands on the scheduler thread, as writing may block
+		try {
+			connection.offerStreamTask(this::flushPendingAsyncResponses);
+		} catch (Exception e) {
+			//failed to offer the task, the connection is probably closing
+			//flush right away so the acknowledgements don't get lost
+			flushPendingAsyncResponses();
+		}
+	}
+
+	private void flushPendingAsyncResponses() {
+		Map<Integer, int[]> pending;
+		synchronized (pendingAsyncResponsesLock) {
+			pending = this.pendingAsyncResponses;
+			this.pendingAsyncResponses = null;
+		}
+		if (pending == null) {
+			return;
+		}
+		for (Map.Entry<Integer, int[]> entry : pending.entrySet()) {
+			try {
+				writeCommandAsyncResponseCounted(entry.getKey(), entry.getValue()[0]);
+			} catch (RMIRuntimeException e) {
+				//failed to write the command, the stream is probably closed or broken
+				//the remote endpoint clears the ongoing async requests when the reading fails
+				return;
+			}
+		}
+	}
+
+	private void handleCommandAsyncResponseCounted(DataInputUnsyncByteArrayInputStream in) throws IOException {
+		RMIVariables vars = readVariablesImpl(in);
+		int count = readCompactInt(in);
+		if (vars != null) {
+			vars.removeOngoingAsyncRequest(count);
 		}
 	}
 
@@ -3315,10 +4734,10 @@ final class RMIStream implements Closeable {
 			int interruptreqcount = 0;
 			RMIVariables variables;
 
-			int reqid = in.readInt();
+			int reqid = readCompactInt(in);
 			try {
 				variables = readVariablesValidate(in);
-				int compressedinterruptstatus = in.readInt();
+				int compressedinterruptstatus = readCompactInt(in);
 				interrupted = isCompressedInterruptStatusInvokerThreadInterrupted(compressedinterruptstatus);
 				interruptreqcount = getCompressedInterruptStatusDeliveredRequestCount(compressedinterruptstatus);
 			} catch (IOException e) {
@@ -3330,7 +4749,29 @@ final class RMIStream implements Closeable {
 				return;
 			}
 
+			if (deferMethodResultDecoding) {
+				//pass the raw bytes of the result to the caller thread
+				//the gc action is released by the response after the result is decoded
+				byte[] data;
+				int dataposition;
+				try {
+					dataposition = in.toByteArrayRegion().getOffset();
+					data = new byte[in.available()];
+					in.readFully(data);
+				} catch (IOException e) {
+					requestHandler.addResponse(reqid, new MethodCallIOFailureResponse(interrupted, interruptreqcount,
+							"Failed to read method result.", e));
+					return;
+				}
+				if (requestHandler.addResponse(reqid, new DeferredMethodCallResponse(interrupted, interruptreqcount,
+						this, variables, data, dataposition, gcaction, false))) {
+					gcaction = null;
+				}
+				return;
+			}
+
 			Object value;
+			ObjectHandleTable prevhandles = enterObjectHandleScope();
 			try {
 				value = readObject(variables, in);
 			} catch (Exception | LinkageError | StackOverflowError | OutOfMemoryError | AssertionError
@@ -3338,11 +4779,130 @@ final class RMIStream implements Closeable {
 				requestHandler.addResponse(reqid, new MethodCallObjectTransferFailedResponse(interrupted,
 						interruptreqcount, "Failed to read method result.", e));
 				return;
+			} finally {
+				exitObjectHandleScope(prevhandles);
 			}
 
 			requestHandler.addResponse(reqid, new MethodCallResponse(interrupted, interruptreqcount, value));
 		} finally {
-			gcaction.decreasePendingRequestCount();
+			if (gcaction != null) {
+				gcaction.decreasePendingRequestCount();
+			}
+		}
+	}
+
+	private void handleCommandIteratorBatchResult(DataInputUnsyncByteArrayInputStream in,
+			ReferencesReleasedAction gcaction) throws IOException {
+		try {
+			boolean interrupted = false;
+			int interruptreqcount = 0;
+			RMIVariables variables;
+
+			int reqid = readCompactInt(in);
+			try {
+				variables = readVariablesValidate(in);
+				int compressedinterruptstatus = readCompactInt(in);
+				interrupted = isCompressedInterruptStatusInvokerThreadInterrupted(compressedinterruptstatus);
+				interruptreqcount = getCompressedInterruptStatusDeliveredRequestCount(compressedinterruptstatus);
+			} catch (IOException e) {
+				requestHandler.addResponse(reqid, new MethodCallIOFailureResponse(interrupted, interruptreqcount,
+						"Failed to read iterator batch result.", e));
+				return;
+			} catch (RMIRuntimeException e) {
+				requestHandler.addResponse(reqid, new MethodCallFailedResponse(interrupted, interruptreqcount, e));
+				return;
+			}
+
+			if (deferMethodResultDecoding) {
+				//same as for the method results, the batch is decoded by the caller thread
+				byte[] data;
+				int dataposition;
+				try {
+					dataposition = in.toByteArrayRegion().getOffset();
+					data = new byte[in.available()];
+					in.readFully(data);
+				} catch (IOException e) {
+					requestHandler.addResponse(reqid, new MethodCallIOFailureResponse(interrupted, interruptreqcount,
+							"Failed to read iterator batch result.", e));
+					return;
+				}
+				if (requestHandler.addResponse(reqid, new DeferredMethodCallResponse(interrupted, interruptreqcount,
+						this, variables, data, dataposition, gcaction, true))) {
+					gcaction = null;
+				}
+				return;
+			}
+
+			Object[] result;
+			ObjectHandleTable prevhandles = enterObjectHandleScope();
+			try {
+				result = readIteratorBatchResult(variables, in);
+			} catch (Exception | LinkageError | StackOverflowError | OutOfMemoryError | AssertionError
+					| ServiceConfigurationError e) {
+				requestHandler.addResponse(reqid, new MethodCallObjectTransferFailedResponse(interrupted,
+						interruptreqcount, "Failed to read iterator batch result.", e));
+				return;
+			} finally {
+				exitObjectHandleScope(prevhandles);
+			}
+
+			requestHandler.addResponse(reqid, new MethodCallResponse(interrupted, interruptreqcount, result));
+		} finally {
+			if (gcaction != null) {
+				gcaction.decreasePendingRequestCount();
+			}
+		}
+	}
+
+	private Object[] readIteratorBatchResult(RMIVariables variables, DataInputUnsyncByteArrayInputStream in)
+			throws IOException, ClassNotFoundException {
+		Object elements = readObject(variables, in);
+		if (!(elements instanceof Object[])) {
+			throw new RMIObjectTransferFailureException(
+					"Invalid iterator batch elements: " + ObjectUtils.classNameOf(elements));
+		}
+		boolean hasmore = in.readBoolean();
+		Object[] elementsarray = (Object[]) elements;
+		//the caller expects the has more flag as the last element
+		Object[] result = Arrays.copyOf(elementsarray, elementsarray.length + 1, Object[].class);
+		result[elementsarray.length] = hasmore;
+		return result;
+	}
+
+	/**
+	 * Reads the result of a method call that was copied from the command.
+	 * 
+	 * @param dataposition
+	 *            The position of the data in the command, which the back-references of the objects are based on.
+	 */
+	Object readDeferredMethodResult(RMIVariables variables, byte[] data, int dataposition)
+			throws RMIObjectTransferFailureException {
+		ObjectHandleTable prevhandles = enterObjectHandleScope(dataposition);
+		try {
+			return readObject(variables, new DataInputUnsyncByteArrayInputStream(data, 0, data.length));
+		} catch (Exception | LinkageError | StackOverflowError | OutOfMemoryError | AssertionError
+				| ServiceConfigurationError e) {
+			throw new RMIObjectTransferFailureException("Failed to read method result.", e);
+		} finally {
+			exitObjectHandleScope(prevhandles);
+		}
+	}
+
+	/**
+	 * Reads the result of an iterator batch request that was copied from the command.
+	 * 
+	 * @see #readDeferredMethodResult(RMIVariables, byte[], int)
+	 */
+	Object[] readDeferredIteratorBatchResult(RMIVariables variables, byte[] data, int dataposition)
+			throws RMIObjectTransferFailureException {
+		ObjectHandleTable prevhandles = enterObjectHandleScope(dataposition);
+		try {
+			return readIteratorBatchResult(variables, new DataInputUnsyncByteArrayInputStream(data, 0, data.length));
+		} catch (Exception | LinkageError | StackOverflowError | OutOfMemoryError | AssertionError
+				| ServiceConfigurationError e) {
+			throw new RMIObjectTransferFailureException("Failed to read iterator batch result.", e);
+		} finally {
+			exitObjectHandleScope(prevhandles);
 		}
 	}
 
@@ -3381,10 +4941,10 @@ final class RMIStream implements Closeable {
 		}
 		StrongSoftReference<DataOutputUnsyncByteArrayOutputStream> buffer = connection.getCachedByteBuffer();
 		DataOutputUnsyncByteArrayOutputStream out = buffer.get();
-		out.writeShort(COMMAND_REFERENCES_RELEASED);
+		writeTag(out, COMMAND_REFERENCES_RELEASED);
 		writeVariables(variables, out);
-		out.writeInt(remoteid);
-		out.writeInt(count);
+		writeCompactInt(out, remoteid);
+		writeCompactInt(out, count);
 
 		Lock gclock = variables.gcCommandLock;
 		gclock.lockInterruptibly();
@@ -3516,7 +5076,18 @@ final class RMIStream implements Closeable {
 			try {
 				connection.addRequestThread(reqid, thread);
 				try {
-					dispatchresult = invokeMethodWithRequestId(method.getExecutable(), invokeobject, args, reqid);
+					ConcurrencyLimiter limiter = connection.getConcurrencyLimiter(method);
+					if (limiter == null) {
+						dispatchresult = invokeMethodWithRequestId(method, invokeobject, args, reqid);
+					} else {
+						//enter after the request thread is added, so the waiting can be interrupted by the caller
+						limiter.enter(method);
+						try {
+							dispatchresult = invokeMethodWithRequestId(method, invokeobject, args, reqid);
+						} finally {
+							limiter.exit();
+						}
+					}
 				} finally {
 					interruptreqcount = connection.removeRequestThread(reqid);
 				}
@@ -3532,28 +5103,105 @@ final class RMIStream implements Closeable {
 		}
 	}
 
+	private void iterateAndWriteIteratorBatch(int reqid, RMIVariables variables, Iterator<?> iterator,
+			MethodTransferProperties nextmethod, int count) {
+		Thread thread = Thread.currentThread();
+		int interruptreqcount = 0;
+		IteratorBatch batch;
+		try {
+			connection.addRequestThread(reqid, thread);
+			try {
+				//the batch is limited the same way as a single next() call
+				ConcurrencyLimiter limiter = connection.getConcurrencyLimiter(nextmethod);
+				if (limiter == null) {
+					batch = requestScopeHandler.run(reqid, () -> nextIteratorBatch(iterator, count));
+				} else {
+					//enter after the request thread is added, so the waiting can be interrupted by the caller
+					limiter.enter(nextmethod);
+					try {
+						batch = requestScopeHandler.run(reqid, () -> nextIteratorBatch(iterator, count));
+					} finally {
+						limiter.exit();
+					}
+				}
+			} finally {
+				interruptreqcount = connection.removeRequestThread(reqid);
+			}
+		} catch (Exception | LinkageError | StackOverflowError | OutOfMemoryError | AssertionError
+				| ServiceConfigurationError e) {
+			writeCommandExceptionResult(COMMAND_METHODRESULT_FAIL, reqid, e, Thread.interrupted(), interruptreqcount);
+			return;
+		}
+		writeCommandIteratorBatchResult(variables, reqid, batch, nextmethod, Thread.interrupted(), interruptreqcount);
+	}
+
+	/**
+	 * Retrieves at most the given number of elements from the iterator.
+	 */
+	private static IteratorBatch nextIteratorBatch(Iterator<?> iterator, int count) throws InvocationTargetException {
+		try {
+			ArrayList<Object> elements = new ArrayList<>(Math.min(count, 1024));
+			boolean hasnext;
+			while ((hasnext = iterator.hasNext()) && elements.size() < count) {
+				elements.add(iterator.next());
+			}
+			return new IteratorBatch(elements.toArray(), hasnext);
+		} catch (Throwable e) {
+			//same as if the methods were invoked via reflection
+			throw new InvocationTargetException(e);
+		}
+	}
+
 	private void writeCommandInterruptRequest(int reqid) {
 		try (CommandFlusher flusher = new CommandFlusher()) {
 			DataOutputUnsyncByteArrayOutputStream out = flusher.getBuffer();
-			out.writeShort(COMMAND_INTERRUPT_REQUEST);
-			out.writeInt(reqid);
+			writeTag(out, COMMAND_INTERRUPT_REQUEST);
+			writeCompactInt(out, reqid);
+		}
+	}
+
+	private void writeCommandIteratorNextBatch(RMIVariables variables, int reqid, int remoteid, int count) {
+		checkClosed();
+		try (CommandFlusher flusher = new CommandFlusher()) {
+			DataOutputUnsyncByteArrayOutputStream out = flusher.getBuffer();
+			writeTag(out, COMMAND_ITERATOR_NEXT_BATCH);
+			writeCompactInt(out, reqid);
+			writeVariables(variables, out);
+			writeCompactInt(out, remoteid);
+			writeCompactInt(out, count);
+		}
+	}
+
+	private void writeCommandInvalidateCachedResults(RMIVariables variables, int localid, Method method) {
+		checkClosed();
+		try (CommandFlusher flusher = new CommandFlusher()) {
+			DataOutputUnsyncByteArrayOutputStream out = flusher.getBuffer();
+			writeTag(out, COMMAND_INVALIDATE_CACHED_RESULTS);
+			writeVariables(variables, out);
+			writeCompactInt(out, localid);
+			if (method == null) {
+				out.writeBoolean(false);
+			} else {
+				out.writeBoolean(true);
+				writeMethod(method, out);
+			}
 		}
 	}
 
 	private void writeCommandPing(int reqid) {
 		try (CommandFlusher flusher = new CommandFlusher()) {
 			DataOutputUnsyncByteArrayOutputStream out = flusher.getBuffer();
-			out.writeShort(COMMAND_PING);
-			out.writeInt(reqid);
+			writeTag(out, COMMAND_PING);
+			writeCompactInt(out, reqid);
 		}
 	}
 
 	private void writeCommandGetContextVar(int reqid, RMIVariables vars, String variableid) {
 		try (CommandFlusher flusher = new CommandFlusher()) {
 			DataOutputUnsyncByteArrayOutputStream out = flusher.getBuffer();
-			out.writeShort(COMMAND_GET_CONTEXT_VAR);
+			writeTag(out, COMMAND_GET_CONTEXT_VAR);
 			writeVariables(vars, out);
-			out.writeInt(reqid);
+			writeCompactInt(out, reqid);
 			try {
 				out.writeUTF(variableid);
 			} catch (UTFDataFormatException e) {
@@ -3567,9 +5215,9 @@ final class RMIStream implements Closeable {
 		checkClosed();
 		try (CommandFlusher flusher = new CommandFlusher()) {
 			DataOutputUnsyncByteArrayOutputStream out = flusher.getBuffer();
-			out.writeShort(COMMAND_GET_CONTEXT_VAR_RESPONSE);
+			writeTag(out, COMMAND_GET_CONTEXT_VAR_RESPONSE);
 			writeVariables(vars, out);
-			out.writeInt(reqid);
+			writeCompactInt(out, reqid);
 			if (result == null) {
 				writeNullObject(out);
 			} else {
@@ -3581,93 +5229,256 @@ final class RMIStream implements Closeable {
 	private void writeCommandPong(int reqid) {
 		try (CommandFlusher flusher = new CommandFlusher()) {
 			DataOutputUnsyncByteArrayOutputStream out = flusher.getBuffer();
-			out.writeShort(COMMAND_PONG);
-			out.writeInt(reqid);
+			writeTag(out, COMMAND_PONG);
+			writeCompactInt(out, reqid);
 		}
 	}
 
 	private void writeCommandCachedClass(ClassReflectionElementSupplier clazz, int index) {
 		try (CommandFlusher flusher = new CommandFlusher()) {
 			DataOutputUnsyncByteArrayOutputStream out = flusher.getBuffer();
-			out.writeShort(COMMAND_CACHED_CLASS);
+			writeTag(out, COMMAND_CACHED_CLASS);
 			writeClassData(clazz, out);
-			out.writeInt(index);
+			writeCompactInt(out, index);
+		}
+	}
+
+	private void writeCommandCachedSerialClassDescriptor(SerialClassDescriptorReflectionElementSupplier desc,
+			int index) {
+		try (CommandFlusher flusher = new CommandFlusher()) {
+			DataOutputUnsyncByteArrayOutputStream out = flusher.getBuffer();
+			writeTag(out, COMMAND_CACHED_SERIAL_CLASS_DESCRIPTOR);
+			writeClassLoaderId(out, desc.getClassLoaderId());
+			writeString(desc.getClassName(), out);
+			out.writeLong(desc.getSerialVersionUID());
+			writeCompactInt(out, index);
+		}
+	}
+
+	private void writeCommandCachedString(String s, int index) {
+		try (CommandFlusher flusher = new CommandFlusher()) {
+			DataOutputUnsyncByteArrayOutputStream out = flusher.getBuffer();
+			writeTag(out, COMMAND_CACHED_STRING);
+			writeString(s, out);
+			writeCompactInt(out, index);
 		}
 	}
 
 	private void writeCommandCachedClassLoader(ClassLoaderReflectionElementSupplier cl, int index) {
 		try (CommandFlusher flusher = new CommandFlusher()) {
 			DataOutputUnsyncByteArrayOutputStream out = flusher.getBuffer();
-			out.writeShort(COMMAND_CACHED_CLASSLOADER);
+			writeTag(out, COMMAND_CACHED_CLASSLOADER);
 			writeClassLoaderData(cl, out);
-			out.writeInt(index);
+			writeCompactInt(out, index);
 		}
 	}
 
 	private void writeCommandCachedMethod(MethodReflectionElementSupplier method, int index) {
 		try (CommandFlusher flusher = new CommandFlusher()) {
 			DataOutputUnsyncByteArrayOutputStream out = flusher.getBuffer();
-			out.writeShort(COMMAND_CACHED_METHOD);
+			writeTag(out, COMMAND_CACHED_METHOD);
 			writeMethodData(method, out);
-			out.writeInt(index);
+			writeCompactInt(out, index);
 		}
 	}
 
 	private void writeCommandCachedConstructor(ConstructorReflectionElementSupplier constructor, int index) {
 		try (CommandFlusher flusher = new CommandFlusher()) {
 			DataOutputUnsyncByteArrayOutputStream out = flusher.getBuffer();
-			out.writeShort(COMMAND_CACHED_CONSTRUCTOR);
+			writeTag(out, COMMAND_CACHED_CONSTRUCTOR);
 			writeConstructorData(constructor, out);
-			out.writeInt(index);
+			writeCompactInt(out, index);
 		}
 	}
 
 	private void writeCommandCachedField(FieldReflectionElementSupplier field, int index) {
 		try (CommandFlusher flusher = new CommandFlusher()) {
 			DataOutputUnsyncByteArrayOutputStream out = flusher.getBuffer();
-			out.writeShort(COMMAND_CACHED_FIELD);
+			writeTag(out, COMMAND_CACHED_FIELD);
 			writeFieldData(field, out);
-			out.writeInt(index);
+			writeCompactInt(out, index);
 		}
 	}
 
 	private void writeCommandNewVariablesResult(int reqid, int localid) {
 		try (CommandFlusher flusher = new CommandFlusher()) {
 			DataOutputUnsyncByteArrayOutputStream out = flusher.getBuffer();
-			out.writeShort(COMMAND_NEW_VARIABLES_RESULT);
-			out.writeInt(reqid);
-			out.writeInt(localid);
+			writeTag(out, COMMAND_NEW_VARIABLES_RESULT);
+			writeCompactInt(out, reqid);
+			writeCompactInt(out, localid);
+		}
+	}
+
+	/**
+	 * Presents an opportunity to the subclass to handle an unknown protocol command.
+	 * 
+	 * @param command
+	 *            The command received.
+	 * @param in
+	 *            The input block for the command.
+	 * @throws IOException
+	 *             Thrown in case of an error.
+	 */
+	protected void handleUnknownCommand(short command, DataInputUnsyncByteArrayInputStream in) {
+		throw new RMICallFailedException("Unknown command: " + command);
+	}
+
+	void writeString(String s, DataOutputUnsyncByteArrayOutputStream out) {
+		if (compactEncoding) {
+			writeCompactString(s, out);
+		} else {
+			out.writeStringLengthChars(s);
+		}
+	}
+
+	String readString(DataInputUnsyncByteArrayInputStream in) throws IOException {
+		if (compactEncoding) {
+			return readCompactString(in);
+		}
+		return in.readStringLengthChars();
+	}
+
+	private void writeTag(DataOutputUnsyncByteArrayOutputStream out, short tag) {
+		if (compactEncoding) {
+			out.writeByte(tag);
+		} else {
+			out.writeShort(tag);
+		}
+	}
+
+	private short readTag(DataInputUnsyncByteArrayInputStream in) throws EOFException {
+		if (compactEncoding) {
+			return (short) in.readUnsignedByte();
+		}
+		return in.readShort();
+	}
+
+	private void writeCompactInt(DataOutputUnsyncByteArrayOutputStream out, int v) {
+		if (compactEncoding) {
+			writeVarInt(out, v);
+		} else {
+			out.writeInt(v);
+		}
+	}
+
+	private int readCompactInt(DataInputUnsyncByteArrayInputStream in) throws EOFException {
+		if (compactEncoding) {
+			return readVarInt(in);
+		}
+		return in.readInt();
+	}
+
+	private void writeCompactShort(DataOutputUnsyncByteArrayOutputStream out, int v) {
+		if (compactEncoding) {
+			writeVarInt(out, v);
+		} else {
+			out.writeShort(v);
+		}
+	}
+
+	private int readCompactShort(DataInputUnsyncByteArrayInputStream in) throws EOFException {
+		if (compactEncoding) {
+			return readVarInt(in);
+		}
+		return in.readShort();
+	}
+
+	/**
+	 * Writes an unsigned variable length integer.
+	 * <p>
+	 * Each byte contains 7 bits of the value, the highest bit signals that more bytes follow. Negative values are
+	 * written on 5 bytes.
+	 */
+	private static void writeVarInt(DataOutputUnsyncByteArrayOutputStream out, int v) {
+		while ((v & ~0x7F) != 0) {
+			out.writeByte((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+
+	private static int readVarInt(DataInputUnsyncByteArrayInputStream in) throws EOFException {
+		int result = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			result |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return result;
+			}
 		}
+		throw new RMICallFailedException("Malformed variable length integer.");
 	}
 
-	/**
-	 * Presents an opportunity to the subclass to handle an unknown protocol command.
-	 * 
-	 * @param command
-	 *            The command received.
-	 * @param in
-	 *            The input block for the command.
-	 * @throws IOException
-	 *             Thrown in case of an error.
-	 */
-	protected void handleUnknownCommand(short command, DataInputUnsyncByteArrayInputStream in) {
-		throw new RMICallFailedException("Unknown command: " + command);
+	private void writeCompactString(String s, DataOutputUnsyncByteArrayOutputStream out) {
+		int len = s.length();
+		char max = 0;
+		boolean validsurrogates = true;
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			max |= c;
+			if (Character.isSurrogate(c)) {
+				if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+					++i;
+				} else {
+					validsurrogates = false;
+				}
+			}
+		}
+		if (max < 0x100) {
+			out.writeByte(STRING_ENCODING_LATIN1);
+			writeCompactInt(out, len);
+			out.write(s.getBytes(StandardCharsets.ISO_8859_1));
+			return;
+		}
+		//unpaired surrogates cannot be encoded as UTF-8 without loss
+		//   and the UTF-8 byte count might overflow for very long strings
+		if (validsurrogates && len <= STRING_UTF8_MAX_LENGTH) {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			out.writeByte(STRING_ENCODING_UTF8);
+			writeCompactInt(out, bytes.length);
+			out.write(bytes);
+			return;
+		}
+		out.writeByte(STRING_ENCODING_UTF16);
+		out.writeStringLengthChars(s);
 	}
 
-	static void writeString(String s, DataOutputUnsyncByteArrayOutputStream out) {
-		out.writeStringLengthChars(s);
+	private String readCompactString(DataInputUnsyncByteArrayInputStream in) throws IOException {
+		byte encoding = in.readByte();
+		switch (encoding) {
+			case STRING_ENCODING_LATIN1: {
+				return readCompactStringBytes(in, StandardCharsets.ISO_8859_1);
+			}
+			case STRING_ENCODING_UTF8: {
+				return readCompactStringBytes(in, StandardCharsets.UTF_8);
+			}
+			case STRING_ENCODING_UTF16: {
+				return in.readStringLengthChars();
+			}
+			default: {
+				throw new RMICallFailedException("Unknown string encoding: " + encoding);
+			}
+		}
 	}
 
-	static String readString(DataInputUnsyncByteArrayInputStream in) throws IOException {
-		return in.readStringLengthChars();
+	private String readCompactStringBytes(DataInputUnsyncByteArrayInputStream in, Charset charset)
+			throws IOException {
+		int len = readCompactInt(in);
+		if (len < 0 || len > in.available()) {
+			throw new EOFException("Invalid string byte count: " + len);
+		}
+		ByteArrayRegion region = in.toByteArrayRegion();
+		String result = new String(region.getArray(), region.getOffset(), len, charset);
+		in.skipBytes(len);
+		return result;
 	}
 
 	private void writeNewRemoteObject(RMIVariables variables, Object obj, DataOutputUnsyncByteArrayOutputStream out) {
 		int localid = variables.getLocalInstanceIdIncreaseReference(obj);
-		out.writeShort(OBJECT_NEW_REMOTE);
+		writeTag(out, OBJECT_NEW_REMOTE);
 		//XXX write only a class set identifier and cache these
 		writeClasses(ReflectUtils.getAllInterfaces(obj.getClass()), out);
-		out.writeInt(localid);
+		writeCompactInt(out, localid);
 	}
 
 	private Object readNewRemoteObject(RMIVariables variables, DataInputUnsyncByteArrayInputStream in)
@@ -3681,7 +5492,7 @@ final class RMIStream implements Closeable {
 		} catch (ClassSetPartiallyReadException e) {
 			classes = e.getReadClasses();
 		}
-		int remoteid = in.readInt();
+		int remoteid = readCompactInt(in);
 		return variables.getProxyIncreaseReference(classes, remoteid);
 	}
 
@@ -3689,11 +5500,11 @@ final class RMIStream implements Closeable {
 			Set<Class<?>> interfaces, boolean currentthreadinterrupted, int interruptreqcount) {
 		try (CommandFlusher flusher = new CommandFlusher()) {
 			DataOutputUnsyncByteArrayOutputStream out = flusher.getBuffer();
-			out.writeShort(COMMAND_UNKNOWN_NEWINSTANCE_RESULT);
-			out.writeInt(reqid);
+			writeTag(out, COMMAND_UNKNOWN_NEWINSTANCE_RESULT);
+			writeCompactInt(out, reqid);
 			writeVariables(variables, out);
-			out.writeInt(compressInterruptStatus(currentthreadinterrupted, interruptreqcount));
-			out.writeInt(localindex);
+			writeCompactInt(out, compressInterruptStatus(currentthreadinterrupted, interruptreqcount));
+			writeCompactInt(out, localindex);
 			writeClasses(interfaces, out);
 		}
 	}
@@ -3702,10 +5513,10 @@ final class RMIStream implements Closeable {
 			int interruptreqcount) {
 		try (CommandFlusher flusher = new CommandFlusher()) {
 			DataOutputUnsyncByteArrayOutputStream out = flusher.getBuffer();
-			out.writeShort(COMMAND_NEWINSTANCE_RESULT);
-			out.writeInt(reqid);
-			out.writeInt(localindex);
-			out.writeInt(compressInterruptStatus(currentthreadinterrupted, interruptreqcount));
+			writeTag(out, COMMAND_NEWINSTANCE_RESULT);
+			writeCompactInt(out, reqid);
+			writeCompactInt(out, localindex);
+			writeCompactInt(out, compressInterruptStatus(currentthreadinterrupted, interruptreqcount));
 		}
 	}
 
@@ -3715,9 +5526,9 @@ final class RMIStream implements Closeable {
 		StrongSoftReference<DataOutputUnsyncByteArrayOutputStream> buffer = connection.getCachedByteBuffer();
 		DataOutputUnsyncByteArrayOutputStream out = buffer.get();
 
-		out.writeShort(COMMAND_METHODCALL_ASYNC);
+		writeTag(out, COMMAND_METHODCALL_ASYNC);
 		writeVariables(variables, out);
-		out.writeInt(remoteid);
+		writeCompactInt(out, remoteid);
 
 		writeMethod(method.getExecutable(), out);
 
@@ -3737,10 +5548,10 @@ final class RMIStream implements Closeable {
 		StrongSoftReference<DataOutputUnsyncByteArrayOutputStream> buffer = connection.getCachedByteBuffer();
 		DataOutputUnsyncByteArrayOutputStream out = buffer.get();
 
-		out.writeShort(COMMAND_METHODCALL_ASYNC_WITH_RESPONSE);
-		out.writeInt(variables.getLocalIdentifier());
+		writeTag(out, COMMAND_METHODCALL_ASYNC_WITH_RESPONSE);
+		writeCompactInt(out, variables.getLocalIdentifier());
 		writeVariables(variables, out);
-		out.writeInt(remoteid);
+		writeCompactInt(out, remoteid);
 
 		writeMethod(method.getExecutable(), out);
 
@@ -3761,15 +5572,15 @@ final class RMIStream implements Closeable {
 		DataOutputUnsyncByteArrayOutputStream out = buffer.get();
 
 		if (dispatch == null) {
-			out.writeShort(COMMAND_METHODCALL);
-			out.writeInt(reqid);
+			writeTag(out, COMMAND_METHODCALL);
+			writeCompactInt(out, reqid);
 		} else {
-			out.writeShort(COMMAND_METHODCALL_REDISPATCH);
-			out.writeInt(reqid);
-			out.writeInt(dispatch);
+			writeTag(out, COMMAND_METHODCALL_REDISPATCH);
+			writeCompactInt(out, reqid);
+			writeCompactInt(out, dispatch);
 		}
 		writeVariables(variables, out);
-		out.writeInt(remoteid);
+		writeCompactInt(out, remoteid);
 
 		writeMethod(method.getExecutable(), out);
 
@@ -3790,14 +5601,14 @@ final class RMIStream implements Closeable {
 		DataOutputUnsyncByteArrayOutputStream out = buffer.get();
 
 		if (dispatch == null) {
-			out.writeShort(COMMAND_METHODCALL_CONTEXTVAR);
-			out.writeInt(reqid);
+			writeTag(out, COMMAND_METHODCALL_CONTEXTVAR);
+			writeCompactInt(out, reqid);
 			writeVariables(variables, out);
 		} else {
-			out.writeShort(COMMAND_METHODCALL_CONTEXTVAR_REDISPATCH);
-			out.writeInt(reqid);
+			writeTag(out, COMMAND_METHODCALL_CONTEXTVAR_REDISPATCH);
+			writeCompactInt(out, reqid);
 			writeVariables(variables, out);
-			out.writeInt(dispatch);
+			writeCompactInt(out, dispatch);
 		}
 		try {
 			out.writeUTF(variablename);
@@ -3824,12 +5635,12 @@ final class RMIStream implements Closeable {
 		DataOutputUnsyncByteArrayOutputStream out = buffer.get();
 
 		if (dispatch == null) {
-			out.writeShort(COMMAND_NEWINSTANCE);
-			out.writeInt(reqid);
+			writeTag(out, COMMAND_NEWINSTANCE);
+			writeCompactInt(out, reqid);
 		} else {
-			out.writeShort(COMMAND_NEWINSTANCE_REDISPATCH);
-			out.writeInt(reqid);
-			out.writeInt(dispatch);
+			writeTag(out, COMMAND_NEWINSTANCE_REDISPATCH);
+			writeCompactInt(out, reqid);
+			writeCompactInt(out, dispatch);
 		}
 		writeVariables(variables, out);
 
@@ -3856,42 +5667,47 @@ final class RMIStream implements Closeable {
 		DataOutputUnsyncByteArrayOutputStream out = buffer.get();
 
 		if (dispatch == null) {
-			out.writeShort(COMMAND_NEWINSTANCE_UNKNOWNCLASS);
-			out.writeInt(reqid);
+			writeTag(out, COMMAND_NEWINSTANCE_UNKNOWNCLASS);
+			writeCompactInt(out, reqid);
 		} else {
-			out.writeShort(COMMAND_NEWINSTANCE_UNKNOWNCLASS_REDISPATCH);
-			out.writeInt(reqid);
-			out.writeInt(dispatch);
+			writeTag(out, COMMAND_NEWINSTANCE_UNKNOWNCLASS_REDISPATCH);
+			writeCompactInt(out, reqid);
+			writeCompactInt(out, dispatch);
 		}
 		writeVariables(variables, out);
-		out.writeInt(remoteclassloaderid);
+		writeCompactInt(out, remoteclassloaderid);
 
 		try {
 			out.writeUTF(classname);
 		} catch (UTFDataFormatException e) {
 			throw new RMIObjectTransferFailureException("Failed to transfer class name: " + classname, e);
 		}
-		out.writeInt(argumentclassnames.length);
+		writeCompactInt(out, argumentclassnames.length);
 
 		Lock gclock = variables.gcCommandLock;
 		gclock.lock();
 		try {
-			for (int i = 0; i < argumentclassnames.length; i++) {
-				try {
-					out.writeUTF(argumentclassnames[i]);
-				} catch (UTFDataFormatException e) {
-					throw new RMIObjectTransferFailureException(
-							"Failed to transfer argument[" + i + "] class name: " + argumentclassnames[i], e);
-				}
-				try {
-					Object obj = arguments[i];
-					writeObjectUsingWriteHandler(RMIObjectWriteHandler.defaultWriter(), variables, obj, out,
-							ObjectUtils.classOf(obj));
-				} catch (Exception | LinkageError | StackOverflowError | OutOfMemoryError | AssertionError
-						| ServiceConfigurationError e) {
-					throw new RMIObjectTransferFailureException("Failed to write constructor call argument[" + i + "].",
-							e);
+			ObjectHandleTable prevhandles = enterObjectHandleScope();
+			try {
+				for (int i = 0; i < argumentclassnames.length; i++) {
+					try {
+						out.writeUTF(argumentclassnames[i]);
+					} catch (UTFDataFormatException e) {
+						throw new RMIObjectTransferFailureException(
+								"Failed to transfer argument[" + i + "] class name: " + argumentclassnames[i], e);
+					}
+					try {
+						Object obj = arguments[i];
+						writeObjectUsingWriteHandler(RMIObjectWriteHandler.defaultWriter(), variables, obj, out,
+								ObjectUtils.classOf(obj));
+					} catch (Exception | LinkageError | StackOverflowError | OutOfMemoryError | AssertionError
+							| ServiceConfigurationError e) {
+						throw new RMIObjectTransferFailureException(
+								"Failed to write constructor call argument[" + i + "].", e);
+					}
 				}
+			} finally {
+				exitObjectHandleScope(prevhandles);
 			}
 			flushCommand(buffer);
 		} finally {
@@ -3907,15 +5723,16 @@ final class RMIStream implements Closeable {
 		StrongSoftReference<DataOutputUnsyncByteArrayOutputStream> buffer = connection.getCachedByteBuffer();
 		DataOutputUnsyncByteArrayOutputStream out = buffer.get();
 
-		out.writeShort(COMMAND_METHODRESULT);
-		out.writeInt(reqid);
+		writeTag(out, COMMAND_METHODRESULT);
+		writeCompactInt(out, reqid);
 		writeVariables(variables, out);
 
-		out.writeInt(compressInterruptStatus(currentthreadinterrupted, interruptreqcount));
+		writeCompactInt(out, compressInterruptStatus(currentthreadinterrupted, interruptreqcount));
 
 		Lock gclock = variables.gcCommandLock;
 		gclock.lock();
 		try {
+			ObjectHandleTable prevhandles = enterObjectHandleScope();
 			try {
 				writeObjectUsingWriteHandler(executableproperties.getReturnValueWriter(), variables, returnvalue, out,
 						executableproperties.getReturnType());
@@ -3929,6 +5746,43 @@ final class RMIStream implements Closeable {
 				//write a fail result to the output, and we will flush it below
 				writeCommandExceptionResult(COMMAND_METHODRESULT_FAIL, reqid, e, currentthreadinterrupted,
 						interruptreqcount, out);
+			} finally {
+				exitObjectHandleScope(prevhandles);
+			}
+			flushCommand(buffer);
+		} finally {
+			gclock.unlock();
+		}
+	}
+
+	private void writeCommandIteratorBatchResult(RMIVariables variables, int reqid, IteratorBatch batch,
+			MethodTransferProperties nextmethod, boolean currentthreadinterrupted, int interruptreqcount) {
+		checkClosed();
+		StrongSoftReference<DataOutputUnsyncByteArrayOutputStream> buffer = connection.getCachedByteBuffer();
+		DataOutputUnsyncByteArrayOutputStream out = buffer.get();
+
+		writeTag(out, COMMAND_ITERATOR_BATCH_RESULT);
+		writeCompactInt(out, reqid);
+		writeVariables(variables, out);
+
+		writeCompactInt(out, compressInterruptStatus(currentthreadinterrupted, interruptreqcount));
+
+		Lock gclock = variables.gcCommandLock;
+		gclock.lock();
+		try {
+			ObjectHandleTable prevhandles = enterObjectHandleScope();
+			try {
+				//the elements are written the same way as the next() method would return them
+				writeObjectObjectArrayImpl(variables, out, Object.class, batch.elements,
+						nextmethod.getReturnValueWriter());
+				out.writeBoolean(batch.hasMore);
+			} catch (Exception | LinkageError | StackOverflowError | OutOfMemoryError | AssertionError
+					| ServiceConfigurationError e) {
+				out.reset();
+				writeCommandExceptionResult(COMMAND_METHODRESULT_FAIL, reqid, e, currentthreadinterrupted,
+						interruptreqcount, out);
+			} finally {
+				exitObjectHandleScope(prevhandles);
 			}
 			flushCommand(buffer);
 		} finally {
@@ -3954,8 +5808,8 @@ final class RMIStream implements Closeable {
 	private void writeCommandContextVariableMethodCallVariableNotFound(int reqid, String varname) {
 		try (CommandFlusher flusher = new CommandFlusher()) {
 			DataOutputUnsyncByteArrayOutputStream out = flusher.getBuffer();
-			out.writeShort(COMMAND_METHODCALL_CONTEXTVAR_NOT_FOUND);
-			out.writeInt(reqid);
+			writeTag(out, COMMAND_METHODCALL_CONTEXTVAR_NOT_FOUND);
+			writeCompactInt(out, reqid);
 			try {
 				out.writeUTF(varname);
 			} catch (UTFDataFormatException e) {
@@ -3977,9 +5831,9 @@ final class RMIStream implements Closeable {
 
 	private void writeCommandExceptionResult(short commandname, int reqid, Throwable exc,
 			boolean currentthreadinterrupted, int interruptreqcount, DataOutputUnsyncByteArrayOutputStream out) {
-		out.writeShort(commandname);
-		out.writeInt(reqid);
-		out.writeInt(compressInterruptStatus(currentthreadinterrupted, interruptreqcount));
+		writeTag(out, commandname);
+		writeCompactInt(out, reqid);
+		writeCompactInt(out, compressInterruptStatus(currentthreadinterrupted, interruptreqcount));
 		writeException(exc, out);
 	}
 
@@ -4056,14 +5910,50 @@ final class RMIStream implements Closeable {
 	//XXX handle Proxy objects in object streams?
 	private static class RMISerializeObjectOutputStream extends ObjectOutputStream {
 		private RMIConnection connection;
+		/**
+		 * The class descriptor cache of the stream or <code>null</code> if the class descriptors are always written
+		 * fully.
+		 */
+		private RMICommCache<SerialClassDescriptorReflectionElementSupplier> descriptorCache;
 
 		public RMISerializeObjectOutputStream(OutputStream out, RMIConnection connection) throws IOException {
 			super(out);
 			this.connection = connection;
 		}
 
+		public RMISerializeObjectOutputStream(OutputStream out, RMIConnection connection,
+				RMICommCache<SerialClassDescriptorReflectionElementSupplier> descriptorCache) throws IOException {
+			super(out);
+			this.connection = connection;
+			this.descriptorCache = descriptorCache;
+		}
+
+		@Override
+		protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+			if (descriptorCache == null) {
+				super.writeClassDescriptor(desc);
+				return;
+			}
+			String clid = connection.getClassLoaderId(desc.forClass().getClassLoader());
+			SerialClassDescriptorReflectionElementSupplier descsupplier = new SerialClassDescriptorReflectionElementSupplier(
+					clid, desc.getName(), desc.getSerialVersionUID());
+			int index = descriptorCache.getWriteIndex(descsupplier);
+			if (index >= 0) {
+				writeShort(SERIAL_CLASS_DESCRIPTOR_INDEX);
+				writeInt(index);
+				return;
+			}
+			writeShort(SERIAL_CLASS_DESCRIPTOR_DETAILS);
+			writeClassLoaderId(this, clid);
+			super.writeClassDescriptor(desc);
+		}
+
 		@Override
 		protected void annotateClass(Class<?> cl) throws IOException {
+			if (descriptorCache != null) {
+				//the class loader id is part of the class descriptor
+				return;
+			}
 			String clid = connection.getClassLoaderId(cl.getClassLoader());
 			writeClassLoaderId(this, clid);
 		}
@@ -4071,15 +5961,63 @@ final class RMIStream implements Closeable {
 
 	private static class RMISerializeObjectInputStream extends ObjectInputStream {
 		private RMIConnection connection;
+		/**
+		 * The stream which caches the read class descriptors or <code>null</code> if the class descriptors are always
+		 * read fully.
+		 */
+		private RMIStream descriptorStream;
+		private String descriptorClassLoaderId;
 
 		public RMISerializeObjectInputStream(InputStream in, RMIConnection connection) throws IOException {
 			super(in);
 			this.connection = connection;
 		}
 
+		public RMISerializeObjectInputStream(InputStream in, RMIConnection connection, RMIStream descriptorStream)
+				throws IOException {
+			super(in);
+			this.connection = connection;
+			this.descriptorStream = descriptorStream;
+		}
+
+		@Override
+		protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+			if (descriptorStream == null) {
+				return super.readClassDescriptor();
+			}
+			RMICommCache<SerialClassDescriptorReflectionElementSupplier> cache = descriptorStream.commSerialClassDescriptors;
+			short cmd = readShort();
+			switch (cmd) {
+				case SERIAL_CLASS_DESCRIPTOR_DETAILS: {
+					String clid = readClassLoaderId(this);
+					ObjectStreamClass desc = super.readClassDescriptor();
+					SerialClassDescriptorReflectionElementSupplier descsupplier = new SerialClassDescriptorReflectionElementSupplier(
+							clid, desc);
+					int putidx = cache.putReadIfAbsent(descsupplier);
+					if (putidx >= 0) {
+						descriptorStream.writeCommandCachedSerialClassDescriptor(descsupplier, putidx);
+					}
+					descriptorClassLoaderId = clid;
+					return desc;
+				}
+				case SERIAL_CLASS_DESCRIPTOR_INDEX: {
+					int index = readInt();
+					SerialClassDescriptorReflectionElementSupplier descsupplier = cache.getRead(index);
+					if (descsupplier == null) {
+						throw new RMIObjectTransferFailureException("Class descriptor not found for index: " + index);
+					}
+					descriptorClassLoaderId = descsupplier.getClassLoaderId();
+					return descsupplier.getDescriptor();
+				}
+				default: {
+					throw new RMICallFailedException("illegal command: " + cmd);
+				}
+			}
+		}
+
 		@Override
 		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
-			String clid = readClassLoaderId(this);
+			String clid = descriptorStream == null ? readClassLoaderId(this) : descriptorClassLoaderId;
 
 			Optional<ClassLoader> clopt = getClassLoaderByIdOptional(connection, clid);
 			if (clopt == null) {
@@ -4101,9 +6039,9 @@ final class RMIStream implements Closeable {
 	private void writeCommandNewVariables(String name, int identifier, int reqid) {
 		try (CommandFlusher flusher = new CommandFlusher()) {
 			DataOutputUnsyncByteArrayOutputStream out = flusher.getBuffer();
-			out.writeShort(COMMAND_NEW_VARIABLES);
-			out.writeInt(reqid);
-			out.writeInt(identifier);
+			writeTag(out, COMMAND_NEW_VARIABLES);
+			writeCompactInt(out, reqid);
+			writeCompactInt(out, identifier);
 			try {
 				out.writeUTF(name == null ? "" : name);
 			} catch (UTFDataFormatException e) {
@@ -4115,7 +6053,7 @@ final class RMIStream implements Closeable {
 	private void writeCommandCloseVariables(RMIVariables variables) {
 		try (CommandFlusher flusher = new CommandFlusher()) {
 			DataOutputUnsyncByteArrayOutputStream out = flusher.getBuffer();
-			out.writeShort(COMMAND_CLOSE_VARIABLES);
+			writeTag(out, COMMAND_CLOSE_VARIABLES);
 			writeVariables(variables, out);
 		}
 	}
@@ -4140,15 +6078,16 @@ final class RMIStream implements Closeable {
 		checkAborting(requestScopeHandler.getCurrentServingRequest());
 	}
 
-	private Object invokeMethodWithRequestId(Method method, Object object, Object[] arguments, int reqid)
-			throws InvocationTargetException {
+	private Object invokeMethodWithRequestId(MethodTransferProperties transfermethod, Object object, Object[] arguments,
+			int reqid) throws InvocationTargetException {
+		MethodInvoker invoker = transfermethod.getInvoker();
 		try {
 			return requestScopeHandler.run(reqid, () -> {
 				try {
-					return ReflectUtils.invokeMethod(object, method, arguments);
+					return invoker.invoke(object, arguments);
 				} catch (IllegalArgumentException | IllegalAccessException e) {
-					throw new RMICallFailedException("Failed to call method " + method + " with object type: "
-							+ ObjectUtils.classNameOf(object) + " and argument types: "
+					throw new RMICallFailedException("Failed to call method " + invoker.getMethod()
+							+ " with object type: " + ObjectUtils.classNameOf(object) + " and argument types: "
 							+ Arrays.toString(ObjectUtils.classOfArrayElements(arguments)), e);
 				}
 			});
@@ -4211,9 +6150,64 @@ final class RMIStream implements Closeable {
 		}
 	}
 
+	/**
+	 * Retrieves the next elements of the remote iterator with the given identifier.
+	 * <p>
+	 * The last element of the result is a {@link Boolean} that is <code>true</code> if the iterator has more
+	 * elements.
+	 */
+	//caller should call RMIVariables.addOngoingRequest(), which checks for RMIVariables state
+	Object[] callIteratorNextBatch(RMIVariables variables, int remoteid, int count)
+			throws RMIIOFailureException, InvocationTargetException {
+		try (Request request = requestHandler.newRequest()) {
+			int reqid = request.getRequestId();
+			writeCommandIteratorNextBatch(variables, reqid, remoteid, count);
+			MethodCallResponse mcr = waitInterruptTrackingResponse(request, MethodCallResponse.class);
+
+			Object result = mcr.getReturnValue();
+			if (!(result instanceof Object[]) || ((Object[]) result).length == 0) {
+				throw new RMIObjectTransferFailureException(
+						"Invalid iterator batch result: " + ObjectUtils.classNameOf(result));
+			}
+			return (Object[]) result;
+		}
+	}
+
+	/**
+	 * Gets the iterator that should be returned for the result of a method call.
+	 * <p>
+	 * If remote iterators should be prefetched, and the result is an {@link Iterator} proxy, a local iterator is
+	 * returned that retrieves the elements in batches.
+	 */
+	Object getPrefetchingIteratorResult(RMIVariables variables, MethodTransferProperties method, Object result) {
+		if (remoteIteratorBatchSize <= 0 || method.getReturnType() != Iterator.class
+				|| !(result instanceof RemoteProxyObject)) {
+			return result;
+		}
+		RemoteProxyObject proxy = (RemoteProxyObject) result;
+		if (RemoteProxyObject.getVariables(proxy) != variables) {
+			return result;
+		}
+		if (requestScopeHandler.getCurrentServingRequest() != null) {
+			//the iterator is being retrieved while serving a request
+			//don't prefetch, as the requests for the batches wouldn't be dispatched to the serving thread
+			return result;
+		}
+		return new PrefetchingRemoteIterator(proxy, remoteIteratorBatchSize);
+	}
+
+	boolean invalidateCachedResults(RMIVariables variables, int localid, Method method) throws RMIIOFailureException {
+		if (connection.getProtocolVersion() < RMIConnection.PROTOCOL_VERSION_3) {
+			//the other endpoint doesn't support the command
+			return false;
+		}
+		writeCommandInvalidateCachedResults(variables, localid, method);
+		return true;
+	}
+
 	void callMethodAsync(RMIVariables variables, int remoteid, MethodTransferProperties method, Object[] arguments)
 			throws RMIIOFailureException {
-		if (connection.getProtocolVersion() >= 2) {
+		if (connection.getProtocolVersion() >= RMIConnection.PROTOCOL_VERSION_2) {
 			//supports response for async
 			//the ongoing request will be removed when that response arrives
 			variables.addOngoingAsyncRequest();
@@ -4653,11 +6647,33 @@ final class RMIStream implements Closeable {
 	}
 
 	static class ImplMethodReflectionElementSupplier implements MethodReflectionElementSupplier {
-
 		private ClassReflectionElementSupplier declaringClass;
 		private String methodName;
 		private String[] parameterTypes;
 
+		/**
+		 * The methods that were already resolved for the given receiver classes.
+		 * <p>
+		 * The instances are stored in the read cache of the stream, so the methods of the subsequent calls that refer
+		 * to this supplier by index are only looked up once per receiver class.
+		 * <p>
+		 * The methods are stored in a {@link ClassValue} of the receiver class, therefore the cache doesn't prevent
+		 * the receiver classes and their class loaders from being garbage collected. The resolved method is declared
+		 * by a type in the hierarchy of the receiver, so it doesn't keep other class loaders alive either.
+		 * <p>
+		 * The value is <code>null</code> for receivers that don't have the declaring type in their hierarchy.
+		 * <p>
+		 * Lazily created, as the suppliers created for writing methods are never resolved.
+		 */
+		private volatile ClassValue<Method> receiverMethods;
+		/**
+		 * The method resolved through the declaring class if the receiver is <code>null</code> or it doesn't have the
+		 * declaring type in its hierarchy.
+		 * <p>
+		 * The declaring class is already referenced by this supplier, so this doesn't retain additional classes.
+		 */
+		private volatile Method declaredMethod;
+
 		public ImplMethodReflectionElementSupplier(ClassReflectionElementSupplier declaringClass, String methodName,
 				String[] parameterTypes) {
 			super();
@@ -4669,20 +6685,47 @@ final class RMIStream implements Closeable {
 		@Override
 		public Method get(RMIConnection connection, Object relativeobject) throws ClassNotFoundException {
 			if (relativeobject != null) {
-				Class<?> hierarchyclass = ReflectUtils.findTypeWithNameInHierarchy(relativeobject.getClass(),
-						declaringClass.getClassName());
-				if (hierarchyclass != null) {
-					Class<?>[] paramtypeclasses = loadParameterTypeClasses(hierarchyclass.getClassLoader(),
-							parameterTypes, this);
-					try {
-						return hierarchyclass.getMethod(methodName, paramtypeclasses);
-					} catch (NoSuchMethodException | SecurityException e) {
-						throw new RMIObjectTransferFailureException("Method not found: " + hierarchyclass + "."
-								+ methodName + "(" + StringUtils.toStringJoin(", ", parameterTypes) + ")", e);
-					}
+				ClassValue<Method> receivermethods = receiverMethods;
+				if (receivermethods == null) {
+					//concurrent initializations may overwrite each other, that only causes a method to be resolved again
+					receivermethods = new ClassValue<Method>() {
+						@Override
+						protected Method computeValue(Class<?> type) {
+							return resolveInHierarchy(type);
+						}
+					};
+					receiverMethods = receivermethods;
+				}
+				Method result = receivermethods.get(relativeobject.getClass());
+				if (result != null) {
+					return result;
 				}
 			}
+			Method result = declaredMethod;
+			if (result == null) {
+				result = resolveDeclared(connection);
+				declaredMethod = result;
+			}
+			return result;
+		}
+
+		private Method resolveInHierarchy(Class<?> receiverclass) {
+			Class<?> hierarchyclass = ReflectUtils.findTypeWithNameInHierarchy(receiverclass,
+					declaringClass.getClassName());
+			if (hierarchyclass == null) {
+				return null;
+			}
+			Class<?>[] paramtypeclasses = loadParameterTypeClasses(hierarchyclass.getClassLoader(), parameterTypes,
+					this);
+			try {
+				return hierarchyclass.getMethod(methodName, paramtypeclasses);
+			} catch (NoSuchMethodException | SecurityException e) {
+				throw new RMIObjectTransferFailureException("Method not found: " + hierarchyclass + "." + methodName
+						+ "(" + StringUtils.toStringJoin(", ", parameterTypes) + ")", e);
+			}
+		}
 
+		private Method resolveDeclared(RMIConnection connection) throws ClassNotFoundException {
 			Class<?> declclass = declaringClass.get(connection);
 			ClassLoader declcl = declclass.getClassLoader();
 			String[] parametertypenames = parameterTypes;
@@ -4748,7 +6791,6 @@ final class RMIStream implements Closeable {
 			return "[method" + declaringClass + "." + methodName + "(" + StringUtils.toStringJoin(", ", parameterTypes)
 					+ ")]";
 		}
-
 	}
 
 	static class NullClassLoaderReflectionElementSupplier implements ClassLoaderReflectionElementSupplier {
@@ -4919,6 +6961,180 @@ final class RMIStream implements Closeable {
 
 	}
 
+	/**
+	 * The elements retrieved from a remote iterator, and whether it has more elements.
+	 */
+	private static final class IteratorBatch {
+		protected final Object[] elements;
+		protected final boolean hasMore;
+
+		public IteratorBatch(Object[] elements, boolean hasMore) {
+			this.elements = elements;
+			this.hasMore = hasMore;
+		}
+	}
+
+	/**
+	 * Back-reference table of the objects transferred in the scope of a single command.
+	 * <p>
+	 * The objects are identified by the position of their data in the command buffer. The writer puts the objects at
+	 * the same point as the reader can make them available, so they can be referenced by subsequent occurrences.
+	 */
+	private static final class ObjectHandleTable {
+		/**
+		 * The offset to add to the read positions to get the positions in the command.
+		 * <p>
+		 * Non-zero if the objects are read from data that was copied from the command.
+		 */
+		private final int readPositionOffset;
+		private IdentityHashMap<Object, Integer> writtenPositions;
+		private IdentityHashMap<Object, WrappedPosition> wrappedWrittenPositions;
+		private Map<Integer, Object> readObjects;
+
+		public ObjectHandleTable(int readPositionOffset) {
+			this.readPositionOffset = readPositionOffset;
+		}
+
+		public int getWrittenPosition(Object obj) {
+			if (writtenPositions == null) {
+				return -1;
+			}
+			Integer position = writtenPositions.get(obj);
+			return position == null ? -1 : position;
+		}
+
+		public void putWritten(Object obj, int position) {
+			if (writtenPositions == null) {
+				writtenPositions = new IdentityHashMap<>();
+			}
+			writtenPositions.putIfAbsent(obj, position);
+		}
+
+		public int getWrappedWrittenPosition(Object obj, Class<?> wrapperclass) {
+			if (wrappedWrittenPositions == null) {
+				return -1;
+			}
+			WrappedPosition position = wrappedWrittenPositions.get(obj);
+			if (position == null || position.wrapperClass != wrapperclass) {
+				return -1;
+			}
+			return position.position;
+		}
+
+		public void putWrappedWritten(Object obj, Class<?> wrapperclass, int position) {
+			if (wrappedWrittenPositions == null) {
+				wrappedWrittenPositions = new IdentityHashMap<>();
+			}
+			wrappedWrittenPositions.putIfAbsent(obj, new WrappedPosition(wrapperclass, position));
+		}
+
+		public boolean isRead(int position) {
+			return readObjects != null && readObjects.containsKey(position);
+		}
+
+		public Object getRead(int position) {
+			return readObjects.get(position);
+		}
+
+		public void putRead(int position, Object obj) {
+			if (readObjects == null) {
+				readObjects = new HashMap<>();
+			}
+			readObjects.put(position + readPositionOffset, obj);
+		}
+
+		private static final class WrappedPosition {
+			protected final Class<?> wrapperClass;
+			protected final int position;
+
+			public WrappedPosition(Class<?> wrapperClass, int position) {
+				this.wrapperClass = wrapperClass;
+				this.position = position;
+			}
+		}
+	}
+
+	/**
+	 * Identifies a class descriptor written by the serialization streams.
+	 * <p>
+	 * On the reading side, the read descriptor is also kept so it can be returned when the descriptor is referenced by
+	 * its index. The descriptor is not part of the equality.
+	 */
+	static class SerialClassDescriptorReflectionElementSupplier implements ReflectionElementSupplier {
+		private String classLoaderId;
+		private String className;
+		private long serialVersionUID;
+		private ObjectStreamClass descriptor;
+
+		public SerialClassDescriptorReflectionElementSupplier(String classLoaderId, String className,
+				long serialVersionUID) {
+			this.classLoaderId = classLoaderId;
+			this.className = className;
+			this.serialVersionUID = serialVersionUID;
+		}
+
+		public SerialClassDescriptorReflectionElementSupplier(String classLoaderId, ObjectStreamClass descriptor) {
+			this(classLoaderId, descriptor.getName(), descriptor.getSerialVersionUID());
+			this.descriptor = descriptor;
+		}
+
+		public String getClassLoaderId() {
+			return classLoaderId;
+		}
+
+		public String getClassName() {
+			return className;
+		}
+
+		public long getSerialVersionUID() {
+			return serialVersionUID;
+		}
+
+		public ObjectStreamClass getDescriptor() {
+			return descriptor;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + ((classLoaderId == null) ? 0 : classLoaderId.hashCode());
+			result = prime * result + ((className == null) ? 0 : className.hashCode());
+			result = prime * result + (int) (serialVersionUID ^ (serialVersionUID >>> 32));
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			SerialClassDescriptorReflectionElementSupplier other = (SerialClassDescriptorReflectionElementSupplier) obj;
+			if (classLoaderId == null) {
+				if (other.classLoaderId != null)
+					return false;
+			} else if (!classLoaderId.equals(other.classLoaderId))
+				return false;
+			if (className == null) {
+				if (other.className != null)
+					return false;
+			} else if (!className.equals(other.className))
+				return false;
+			if (serialVersionUID != other.serialVersionUID)
+				return false;
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return "[Serial class descriptor " + className + " (" + serialVersionUID + ") from class loader "
+					+ classLoaderId + "]";
+		}
+	}
+
 	private static class RequestHandlerState {
 		public static final RequestHandlerState INTIAL = new RequestHandlerState(false, 0);
 
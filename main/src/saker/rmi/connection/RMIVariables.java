@@ -15,9 +15,7 @@
  */
 package saker.rmi.connection;
 
-import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
-import java.lang.invoke.MethodType;
 import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
@@ -25,17 +23,16 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.HashMap;
-import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.concurrent.locks.Lock;
 
+import saker.rmi.annot.invoke.RMICacheResult;
 import saker.rmi.exception.RMICallFailedException;
 import saker.rmi.exception.RMICallForbiddenException;
 import saker.rmi.exception.RMIContextVariableNotFoundException;
@@ -43,11 +40,8 @@ import saker.rmi.exception.RMIIOFailureException;
 import saker.rmi.exception.RMIObjectTransferFailureException;
 import saker.rmi.exception.RMIResourceUnavailableException;
 import saker.rmi.exception.RMIRuntimeException;
-import saker.util.ImmutableUtils;
 import saker.util.ObjectUtils;
 import saker.util.ReflectUtils;
-import saker.util.classloader.FilteringClassLoader;
-import saker.util.classloader.MultiClassLoader;
 import saker.util.thread.BooleanLatch;
 import saker.util.thread.ThreadUtils;
 
@@ -70,8 +64,9 @@ import saker.util.thread.ThreadUtils;
  * variables context will reference the passed objects strongly, until it is no longer referenced on the other endpoint.
  * <p>
  * The variables context will create the proxy objects by generating appropriate bytecode based on the configured
- * {@link RMITransferProperties}. These classes are defined in an internal classloader. Interfaces used in an RMI
- * connection should always have public visibility.
+ * {@link RMITransferProperties}. These classes are defined in an internal classloader, and are shared between the
+ * variables contexts and connections that use the same transfer properties. Interfaces used in an RMI connection should
+ * always have public visibility.
  * <p>
  * The variables need to be closed after they've been used. Calling {@link #close()} will flag the variables as closed,
  * and the closing will happen when there are no more running requests in it.
@@ -80,20 +75,6 @@ import saker.util.thread.ThreadUtils;
  * @see RMITransferProperties
  */
 public class RMIVariables implements AutoCloseable {
-	private static final ClassLoader RMI_CLASSES_CLASSLOADER = RMIVariables.class.getClassLoader();
-
-	private static final FilteringClassLoader RMI_PROXY_CLASSLOADER_PARENT = new FilteringClassLoader(
-			RMI_CLASSES_CLASSLOADER,
-			ObjectUtils.newTreeSet(RMIRuntimeException.class.getName(), RMICallFailedException.class.getName(),
-					MethodTransferProperties.class.getName(), RMITransferPropertiesHolder.class.getName(),
-					RemoteProxyObject.class.getName(), RemoteProxyObject.RMICacheHelper.class.getName(),
-					RemoteProxyObject.RemoteInvocationRMIFailureException.class.getName(),
-					RMIStatistics.class.getName()));
-
-	private static final String PROXY_PACKAGE_NAME = ReflectUtils.getPackageNameOf(RMIVariables.class);
-
-	private static final String PROXY_MARKER_CLASS_NAME = "saker.rmi.ProxyMarker";
-
 	static final int NO_OBJECT_ID = -1;
 
 	private static final AtomicIntegerFieldUpdater<RMIVariables> AIFU_objectIdProvider = AtomicIntegerFieldUpdater
@@ -140,13 +121,14 @@ public class RMIVariables implements AutoCloseable {
 
 	private final ConcurrentNavigableMap<Integer, RemoteProxyReference> cachedRemoteProxies = new ConcurrentSkipListMap<>();
 
-	private RMIProxyClassLoader proxyBaseClassLoader;
-	private ConcurrentHashMap<Set<Class<?>>, Constructor<? extends RemoteProxyObject>> proxyConstructors = new ConcurrentHashMap<>();
+	private RMIProxyClassCache proxyClassCache;
+	/**
+	 * The proxies for the interface sets that have no classloader which can see all of them. These are not shared with
+	 * other variables, so they don't keep the classloaders alive after this variables context is closed.
+	 */
+	private RMIProxyClassCache.InterfaceProxies unsharedProxies = new RMIProxyClassCache.InterfaceProxies();
 	private Class<?> proxyMarkerClass;
 	private MethodHandles.Lookup markerClassLookup;
-	private Map<Set<ClassLoader>, RMIClassDefiner> multiProxyClassDefiners = new HashMap<>();
-	private final Object proxyGeneratorLock = new Object();
-	private int proxyNameIdCounter = 0;
 
 	private final int localIdentifier;
 	private final int remoteIdentifier;
@@ -198,19 +180,9 @@ public class RMIVariables implements AutoCloseable {
 		this.localIdentifier = localIdentifier;
 		this.remoteIdentifier = remoteIdentifier;
 		this.connection = connection;
-		this.proxyBaseClassLoader = new RMIProxyClassLoader(RMI_PROXY_CLASSLOADER_PARENT);
-		boolean hasstatistics = connection.isStatisticsCollected();
-		this.proxyMarkerClass = this.proxyBaseClassLoader.defineClass(PROXY_MARKER_CLASS_NAME,
-				ProxyGenerator.generateProxyMarkerClass(PROXY_MARKER_CLASS_NAME, hasstatistics));
-		this.markerClassLookup = MethodHandles.lookup().in(proxyMarkerClass);
-		if (hasstatistics) {
-			try {
-				this.proxyMarkerClass.getField(ProxyGenerator.PROXY_MARKER_RMI_STATISTICS_FIELD_NAME).set(null,
-						connection.getCollectingStatistics());
-			} catch (IllegalArgumentException | IllegalAccessException | NoSuchFieldException | SecurityException e) {
-				throw new AssertionError("Failed to set field for RMI statistics collection.", e);
-			}
-		}
+		this.proxyClassCache = connection.getProxyClassCache();
+		this.proxyMarkerClass = proxyClassCache.getMarkerClass();
+		this.markerClassLookup = proxyClassCache.getMarkerClassLookup();
 
 		//dont inline this variable, or this RMIVariables is going to be strong referenced from the thread
 		ReferenceQueue<Object> refqueue = gcReferenceQueue;
@@ -905,6 +877,121 @@ public class RMIVariables implements AutoCloseable {
 		}
 	}
 
+	/**
+	 * Discards the {@linkplain MethodTransferProperties#isCacheResult() cached results} of all methods of the given
+	 * remote object.
+	 * <p>
+	 * Further calls to the methods will be issued to the remote endpoint. The calls which are in progress during the
+	 * invalidation may still cache their results for methods that are annotated with {@link RMICacheResult} without
+	 * {@linkplain MethodTransferProperties#isCacheResultArgumentKeyed() argument keyed} caching. The results of the
+	 * argument keyed caches are not stored by the calls that were in progress during the invalidation.
+	 * <p>
+	 * Only the caches of the argument proxy object are invalidated, other proxies that reference the same remote object
+	 * are not affected.
+	 * 
+	 * @param remoteobject
+	 *            The remote object.
+	 * @throws IllegalArgumentException
+	 *             If the argument is not a remote object.
+	 * @see RMICacheResult
+	 * @since saker.rmi 0.8.3
+	 */
+	public static void invalidateCachedResults(Object remoteobject) throws IllegalArgumentException {
+		if (!(remoteobject instanceof RemoteProxyObject)) {
+			throw new IllegalArgumentException("Object is not a remote proxy.");
+		}
+		RemoteProxyObject.invalidateCachedResultsInternal((RemoteProxyObject) remoteobject, null);
+	}
+
+	/**
+	 * Discards the {@linkplain MethodTransferProperties#isCacheResult() cached results} of the specified method of the
+	 * given remote object.
+	 * <p>
+	 * Further calls to the method will be issued to the remote endpoint. The calls which are in progress during the
+	 * invalidation may still cache their results for methods that are annotated with {@link RMICacheResult} without
+	 * {@linkplain MethodTransferProperties#isCacheResultArgumentKeyed() argument keyed} caching. The results of the
+	 * argument keyed caches are not stored by the calls that were in progress during the invalidation.
+	 * <p>
+	 * Only the caches of the argument proxy object are invalidated, other proxies that reference the same remote object
+	 * are not affected.
+	 * 
+	 * @param remoteobject
+	 *            The remote object.
+	 * @param method
+	 *            The method to invalidate the cached results of.
+	 * @throws IllegalArgumentException
+	 *             If the argument is not a remote object.
+	 * @throws NullPointerException
+	 *             If the method is <code>null</code>.
+	 * @see RMICacheResult
+	 * @since saker.rmi 0.8.3
+	 */
+	public static void invalidateCachedResults(Object remoteobject, Method method)
+			throws IllegalArgumentException, NullPointerException {
+		Objects.requireNonNull(method, "method");
+		if (!(remoteobject instanceof RemoteProxyObject)) {
+			throw new IllegalArgumentException("Object is not a remote proxy.");
+		}
+		RemoteProxyObject.invalidateCachedResultsInternal((RemoteProxyObject) remoteobject, method);
+	}
+
+	/**
+	 * Requests the other endpoint to discard the {@linkplain MethodTransferProperties#isCacheResult() cached results}
+	 * of all methods of the given local object.
+	 * <p>
+	 * This method can be called by the serving endpoint after the state of the object changes, so the clients that
+	 * reference the object through this variables context don't use stale results. The request is sent
+	 * asynchronously, the method doesn't wait for the other endpoint to process it. The calls that the other endpoint
+	 * issues after it processed the request are not served from the previously cached results.
+	 * 
+	 * @param localobject
+	 *            The local object that is referenced by the other endpoint.
+	 * @return <code>true</code> if the request was sent. <code>false</code> if the object is not referenced by the other
+	 *             endpoint in this variables context, or the other endpoint doesn't support the request.
+	 * @throws RMIIOFailureException
+	 *             In case of I/O error.
+	 * @throws NullPointerException
+	 *             If the argument is <code>null</code>.
+	 * @see RMICacheResult
+	 * @see #invalidateCachedResults(Object)
+	 * @since saker.rmi 0.8.3
+	 */
+	public boolean invalidateRemoteCachedResults(Object localobject)
+			throws RMIIOFailureException, NullPointerException {
+		Objects.requireNonNull(localobject, "local object");
+		return invalidateRemoteCachedResultsImpl(localobject, null);
+	}
+
+	/**
+	 * Requests the other endpoint to discard the {@linkplain MethodTransferProperties#isCacheResult() cached results}
+	 * of the specified method of the given local object.
+	 * <p>
+	 * This method can be called by the serving endpoint after the state of the object changes, so the clients that
+	 * reference the object through this variables context don't use stale results. The request is sent
+	 * asynchronously, the method doesn't wait for the other endpoint to process it. The calls that the other endpoint
+	 * issues after it processed the request are not served from the previously cached results.
+	 * 
+	 * @param localobject
+	 *            The local object that is referenced by the other endpoint.
+	 * @param method
+	 *            The method to invalidate the cached results of.
+	 * @return <code>true</code> if the request was sent. <code>false</code> if the object is not referenced by the other
+	 *             endpoint in this variables context, or the other endpoint doesn't support the request.
+	 * @throws RMIIOFailureException
+	 *             In case of I/O error.
+	 * @throws NullPointerException
+	 *             If any of the arguments are <code>null</code>.
+	 * @see RMICacheResult
+	 * @see #invalidateCachedResults(Object, Method)
+	 * @since saker.rmi 0.8.3
+	 */
+	public boolean invalidateRemoteCachedResults(Object localobject, Method method)
+			throws RMIIOFailureException, NullPointerException {
+		Objects.requireNonNull(localobject, "local object");
+		Objects.requireNonNull(method, "method");
+		return invalidateRemoteCachedResultsImpl(localobject, method);
+	}
+
 	/**
 	 * Creates a new object on the remote endpoint and returns it as a remote proxy object.
 	 * <p>
@@ -1136,6 +1223,14 @@ public class RMIVariables implements AutoCloseable {
 	}
 
 	void removeOngoingAsyncRequest() {
+		removeOngoingAsyncRequest(1);
+	}
+
+	void removeOngoingAsyncRequest(int count) {
+		if (count <= 0) {
+			//malformed count from the other endpoint, nothing to remove
+			return;
+		}
 		while (true) {
 			long state = this.state;
 
@@ -1147,8 +1242,10 @@ public class RMIVariables implements AutoCloseable {
 				//in clearAsyncRequestsOnReadIOFailure() before we get here
 				return;
 			}
-			long nbothc = (bothc & STATE_MASK_ONGOING_REQUEST_COUNT)
-					| ((c - 1) << STATE_ONGOING_ASYNC_REQUEST_COUNT_SHIFT);
+			//the count is received from the other endpoint, clamp it instead of throwing on the reader thread
+			//if it acknowledges more requests than ongoing, the remaining ones are cleared, same as for the zero count
+			long nc = c <= count ? 0 : c - count;
+			long nbothc = (bothc & STATE_MASK_ONGOING_REQUEST_COUNT) | (nc << STATE_ONGOING_ASYNC_REQUEST_COUNT_SHIFT);
 			long nstate = (state & ~STATE_MASK_BOTH_REQUEST_COUNT) | nbothc;
 			if (nbothc == 0 && ((state & STATE_BIT_ABORTING) == STATE_BIT_ABORTING)) {
 				//no more ongoing requests, and aborting, close as well
@@ -1202,7 +1299,17 @@ public class RMIVariables implements AutoCloseable {
 			throws InvocationTargetException {
 		addOngoingRequest();
 		try {
-			return stream.callMethod(this, remoteid, method, arguments);
+			Object result = stream.callMethod(this, remoteid, method, arguments);
+			return stream.getPrefetchingIteratorResult(this, method, result);
+		} finally {
+			removeOngoingRequest();
+		}
+	}
+
+	Object[] fetchRemoteIteratorBatch(int remoteid, int count) throws InvocationTargetException {
+		addOngoingRequest();
+		try {
+			return stream.callIteratorNextBatch(this, remoteid, count);
 		} finally {
 			removeOngoingRequest();
 		}
@@ -1308,10 +1415,25 @@ public class RMIVariables implements AutoCloseable {
 		return result;
 	}
 
+	void invalidateCachedResultsOfRemoteObject(int remoteid, Method method) {
+		RemoteProxyReference cached = cachedRemoteProxies.get(remoteid);
+		if (cached == null) {
+			//no proxy, nothing is cached
+			return;
+		}
+		RemoteProxyObject proxy = cached.get();
+		if (proxy != null) {
+			RemoteProxyObject.invalidateCachedResultsInternal(proxy, method);
+		}
+	}
+
 	Integer getRemoteIdentifierForObject(Object obj) {
 		if (proxyMarkerClass.isInstance(obj)) {
 			RemoteProxyObject proxy = (RemoteProxyObject) obj;
-			return proxy.remoteId;
+			//the proxy classes are shared between the variables, check that the proxy is bound to this one
+			if (proxy.variables == gcThreadThisWeakReference) {
+				return proxy.remoteId;
+			}
 		}
 		return null;
 	}
@@ -1523,10 +1645,32 @@ public class RMIVariables implements AutoCloseable {
 		invokeAllowedNonRedirectMethodAsync(remoteid, method, arguments);
 	}
 
+	private boolean invalidateRemoteCachedResultsImpl(Object localobject, Method method) throws RMIIOFailureException {
+		int localid;
+		IdentityRefSearcher refsearcher = new IdentityRefSearcher(localobject);
+		synchronized (refSync) {
+			@SuppressWarnings("unlikely-arg-type")
+			LocalObjectReference gotobjref = localObjectsToLocalReferences.get(refsearcher);
+			if (gotobjref == null || gotobjref.strongReference == null) {
+				//the other endpoint doesn't reference the object
+				return false;
+			}
+			localid = gotobjref.localId;
+		}
+		addOngoingRequest();
+		try {
+			return stream.invalidateCachedResults(this, localid, method);
+		} finally {
+			removeOngoingRequest();
+		}
+	}
+
 	private int getRemoteClassloaderIdentifierForRemoteMethodInvocationOrThrow(Object remoteclassloader) {
 		if (proxyMarkerClass.isInstance(remoteclassloader)) {
 			RemoteProxyObject proxy = (RemoteProxyObject) remoteclassloader;
-			return proxy.remoteId;
+			if (proxy.variables == gcThreadThisWeakReference) {
+				return proxy.remoteId;
+			}
 		}
 		if (RMIConnection.isRemoteObject(remoteclassloader)) {
 			throw new RMICallFailedException("Remote classloader is not bound to this variables. (" + this + ")");
@@ -1538,31 +1682,10 @@ public class RMIVariables implements AutoCloseable {
 		return AIFU_objectIdProvider.getAndIncrement(this);
 	}
 
-	private static Set<ClassLoader> getClassLoadersForClasses(Set<Class<?>> classes) {
-		//use linkedhashset for deterministic class loader order
-		Set<ClassLoader> result = new LinkedHashSet<>();
-		for (Class<?> c : classes) {
-			ClassLoader cl = c.getClassLoader();
-			if (cl != null) {
-				result.add(cl);
-			}
-		}
-		return MultiClassLoader.reduceClassLoaders(result);
-	}
-
 	private Constructor<? extends RemoteProxyObject> getProxyConstructorForRequestedClass(Class<?> requestedclass) {
 		Set<Class<?>> interfaces = getProxyInterfacesForRequestedClass(requestedclass);
-		Constructor<? extends RemoteProxyObject> c = proxyConstructors.get(interfaces);
-		if (c == null) {
-			synchronized (proxyGeneratorLock) {
-				c = proxyConstructors.get(interfaces);
-				if (c == null) {
-					Set<ClassLoader> classloaders = ImmutableUtils.singletonSet(requestedclass.getClassLoader());
-					c = getProxyConstructorWithClassLoaders(interfaces, c, classloaders);
-				}
-			}
-		}
-		return c;
+		return proxyClassCache.getProxyConstructorForRequestedClass(requestedclass, interfaces, properties,
+				unsharedProxies);
 	}
 
 	private Set<Class<?>> getProxyInterfacesForRequestedClass(Class<?> requestedclass) {
@@ -1571,66 +1694,7 @@ public class RMIVariables implements AutoCloseable {
 	}
 
 	private Constructor<? extends RemoteProxyObject> getProxyConstructor(Set<Class<?>> interfaces) {
-		Constructor<? extends RemoteProxyObject> c = proxyConstructors.get(interfaces);
-		if (c == null) {
-			synchronized (proxyGeneratorLock) {
-				c = proxyConstructors.get(interfaces);
-				if (c == null) {
-					Set<ClassLoader> classloaders = getClassLoadersForClasses(interfaces);
-					c = getProxyConstructorWithClassLoaders(interfaces, c, classloaders);
-				}
-			}
-		}
-		return c;
-	}
-
-	private Constructor<? extends RemoteProxyObject> getProxyConstructorWithClassLoaders(Set<Class<?>> interfaces,
-			Constructor<? extends RemoteProxyObject> c, Set<ClassLoader> classloaders) throws AssertionError {
-		RMIClassDefiner classdefiner = multiProxyClassDefiners.get(classloaders);
-		if (classdefiner == null) {
-			classdefiner = new MultiClassLoaderRMIProxyClassLoader(proxyBaseClassLoader, classloaders,
-					markerClassLookup);
-			multiProxyClassDefiners.put(classloaders, classdefiner);
-		}
-		String name = PROXY_PACKAGE_NAME + ".Proxy$" + proxyNameIdCounter++;
-		@SuppressWarnings("unchecked")
-		Class<? extends RemoteProxyObject> proxyclass = (Class<? extends RemoteProxyObject>) classdefiner
-				.defineClass(name, ProxyGenerator.generateProxy(name, interfaces,
-						proxyMarkerClass.getName().replace('.', '/'), properties, connection.isStatisticsCollected()));
-
-		//Use method handle to retrieve the initialization static method instead of usual reflection
-		//that is because if we use Class.getMethod(String), then it will load the classes related to the methods
-		//present in the class
-		//however, if some types are not available in some other methods, then it will throw an exception
-		//e.g. if a proxy has a parent interface, that has a method:
-		//     void myMethod(ClassWithPrivateModifier)
-		//that means that ClassWithPrivateModifier won't be accessible to the proxy class, and
-		//will therefore throw an IllegalAccessException, even though we don't use this method
-		//this illegal access exception is valid, however, we want to delay throwing it until someone attempts to call it
-		MethodHandle initmethod = null;
-		try {
-			initmethod = markerClassLookup.findStatic(proxyclass, ProxyGenerator.INITIALIZE_CACHE_FIELDS_METHOD_NAME,
-					MethodType.methodType(void.class, RMITransferPropertiesHolder.class));
-		} catch (NoSuchMethodException e) {
-		} catch (IllegalAccessException | IllegalArgumentException | SecurityException e) {
-			//none of these should be thrown, as the proxy generation should properly verify the interfaces
-			//as the byte code are generated
-			throw new AssertionError("Failed to initialize proxy class: " + interfaces, e);
-		}
-		if (initmethod != null) {
-			try {
-				initmethod.invokeExact(properties);
-			} catch (Throwable e) {
-				throw new AssertionError("Failed to initialize proxy class: " + interfaces, e);
-			}
-		}
-		try {
-			c = proxyclass.getConstructor(Reference.class, int.class);
-		} catch (NoSuchMethodException | SecurityException e) {
-			throw new AssertionError("Proxy constructor not found.", e);
-		}
-		proxyConstructors.put(interfaces, c);
-		return c;
+		return proxyClassCache.getProxyConstructor(interfaces, properties, unsharedProxies);
 	}
 
 	private RemoteProxyObject createProxyObjectForClass(Class<?> requestedclass, int remoteid) throws AssertionError {
@@ -1757,11 +1821,10 @@ public class RMIVariables implements AutoCloseable {
 			synchronized (refSync) {
 				localObjectsToLocalReferences.clear();
 			}
-			proxyBaseClassLoader = null;
-			proxyConstructors = null;
+			proxyClassCache = null;
+			unsharedProxies = null;
 			proxyMarkerClass = null;
 			markerClassLookup = null;
-			multiProxyClassDefiners = null;
 			properties = null;
 		} finally {
 			closedLatch.signal();
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.rmi.connection;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Holds the accessor and canonical constructor handles for transferring record classes by their components.
+ * <p>
+ * The runtime may be older than the record support of the JVM, so the record related methods are looked up
+ * reflectively. The handles are cached JVM-wide for the record classes.
+ */
+final class RecordObjectCodec {
+	private static final Method CLASS_IS_RECORD_METHOD;
+	private static final Method CLASS_GET_RECORD_COMPONENTS_METHOD;
+	private static final Method RECORD_COMPONENT_GET_ACCESSOR_METHOD;
+	static {
+		Method isrecord = null;
+		Method getrecordcomponents = null;
+		Method getaccessor = null;
+		try {
+			isrecord = Class.class.getMethod("isRecord");
+			getrecordcomponents = Class.class.getMethod("getRecordComponents");
+			getaccessor = Class.forName("java.lang.reflect.RecordComponent").getMethod("getAccessor");
+		} catch (NoSuchMethodException | ClassNotFoundException e) {
+			//records are not supported by the current JVM
+			isrecord = null;
+		}
+		CLASS_IS_RECORD_METHOD = isrecord;
+		CLASS_GET_RECORD_COMPONENTS_METHOD = getrecordcomponents;
+		RECORD_COMPONENT_GET_ACCESSOR_METHOD = getaccessor;
+	}
+
+	private static final MethodType ACCESSOR_METHOD_TYPE = MethodType.methodType(Object.class, Object.class);
+	private static final MethodType CONSTRUCTOR_METHOD_TYPE = MethodType.methodType(Object.class, Object[].class);
+
+	/**
+	 * Placeholder for the types that are not records, or cannot be accessed.
+	 */
+	private static final RecordObjectCodec NOT_RECORD = new RecordObjectCodec();
+
+	private static final ClassValue<RecordObjectCodec> CODECS = new ClassValue<RecordObjectCodec>() {
+		@Override
+		protected RecordObjectCodec computeValue(Class<?> type) {
+			return createCodec(type);
+		}
+	};
+
+	private final Class<?>[] componentTypes;
+	private final MethodHandle[] accessorHandles;
+	private final MethodHandle constructorHandle;
+
+	private RecordObjectCodec() {
+		this.componentTypes = null;
+		this.accessorHandles = null;
+		this.constructorHandle = null;
+	}
+
+	private RecordObjectCodec(Class<?>[] componentTypes, MethodHandle[] accessorHandles,
+			MethodHandle constructorHandle) {
+		this.componentTypes = componentTypes;
+		this.accessorHandles = accessorHandles;
+		this.constructorHandle = constructorHandle;
+	}
+
+	/**
+	 * Gets the codec for the given record type.
+	 * 
+	 * @param type
+	 *            The type.
+	 * @return The codec, or <code>null</code> if the type is not a record, or its components or canonical
+	 *             constructor cannot be accessed.
+	 */
+	public static RecordObjectCodec get(Class<?> type) {
+		RecordObjectCodec result = CODECS.get(type);
+		if (result == NOT_RECORD) {
+			return null;
+		}
+		return result;
+	}
+
+	public Class<?>[] getComponentTypes() {
+		return componentTypes;
+	}
+
+	public int getComponentCount() {
+		return componentTypes.length;
+	}
+
+	public Object getComponent(Object obj, int index) throws InvocationTargetException {
+		try {
+			return (Object) accessorHandles[index].invokeExact(obj);
+		} catch (Throwable e) {
+			throw new InvocationTargetException(e);
+		}
+	}
+
+	public Object newInstance(Object[] components) throws InvocationTargetException {
+		try {
+			return (Object) constructorHandle.invokeExact(components);
+		} catch (Throwable e) {
+			throw new InvocationTargetException(e);
+		}
+	}
+
+	private static RecordObjectCodec createCodec(Class<?> type) {
+		if (CLASS_IS_RECORD_METHOD == null) {
+			return NOT_RECORD;
+		}
+		try {
+			if (!(Boolean) CLASS_IS_RECORD_METHOD.invoke(type)) {
+				return NOT_RECORD;
+			}
+			Object[] components = (Object[]) CLASS_GET_RECORD_COMPONENTS_METHOD.invoke(type);
+			int count = components.length;
+			Class<?>[] componenttypes = new Class<?>[count];
+			MethodHandle[] accessors = new MethodHandle[count];
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			for (int i = 0; i < count; i++) {
+				Method accessor = (Method) RECORD_COMPONENT_GET_ACCESSOR_METHOD.invoke(components[i]);
+				accessor.setAccessible(true);
+				componenttypes[i] = accessor.getReturnType();
+				accessors[i] = lookup.unreflect(accessor).asType(ACCESSOR_METHOD_TYPE);
+			}
+			Constructor<?> constructor = type.getDeclaredConstructor(componenttypes);
+			constructor.setAccessible(true);
+			MethodHandle constructorhandle = lookup.unreflectConstructor(constructor)
+					.asSpreader(Object[].class, count).asType(CONSTRUCTOR_METHOD_TYPE);
+			return new RecordObjectCodec(componenttypes, accessors, constructorhandle);
+		} catch (Exception e) {
+			//the record class cannot be accessed, e.g. because its module is not open for reflection
+			return NOT_RECORD;
+		}
+	}
+}
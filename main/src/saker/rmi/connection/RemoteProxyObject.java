@@ -15,9 +15,15 @@
  */
 package saker.rmi.connection;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.ref.Reference;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -45,10 +51,42 @@ public abstract class RemoteProxyObject {
 	private static final StackTraceElement RMI_REMOTE_CALL_STACK_TRACE_ELEMENT = new StackTraceElement("saker.rmi",
 			"<REMOTE-CALL>", null, -1);
 
+	private static final MethodType INVALIDATE_CACHE_FIELDS_METHOD_TYPE = MethodType.methodType(void.class,
+			Object.class, Method.class);
+
+	/**
+	 * The methods of the proxy classes which reset the cache fields of the methods with non argument keyed result
+	 * caches.
+	 * <p>
+	 * <code>null</code> if the proxy class has no such methods.
+	 */
+	private static final ClassValue<MethodHandle> CACHE_FIELD_INVALIDATORS = new ClassValue<MethodHandle>() {
+		@Override
+		protected MethodHandle computeValue(Class<?> type) {
+			try {
+				return MethodHandles.publicLookup().findStatic(type,
+						ProxyGenerator.INVALIDATE_CACHE_FIELDS_METHOD_NAME, INVALIDATE_CACHE_FIELDS_METHOD_TYPE);
+			} catch (NoSuchMethodException e) {
+				return null;
+			} catch (IllegalAccessException e) {
+				throw new AssertionError(e);
+			}
+		}
+	};
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<RemoteProxyObject, ConcurrentMap> ARFU_resultCaches = AtomicReferenceFieldUpdater
+			.newUpdater(RemoteProxyObject.class, ConcurrentMap.class, "resultCaches");
+
 	//Bytecode for the proxy objects are generated in the class ProxyGenerator.
 	protected final Reference<? extends RMIVariables> variables;
 	protected final int remoteId;
 
+	/**
+	 * The argument keyed result caches of the methods. Lazily created.
+	 */
+	private volatile ConcurrentMap<Method, RMIResultCache> resultCaches;
+
 	protected RemoteProxyObject(Reference<? extends RMIVariables> variables, int remoteId) {
 		this.variables = variables;
 		this.remoteId = remoteId;
@@ -105,6 +143,57 @@ public abstract class RemoteProxyObject {
 		}
 	}
 
+	protected static final Object callCachedMethodInternal(RemoteProxyObject remoteobject, MethodTransferProperties m,
+			Object[] args) throws Throwable {
+		return getResultCache(remoteobject, m).call(remoteobject, m, args, null);
+	}
+
+	protected static final Object callCachedMethodInternal(RemoteProxyObject remoteobject, MethodTransferProperties m,
+			Object[] args, RMIStatistics statistics) throws Throwable {
+		return getResultCache(remoteobject, m).call(remoteobject, m, args, statistics);
+	}
+
+	static final void invalidateCachedResultsInternal(RemoteProxyObject remoteobject, Method method) {
+		ConcurrentMap<Method, RMIResultCache> caches = remoteobject.resultCaches;
+		if (caches != null) {
+			if (method == null) {
+				for (RMIResultCache cache : caches.values()) {
+					cache.invalidate();
+				}
+			} else {
+				RMIResultCache cache = caches.get(method);
+				if (cache != null) {
+					cache.invalidate();
+				}
+			}
+		}
+		MethodHandle fieldinvalidator = CACHE_FIELD_INVALIDATORS.get(remoteobject.getClass());
+		if (fieldinvalidator != null) {
+			try {
+				fieldinvalidator.invokeExact((Object) remoteobject, method);
+			} catch (Throwable e) {
+				throw new AssertionError("Failed to invalidate cached results of: " + method, e);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static RMIResultCache getResultCache(RemoteProxyObject remoteobject, MethodTransferProperties m) {
+		ConcurrentMap<Method, RMIResultCache> caches = remoteobject.resultCaches;
+		if (caches == null) {
+			caches = new ConcurrentHashMap<>();
+			if (!ARFU_resultCaches.compareAndSet(remoteobject, null, caches)) {
+				caches = remoteobject.resultCaches;
+			}
+		}
+		Method method = m.getExecutable();
+		RMIResultCache result = caches.get(method);
+		if (result != null) {
+			return result;
+		}
+		return caches.computeIfAbsent(method, x -> new RMIResultCache(m));
+	}
+
 	private static StackTraceElement[] mergeStackTrace(Throwable targetexc, StackTraceElement[] threadstack) {
 		//threadstack will have the java.lang.Thread.getStackTrace() method call at the 0 index
 		//replace this with one that signals the RMI transfer over the wire
@@ -36,6 +36,10 @@ class RequestHandler {
 			public Function<? super Request, ? extends RMIRuntimeException> closedExceptionCreator;
 			public Object response;
 			public Thread waitingThread;
+			/**
+			 * Set if the request was closed by the caller, and no more responses are processed for it.
+			 */
+			public boolean callerClosed;
 
 			public State() {
 			}
@@ -47,20 +51,24 @@ class RequestHandler {
 				this.closedExceptionCreator = s.closedExceptionCreator;
 				this.response = response;
 				this.waitingThread = s.waitingThread;
+				this.callerClosed = s.callerClosed;
 				return this;
 			}
 
 			public State close(State s,
-					Function<? super Request, ? extends RMIRuntimeException> closedExceptionCreator) {
+					Function<? super Request, ? extends RMIRuntimeException> closedExceptionCreator,
+					boolean callerClosed) {
 				this.response = s.response;
 				this.waitingThread = s.waitingThread;
 				this.closedExceptionCreator = closedExceptionCreator;
+				this.callerClosed = s.callerClosed || callerClosed;
 				return this;
 			}
 
 			public State takeResponse(State s, Thread currentthread) {
 				this.response = null;
 				this.closedExceptionCreator = s.closedExceptionCreator;
+				this.callerClosed = s.callerClosed;
 				if (s.response != null) {
 					this.waitingThread = null;
 				} else {
@@ -78,6 +86,8 @@ class RequestHandler {
 				builder.append(response);
 				builder.append(", waitingThread=");
 				builder.append(waitingThread);
+				builder.append(", callerClosed=");
+				builder.append(callerClosed);
 				builder.append("]");
 				return builder.toString();
 			}
@@ -171,28 +181,40 @@ class RequestHandler {
 
 		@Override
 		public void close() {
-			wakeClose(Request::createExceptionClosedHandler);
+			State prevs = wakeClose(Request::createExceptionClosedHandler, true);
 			owner.requests.remove(requestId, this);
+			Object response = prevs.response;
+			if (response instanceof RequestResponse) {
+				//the response arrived, but the caller didn't process it
+				((RequestResponse) response).abandon();
+			}
 		}
 
-		private void wakeClose(Function<? super Request, ? extends RMIRuntimeException> closedExceptionCreator) {
+		private State wakeClose(Function<? super Request, ? extends RMIRuntimeException> closedExceptionCreator,
+				boolean callerclosed) {
 			State nstate = new State();
 			State prevs;
 			while (true) {
 				prevs = this.state;
-				nstate.close(prevs, closedExceptionCreator);
+				nstate.close(prevs, closedExceptionCreator, callerclosed);
 				if (ARFU_state.compareAndSet(this, prevs, nstate)) {
 					break;
 				}
 				//try again
 			}
 			wakeUpState(prevs);
+			return prevs;
 		}
 
-		private void setResponse(Object response) {
+		private boolean setResponse(Object response) {
 			State ns = new State();
 			State prevs = ARFU_state.getAndUpdate(this, s -> ns.setResponse(s, response));
+			if (prevs.callerClosed) {
+				//the caller won't process the response
+				return false;
+			}
 			wakeUpState(prevs);
+			return true;
 		}
 
 		private static void wakeUpState(State prevs) {
@@ -243,13 +265,18 @@ class RequestHandler {
 		return result;
 	}
 
+	/**
+	 * Sets the response of the request with the given identifier.
+	 * 
+	 * @return <code>true</code> if the response was passed to the request, <code>false</code> if the request is not
+	 *             found or was closed by the caller.
+	 */
 	public boolean addResponse(int requestid, Object response) {
 		Request req = requests.get(requestid);
 		if (req == null) {
 			return false;
 		}
-		req.setResponse(response);
-		return true;
+		return req.setResponse(response);
 	}
 
 	public void close(Function<? super Request, ? extends RMIRuntimeException> closedExceptionCreator) {
@@ -258,7 +285,7 @@ class RequestHandler {
 			if (entry == null) {
 				break;
 			}
-			entry.getValue().wakeClose(closedExceptionCreator);
+			entry.getValue().wakeClose(closedExceptionCreator, false);
 		}
 	}
 }
@@ -16,4 +16,11 @@
 package saker.rmi.connection;
 
 interface RequestResponse {
+	/**
+	 * Called when the request is closed without the response being processed by the caller.
+	 * <p>
+	 * The response should release any resources that it holds.
+	 */
+	public default void abandon() {
+	}
 }
\ No newline at end of file
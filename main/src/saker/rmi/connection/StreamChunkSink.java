@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.rmi.connection;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+import saker.rmi.io.writer.StreamRMIObjectWriteHandler;
+
+/**
+ * Remotely accessible sink for the chunks of an output stream that is transferred using
+ * {@link StreamRMIObjectWriteHandler}.
+ * <p>
+ * The I/O errors of {@link #accept(byte[])} are rethrown as {@link UncheckedIOException}.
+ * <p>
+ * Only JDK interfaces are implemented, so the other endpoint can always create a proxy for the instances.
+ */
+final class StreamChunkSink implements Consumer<byte[]>, Flushable, Closeable {
+	private final OutputStream stream;
+
+	public StreamChunkSink(OutputStream stream) {
+		this.stream = stream;
+	}
+
+	@Override
+	public void accept(byte[] chunk) {
+		try {
+			stream.write(chunk);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		stream.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		stream.close();
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package saker.rmi.connection;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+import saker.rmi.io.writer.StreamRMIObjectWriteHandler;
+
+/**
+ * Remotely accessible source of the chunks of an input stream that is transferred using
+ * {@link StreamRMIObjectWriteHandler}.
+ * <p>
+ * The {@link #apply(int)} method reads the next chunk with at most the given number of bytes. The chunk contains the
+ * bytes returned by a single read call of the stream, so it may not be filled fully. <code>null</code> is returned if
+ * there are no more bytes. The I/O errors are rethrown as {@link UncheckedIOException}.
+ * <p>
+ * Only JDK interfaces are implemented, so the other endpoint can always create a proxy for the instances.
+ */
+final class StreamChunkSource implements IntFunction<byte[]>, Closeable {
+	private final InputStream stream;
+
+	public StreamChunkSource(InputStream stream) {
+		this.stream = stream;
+	}
+
+	@Override
+	public byte[] apply(int maxlength) {
+		byte[] buf = new byte[Math.max(1, Math.min(maxlength, RMIStream.STREAM_TRANSFER_CHUNK_SIZE))];
+		int read;
+		try {
+			do {
+				read = stream.read(buf, 0, buf.length);
+			} while (read == 0);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		if (read < 0) {
+			return null;
+		}
+		if (read == buf.length) {
+			return buf;
+		}
+		return Arrays.copyOf(buf, read);
+	}
+
+	@Override
+	public void close() throws IOException {
+		stream.close();
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import saker.rmi.annot.invoke.RMICacheResult;
+import saker.rmi.connection.RMIVariables;
+import testing.saker.SakerTest;
+
+@SakerTest
+public class ArgumentCacheResultRMITest extends BaseVariablesRMITestCase {
+	private static int lookupCallCount = 0;
+	private static int arrayCallCount = 0;
+	private static int expiringCallCount = 0;
+	private static int singleCallCount = 0;
+	private static int nameCallCount = 0;
+	private static int namedHashCodeCallCount = 0;
+
+	public interface Stub {
+		@RMICacheResult(maxEntries = 2)
+		public String lookup(String key);
+
+		@RMICacheResult(maxEntries = 4)
+		public int sum(int[] values);
+
+		@RMICacheResult(expireAfterMillis = 500)
+		public String expiring(String key);
+
+		@RMICacheResult
+		public String single();
+
+		public Named newNamed(String name);
+
+		@RMICacheResult(maxEntries = 4)
+		public String name(Named named);
+	}
+
+	public interface Named {
+		public String getName();
+	}
+
+	public static class NamedImpl implements Named {
+		private final String name;
+
+		public NamedImpl(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public int hashCode() {
+			++namedHashCodeCallCount;
+			return name.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof NamedImpl && name.equals(((NamedImpl) obj).name);
+		}
+	}
+
+	public static class Impl implements Stub {
+		@Override
+		public String lookup(String key) {
+			++lookupCallCount;
+			return key == null ? null : key + "-value";
+		}
+
+		@Override
+		public int sum(int[] values) {
+			++arrayCallCount;
+			int result = 0;
+			for (int v : values) {
+				result += v;
+			}
+			return result;
+		}
+
+		@Override
+		public String expiring(String key) {
+			++expiringCallCount;
+			return key;
+		}
+
+		@Override
+		public String single() {
+			++singleCallCount;
+			return "single";
+		}
+
+		@Override
+		public Named newNamed(String name) {
+			return new NamedImpl(name);
+		}
+
+		@Override
+		public String name(Named named) {
+			++nameCallCount;
+			return named.getName();
+		}
+	}
+
+	@Override
+	protected void runVariablesTestImpl() throws Exception {
+		lookupCallCount = 0;
+		arrayCallCount = 0;
+		expiringCallCount = 0;
+		singleCallCount = 0;
+		nameCallCount = 0;
+		namedHashCodeCallCount = 0;
+
+		Stub s = (Stub) clientVariables.newRemoteInstance(Impl.class);
+
+		assertEquals(s.lookup("a"), "a-value");
+		assertEquals(s.lookup("b"), "b-value");
+		assertEquals(lookupCallCount, 2);
+		assertEquals(s.lookup("a"), "a-value");
+		assertEquals(s.lookup("b"), "b-value");
+		assertEquals(lookupCallCount, 2);
+
+		//null arguments and results are cached as well
+		assertEquals(s.lookup(null), null);
+		assertEquals(lookupCallCount, 3);
+		assertEquals(s.lookup(null), null);
+		assertEquals(lookupCallCount, 3);
+
+		//a was the least recently used, it was evicted
+		assertEquals(s.lookup("b"), "b-value");
+		assertEquals(lookupCallCount, 3);
+		assertEquals(s.lookup("a"), "a-value");
+		assertEquals(lookupCallCount, 4);
+
+		//arguments are compared deeply
+		assertEquals(s.sum(new int[] { 1, 2, 3 }), 6);
+		assertEquals(s.sum(new int[] { 1, 2, 3 }), 6);
+		assertEquals(arrayCallCount, 1);
+		assertEquals(s.sum(new int[] { 1, 2 }), 3);
+		assertEquals(arrayCallCount, 2);
+
+		assertEquals(s.expiring("x"), "x");
+		assertEquals(s.expiring("x"), "x");
+		assertEquals(expiringCallCount, 1);
+		Thread.sleep(1000);
+		assertEquals(s.expiring("x"), "x");
+		assertEquals(expiringCallCount, 2);
+
+		assertEquals(s.single(), "single");
+		assertEquals(s.single(), "single");
+		assertEquals(singleCallCount, 1);
+
+		//invalidation of a single method
+		RMIVariables.invalidateCachedResults(s, Stub.class.getMethod("lookup", String.class));
+		assertEquals(s.lookup("a"), "a-value");
+		assertEquals(lookupCallCount, 5);
+		assertEquals(s.sum(new int[] { 1, 2, 3 }), 6);
+		assertEquals(arrayCallCount, 2);
+		assertEquals(s.single(), "single");
+		assertEquals(singleCallCount, 1);
+
+		RMIVariables.invalidateCachedResults(s, Stub.class.getMethod("single"));
+		assertEquals(s.single(), "single");
+		assertEquals(singleCallCount, 2);
+		assertEquals(s.lookup("a"), "a-value");
+		assertEquals(lookupCallCount, 5);
+
+		//invalidation of all methods
+		RMIVariables.invalidateCachedResults(s);
+		assertEquals(s.lookup("a"), "a-value");
+		assertEquals(lookupCallCount, 6);
+		assertEquals(s.sum(new int[] { 1, 2, 3 }), 6);
+		assertEquals(arrayCallCount, 3);
+		assertEquals(s.single(), "single");
+		assertEquals(singleCallCount, 3);
+
+		//remote proxy arguments are compared by identity, without calling hashCode or equals remotely
+		Named n1 = s.newNamed("n");
+		Named n2 = s.newNamed("n");
+		assertEquals(s.name(n1), "n");
+		assertEquals(s.name(n1), "n");
+		assertEquals(nameCallCount, 1);
+		assertEquals(s.name(n2), "n");
+		assertEquals(nameCallCount, 2);
+		assertEquals(namedHashCodeCallCount, 0);
+
+		assertException(IllegalArgumentException.class, () -> RMIVariables.invalidateCachedResults(new Impl()));
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import saker.rmi.connection.RMIConnection;
+import saker.rmi.connection.RMIOptions;
+import saker.rmi.connection.RMITestUtil;
+import saker.rmi.connection.RMIVariables;
+import saker.util.ReflectUtils;
+import saker.util.io.function.IOFunction;
+import testing.saker.SakerTest;
+import testing.saker.SakerTestCase;
+
+@SakerTest
+public class AsyncResponseCoalescingRMITest extends SakerTestCase {
+	private static final Method INCREMENT_METHOD = ReflectUtils.getMethodAssert(Stub.class, "increment");
+
+	private static final short COMMAND_ASYNC_RESPONSE = 32;
+	private static final short COMMAND_ASYNC_RESPONSE_COUNTED = 34;
+
+	private static final int CALL_COUNT = 1000;
+
+	public interface Stub {
+		public void increment();
+	}
+
+	public static class Impl implements Stub {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public void increment() {
+			count.incrementAndGet();
+		}
+	}
+
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		try {
+			//in case some other faulty test left it in an invalid state
+			RMITestUtil.restoreInternalHandlers();
+
+			AtomicInteger responsecount = new AtomicInteger();
+			AtomicInteger countedresponsecount = new AtomicInteger();
+			RMITestUtil.replaceCommandHandler(COMMAND_ASYNC_RESPONSE,
+					countingHandler(COMMAND_ASYNC_RESPONSE, responsecount));
+			RMITestUtil.replaceCommandHandler(COMMAND_ASYNC_RESPONSE_COUNTED,
+					countingHandler(COMMAND_ASYNC_RESPONSE_COUNTED, countedresponsecount));
+
+			runWithProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_2);
+			//each call is acknowledged separately
+			assertEquals(responsecount.get(), CALL_COUNT);
+			assertEquals(countedresponsecount.get(), 0);
+
+			responsecount.set(0);
+			runWithProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_3);
+			//the acknowledgements are coalesced, at most 128 of them in a single command
+			assertEquals(responsecount.get(), 0);
+			assertTrue(countedresponsecount.get() >= CALL_COUNT / 128, "count: " + countedresponsecount);
+			assertTrue(countedresponsecount.get() < CALL_COUNT, "count: " + countedresponsecount);
+		} finally {
+			RMITestUtil.restoreInternalHandlers();
+		}
+	}
+
+	private static IOFunction<Object[], Object> countingHandler(short command, AtomicInteger counter) {
+		return new IOFunction<Object[], Object>() {
+			@Override
+			public Object apply(Object[] args) throws IOException {
+				counter.incrementAndGet();
+				return RMITestUtil.callOriginalCommandHandler(command, args);
+			}
+		};
+	}
+
+	private void runWithProtocolVersion(short protocolversion) throws Exception {
+		RMIOptions baseoptions = new RMIOptions().classLoader(getClass().getClassLoader());
+		RMIConnection[] connections = RMITestUtil.createPipedConnection(baseoptions, baseoptions, protocolversion);
+		RMIConnection clientConnection = connections[0];
+		RMIConnection serverConnection = connections[1];
+		Impl impl;
+		try {
+			RMIVariables clientVariables = clientConnection.newVariables();
+			try {
+				Stub s = (Stub) clientVariables.newRemoteInstance(Impl.class);
+				impl = (Impl) RMITestUtil.getRemoteVariablesVariable(serverConnection, s);
+				for (int i = 0; i < CALL_COUNT; i++) {
+					RMIVariables.invokeRemoteMethodAsync(s, INCREMENT_METHOD);
+				}
+			} finally {
+				clientVariables.close();
+			}
+			//the variables is closed when all the acknowledgements arrived
+			clientVariables.waitClosure();
+		} finally {
+			clientConnection.closeWait();
+			serverConnection.closeWait();
+		}
+		assertEquals(impl.count.get(), CALL_COUNT);
+	}
+
+}
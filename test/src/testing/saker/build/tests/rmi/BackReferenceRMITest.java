@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Map;
+
+import saker.rmi.connection.RMIConnection;
+import saker.rmi.connection.RMIOptions;
+import saker.rmi.connection.RMITestUtil;
+import saker.rmi.connection.RMIVariables;
+import saker.util.io.ResourceCloser;
+import testing.saker.SakerTest;
+import testing.saker.SakerTestCase;
+
+@SakerTest
+public class BackReferenceRMITest extends SakerTestCase {
+	public static class Node implements Externalizable {
+		private static final long serialVersionUID = 1L;
+
+		public String name;
+		public Node first;
+		public Node second;
+
+		public Node() {
+		}
+
+		public Node(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public void writeExternal(ObjectOutput out) throws IOException {
+			out.writeObject(name);
+			out.writeObject(first);
+			out.writeObject(second);
+		}
+
+		@Override
+		public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+			name = (String) in.readObject();
+			first = (Node) in.readObject();
+			second = (Node) in.readObject();
+		}
+	}
+
+	public interface Stub {
+		public boolean isSame(Node a, Node b);
+
+		public Node echo(Node n);
+
+		public Node[] echoPair(Node a, Node b);
+	}
+
+	public static class Impl implements Stub {
+		@Override
+		public boolean isSame(Node a, Node b) {
+			return a == b;
+		}
+
+		@Override
+		public Node echo(Node n) {
+			return n;
+		}
+
+		@Override
+		public Node[] echoPair(Node a, Node b) {
+			return new Node[] { a, b };
+		}
+	}
+
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		runTestWithProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_2);
+		runTestWithProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_3);
+	}
+
+	@SuppressWarnings("try") // unused ResourceCloser
+	private void runTestWithProtocolVersion(short protocolversion) throws Exception {
+		RMIOptions baseoptions = new RMIOptions().maxStreamCount(1).classLoader(getClass().getClassLoader());
+		RMIConnection[] connections = RMITestUtil.createPipedConnection(baseoptions, baseoptions, protocolversion);
+		RMIConnection clientConnection = connections[0];
+		RMIConnection serverConnection = connections[1];
+		try (ResourceCloser closer = new ResourceCloser(clientConnection::closeWait, serverConnection::closeWait);
+				RMIVariables clientVariables = clientConnection.newVariables()) {
+			Stub s = (Stub) clientVariables.newRemoteInstance(Impl.class);
+			boolean backreferences = protocolversion >= RMIConnection.PROTOCOL_VERSION_3;
+
+			Node shared = new Node("shared");
+			Node root = new Node("root");
+			root.first = shared;
+			root.second = shared;
+
+			assertEquals(s.isSame(shared, shared), backreferences);
+			assertFalse(s.isSame(shared, new Node("shared")));
+
+			Node rootresult = s.echo(root);
+			assertEquals(rootresult.name, "root");
+			assertEquals(rootresult.first.name, "shared");
+			assertEquals(rootresult.second.name, "shared");
+			assertEquals(rootresult.first == rootresult.second, backreferences);
+
+			Node[] pair = s.echoPair(root, shared);
+			assertEquals(pair[0].first == pair[1], backreferences);
+
+			if (backreferences) {
+				//cyclic graphs are only supported with back references
+				Node cycle = new Node("cycle");
+				cycle.first = new Node("child");
+				cycle.first.first = cycle;
+				Node cycleresult = s.echo(cycle);
+				assertIdentityEquals(cycleresult.first.first, cycleresult);
+				assertEquals(cycleresult.first.name, "child");
+			}
+		}
+	}
+
+}
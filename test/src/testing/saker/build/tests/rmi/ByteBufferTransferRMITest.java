@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+
+import saker.rmi.connection.RMIConnection;
+import saker.rmi.connection.RMIOptions;
+import saker.rmi.connection.RMITestUtil;
+import saker.rmi.connection.RMIVariables;
+import saker.util.io.ResourceCloser;
+import testing.saker.SakerTest;
+import testing.saker.SakerTestCase;
+
+@SakerTest
+public class ByteBufferTransferRMITest extends SakerTestCase {
+
+	public interface Stub {
+		public ByteBuffer echo(ByteBuffer buf);
+
+		public int sum(ByteBuffer buf);
+
+		public String describe(ByteBuffer buf);
+
+		public ByteBuffer allocateDirect(int len);
+
+		public Object echoObject(Object o);
+	}
+
+	public static class Impl implements Stub {
+		@Override
+		public ByteBuffer echo(ByteBuffer buf) {
+			return buf;
+		}
+
+		@Override
+		public int sum(ByteBuffer buf) {
+			int result = 0;
+			while (buf.hasRemaining()) {
+				result += buf.get();
+			}
+			return result;
+		}
+
+		@Override
+		public String describe(ByteBuffer buf) {
+			return buf.isDirect() + " " + buf.isReadOnly() + " " + buf.order() + " " + buf.remaining();
+		}
+
+		@Override
+		public ByteBuffer allocateDirect(int len) {
+			ByteBuffer result = ByteBuffer.allocateDirect(len);
+			for (int i = 0; i < len; i++) {
+				result.put((byte) i);
+			}
+			result.flip();
+			return result;
+		}
+
+		@Override
+		public Object echoObject(Object o) {
+			return o;
+		}
+	}
+
+	@Override
+	@SuppressWarnings("try") // unused ResourceCloser
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		RMIOptions baseoptions = new RMIOptions().maxStreamCount(1).classLoader(getClass().getClassLoader());
+		RMIConnection[] connections = RMITestUtil.createPipedConnection(baseoptions, baseoptions,
+				(short) RMIConnection.PROTOCOL_VERSION_3);
+		RMIConnection clientConnection = connections[0];
+		RMIConnection serverConnection = connections[1];
+		try (ResourceCloser closer = new ResourceCloser(clientConnection::closeWait, serverConnection::closeWait);
+				RMIVariables clientVariables = clientConnection.newVariables()) {
+			Stub s = (Stub) clientVariables.newRemoteInstance(Impl.class);
+
+			ByteBuffer heap = ByteBuffer.wrap(new byte[] { 9, 1, 2, 3, 4, 9 }, 1, 4);
+			assertEquals(s.sum(heap), 10);
+			//the position of the argument is not modified
+			assertEquals(heap.position(), 1);
+			assertEquals(s.describe(heap), "false false BIG_ENDIAN 4");
+			assertEquals(s.echo(heap), heap);
+			assertEquals(s.echoObject(heap), heap);
+
+			ByteBuffer empty = ByteBuffer.allocate(0);
+			assertEquals(s.echo(empty), empty);
+
+			ByteBuffer direct = ByteBuffer.allocateDirect(100000).order(ByteOrder.LITTLE_ENDIAN);
+			for (int i = 0; direct.hasRemaining(); i++) {
+				direct.put((byte) (i * 31));
+			}
+			direct.flip();
+			assertEquals(s.describe(direct), "true false LITTLE_ENDIAN 100000");
+			ByteBuffer directecho = s.echo(direct);
+			assertTrue(directecho.isDirect());
+			assertEquals(directecho.order(), ByteOrder.LITTLE_ENDIAN);
+			assertEquals(directecho, direct);
+			assertEquals(direct.position(), 0);
+
+			ByteBuffer readonly = ByteBuffer.wrap(new byte[] { 1, 2, 3 }).asReadOnlyBuffer();
+			assertEquals(s.describe(readonly), "false true BIG_ENDIAN 3");
+			ByteBuffer readonlyecho = s.echo(readonly);
+			assertTrue(readonlyecho.isReadOnly());
+			assertEquals(readonlyecho, readonly);
+
+			ByteBuffer remotedirect = s.allocateDirect(300);
+			assertTrue(remotedirect.isDirect());
+			assertEquals(remotedirect.remaining(), 300);
+			assertEquals(remotedirect.get(299), (byte) 299);
+		}
+	}
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import saker.rmi.connection.RMIConnection;
+import saker.rmi.connection.RMIOptions;
+import saker.rmi.connection.RMIServer;
+import saker.rmi.connection.RMITestUtil;
+import saker.rmi.connection.RMIVariables;
+import saker.util.io.ResourceCloser;
+import testing.saker.SakerTest;
+import testing.saker.SakerTestCase;
+
+@SakerTest
+public class ClassDictionaryRMITest extends SakerTestCase {
+
+	public interface Stub {
+		public String f(String s);
+
+		public int f(int i);
+
+		public Stub self();
+
+		public Class<?> getType(Object o);
+	}
+
+	public interface OtherStub {
+		public String g(String s);
+	}
+
+	public static class Impl implements Stub, OtherStub {
+		public Impl() {
+		}
+
+		public Impl(String s) {
+		}
+
+		@Override
+		public String f(String s) {
+			return s + s;
+		}
+
+		@Override
+		public int f(int i) {
+			return i * 2;
+		}
+
+		@Override
+		public Stub self() {
+			return this;
+		}
+
+		@Override
+		public Class<?> getType(Object o) {
+			return o.getClass();
+		}
+
+		@Override
+		public String g(String s) {
+			return s + "g";
+		}
+	}
+
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		List<Class<?>> dictionary = Arrays.asList(Stub.class, OtherStub.class, Impl.class);
+		RMIOptions baseoptions = new RMIOptions().maxStreamCount(1).classLoader(getClass().getClassLoader());
+		RMIOptions dictoptions = new RMIOptions(baseoptions).classDictionary(dictionary);
+
+		runPipedTest(dictoptions, dictoptions, (short) RMIConnection.PROTOCOL_VERSION_3);
+		runPipedTest(dictoptions, dictoptions, (short) RMIConnection.PROTOCOL_VERSION_2);
+		//different dictionaries on the endpoints
+		runPipedTest(dictoptions, baseoptions, (short) RMIConnection.PROTOCOL_VERSION_3);
+		runPipedTest(baseoptions, dictoptions, (short) RMIConnection.PROTOCOL_VERSION_3);
+		runPipedTest(dictoptions, new RMIOptions(baseoptions).classDictionary(Collections.singleton(Stub.class)),
+				(short) RMIConnection.PROTOCOL_VERSION_3);
+		runPipedTest(dictoptions,
+				new RMIOptions(baseoptions).classDictionary(Arrays.asList(Impl.class, Stub.class, OtherStub.class)),
+				(short) RMIConnection.PROTOCOL_VERSION_3);
+
+		runServerTest(dictoptions, dictoptions);
+		runServerTest(dictoptions, baseoptions);
+		runServerTest(baseoptions, dictoptions);
+	}
+
+	@SuppressWarnings("try") // unused ResourceCloser
+	private static void runPipedTest(RMIOptions clientoptions, RMIOptions serveroptions, short protocolversion)
+			throws Exception {
+		RMIConnection[] connections = RMITestUtil.createPipedConnection(clientoptions, serveroptions,
+				protocolversion);
+		RMIConnection clientConnection = connections[0];
+		RMIConnection serverConnection = connections[1];
+		try (ResourceCloser closer = new ResourceCloser(clientConnection::closeWait, serverConnection::closeWait)) {
+			testConnection(clientConnection);
+		}
+	}
+
+	private static void runServerTest(RMIOptions clientoptions, RMIOptions serveroptions) throws Exception {
+		try (RMIServer server = new RMIServerWithOptions(serveroptions)) {
+			server.start();
+			try (RMIConnection connection = clientoptions.connect(server.getLocalSocketAddress())) {
+				testConnection(connection);
+			}
+			server.closeWait();
+		}
+	}
+
+	private static void testConnection(RMIConnection connection) throws Exception {
+		try (RMIVariables vars = connection.newVariables()) {
+			for (int i = 0; i < 3; i++) {
+				Stub s = (Stub) vars.newRemoteInstance(Impl.class);
+				assertEquals(s.f("x"), "xx");
+				assertEquals(s.f(3), 6);
+				assertEquals(((OtherStub) s.self()).g("x"), "xg");
+				assertEquals(s.getType(s), Impl.class);
+				Stub constructed = (Stub) vars.newRemoteInstance(Impl.class.getConstructor(String.class), "x");
+				assertEquals(constructed.f("y"), "yy");
+			}
+		}
+	}
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import java.io.Serializable;
+
+import saker.rmi.annot.transfer.RMIWriter;
+import saker.rmi.connection.ClassTransferProperties;
+import saker.rmi.connection.RMIConnection;
+import saker.rmi.connection.RMIOptions;
+import saker.rmi.connection.RMITestUtil;
+import saker.rmi.connection.RMITransferProperties;
+import saker.rmi.io.writer.RMIObjectWriteHandler;
+import saker.rmi.io.writer.SerializeRMIObjectWriteHandler;
+import testing.saker.SakerTest;
+
+/**
+ * Tests that the write handlers of the classes are used consistently when the same types are written repeatedly, and
+ * the explicitly configured class properties take precedence over the annotations.
+ */
+@SakerTest
+public class ClassWritePlanRMITest extends BaseVariablesRMITestCase {
+
+	public interface Stub {
+		public default Object forward(Object o) {
+			return o;
+		}
+	}
+
+	public static class Impl implements Stub {
+	}
+
+	@RMIWriter(SerializeRMIObjectWriteHandler.class)
+	public static class AnnotatedSerialized implements Stub, Serializable {
+		private static final long serialVersionUID = 1L;
+	}
+
+	@RMIWriter(SerializeRMIObjectWriteHandler.class)
+	public static class OverriddenSerialized implements Stub, Serializable {
+		private static final long serialVersionUID = 1L;
+	}
+
+	public static class Plain implements Stub {
+	}
+
+	@Override
+	protected void runVariablesTestImpl() throws Exception {
+		Stub s = (Stub) clientVariables.newRemoteInstance(Impl.class);
+		for (int i = 0; i < 50; i++) {
+			AnnotatedSerialized annotated = new AnnotatedSerialized();
+			Object annotatedresult = s.forward(annotated);
+			assertNotIdentityEquals(annotatedresult, annotated);
+			assertTrue(annotatedresult instanceof AnnotatedSerialized, "" + annotatedresult);
+
+			//the connection properties specify remote transfer for the class
+			OverriddenSerialized overridden = new OverriddenSerialized();
+			assertIdentityEquals(s.forward(overridden), overridden);
+
+			Plain plain = new Plain();
+			assertIdentityEquals(s.forward(plain), plain);
+
+			assertEquals(s.forward("str" + i), "str" + i);
+		}
+	}
+
+	@Override
+	protected RMIConnection[] createConnections(RMIOptions baseoptions) throws Exception {
+		RMITransferProperties.Builder builder = RMITransferProperties.builder();
+		builder.add(new ClassTransferProperties<>(OverriddenSerialized.class, RMIObjectWriteHandler.remote()));
+		RMIOptions options = new RMIOptions(baseoptions).transferProperties(builder.build());
+		return RMITestUtil.createPipedConnection(options);
+	}
+}
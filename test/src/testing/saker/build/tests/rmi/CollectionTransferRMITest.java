@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import saker.rmi.annot.transfer.RMIWriter;
+import saker.rmi.connection.RMIConnection;
+import saker.rmi.connection.RMIOptions;
+import saker.rmi.connection.RMITestUtil;
+import saker.rmi.connection.RMIVariables;
+import saker.rmi.io.writer.CollectionRMIObjectWriteHandler;
+import saker.rmi.io.writer.MapRMIObjectWriteHandler;
+import saker.rmi.io.writer.RMIObjectWriteHandler;
+import saker.util.io.ResourceCloser;
+import testing.saker.SakerTest;
+import testing.saker.SakerTestCase;
+
+@SakerTest
+public class CollectionTransferRMITest extends SakerTestCase {
+	public enum MyEnum {
+		FIRST,
+		SECOND;
+	}
+
+	public static class ElementsWriter extends CollectionRMIObjectWriteHandler {
+		public ElementsWriter() {
+			super(RMIObjectWriteHandler.defaultWriter());
+		}
+	}
+
+	public static class EntriesWriter extends MapRMIObjectWriteHandler {
+		public EntriesWriter() {
+			super(RMIObjectWriteHandler.defaultWriter(), RMIObjectWriteHandler.defaultWriter());
+		}
+	}
+
+	private static class LengthComparator implements Comparator<Object> {
+		@Override
+		public int compare(Object o1, Object o2) {
+			return Integer.compare(o1.toString().length(), o2.toString().length());
+		}
+	}
+
+	public interface Stub {
+		@RMIWriter(ElementsWriter.class)
+		public Collection<Object> echo(@RMIWriter(ElementsWriter.class) Collection<Object> c);
+
+		@RMIWriter(EntriesWriter.class)
+		public Map<Object, Object> echo(@RMIWriter(EntriesWriter.class) Map<Object, Object> m);
+
+		public Class<?> getClassOf(@RMIWriter(ElementsWriter.class) Collection<Object> c);
+	}
+
+	public static class Impl implements Stub {
+		@Override
+		public Collection<Object> echo(Collection<Object> c) {
+			return c;
+		}
+
+		@Override
+		public Map<Object, Object> echo(Map<Object, Object> m) {
+			return m;
+		}
+
+		@Override
+		public Class<?> getClassOf(Collection<Object> c) {
+			return c.getClass();
+		}
+	}
+
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		runTestWithProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_2);
+		runTestWithProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_3);
+	}
+
+	@SuppressWarnings("try") // unused ResourceCloser
+	private void runTestWithProtocolVersion(short protocolversion) throws Exception {
+		RMIOptions baseoptions = new RMIOptions().maxStreamCount(1).classLoader(getClass().getClassLoader());
+		RMIConnection[] connections = RMITestUtil.createPipedConnection(baseoptions, baseoptions, protocolversion);
+		RMIConnection clientConnection = connections[0];
+		RMIConnection serverConnection = connections[1];
+		try (ResourceCloser closer = new ResourceCloser(clientConnection::closeWait, serverConnection::closeWait);
+				RMIVariables clientVariables = clientConnection.newVariables()) {
+			Stub s = (Stub) clientVariables.newRemoteInstance(Impl.class);
+
+			List<Object> strings = new ArrayList<>();
+			for (int i = 0; i < 100; i++) {
+				strings.add(i % 10 == 0 ? null : "str" + (i % 7));
+			}
+			List<Object> mixed = new ArrayList<>(Arrays.asList("a", 1, MyEnum.FIRST, null, 2L, new int[0].getClass()));
+
+			if (protocolversion < RMIConnection.PROTOCOL_VERSION_3) {
+				//transferred as remote objects
+				assertIdentityEquals(s.echo(strings), strings);
+				Map<Object, Object> map = new HashMap<>();
+				assertIdentityEquals(s.echo(map), map);
+				return;
+			}
+
+			assertEquals(s.getClassOf(strings), ArrayList.class);
+			assertEquals(s.getClassOf(new LinkedList<>(strings)), ArrayList.class);
+			assertEquals(s.getClassOf(new HashSet<>(strings)), HashSet.class);
+			assertEquals(s.getClassOf(new LinkedHashSet<>(strings)), LinkedHashSet.class);
+			assertEquals(s.getClassOf(ConcurrentHashMap.newKeySet()), LinkedHashSet.class);
+			assertEquals(s.getClassOf(new TreeSet<>()), TreeSet.class);
+
+			assertEquals(s.echo(strings), strings);
+			assertEquals(s.echo(mixed).getClass(), ArrayList.class);
+			assertEquals(((List<?>) s.echo(mixed)).get(2), MyEnum.FIRST);
+			assertEquals(s.echo(new ArrayList<>(Arrays.asList(MyEnum.SECOND, MyEnum.FIRST, MyEnum.SECOND))),
+					Arrays.asList(MyEnum.SECOND, MyEnum.FIRST, MyEnum.SECOND));
+			assertEquals(s.echo(new ArrayList<>()), Collections.emptyList());
+
+			assertEquals(s.echo(new HashSet<>(strings)), new HashSet<>(strings));
+			assertEquals(new ArrayList<>(s.echo(new LinkedHashSet<>(strings))),
+					new ArrayList<>(new LinkedHashSet<>(strings)));
+
+			TreeSet<Object> reversed = new TreeSet<>(Collections.reverseOrder());
+			reversed.addAll(Arrays.asList("a", "c", "b"));
+			TreeSet<?> reversedresult = (TreeSet<?>) s.echo(reversed);
+			assertEquals(new ArrayList<>(reversedresult), Arrays.asList("c", "b", "a"));
+			//the comparator is transferred by value, the reverse order comparator resolves to the same instance
+			assertIdentityEquals(reversedresult.comparator(), reversed.comparator());
+
+			//non-serializable comparators cause the collection to be transferred as a remote object
+			TreeSet<Object> customsorted = new TreeSet<>(new LengthComparator());
+			customsorted.addAll(Arrays.asList("aaa", "b", "cc"));
+			assertIdentityEquals(s.echo(customsorted), customsorted);
+			TreeMap<Object, Object> customsortedmap = new TreeMap<>(new LengthComparator());
+			customsortedmap.put("aaa", 1);
+			assertIdentityEquals(s.echo(customsortedmap), customsortedmap);
+
+			assertUnmodifiable(s.echo(Collections.unmodifiableList(strings)));
+			assertEquals(s.echo(Collections.unmodifiableList(strings)), strings);
+			assertUnmodifiable(s.echo(Collections.emptyList()));
+			assertUnmodifiable(s.echo(Collections.singleton("x")));
+			assertEquals(s.echo(Collections.singleton("x")), Collections.singleton("x"));
+
+			Map<Object, Object> hashmap = new HashMap<>();
+			for (int i = 0; i < 100; i++) {
+				hashmap.put("key" + i, i % 3 == 0 ? null : MyEnum.values()[i % 2]);
+			}
+			Map<Object, Object> hashmapresult = s.echo(hashmap);
+			assertEquals(hashmapresult.getClass(), HashMap.class);
+			assertEquals(hashmapresult, hashmap);
+
+			Map<Object, Object> linkedmap = new LinkedHashMap<>();
+			linkedmap.put("z", 1);
+			linkedmap.put("a", "b");
+			linkedmap.put(null, mixed);
+			Map<Object, Object> linkedmapresult = s.echo(linkedmap);
+			assertEquals(linkedmapresult.getClass(), LinkedHashMap.class);
+			assertEquals(new ArrayList<>(linkedmapresult.keySet()), new ArrayList<>(linkedmap.keySet()));
+
+			Comparator<Object> reverseorder = Collections.reverseOrder();
+			TreeMap<Object, Object> treemap = new TreeMap<>(reverseorder);
+			treemap.put("a", 1);
+			treemap.put("b", 2);
+			TreeMap<?, ?> treemapresult = (TreeMap<?, ?>) s.echo(treemap);
+			assertEquals(treemapresult, treemap);
+			assertEquals(treemapresult.firstKey(), "b");
+
+			Map<Object, Object> unmodifiablemap = s.echo(Collections.singletonMap("k", "v"));
+			assertEquals(unmodifiablemap, Collections.singletonMap("k", "v"));
+			try {
+				unmodifiablemap.put("x", "y");
+				fail();
+			} catch (UnsupportedOperationException e) {
+			}
+		}
+	}
+
+	private static void assertUnmodifiable(Collection<Object> c) {
+		try {
+			c.add("x");
+			fail();
+		} catch (UnsupportedOperationException e) {
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import testing.saker.SakerTest;
+
+/**
+ * Tests that the reflection elements are transferred correctly when more of them are indexed than the initial size of
+ * the index tables, and after the indices of the elements are known by the writer.
+ */
+@SakerTest
+public class CommCacheIndexRMITest extends BaseVariablesRMITestCase {
+
+	public interface Stub {
+		public Object[] echo(Object[] o);
+	}
+
+	public static class Impl implements Stub {
+		@Override
+		public Object[] echo(Object[] o) {
+			return o;
+		}
+	}
+
+	@Override
+	protected void runVariablesTestImpl() throws Exception {
+		Stub s = (Stub) clientVariables.newRemoteInstance(Impl.class);
+
+		List<Object> elements = new ArrayList<>();
+		Class<?> arrayclass = Object.class;
+		for (int i = 0; i < 100; i++) {
+			arrayclass = Array.newInstance(arrayclass, 0).getClass();
+			elements.add(arrayclass);
+		}
+		for (Method m : String.class.getMethods()) {
+			elements.add(m);
+		}
+		Object[] array = elements.toArray();
+		//the first call assigns the indices, the later ones use them
+		for (int i = 0; i < 5; i++) {
+			Object[] result = s.echo(array);
+			assertNotIdentityEquals(result, array);
+			assertEquals(result.length, array.length);
+			for (int j = 0; j < array.length; j++) {
+				assertIdentityEquals(result[j].getClass(), array[j].getClass());
+				assertEquals(result[j], array[j]);
+			}
+		}
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import java.util.Map;
+
+import saker.rmi.connection.RMIConnection;
+import saker.rmi.connection.RMIOptions;
+import saker.rmi.connection.RMITestUtil;
+import saker.rmi.connection.RMIVariables;
+import saker.util.io.ResourceCloser;
+import testing.saker.SakerTest;
+import testing.saker.SakerTestCase;
+
+@SakerTest
+public class CompactStringRMITest extends SakerTestCase {
+	private static final String[] STRINGS = { "", "a", "path/to/file.txt", "\u00e1rv\u00edzt\u0171r\u0151",
+			"\u65e5\u672c\u8a9e", "emoji \ud83d\ude00", "unpaired \ud800 surrogate", "\udc00", "end\ud800",
+			"\u0000", "mixed \u00ff\u0100" };
+
+	public interface Stub {
+		public String echo(String s);
+	}
+
+	public static class Impl implements Stub {
+		@Override
+		public String echo(String s) {
+			return s;
+		}
+	}
+
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		runTestWithProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_2);
+		runTestWithProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_3);
+	}
+
+	@SuppressWarnings("try") // unused ResourceCloser
+	private void runTestWithProtocolVersion(short protocolversion) throws Exception {
+		RMIOptions baseoptions = new RMIOptions().maxStreamCount(1).classLoader(getClass().getClassLoader());
+		RMIConnection[] connections = RMITestUtil.createPipedConnection(baseoptions, baseoptions, protocolversion);
+		RMIConnection clientConnection = connections[0];
+		RMIConnection serverConnection = connections[1];
+		try (ResourceCloser closer = new ResourceCloser(clientConnection::closeWait, serverConnection::closeWait);
+				RMIVariables clientVariables = clientConnection.newVariables()) {
+			Stub s = (Stub) clientVariables.newRemoteInstance(Impl.class);
+			for (String str : STRINGS) {
+				assertEquals(s.echo(str), str);
+			}
+		}
+	}
+
+}
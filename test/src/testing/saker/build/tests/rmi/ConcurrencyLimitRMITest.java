@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import saker.rmi.annot.invoke.RMIConcurrencyLimit;
+import saker.rmi.exception.RMICallRejectedException;
+import saker.util.thread.ThreadUtils;
+import testing.saker.SakerTest;
+
+@SakerTest
+public class ConcurrencyLimitRMITest extends BaseVariablesRMITestCase {
+	private static CountDownLatch rejectingEnteredLatch;
+	private static CountDownLatch rejectingReleaseLatch;
+
+	private static final AtomicInteger queuedRunningCount = new AtomicInteger();
+	private static final AtomicInteger queuedMaxRunningCount = new AtomicInteger();
+	private static final AtomicInteger queuedCallCount = new AtomicInteger();
+
+	public interface Stub {
+		@RMIConcurrencyLimit(value = 1, queueSize = 0)
+		public void rejecting() throws InterruptedException;
+
+		@RMIConcurrencyLimit(2)
+		public void queued() throws InterruptedException;
+	}
+
+	public static class Impl implements Stub {
+		@Override
+		public void rejecting() throws InterruptedException {
+			rejectingEnteredLatch.countDown();
+			rejectingReleaseLatch.await();
+		}
+
+		@Override
+		public void queued() throws InterruptedException {
+			int c = queuedRunningCount.incrementAndGet();
+			queuedMaxRunningCount.accumulateAndGet(c, Math::max);
+			Thread.sleep(50);
+			queuedRunningCount.decrementAndGet();
+			queuedCallCount.incrementAndGet();
+		}
+	}
+
+	@Override
+	protected void runVariablesTestImpl() throws Exception {
+		rejectingEnteredLatch = new CountDownLatch(1);
+		rejectingReleaseLatch = new CountDownLatch(1);
+		queuedRunningCount.set(0);
+		queuedMaxRunningCount.set(0);
+		queuedCallCount.set(0);
+
+		Stub s = (Stub) clientVariables.newRemoteInstance(Impl.class);
+
+		Thread rt = ThreadUtils.startDaemonThread(() -> {
+			try {
+				s.rejecting();
+			} catch (InterruptedException e) {
+				fail(e);
+			}
+		});
+		rejectingEnteredLatch.await();
+		assertException(RMICallRejectedException.class, s::rejecting);
+		rejectingReleaseLatch.countDown();
+		rt.join();
+		//the limit is released after the call finishes
+		s.rejecting();
+
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = ThreadUtils.startDaemonThread(() -> {
+				try {
+					s.queued();
+				} catch (InterruptedException e) {
+					fail(e);
+				}
+			});
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertEquals(queuedCallCount.get(), threads.length);
+		assertTrue(queuedMaxRunningCount.get() <= 2, "Max running: " + queuedMaxRunningCount.get());
+	}
+
+}
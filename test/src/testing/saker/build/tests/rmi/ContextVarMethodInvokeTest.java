@@ -80,6 +80,7 @@ public class ContextVarMethodInvokeTest extends SakerTestCase {
 	public void runTest(Map<String, String> parameters) throws Throwable {
 		testProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_1);
 		testProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_2);
+		testProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_3);
 	}
 
 	@SuppressWarnings("try") // unused ResourceCloser
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Arrays;
+import java.util.Map;
+
+import saker.rmi.connection.RMIConnection;
+import saker.rmi.connection.RMIOptions;
+import saker.rmi.connection.RMITestUtil;
+import saker.rmi.connection.RMIVariables;
+import saker.util.io.ResourceCloser;
+import testing.saker.SakerTest;
+import testing.saker.SakerTestCase;
+
+@SakerTest
+public class DeferredMethodResultRMITest extends SakerTestCase {
+	public static class Value implements Externalizable {
+		private static final long serialVersionUID = 1L;
+
+		private String value;
+
+		public Value() {
+		}
+
+		public Value(String value) {
+			this.value = value;
+		}
+
+		@Override
+		public void writeExternal(ObjectOutput out) throws IOException {
+			out.writeObject(value);
+		}
+
+		@Override
+		public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+			value = (String) in.readObject();
+		}
+	}
+
+	public interface Stub {
+		public String echo(String s);
+
+		public int[] range(int count);
+
+		public Stub child(String name);
+
+		public String getName();
+
+		public void fail(String message);
+
+		public Object[] repeated(String value);
+	}
+
+	public static class Impl implements Stub {
+		private final String name;
+
+		public Impl() {
+			this("root");
+		}
+
+		public Impl(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String echo(String s) {
+			return s;
+		}
+
+		@Override
+		public int[] range(int count) {
+			int[] result = new int[count];
+			for (int i = 0; i < count; i++) {
+				result[i] = i;
+			}
+			return result;
+		}
+
+		@Override
+		public Stub child(String name) {
+			return new Impl(name);
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public void fail(String message) {
+			throw new UnsupportedOperationException(message);
+		}
+
+		@Override
+		public Object[] repeated(String value) {
+			Value v = new Value(value);
+			return new Object[] { "prefix", v, v };
+		}
+	}
+
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		runTestWithProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_2);
+		runTestWithProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_3);
+	}
+
+	@SuppressWarnings("try") // unused ResourceCloser
+	private void runTestWithProtocolVersion(short protocolversion) throws Exception {
+		RMIOptions baseoptions = new RMIOptions().maxStreamCount(1).classLoader(getClass().getClassLoader())
+				.deferMethodResultDecoding(true);
+		RMIConnection[] connections = RMITestUtil.createPipedConnection(baseoptions, baseoptions, protocolversion);
+		RMIConnection clientConnection = connections[0];
+		RMIConnection serverConnection = connections[1];
+		try (ResourceCloser closer = new ResourceCloser(clientConnection::closeWait, serverConnection::closeWait);
+				RMIVariables clientVariables = clientConnection.newVariables()) {
+			Stub s = (Stub) clientVariables.newRemoteInstance(Impl.class);
+			assertEquals(s.echo("hello"), "hello");
+			assertEquals(s.echo(null), null);
+			assertEquals(s.getName(), "root");
+			for (int count : new int[] { 0, 1, 100, 10000 }) {
+				int[] range = s.range(count);
+				assertEquals(range.length, count);
+				assertTrue(Arrays.equals(range, new Impl().range(count)));
+			}
+
+			Stub child = s.child("child");
+			assertTrue(RMIConnection.isRemoteObject(child));
+			assertEquals(child.getName(), "child");
+			assertEquals(child.child("grandchild").getName(), "grandchild");
+
+			assertException(UnsupportedOperationException.class, () -> s.fail("message"));
+			assertEquals(s.echo("after failure"), "after failure");
+
+			Object[] repeated = s.repeated("val");
+			assertEquals(((Value) repeated[1]).value, "val");
+			if (protocolversion >= RMIConnection.PROTOCOL_VERSION_3) {
+				//the second occurrence is transferred as a back-reference
+				assertIdentityEquals(repeated[1], repeated[2]);
+			} else {
+				assertEquals(((Value) repeated[2]).value, "val");
+			}
+		}
+	}
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import java.util.Arrays;
+
+import saker.rmi.annot.transfer.RMIGeneratedCodec;
+import testing.saker.SakerTest;
+
+@SakerTest
+public class GeneratedCodecRMITest extends BaseVariablesRMITestCase {
+
+	public static class BaseData {
+		public int id;
+	}
+
+	@RMIGeneratedCodec
+	public static class Data extends BaseData {
+		public String name;
+		public long value;
+		public boolean flag;
+		public char ch;
+		public int[] numbers;
+		public Data next;
+		public transient String ignored;
+	}
+
+	public interface Stub {
+		public Data roundTrip(Data d);
+	}
+
+	public static class Impl implements Stub {
+		@Override
+		public Data roundTrip(Data d) {
+			if (d.ignored != null) {
+				throw new AssertionError("transient field was transferred: " + d.ignored);
+			}
+			Data result = new Data();
+			result.id = d.id + 1;
+			result.name = d.name + "!";
+			result.value = d.value * 2;
+			result.flag = !d.flag;
+			result.ch = Character.toUpperCase(d.ch);
+			result.numbers = d.numbers;
+			result.next = d;
+			return result;
+		}
+	}
+
+	@Override
+	protected void runVariablesTestImpl() throws Exception {
+		Stub s = (Stub) clientVariables.newRemoteInstance(Impl.class);
+
+		Data d = new Data();
+		d.id = 1;
+		d.name = "data";
+		d.value = 123456789012L;
+		d.flag = true;
+		d.ch = 'x';
+		d.numbers = new int[] { 1, 2, 3 };
+		d.ignored = "ignored";
+
+		Data result = s.roundTrip(d);
+		assertEquals(result.getClass(), Data.class);
+		assertEquals(result.id, 2);
+		assertEquals(result.name, "data!");
+		assertEquals(result.value, 246913578024L);
+		assertEquals(result.flag, false);
+		assertEquals(result.ch, 'X');
+		assertTrue(Arrays.equals(result.numbers, new int[] { 1, 2, 3 }));
+		assertEquals(result.next.getClass(), Data.class);
+		assertEquals(result.next.id, 1);
+		assertEquals(result.next.name, "data");
+		assertEquals(result.next.next, null);
+		assertEquals(result.next.ignored, null);
+	}
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import saker.rmi.connection.RMIConnection;
+import saker.rmi.connection.RMIOptions;
+import saker.rmi.connection.RMITestUtil;
+import saker.rmi.connection.RMIVariables;
+import saker.util.io.ResourceCloser;
+import testing.saker.SakerTest;
+import testing.saker.SakerTestCase;
+
+@SakerTest
+public class HomogeneousArrayRMITest extends SakerTestCase {
+	public enum MyEnum {
+		FIRST,
+		SECOND {
+			@Override
+			public String toString() {
+				return "second";
+			}
+		},
+		THIRD;
+	}
+
+	public interface Stub {
+		public Object[] echo(Object[] array);
+
+		public String[] echo(String[] array);
+
+		public MyEnum[] echo(MyEnum[] array);
+
+		public CharSequence[] echo(CharSequence[] array);
+	}
+
+	public static class Impl implements Stub {
+		@Override
+		public Object[] echo(Object[] array) {
+			return array;
+		}
+
+		@Override
+		public String[] echo(String[] array) {
+			return array;
+		}
+
+		@Override
+		public MyEnum[] echo(MyEnum[] array) {
+			return array;
+		}
+
+		@Override
+		public CharSequence[] echo(CharSequence[] array) {
+			return array;
+		}
+	}
+
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		runTestWithProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_2);
+		runTestWithProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_3);
+	}
+
+	@SuppressWarnings("try") // unused ResourceCloser
+	private void runTestWithProtocolVersion(short protocolversion) throws Exception {
+		RMIOptions baseoptions = new RMIOptions().maxStreamCount(1).classLoader(getClass().getClassLoader())
+				.stringDictionaryCapacity(16);
+		RMIConnection[] connections = RMITestUtil.createPipedConnection(baseoptions, baseoptions, protocolversion);
+		RMIConnection clientConnection = connections[0];
+		RMIConnection serverConnection = connections[1];
+		try (ResourceCloser closer = new ResourceCloser(clientConnection::closeWait, serverConnection::closeWait);
+				RMIVariables clientVariables = clientConnection.newVariables()) {
+			Stub s = (Stub) clientVariables.newRemoteInstance(Impl.class);
+
+			String[] strings = new String[1000];
+			for (int i = 0; i < strings.length; i++) {
+				strings[i] = i % 7 == 0 ? null : "str" + (i % 10);
+			}
+			//twice, so the string dictionary is used the second time
+			assertTrue(Arrays.equals(s.echo(strings), strings));
+			assertTrue(Arrays.equals(s.echo(strings), strings));
+			assertTrue(Arrays.equals(s.echo(new String[] { null, null }), new String[] { null, null }));
+			assertTrue(Arrays.equals(s.echo(new String[0]), new String[0]));
+
+			MyEnum[] enums = new MyEnum[1000];
+			for (int i = 0; i < enums.length; i++) {
+				enums[i] = i % 5 == 0 ? null : MyEnum.values()[i % 3];
+			}
+			assertTrue(Arrays.equals(s.echo(enums), enums));
+			MyEnum[] anonenums = { MyEnum.SECOND, MyEnum.SECOND, null };
+			assertTrue(Arrays.equals(s.echo(anonenums), anonenums));
+
+			Object[] objstrings = { "a", "b", "a", null };
+			Object[] objstringsresult = s.echo(objstrings);
+			assertEquals(objstringsresult.getClass(), Object[].class);
+			assertTrue(Arrays.equals(objstringsresult, objstrings));
+
+			CharSequence[] charseqs = { "x", "y", "x" };
+			CharSequence[] charseqsresult = s.echo(charseqs);
+			assertEquals(charseqsresult.getClass(), CharSequence[].class);
+			assertTrue(Arrays.equals(charseqsresult, charseqs));
+
+			//not homogeneous
+			Object[] mixed = { "a", MyEnum.FIRST, 1, null, MyEnum.SECOND };
+			assertTrue(Arrays.equals(s.echo(mixed), mixed));
+			Object[] mixedenums = { MyEnum.FIRST, MyEnum.SECOND };
+			assertTrue(Arrays.equals(s.echo(mixedenums), mixedenums));
+		}
+	}
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import java.io.IOException;
+
+import testing.saker.SakerTest;
+
+@SakerTest
+public class MethodHandleDispatchRMITest extends BaseVariablesRMITestCase {
+
+	public interface Stub {
+		public int add(int a, int b);
+
+		public long sum(long[] values);
+
+		public void set(String s);
+
+		public String get();
+
+		public String join(String... parts);
+
+		public Object identity(Object o);
+
+		public void fail(boolean checked) throws IOException;
+	}
+
+	public static class Impl implements Stub {
+		private String value;
+
+		@Override
+		public int add(int a, int b) {
+			return a + b;
+		}
+
+		@Override
+		public long sum(long[] values) {
+			long result = 0;
+			for (long v : values) {
+				result += v;
+			}
+			return result;
+		}
+
+		@Override
+		public void set(String s) {
+			this.value = s;
+		}
+
+		@Override
+		public String get() {
+			return value;
+		}
+
+		@Override
+		public String join(String... parts) {
+			return String.join(",", parts);
+		}
+
+		@Override
+		public Object identity(Object o) {
+			return o;
+		}
+
+		@Override
+		public void fail(boolean checked) throws IOException {
+			if (checked) {
+				throw new IOException("checked");
+			}
+			throw new ClassCastException("unchecked");
+		}
+	}
+
+	public static char staticChar(char c) {
+		return Character.toUpperCase(c);
+	}
+
+	@Override
+	protected void runVariablesTestImpl() throws Exception {
+		Stub s = (Stub) clientVariables.newRemoteInstance(Impl.class);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(s.add(i, 2), i + 2);
+			assertEquals(s.sum(new long[] { 1, 2, i }), 3L + i);
+			s.set("v" + i);
+			assertEquals(s.get(), "v" + i);
+			s.set(null);
+			assertEquals(s.get(), null);
+			assertEquals(s.join("a", "b"), "a,b");
+			assertEquals(s.join(), "");
+			assertEquals(s.identity(null), null);
+			assertEquals(s.identity(i), i);
+
+			assertException(IOException.class, () -> s.fail(true));
+			//exceptions thrown by the method are not treated as argument conversion failures
+			assertException(ClassCastException.class, () -> s.fail(false));
+		}
+		assertEquals(clientVariables.invokeRemoteStaticMethod(
+				MethodHandleDispatchRMITest.class.getMethod("staticChar", char.class), 'x'), 'X');
+	}
+
+}
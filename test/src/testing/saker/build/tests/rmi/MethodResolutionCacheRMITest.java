@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import java.util.Map;
+
+import saker.rmi.connection.RMIConnection;
+import saker.rmi.connection.RMIOptions;
+import saker.rmi.connection.RMITestUtil;
+import saker.rmi.connection.RMIVariables;
+import saker.util.io.ResourceCloser;
+import testing.saker.SakerTest;
+import testing.saker.SakerTestCase;
+
+/**
+ * Tests that the same method is called correctly on receivers of different classes when the resolved methods are
+ * cached.
+ */
+@SakerTest
+public class MethodResolutionCacheRMITest extends SakerTestCase {
+
+	public interface Value {
+		public String get();
+	}
+
+	public interface Factory {
+		public Value create(int i);
+	}
+
+	public static class FactoryImpl implements Factory {
+		@Override
+		public Value create(int i) {
+			//every lambda has a different class
+			switch (i % 12) {
+				case 0:
+					return () -> "v0";
+				case 1:
+					return () -> "v1";
+				case 2:
+					return () -> "v2";
+				case 3:
+					return () -> "v3";
+				case 4:
+					return () -> "v4";
+				case 5:
+					return () -> "v5";
+				case 6:
+					return () -> "v6";
+				case 7:
+					return () -> "v7";
+				case 8:
+					return () -> "v8";
+				case 9:
+					return () -> "v9";
+				case 10:
+					return () -> "v10";
+				default:
+					return () -> "v11";
+			}
+		}
+	}
+
+	@SuppressWarnings("try") // unused ResourceCloser
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		RMIOptions options = new RMIOptions().maxStreamCount(1).classLoader(getClass().getClassLoader());
+		RMIConnection[] connections = RMITestUtil.createPipedConnection(options);
+		RMIConnection clientConnection = connections[0];
+		RMIConnection serverConnection = connections[1];
+		try (ResourceCloser closer = new ResourceCloser(clientConnection::closeWait, serverConnection::closeWait);
+				RMIVariables clientVariables = clientConnection.newVariables()) {
+			Factory f = (Factory) clientVariables.newRemoteInstance(FactoryImpl.class);
+			Value[] values = new Value[12];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = f.create(i);
+			}
+			for (int round = 0; round < 3; round++) {
+				for (int i = 0; i < values.length; i++) {
+					assertEquals(values[i].get(), "v" + i);
+				}
+			}
+		}
+	}
+
+}
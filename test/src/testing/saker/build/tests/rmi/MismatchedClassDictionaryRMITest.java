@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import saker.rmi.connection.RMIConnection;
+import saker.rmi.connection.RMIOptions;
+import saker.rmi.connection.RMITestUtil;
+import saker.rmi.connection.RMIVariables;
+import saker.util.io.ResourceCloser;
+import saker.util.io.function.IOFunction;
+import testing.saker.SakerTest;
+import testing.saker.SakerTestCase;
+
+/**
+ * Tests that the classes in the class dictionary are indexed after their first use if the endpoints use different
+ * dictionaries.
+ */
+@SakerTest
+public class MismatchedClassDictionaryRMITest extends SakerTestCase {
+	private static final short COMMAND_CACHED_CLASS = 21;
+
+	public interface Stub {
+		public Class<?> getType(Object o);
+	}
+
+	public static class Impl implements Stub {
+		@Override
+		public Class<?> getType(Object o) {
+			return o.getClass();
+		}
+	}
+
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		List<Class<?>> dictionary = Arrays.asList(Stub.class, Impl.class);
+		RMIOptions baseoptions = new RMIOptions().maxStreamCount(1).classLoader(getClass().getClassLoader());
+		RMIOptions dictoptions = new RMIOptions(baseoptions).classDictionary(dictionary);
+		try {
+			//in case some other faulty test left it in an invalid state
+			RMITestUtil.restoreInternalHandlers();
+
+			AtomicInteger cachedclasscount = new AtomicInteger();
+			RMITestUtil.replaceCommandHandler(COMMAND_CACHED_CLASS, new IOFunction<Object[], Object>() {
+				@Override
+				public Object apply(Object[] args) throws IOException {
+					cachedclasscount.incrementAndGet();
+					return RMITestUtil.callOriginalCommandHandler(COMMAND_CACHED_CLASS, args);
+				}
+			});
+
+			runWithOptions(baseoptions, baseoptions);
+			int nodictionarycount = cachedclasscount.getAndSet(0);
+			assertTrue(nodictionarycount > 0, "count: " + nodictionarycount);
+
+			//the classes are indexed the same way as if there was no dictionary
+			runWithOptions(dictoptions, baseoptions);
+			assertEquals(cachedclasscount.getAndSet(0), nodictionarycount);
+			runWithOptions(baseoptions, dictoptions);
+			assertEquals(cachedclasscount.getAndSet(0), nodictionarycount);
+
+			//the shared dictionary classes don't need to be indexed
+			runWithOptions(dictoptions, dictoptions);
+			int shareddictionarycount = cachedclasscount.getAndSet(0);
+			assertTrue(shareddictionarycount < nodictionarycount,
+					"count: " + shareddictionarycount + " - " + nodictionarycount);
+		} finally {
+			RMITestUtil.restoreInternalHandlers();
+		}
+	}
+
+	@SuppressWarnings("try") // unused ResourceCloser
+	private static void runWithOptions(RMIOptions clientoptions, RMIOptions serveroptions) throws Exception {
+		RMIConnection[] connections = RMITestUtil.createPipedConnection(clientoptions, serveroptions,
+				(short) RMIConnection.PROTOCOL_VERSION_3);
+		RMIConnection clientConnection = connections[0];
+		RMIConnection serverConnection = connections[1];
+		try (ResourceCloser closer = new ResourceCloser(clientConnection::closeWait, serverConnection::closeWait);
+				RMIVariables vars = clientConnection.newVariables()) {
+			for (int i = 0; i < 3; i++) {
+				Stub s = (Stub) vars.newRemoteInstance(Impl.class);
+				assertEquals(s.getType(s), Impl.class);
+				assertEquals(s.getType(new Impl()), Impl.class);
+			}
+		}
+	}
+}
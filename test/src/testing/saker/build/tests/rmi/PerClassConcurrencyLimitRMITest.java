@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import java.util.concurrent.CountDownLatch;
+
+import saker.rmi.connection.MethodTransferProperties;
+import saker.rmi.connection.RMIConnection;
+import saker.rmi.connection.RMIOptions;
+import saker.rmi.connection.RMITestUtil;
+import saker.rmi.connection.RMITransferProperties;
+import saker.rmi.exception.RMICallFailedException;
+import saker.rmi.exception.RMICallRejectedException;
+import saker.util.thread.ThreadUtils;
+import testing.saker.SakerTest;
+
+/**
+ * Tests that the methods of the same class which are limited per class share a single limiter, and the calls to the
+ * methods that are configured differently fail instead of splitting it.
+ */
+@SakerTest
+public class PerClassConcurrencyLimitRMITest extends BaseVariablesRMITestCase {
+	private static CountDownLatch enteredLatch;
+	private static CountDownLatch releaseLatch;
+
+	public interface Stub {
+		public void single() throws InterruptedException;
+
+		public void shared() throws InterruptedException;
+
+		public void dual() throws InterruptedException;
+	}
+
+	public static class Impl implements Stub {
+		@Override
+		public void single() throws InterruptedException {
+			enteredLatch.countDown();
+			releaseLatch.await();
+		}
+
+		@Override
+		public void shared() throws InterruptedException {
+			enteredLatch.countDown();
+			releaseLatch.await();
+		}
+
+		@Override
+		public void dual() throws InterruptedException {
+			enteredLatch.countDown();
+			releaseLatch.await();
+		}
+	}
+
+	@Override
+	protected void runVariablesTestImpl() throws Exception {
+		Stub s = (Stub) clientVariables.newRemoteInstance(Impl.class);
+
+		//create the limiter for the class with the configuration of single()
+		enteredLatch = new CountDownLatch(1);
+		releaseLatch = new CountDownLatch(0);
+		s.single();
+
+		//dual() is configured differently, it doesn't get a separate limiter
+		assertException(RMICallFailedException.class, s::dual);
+
+		//shared() is configured the same way, so it shares the limit with single()
+		enteredLatch = new CountDownLatch(1);
+		releaseLatch = new CountDownLatch(1);
+		Thread rt = ThreadUtils.startDaemonThread(() -> {
+			try {
+				s.single();
+			} catch (InterruptedException e) {
+				fail(e);
+			}
+		});
+		enteredLatch.await();
+		assertException(RMICallRejectedException.class, s::shared);
+		releaseLatch.countDown();
+		rt.join();
+
+		enteredLatch = new CountDownLatch(1);
+		releaseLatch = new CountDownLatch(0);
+		s.shared();
+	}
+
+	@Override
+	protected RMIConnection[] createConnections(RMIOptions baseoptions) throws Exception {
+		RMITransferProperties.Builder builder = RMITransferProperties.builder();
+		builder.add(MethodTransferProperties.builder(Stub.class.getMethod("single")).concurrencyLimit(1, 0, true)
+				.build());
+		builder.add(MethodTransferProperties.builder(Stub.class.getMethod("shared")).concurrencyLimit(1, 0, true)
+				.build());
+		builder.add(
+				MethodTransferProperties.builder(Stub.class.getMethod("dual")).concurrencyLimit(2, 0, true).build());
+		RMIOptions options = new RMIOptions(baseoptions).transferProperties(builder.build());
+		return RMITestUtil.createPipedConnection(options);
+	}
+}
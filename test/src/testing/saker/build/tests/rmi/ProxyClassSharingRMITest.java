@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import saker.rmi.connection.RMIVariables;
+import testing.saker.SakerTest;
+
+@SakerTest
+public class ProxyClassSharingRMITest extends BaseRMITestCase {
+	private Class<?> previousConnectionProxyClass;
+
+	public interface Stub {
+		public String get();
+
+		public Object identity(Object o);
+
+		public String call(Stub s);
+	}
+
+	public static class Impl implements Stub {
+		private final String value;
+
+		public Impl() {
+			this("impl");
+		}
+
+		public Impl(String value) {
+			this.value = value;
+		}
+
+		@Override
+		public String get() {
+			return value;
+		}
+
+		@Override
+		public Object identity(Object o) {
+			return o;
+		}
+
+		@Override
+		public String call(Stub s) {
+			return s.get();
+		}
+	}
+
+	@Override
+	protected void runTestImpl() throws Exception {
+		try (RMIVariables first = clientConnection.newVariables();
+				RMIVariables second = clientConnection.newVariables()) {
+			Stub s1 = (Stub) first.newRemoteInstance(Impl.class);
+			Stub s2 = (Stub) second.newRemoteInstance(Impl.class);
+			assertIdentityEquals(s1.getClass(), s2.getClass());
+			if (previousConnectionProxyClass != null) {
+				//connections with the same transfer properties share the proxy classes as well
+				assertIdentityEquals(s1.getClass(), previousConnectionProxyClass);
+			}
+			previousConnectionProxyClass = s1.getClass();
+
+			//a proxy from an other variables context is transferred as a local object
+			assertIdentityEquals(s2.identity(s1), s1);
+			assertIdentityEquals(s1.identity(s1), s1);
+			assertEquals(s2.call(s1), "impl");
+			assertEquals(s2.call(new Impl("local")), "local");
+		}
+	}
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import saker.rmi.connection.RMIProxyPregenerator;
+import saker.rmi.connection.RMITestUtil;
+import testing.saker.SakerTest;
+import testing.saker.SakerTestCase;
+
+@SakerTest
+public class ProxyPregenerationRMITest extends SakerTestCase {
+
+	public interface Stub {
+		public String f(String s);
+	}
+
+	public interface SubStub extends Stub {
+		public int g();
+	}
+
+	public interface ChangedStub {
+		public Object f(String s);
+	}
+
+	public static class Impl implements SubStub, Runnable {
+		@Override
+		public String f(String s) {
+			return s;
+		}
+
+		@Override
+		public int g() {
+			return 1;
+		}
+
+		@Override
+		public void run() {
+		}
+	}
+
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		Path dir = Files.createTempDirectory(getClass().getSimpleName());
+		try {
+			Path proxydir = dir.resolve("saker/rmi/proxy");
+
+			RMIProxyPregenerator.generate(Stub.class, dir);
+			List<Path> stubfiles = listProxyFiles(proxydir);
+			//with and without statistics
+			assertEquals(stubfiles.size(), 2);
+			for (Path p : stubfiles) {
+				assertTrue(p.getFileName().toString().endsWith(".rmiproxy"), p.toString());
+				assertTrue(Files.size(p) > 0, p.toString());
+			}
+
+			//generating again results in the same files
+			RMIProxyPregenerator.generate(Stub.class, dir);
+			assertEquals(listProxyFiles(proxydir), stubfiles);
+
+			RMIProxyPregenerator.main(new String[] { dir.toString(), Impl.class.getName() });
+			List<Path> allfiles = listProxyFiles(proxydir);
+			assertEquals(allfiles.size(), 4);
+			assertTrue(allfiles.containsAll(stubfiles));
+
+			//the methods of the proxy are validated against the interfaces
+			Set<Class<?>> stubitfs = Collections.singleton(Stub.class);
+			byte[] stubproxy = RMITestUtil.testProxyCreation(stubitfs);
+			assertTrue(RMITestUtil.isPregeneratedProxyValid(stubproxy, stubitfs));
+			assertTrue(RMITestUtil.isPregeneratedProxyValid(Files.readAllBytes(stubfiles.get(0)), stubitfs));
+			assertFalse(RMITestUtil.isPregeneratedProxyValid(stubproxy, Collections.singleton(SubStub.class)));
+			assertFalse(RMITestUtil.isPregeneratedProxyValid(stubproxy, Collections.singleton(ChangedStub.class)));
+		} finally {
+			try (Stream<Path> stream = Files.walk(dir)) {
+				List<Path> paths = stream.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+				for (Path p : paths) {
+					Files.deleteIfExists(p);
+				}
+			}
+		}
+	}
+
+	private static List<Path> listProxyFiles(Path dir) throws Exception {
+		try (Stream<Path> stream = Files.list(dir)) {
+			List<Path> result = new ArrayList<>(stream.collect(Collectors.toList()));
+			result.sort(null);
+			return result;
+		}
+	}
+
+}
@@ -50,6 +50,7 @@ public class RMIAsyncMethodInvokeTest extends SakerTestCase {
 	public void runTest(Map<String, String> parameters) throws Throwable {
 		runTestWithProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_1);
 		runTestWithProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_2);
+		runTestWithProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_3);
 	}
 
 	@SuppressWarnings("try") // unused ResourceCloser
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import java.lang.reflect.Constructor;
+import java.util.Base64;
+import java.util.Map;
+
+import saker.rmi.connection.RMIConnection;
+import saker.rmi.connection.RMIOptions;
+import saker.rmi.connection.RMITestUtil;
+import saker.rmi.connection.RMIVariables;
+import saker.util.io.ResourceCloser;
+import testing.saker.SakerTest;
+import testing.saker.SakerTestCase;
+
+/**
+ * Tests the transfer of record instances by their components.
+ * <p>
+ * The test sources target Java 8, so the record class is defined from its class file bytes. The test is skipped if
+ * the JVM doesn't support records.
+ */
+@SakerTest
+public class RecordTransferRMITest extends SakerTestCase {
+	private static final String RECORD_CLASS_NAME = "testing.saker.build.tests.rmi.RecordTransferRMITestPoint";
+	/**
+	 * The class file of:
+	 * 
+	 * <pre>
+	 * public record RecordTransferRMITestPoint(int x, String name, Object value) {
+	 * }
+	 * </pre>
+	 */
+	private static final String RECORD_CLASS_BYTES_BASE64 = ""
+			+ "yv66vgAAADwAPAoAAgADBwAEDAAFAAYBABBqYXZhL2xhbmcvUmVjb3JkAQAGPGluaXQ+AQADKClWCQAIAAkHAAoMAAsADAEAOHRl"
+			+ "c3Rpbmcvc2FrZXIvYnVpbGQvdGVzdHMvcm1pL1JlY29yZFRyYW5zZmVyUk1JVGVzdFBvaW50AQABeAEAAUkJAAgADgwADwAQAQAE"
+			+ "bmFtZQEAEkxqYXZhL2xhbmcvU3RyaW5nOwkACAASDAATABQBAAV2YWx1ZQEAEkxqYXZhL2xhbmcvT2JqZWN0OxIAAAAWDAAXABgB"
+			+ "AAh0b1N0cmluZwEATihMdGVzdGluZy9zYWtlci9idWlsZC90ZXN0cy9ybWkvUmVjb3JkVHJhbnNmZXJSTUlUZXN0UG9pbnQ7KUxq"
+			+ "YXZhL2xhbmcvU3RyaW5nOxIAAAAaDAAbABwBAAhoYXNoQ29kZQEAPShMdGVzdGluZy9zYWtlci9idWlsZC90ZXN0cy9ybWkvUmVj"
+			+ "b3JkVHJhbnNmZXJSTUlUZXN0UG9pbnQ7KUkSAAAAHgwAHwAgAQAGZXF1YWxzAQBPKEx0ZXN0aW5nL3Nha2VyL2J1aWxkL3Rlc3Rz"
+			+ "L3JtaS9SZWNvcmRUcmFuc2ZlclJNSVRlc3RQb2ludDtMamF2YS9sYW5nL09iamVjdDspWgEAKChJTGphdmEvbGFuZy9TdHJpbmc7"
+			+ "TGphdmEvbGFuZy9PYmplY3Q7KVYBAARDb2RlAQAQTWV0aG9kUGFyYW1ldGVycwEAFCgpTGphdmEvbGFuZy9TdHJpbmc7AQADKClJ"
+			+ "AQAVKExqYXZhL2xhbmcvT2JqZWN0OylaAQAUKClMamF2YS9sYW5nL09iamVjdDsBAAZSZWNvcmQBABBCb290c3RyYXBNZXRob2Rz"
+			+ "DwYAKwoALAAtBwAuDAAvADABAB9qYXZhL2xhbmcvcnVudGltZS9PYmplY3RNZXRob2RzAQAJYm9vdHN0cmFwAQCxKExqYXZhL2xh"
+			+ "bmcvaW52b2tlL01ldGhvZEhhbmRsZXMkTG9va3VwO0xqYXZhL2xhbmcvU3RyaW5nO0xqYXZhL2xhbmcvaW52b2tlL1R5cGVEZXNj"
+			+ "cmlwdG9yO0xqYXZhL2xhbmcvQ2xhc3M7TGphdmEvbGFuZy9TdHJpbmc7W0xqYXZhL2xhbmcvaW52b2tlL01ldGhvZEhhbmRsZTsp"
+			+ "TGphdmEvbGFuZy9PYmplY3Q7CAAyAQAMeDtuYW1lO3ZhbHVlDwEABw8BAA0PAQARAQAMSW5uZXJDbGFzc2VzBwA4AQAlamF2YS9s"
+			+ "YW5nL2ludm9rZS9NZXRob2RIYW5kbGVzJExvb2t1cAcAOgEAHmphdmEvbGFuZy9pbnZva2UvTWV0aG9kSGFuZGxlcwEABkxvb2t1"
+			+ "cAAxAAgAAgAAAAMAEgALAAwAAAASAA8AEAAAABIAEwAUAAAABwABAAUAIQACACIAAAAgAAIABAAAABQqtwABKhu1AAcqLLUADSot"
+			+ "tQARsQAAAAAAIwAAAA0DAAsAAAAPAAAAEwAAABEAFwAkAAEAIgAAABMAAQABAAAAByq6ABUAALAAAAAAABEAGwAlAAEAIgAAABMA"
+			+ "AQABAAAAByq6ABkAAKwAAAAAABEAHwAmAAEAIgAAABQAAgACAAAACCorugAdAACsAAAAAAABAAsAJQABACIAAAARAAEAAQAAAAUq"
+			+ "tAAHrAAAAAAAAQAPACQAAQAiAAAAEQABAAEAAAAFKrQADbAAAAAAAAEAEwAnAAEAIgAAABEAAQABAAAABSq0ABGwAAAAAAADACgA"
+			+ "AAAUAAMACwAMAAAADwAQAAAAEwAUAAAAKQAAABAAAQAqAAUACAAxADMANAA1ADYAAAAKAAEANwA5ADsAGQ==";
+
+	public interface Stub {
+		public Object echo(Object o);
+
+		public Class<?> getClassOf(Object o);
+	}
+
+	public static class Impl implements Stub {
+		@Override
+		public Object echo(Object o) {
+			return o;
+		}
+
+		@Override
+		public Class<?> getClassOf(Object o) {
+			return o.getClass();
+		}
+	}
+
+	private static class DefinerClassLoader extends ClassLoader {
+		public DefinerClassLoader() {
+			super(DefinerClassLoader.class.getClassLoader());
+		}
+
+		public Class<?> defineClass(String name, byte[] data) {
+			return defineClass(name, data, 0, data.length);
+		}
+	}
+
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		try {
+			Class.class.getMethod("isRecord");
+		} catch (NoSuchMethodException e) {
+			//records are not supported by the JVM
+			return;
+		}
+		DefinerClassLoader cl = new DefinerClassLoader();
+		Class<?> recordclass = cl.defineClass(RECORD_CLASS_NAME, Base64.getDecoder().decode(RECORD_CLASS_BYTES_BASE64));
+		Constructor<?> constructor = recordclass.getConstructor(int.class, String.class, Object.class);
+
+		runTestWithProtocolVersion(cl, constructor, (short) RMIConnection.PROTOCOL_VERSION_2);
+		runTestWithProtocolVersion(cl, constructor, (short) RMIConnection.PROTOCOL_VERSION_3);
+	}
+
+	@SuppressWarnings("try") // unused ResourceCloser
+	private void runTestWithProtocolVersion(ClassLoader cl, Constructor<?> constructor, short protocolversion)
+			throws Exception {
+		RMIOptions baseoptions = new RMIOptions().maxStreamCount(1).classLoader(cl);
+		RMIConnection[] connections = RMITestUtil.createPipedConnection(baseoptions, baseoptions, protocolversion);
+		RMIConnection clientConnection = connections[0];
+		RMIConnection serverConnection = connections[1];
+		try (ResourceCloser closer = new ResourceCloser(clientConnection::closeWait, serverConnection::closeWait);
+				RMIVariables clientVariables = clientConnection.newVariables()) {
+			Stub s = (Stub) clientVariables.newRemoteInstance(Impl.class);
+
+			Object nested = constructor.newInstance(1, "nested", null);
+			Object record = constructor.newInstance(2, "outer", nested);
+
+			if (protocolversion < RMIConnection.PROTOCOL_VERSION_3) {
+				//transferred as a remote object
+				assertIdentityEquals(s.echo(record), record);
+				return;
+			}
+			assertEquals(s.getClassOf(record), constructor.getDeclaringClass());
+
+			Object result = s.echo(record);
+			assertNotIdentityEquals(result, record);
+			assertEquals(result, record);
+			assertEquals(result.getClass(), constructor.getDeclaringClass());
+
+			Object nullcomponents = constructor.newInstance(0, null, null);
+			assertEquals(s.echo(nullcomponents), nullcomponents);
+
+			//the components use the same writing mechanism as other objects
+			Object arraycomponent = constructor.newInstance(3, "array", new String[] { "a", "b" });
+			Object arrayresult = s.echo(arraycomponent);
+			Object arrayvalue = constructor.getDeclaringClass().getMethod("value").invoke(arrayresult);
+			assertEquals(((String[]) arrayvalue).length, 2);
+		}
+	}
+}
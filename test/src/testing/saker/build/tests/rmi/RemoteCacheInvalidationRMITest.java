@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import saker.rmi.annot.invoke.RMICacheResult;
+import saker.rmi.connection.RMIConnection;
+import saker.rmi.connection.RMIOptions;
+import saker.rmi.connection.RMITestUtil;
+import saker.rmi.connection.RMIVariables;
+import saker.util.io.ResourceCloser;
+import testing.saker.SakerTest;
+import testing.saker.SakerTestCase;
+
+@SakerTest
+public class RemoteCacheInvalidationRMITest extends SakerTestCase {
+	private static final long WAIT_TIMEOUT_MILLIS = 10000;
+
+	private static Impl instance;
+
+	public interface Stub {
+		@RMICacheResult
+		public int value();
+
+		@RMICacheResult(maxEntries = 8)
+		public int offset(int add);
+
+		public void set(int value);
+	}
+
+	public static class Impl implements Stub {
+		private volatile int value;
+
+		public Impl() {
+			instance = this;
+		}
+
+		@Override
+		public int value() {
+			return value;
+		}
+
+		@Override
+		public int offset(int add) {
+			return value + add;
+		}
+
+		@Override
+		public void set(int value) {
+			this.value = value;
+		}
+	}
+
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		runTestWithProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_2);
+		runTestWithProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_3);
+	}
+
+	@SuppressWarnings("try") // unused ResourceCloser
+	private void runTestWithProtocolVersion(short protocolversion) throws Exception {
+		RMIOptions baseoptions = new RMIOptions().classLoader(getClass().getClassLoader());
+		RMIConnection[] connections = RMITestUtil.createPipedConnection(baseoptions, baseoptions, protocolversion);
+		RMIConnection clientConnection = connections[0];
+		RMIConnection serverConnection = connections[1];
+		try (ResourceCloser closer = new ResourceCloser(clientConnection::closeWait, serverConnection::closeWait);
+				RMIVariables clientVariables = clientConnection.newVariables()) {
+			RMIVariables serverVariables = RMITestUtil.getCorrespondingConnectionVariables(serverConnection,
+					clientVariables);
+			Method valuemethod = Stub.class.getMethod("value");
+
+			//not referenced by the other endpoint
+			assertFalse(serverVariables.invalidateRemoteCachedResults(new Impl()));
+
+			Stub s = (Stub) clientVariables.newRemoteInstance(Impl.class);
+			Impl impl = instance;
+			assertEquals(s.value(), 0);
+			assertEquals(s.offset(1), 1);
+
+			impl.set(1);
+			//the stale results are cached
+			assertEquals(s.value(), 0);
+			assertEquals(s.offset(1), 1);
+
+			if (protocolversion < RMIConnection.PROTOCOL_VERSION_3) {
+				assertFalse(serverVariables.invalidateRemoteCachedResults(impl, valuemethod));
+				assertFalse(serverVariables.invalidateRemoteCachedResults(impl));
+				return;
+			}
+
+			assertTrue(serverVariables.invalidateRemoteCachedResults(impl, valuemethod));
+			//the request is asynchronous, wait for it to be processed
+			waitUntilValue(() -> s.value(), 1);
+			//other methods are not invalidated
+			assertEquals(s.offset(1), 1);
+
+			impl.set(2);
+			assertTrue(serverVariables.invalidateRemoteCachedResults(impl));
+			waitUntilValue(() -> s.offset(1), 3);
+			waitUntilValue(() -> s.value(), 2);
+		}
+	}
+
+	private interface IntSupplier {
+		public int get() throws Exception;
+	}
+
+	private static void waitUntilValue(IntSupplier supplier, int expected) throws Exception {
+		long start = System.currentTimeMillis();
+		while (supplier.get() != expected) {
+			if (System.currentTimeMillis() - start > WAIT_TIMEOUT_MILLIS) {
+				fail("Cached result was not invalidated.");
+			}
+			Thread.sleep(10);
+		}
+	}
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import saker.rmi.connection.RMIConnection;
+import saker.rmi.connection.RMIOptions;
+import saker.rmi.connection.RMITestUtil;
+import saker.rmi.connection.RMIVariables;
+import saker.util.io.ResourceCloser;
+import testing.saker.SakerTest;
+import testing.saker.SakerTestCase;
+
+@SakerTest
+public class RemoteIteratorPrefetchRMITest extends SakerTestCase {
+	private static final int BATCH_SIZE = 16;
+
+	public interface Stub extends Iterable<Object> {
+		public void setElements(List<Object> elements);
+
+		public int getNextCallCount();
+
+		public Iterator<Object> failingIterator(int failindex);
+	}
+
+	public static class Impl implements Stub {
+		private List<Object> elements = new ArrayList<>();
+		private int nextCallCount;
+
+		@Override
+		public void setElements(List<Object> elements) {
+			this.elements = new ArrayList<>(elements);
+		}
+
+		@Override
+		public int getNextCallCount() {
+			return nextCallCount;
+		}
+
+		@Override
+		public Iterator<Object> iterator() {
+			Iterator<Object> it = elements.iterator();
+			return new Iterator<Object>() {
+				@Override
+				public boolean hasNext() {
+					return it.hasNext();
+				}
+
+				@Override
+				public Object next() {
+					++nextCallCount;
+					return it.next();
+				}
+			};
+		}
+
+		@Override
+		public Iterator<Object> failingIterator(int failindex) {
+			return new Iterator<Object>() {
+				private int idx;
+
+				@Override
+				public boolean hasNext() {
+					return true;
+				}
+
+				@Override
+				public Object next() {
+					if (idx == failindex) {
+						throw new UnsupportedOperationException("fail at " + idx);
+					}
+					return idx++;
+				}
+			};
+		}
+	}
+
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		RMIOptions baseoptions = new RMIOptions().maxStreamCount(1).classLoader(getClass().getClassLoader());
+		runTestWithOptions(new RMIOptions(baseoptions).remoteIteratorBatchSize(BATCH_SIZE), baseoptions, true);
+		//the batches are decoded by the iterating thread
+		runTestWithOptions(
+				new RMIOptions(baseoptions).remoteIteratorBatchSize(BATCH_SIZE).deferMethodResultDecoding(true),
+				baseoptions, true);
+		runTestWithOptions(baseoptions, baseoptions, false);
+	}
+
+	@SuppressWarnings("try") // unused ResourceCloser
+	private void runTestWithOptions(RMIOptions clientoptions, RMIOptions serveroptions, boolean prefetching)
+			throws Exception {
+		RMIConnection[] connections = RMITestUtil.createPipedConnection(clientoptions, serveroptions,
+				(short) RMIConnection.PROTOCOL_VERSION_3);
+		RMIConnection clientConnection = connections[0];
+		RMIConnection serverConnection = connections[1];
+		try (ResourceCloser closer = new ResourceCloser(clientConnection::closeWait, serverConnection::closeWait);
+				RMIVariables clientVariables = clientConnection.newVariables()) {
+			Stub s = (Stub) clientVariables.newRemoteInstance(Impl.class);
+
+			for (int size : new int[] { 0, 1, BATCH_SIZE - 1, BATCH_SIZE, BATCH_SIZE + 1, 100 }) {
+				List<Object> elements = new ArrayList<>();
+				for (int i = 0; i < size; i++) {
+					//booleans are included to check that they aren't mixed up with the end of batch marker
+					switch (i % 4) {
+						case 0: {
+							elements.add(null);
+							break;
+						}
+						case 1: {
+							elements.add("str" + i);
+							break;
+						}
+						case 2: {
+							elements.add(i);
+							break;
+						}
+						default: {
+							elements.add(i % 8 == 3);
+							break;
+						}
+					}
+				}
+				s.setElements(elements);
+
+				Iterator<Object> it = s.iterator();
+				assertEquals(RMIConnection.isRemoteObject(it), !prefetching);
+				List<Object> result = new ArrayList<>();
+				while (it.hasNext()) {
+					result.add(it.next());
+				}
+				assertFalse(it.hasNext());
+				assertException(NoSuchElementException.class, it::next);
+				assertEquals(result, elements);
+
+				List<Object> foreachresult = new ArrayList<>();
+				for (Object o : s) {
+					foreachresult.add(o);
+				}
+				assertEquals(foreachresult, elements);
+			}
+
+			//early termination only retrieves the first batch
+			s.setElements(new ArrayList<>(Arrays.asList(new Object[100])));
+			int startcount = s.getNextCallCount();
+			Iterator<Object> it = s.iterator();
+			it.next();
+			assertEquals(s.getNextCallCount() - startcount, prefetching ? BATCH_SIZE : 1);
+
+			Iterator<Object> failing = s.failingIterator(BATCH_SIZE * 2 + 3);
+			if (prefetching) {
+				//the elements of the successful batches are returned
+				for (int i = 0; i < BATCH_SIZE * 2; i++) {
+					assertEquals(failing.next(), i);
+				}
+			}
+			assertException(UnsupportedOperationException.class, () -> {
+				while (true) {
+					failing.next();
+				}
+			});
+		}
+	}
+
+}
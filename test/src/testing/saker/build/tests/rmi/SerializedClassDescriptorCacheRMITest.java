@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.TreeMap;
+
+import saker.rmi.annot.transfer.RMISerialize;
+import saker.rmi.connection.RMIConnection;
+import saker.rmi.connection.RMIOptions;
+import saker.rmi.connection.RMITestUtil;
+import saker.rmi.connection.RMIVariables;
+import saker.util.io.ResourceCloser;
+import testing.saker.SakerTest;
+import testing.saker.SakerTestCase;
+
+@SakerTest
+public class SerializedClassDescriptorCacheRMITest extends SakerTestCase {
+
+	public static class BaseData implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		protected int id;
+	}
+
+	public static class Data extends BaseData {
+		private static final long serialVersionUID = 1L;
+
+		private String name;
+		private Map<String, Integer> values = new TreeMap<>();
+		private Data next;
+	}
+
+	public interface Stub {
+		@RMISerialize
+		public Data echo(@RMISerialize Data d);
+	}
+
+	public static class Impl implements Stub {
+		@Override
+		public Data echo(Data d) {
+			Data result = new Data();
+			result.id = d.id + 1;
+			result.name = d.name;
+			result.values.putAll(d.values);
+			result.next = d;
+			return result;
+		}
+	}
+
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		runTestWithProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_2);
+		runTestWithProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_3);
+	}
+
+	@SuppressWarnings("try") // unused ResourceCloser
+	private void runTestWithProtocolVersion(short protocolversion) throws Exception {
+		RMIOptions baseoptions = new RMIOptions().maxStreamCount(1).classLoader(getClass().getClassLoader());
+		RMIConnection[] connections = RMITestUtil.createPipedConnection(baseoptions, baseoptions, protocolversion);
+		RMIConnection clientConnection = connections[0];
+		RMIConnection serverConnection = connections[1];
+		try (ResourceCloser closer = new ResourceCloser(clientConnection::closeWait, serverConnection::closeWait);
+				RMIVariables clientVariables = clientConnection.newVariables()) {
+			Stub s = (Stub) clientVariables.newRemoteInstance(Impl.class);
+			//call multiple times so the cached class descriptors are used after the first call
+			for (int i = 0; i < 5; i++) {
+				Data d = new Data();
+				d.id = i;
+				d.name = "name" + i;
+				d.values.put("key" + i, i);
+				Data result = s.echo(d);
+				assertEquals(result.id, i + 1);
+				assertEquals(result.name, "name" + i);
+				assertEquals(result.values.get("key" + i), i);
+				assertEquals(result.next.id, i);
+				assertEquals(result.next.next, null);
+			}
+		}
+	}
+
+}
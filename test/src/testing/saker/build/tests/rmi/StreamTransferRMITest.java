@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+import saker.rmi.annot.transfer.RMIWriter;
+import saker.rmi.connection.RMIConnection;
+import saker.rmi.connection.RMIOptions;
+import saker.rmi.connection.RMITestUtil;
+import saker.rmi.connection.RMIVariables;
+import saker.rmi.io.writer.StreamRMIObjectWriteHandler;
+import saker.util.io.ResourceCloser;
+import testing.saker.SakerTest;
+import testing.saker.SakerTestCase;
+
+@SakerTest
+public class StreamTransferRMITest extends SakerTestCase {
+	private static final int[] SIZES = { 0, 1, 1000, 64 * 1024, 64 * 1024 + 1, 300000 };
+
+	public interface Stub {
+		public byte[] readAll(@RMIWriter(StreamRMIObjectWriteHandler.class) InputStream is) throws IOException;
+
+		public boolean isRemote(@RMIWriter(StreamRMIObjectWriteHandler.class) InputStream is);
+
+		public void writeData(@RMIWriter(StreamRMIObjectWriteHandler.class) OutputStream os, int count)
+				throws IOException;
+
+		@RMIWriter(StreamRMIObjectWriteHandler.class)
+		public InputStream open(int count);
+	}
+
+	public static class Impl implements Stub {
+		@Override
+		public byte[] readAll(InputStream is) throws IOException {
+			try (InputStream in = is) {
+				return StreamTransferRMITest.readAll(in);
+			}
+		}
+
+		@Override
+		public boolean isRemote(InputStream is) {
+			return RMIConnection.isRemoteObject(is);
+		}
+
+		@Override
+		public void writeData(OutputStream os, int count) throws IOException {
+			try (OutputStream out = os) {
+				byte[] data = createData(count);
+				//write the first half byte by byte, the rest in a single call
+				int half = count / 2;
+				for (int i = 0; i < half; i++) {
+					out.write(data[i]);
+				}
+				out.write(data, half, count - half);
+			}
+		}
+
+		@Override
+		public InputStream open(int count) {
+			return new ByteArrayInputStream(createData(count));
+		}
+	}
+
+	private static class CloseTrackingInputStream extends ByteArrayInputStream {
+		protected boolean closed;
+
+		public CloseTrackingInputStream(byte[] buf) {
+			super(buf);
+		}
+
+		@Override
+		public void close() throws IOException {
+			closed = true;
+			super.close();
+		}
+	}
+
+	private static class FailingInputStream extends InputStream {
+		private int remaining;
+
+		public FailingInputStream(int remaining) {
+			this.remaining = remaining;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0) {
+				throw new IOException("failing stream");
+			}
+			--remaining;
+			return 0;
+		}
+	}
+
+	private static class PartiallyAvailableInputStream extends ByteArrayInputStream {
+		private final int availableCount;
+
+		public PartiallyAvailableInputStream(byte[] buf, int availableCount) {
+			super(buf);
+			this.availableCount = availableCount;
+		}
+
+		@Override
+		public synchronized int available() {
+			return Math.min(availableCount, super.available());
+		}
+	}
+
+	private static byte[] createData(int count) {
+		byte[] result = new byte[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = (byte) (i * 7 + 3);
+		}
+		return result;
+	}
+
+	private static byte[] readAll(InputStream is) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		for (int read; (read = is.read(buf)) > 0;) {
+			baos.write(buf, 0, read);
+		}
+		return baos.toByteArray();
+	}
+
+	@Override
+	@SuppressWarnings("try") // unused ResourceCloser
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		RMIOptions baseoptions = new RMIOptions().maxStreamCount(1).classLoader(getClass().getClassLoader());
+		RMIConnection[] connections = RMITestUtil.createPipedConnection(baseoptions, baseoptions,
+				(short) RMIConnection.PROTOCOL_VERSION_3);
+		RMIConnection clientConnection = connections[0];
+		RMIConnection serverConnection = connections[1];
+		try (ResourceCloser closer = new ResourceCloser(clientConnection::closeWait, serverConnection::closeWait);
+				RMIVariables clientVariables = clientConnection.newVariables()) {
+			Stub s = (Stub) clientVariables.newRemoteInstance(Impl.class);
+
+			assertFalse(s.isRemote(new ByteArrayInputStream(new byte[] { 1, 2, 3 })));
+
+			for (int size : SIZES) {
+				byte[] data = createData(size);
+
+				CloseTrackingInputStream in = new CloseTrackingInputStream(data);
+				assertTrue(Arrays.equals(s.readAll(in), data), "size: " + size);
+				//the stream is always closed by the remote endpoint
+				assertTrue(in.closed, "size: " + size);
+
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				s.writeData(out, size);
+				assertTrue(Arrays.equals(out.toByteArray(), data), "size: " + size);
+
+				try (InputStream opened = s.open(size)) {
+					assertFalse(RMIConnection.isRemoteObject(opened));
+					assertTrue(Arrays.equals(readAll(opened), data), "size: " + size);
+				}
+			}
+
+			//the failing streams have no available bytes, so they are read by the remote endpoint
+			assertException(IOException.class, () -> s.readAll(new FailingInputStream(100)));
+			assertException(IOException.class, () -> s.readAll(new FailingInputStream(100000)));
+
+			//the available bytes are inlined, the rest is read remotely
+			byte[] blockingdata = createData(1000);
+			assertTrue(Arrays.equals(s.readAll(new PartiallyAvailableInputStream(blockingdata, 10)), blockingdata));
+		}
+	}
+
+}
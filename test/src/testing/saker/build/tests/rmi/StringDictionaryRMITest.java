@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import saker.rmi.connection.RMIConnection;
+import saker.rmi.connection.RMIOptions;
+import saker.rmi.connection.RMITestUtil;
+import saker.rmi.connection.RMIVariables;
+import saker.util.io.ResourceCloser;
+import testing.saker.SakerTest;
+import testing.saker.SakerTestCase;
+
+@SakerTest
+public class StringDictionaryRMITest extends SakerTestCase {
+
+	public interface Stub {
+		public String echo(String s);
+
+		public Object[] echoArray(Object[] array);
+	}
+
+	public static class Impl implements Stub {
+		@Override
+		public String echo(String s) {
+			return s;
+		}
+
+		@Override
+		public Object[] echoArray(Object[] array) {
+			return array;
+		}
+	}
+
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		runTestWithProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_2, 4, 4);
+		runTestWithProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_3, 4, 4);
+		//the capacity limits the indices used by the writing endpoint as well
+		runTestWithProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_3, 4, 0);
+		runTestWithProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_3, 0, 4);
+		runTestWithProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_3, 2, 8);
+	}
+
+	@SuppressWarnings("try") // unused ResourceCloser
+	private void runTestWithProtocolVersion(short protocolversion, int clientcapacity, int servercapacity)
+			throws Exception {
+		RMIOptions clientoptions = new RMIOptions().maxStreamCount(1).classLoader(getClass().getClassLoader())
+				.stringDictionaryCapacity(clientcapacity);
+		RMIOptions serveroptions = new RMIOptions(clientoptions).stringDictionaryCapacity(servercapacity);
+		RMIConnection[] connections = RMITestUtil.createPipedConnection(clientoptions, serveroptions,
+				protocolversion);
+		RMIConnection clientConnection = connections[0];
+		RMIConnection serverConnection = connections[1];
+		try (ResourceCloser closer = new ResourceCloser(clientConnection::closeWait, serverConnection::closeWait);
+				RMIVariables clientVariables = clientConnection.newVariables()) {
+			Stub s = (Stub) clientVariables.newRemoteInstance(Impl.class);
+			for (int i = 0; i < 5; i++) {
+				assertEquals(s.echo("path/to/file"), "path/to/file");
+				assertEquals(s.echo("identifier"), "identifier");
+			}
+			//more strings than the capacity of the dictionary
+			for (int i = 0; i < 16; i++) {
+				assertEquals(s.echo("str" + i), "str" + i);
+				assertEquals(s.echo("str" + i), "str" + i);
+			}
+			Object[] array = { "path/to/file", "identifier", "path/to/file", "str0", "str15" };
+			assertTrue(Arrays.equals(s.echoArray(array), array));
+		}
+	}
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import saker.rmi.connection.RMIConnection;
+import saker.rmi.connection.RMIOptions;
+import saker.rmi.connection.RMITestUtil;
+import saker.rmi.connection.RMIVariables;
+import saker.util.classloader.ClassLoaderResolverRegistry;
+import saker.util.classloader.SingleClassLoaderResolver;
+import testing.saker.SakerTest;
+import testing.saker.build.tests.TestUtils;
+
+/**
+ * Tests that the proxy classes are not shared between the variables contexts if the proxy interfaces are loaded by
+ * unrelated classloaders.
+ */
+@SakerTest
+public class UnrelatedInterfaceProxyClassRMITest extends BaseVariablesRMITestCase {
+	public interface First {
+		public String first();
+	}
+
+	public interface Second {
+		public String second();
+	}
+
+	public static class Impl implements First, Second {
+		@Override
+		public String first() {
+			return "first";
+		}
+
+		@Override
+		public String second() {
+			return "second";
+		}
+	}
+
+	public interface Factory {
+		public Object create();
+	}
+
+	public static class FactoryImpl implements Factory {
+		@Override
+		public Object create() {
+			return new Impl();
+		}
+	}
+
+	private static class TwoParentClassLoader extends ClassLoader {
+		private final ClassLoader first;
+		private final ClassLoader second;
+
+		public TwoParentClassLoader(ClassLoader first, ClassLoader second) {
+			super(null);
+			this.first = first;
+			this.second = second;
+		}
+
+		@Override
+		protected Class<?> findClass(String name) throws ClassNotFoundException {
+			try {
+				return first.loadClass(name);
+			} catch (ClassNotFoundException e) {
+				return second.loadClass(name);
+			}
+		}
+	}
+
+	private ClassLoader clientFactoryClassLoader;
+
+	@Override
+	protected void runVariablesTestImpl() throws Exception {
+		Class<?> factoryimplclass = clientFactoryClassLoader.loadClass(FactoryImpl.class.getName());
+		try (RMIVariables othervariables = clientConnection.newVariables()) {
+			Object f1 = clientVariables.newRemoteInstance(factoryimplclass);
+			Object f2 = othervariables.newRemoteInstance(factoryimplclass);
+			//the factory interface is visible from a single classloader, the proxy is shared
+			assertIdentityEquals(f1.getClass(), f2.getClass());
+
+			Object o1 = f1.getClass().getMethod("create").invoke(f1);
+			Object o2 = f2.getClass().getMethod("create").invoke(f2);
+			//the interfaces are loaded by unrelated classloaders, the proxy is private to the variables
+			assertNotIdentityEquals(o1.getClass(), o2.getClass());
+			assertEquals(o1.getClass().getMethod("first").invoke(o1), "first");
+			assertEquals(o2.getClass().getMethod("second").invoke(o2), "second");
+
+			//the proxy class is still cached in the variables
+			Object o1again = f1.getClass().getMethod("create").invoke(f1);
+			assertIdentityEquals(o1.getClass(), o1again.getClass());
+		}
+	}
+
+	@Override
+	protected RMIConnection[] createConnections(RMIOptions baseoptions) throws Exception {
+		ClassLoaderResolverRegistry clientregistry = new ClassLoaderResolverRegistry();
+		ClassLoaderResolverRegistry serverregistry = new ClassLoaderResolverRegistry();
+
+		ClassLoader clientfirstcl = TestUtils.createClassLoaderForClasses(First.class);
+		ClassLoader clientsecondcl = TestUtils.createClassLoaderForClasses(Second.class);
+		clientFactoryClassLoader = TestUtils.createClassLoaderForClasses(
+				new TwoParentClassLoader(clientfirstcl, clientsecondcl), Factory.class, FactoryImpl.class);
+		clientregistry.register("first", new SingleClassLoaderResolver("first", clientfirstcl));
+		clientregistry.register("second", new SingleClassLoaderResolver("second", clientsecondcl));
+		clientregistry.register("factory", new SingleClassLoaderResolver("factory", clientFactoryClassLoader));
+
+		ClassLoader serverfirstcl = TestUtils.createClassLoaderForClasses(First.class);
+		ClassLoader serversecondcl = TestUtils.createClassLoaderForClasses(Second.class);
+		ClassLoader serverfactorycl = TestUtils.createClassLoaderForClasses(
+				new TwoParentClassLoader(serverfirstcl, serversecondcl), Factory.class, FactoryImpl.class, Impl.class);
+		serverregistry.register("first", new SingleClassLoaderResolver("first", serverfirstcl));
+		serverregistry.register("second", new SingleClassLoaderResolver("second", serversecondcl));
+		serverregistry.register("factory", new SingleClassLoaderResolver("factory", serverfactorycl));
+
+		RMIOptions clientopt = new RMIOptions(baseoptions).classResolver(clientregistry)
+				.nullClassLoader(RMIConnection.class.getClassLoader());
+		RMIOptions serveropt = new RMIOptions(baseoptions).classResolver(serverregistry)
+				.nullClassLoader(RMIConnection.class.getClassLoader());
+		return RMITestUtil.createPipedConnection(clientopt, serveropt);
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2020 Bence Sipka
+ *
+ * This program is free software: you can redistribute it and/or modify 
+ * it under the terms of the GNU General Public License as published by 
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package testing.saker.build.tests.rmi;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import saker.rmi.connection.RMIConnection;
+import saker.rmi.connection.RMIOptions;
+import saker.rmi.connection.RMITestUtil;
+import saker.rmi.connection.RMIVariables;
+import saker.util.io.ResourceCloser;
+import testing.saker.SakerTest;
+import testing.saker.SakerTestCase;
+
+@SakerTest
+public class VarIntEncodingRMITest extends SakerTestCase {
+	private static final int[] LENGTHS = { 0, 1, 127, 128, 16383, 16384, 20000 };
+	private static final int[] VALUES = { 0, 1, -1, 127, 128, Integer.MAX_VALUE, Integer.MIN_VALUE };
+
+	public interface Stub {
+		public int[] echo(int[] array);
+
+		public int echo(int value);
+
+		public Stub self();
+	}
+
+	public static class Impl implements Stub {
+		@Override
+		public int[] echo(int[] array) {
+			return array;
+		}
+
+		@Override
+		public int echo(int value) {
+			return value;
+		}
+
+		@Override
+		public Stub self() {
+			return new Impl();
+		}
+	}
+
+	@Override
+	public void runTest(Map<String, String> parameters) throws Throwable {
+		runTestWithProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_2);
+		runTestWithProtocolVersion((short) RMIConnection.PROTOCOL_VERSION_3);
+	}
+
+	@SuppressWarnings("try") // unused ResourceCloser
+	private void runTestWithProtocolVersion(short protocolversion) throws Exception {
+		RMIOptions baseoptions = new RMIOptions().maxStreamCount(1).classLoader(getClass().getClassLoader());
+		RMIConnection[] connections = RMITestUtil.createPipedConnection(baseoptions, baseoptions, protocolversion);
+		RMIConnection clientConnection = connections[0];
+		RMIConnection serverConnection = connections[1];
+		try (ResourceCloser closer = new ResourceCloser(clientConnection::closeWait, serverConnection::closeWait);
+				RMIVariables clientVariables = clientConnection.newVariables()) {
+			Stub s = (Stub) clientVariables.newRemoteInstance(Impl.class);
+			for (int len : LENGTHS) {
+				int[] array = new int[len];
+				for (int i = 0; i < len; i++) {
+					array[i] = i * 31 - len;
+				}
+				assertTrue(Arrays.equals(s.echo(array), array));
+			}
+			for (int v : VALUES) {
+				assertEquals(s.echo(v), v);
+			}
+			//create enough remote objects for the identifiers to exceed a single byte
+			for (int i = 0; i < 300; i++) {
+				Stub remote = s.self();
+				assertEquals(remote.echo(i), i);
+			}
+		}
+	}
+
+}
@@ -72,6 +72,10 @@ public class RMITestUtil {
 
 		result[0] = new RMIConnection(firstoptions, protocolversion);
 		result[1] = new RMIConnection(secondoptions, protocolversion);
+		if (protocolversion >= RMIConnection.PROTOCOL_VERSION_3) {
+			result[0].setRemoteClassDictionaryFingerprint(result[1].getClassDictionaryFingerprint());
+			result[1].setRemoteClassDictionaryFingerprint(result[0].getClassDictionaryFingerprint());
+		}
 
 		RMIStream[] initstreams = createPipedStreams(result);
 
@@ -163,6 +167,10 @@ public class RMITestUtil {
 		testProxyCreation(ReflectUtils.getInterfaces(c));
 	}
 
+	public static boolean isPregeneratedProxyValid(byte[] bytes, Set<Class<?>> interfaces) {
+		return RMIProxyClassCache.isPregeneratedProxyValid(bytes, interfaces);
+	}
+
 	public static void validateMethodProperties(Class<?> c) {
 		if (c == null) {
 			return;